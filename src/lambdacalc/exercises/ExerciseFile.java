@@ -259,10 +259,12 @@ public class ExerciseFile {
         
         DataOutputStream output = new DataOutputStream(stream);
         output.writeBytes("LAMBDA-UPENN"); // magic string
-        output.writeShort(2);        // file version format number
+        output.writeShort(3);        // file version format number
         output.flush();
         
-        output = new DataOutputStream( new java.util.zip.DeflaterOutputStream(stream));
+        // Since version 3, expressions and types are written in the compact
+        // format of ExprOutputStream.
+        output = new ExprOutputStream( new java.util.zip.DeflaterOutputStream(stream));
 
         output.writeUTF(title);
         if (studentName == null) {
@@ -316,9 +318,12 @@ public class ExerciseFile {
         if (input.readByte() != 'N') throw new ExerciseFileFormatException();
         
         short formatVersion = input.readShort();
-        if (formatVersion != 2) throw new ExerciseFileVersionException();
+        if (formatVersion != 2 && formatVersion != 3) throw new ExerciseFileVersionException();
         
-        input = new DataInputStream(new java.util.zip.InflaterInputStream(input));
+        if (formatVersion == 2)
+            input = new DataInputStream(new java.util.zip.InflaterInputStream(input));
+        else
+            input = new ExprInputStream(new java.util.zip.InflaterInputStream(input));
 
         title = input.readUTF();
         
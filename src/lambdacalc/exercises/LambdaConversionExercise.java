@@ -31,8 +31,10 @@
 package lambdacalc.exercises;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import lambdacalc.lf.MeaningBracketExpr;
 import lambdacalc.lf.MeaningEvaluationException;
@@ -55,6 +57,7 @@ public class LambdaConversionExercise extends Exercise implements HasIdentifierT
     
     private ArrayList steps = new ArrayList();
     private ArrayList steptypes = new ArrayList();
+    private HashMap stepIndex; // Integer alpha fingerprint => ArrayList of Integer step numbers, or null if not indexed
     
     private Expr lastAnswer;
     private int currentStep = 0;
@@ -99,7 +102,15 @@ public class LambdaConversionExercise extends Exercise implements HasIdentifierT
             int index, IdentifierTyper types) 
             throws SyntaxException, TypeEvaluationException {
         
-        this(ExpressionParser.parse(expr, parseOptions), index, types);
+        this(ExpressionParser.parseWithExplicitTypes(expr, parseOptions), parseOptions, index, types);
+    }
+    
+    private LambdaConversionExercise
+            (ExpressionParser.ParsedExpression parsed, ExpressionParser.ParseOptions parseOptions, 
+            int index, IdentifierTyper types) 
+            throws TypeEvaluationException {
+        
+        this(parsed.getExpression(), index, types);
         setParseSingleLetterIdentifiers(parseOptions.singleLetterIdentifiers);
         
         // If explicit types were assigned to identifiers in the expression,
@@ -107,12 +118,12 @@ public class LambdaConversionExercise extends Exercise implements HasIdentifierT
         // Note that since a variable can be used with different types in different
         // places, this doesn't guarantee that every identifier will be typed
         // according to a single set of conventions.
-        if (parseOptions.hasExplicitTypes()) {
+        if (parsed.hasExplicitTypes()) {
             //explicitTypes is a map from Strings to Identifiers
             this.types = this.types.cloneTyper(); //TODO Josh-- what does this line do? -Lucas
-            for (Iterator i = parseOptions.explicitTypes.keySet().iterator(); i.hasNext(); ) {
+            for (Iterator i = parsed.getExplicitTypes().keySet().iterator(); i.hasNext(); ) {
                 String name = (String)i.next();
-                Identifier info = (Identifier)parseOptions.explicitTypes.get(name);
+                Identifier info = (Identifier)parsed.getExplicitTypes().get(name);
                 this.types.addEntry(name, info instanceof Var, info.getType());
                 //types is a map from Strings to Types
             }
@@ -133,32 +144,85 @@ public class LambdaConversionExercise extends Exercise implements HasIdentifierT
             // we create this problem in the first place?
         }
         
+        // An expression without a normal form would otherwise be converted
+        // forever, while loading an exercise file or the scratch pad.
+        LambdaConversionSequence conversions = new LambdaConversionSequence(e, ReductionBudget.createDefault());
         while (true) {
             // Attempt to perform a lambda conversion on the expression.
-            Expr.LambdaConversionResult lcr = e.performLambdaConversion();
+            Expr.LambdaConversionResult lcr = conversions.next();
             
             // If there was nothing to do, we're done.
             if (lcr == null)
                 break;
             
-            // If an alphabetical variant was necessary, record that.
+            // If an alphabetical variant was necessary, record that. The
+            // conversion of the variant is already in lcr.result, so it
+            // need not be performed again.
             if (lcr.alphabeticalVariant != null) {
                 steptypes.add(ALPHAVARY);
-                e = lcr.alphabeticalVariant;
-            } else {
-                steptypes.add(BETAREDUCE);
-                e = lcr.result;
+                steps.add(lcr.alphabeticalVariant);
             }
-
-            steps.add(e);
+            
+            steptypes.add(BETAREDUCE);
+            steps.add(lcr.result);
         }
+        if (conversions.getStopReason() != null)
+            throw new ReductionLimitException(conversions.getStopReason());
+        e = conversions.getCurrent();
         
         if (e == expr) {
             steptypes.add(NOT_REDUCIBLE);
             steps.add(e);
         }
+        
+        indexSteps();
     }    
     
+    /**
+     * Indexes the steps by their alpha fingerprints (see
+     * Expr.getAlphaFingerprint), so that checkAnswer only compares an answer
+     * with the steps that could be alpha-equivalent to it. Steps that
+     * contain a GApp are not indexed, since a GApp can be equal to a
+     * variable with a different fingerprint.
+     */
+    private void indexSteps() {
+        stepIndex = new HashMap();
+        for (int i = 0; i < steps.size(); i++) {
+            Expr step = (Expr)steps.get(i);
+            if (step.containsGApp()) {
+                stepIndex = null;
+                return;
+            }
+            Integer fingerprint = Integer.valueOf(step.getAlphaFingerprint());
+            ArrayList matches = (ArrayList)stepIndex.get(fingerprint);
+            if (matches == null) {
+                matches = new ArrayList(1);
+                stepIndex.put(fingerprint, matches);
+            }
+            matches.add(Integer.valueOf(i));
+        }
+    }
+    
+    /**
+     * Gets the numbers of the steps, from the current step on and in order,
+     * that the answer may be alpha-equivalent to.
+     */
+    private List getCandidateSteps(Expr answer) {
+        ArrayList ret = new ArrayList();
+        if (stepIndex == null || answer.containsGApp()) {
+            for (int i = currentStep; i < steps.size(); i++)
+                ret.add(Integer.valueOf(i));
+            return ret;
+        }
+        ArrayList matches = (ArrayList)stepIndex.get(Integer.valueOf(answer.getAlphaFingerprint()));
+        if (matches != null) {
+            for (int i = 0; i < matches.size(); i++)
+                if (((Integer)matches.get(i)).intValue() >= currentStep)
+                    ret.add(matches.get(i));
+        }
+        return ret;
+    }
+    
     public String getExerciseText() {
         return expr.toString();
     }
@@ -185,6 +249,19 @@ public class LambdaConversionExercise extends Exercise implements HasIdentifierT
         return steptypes.get(0).equals(NOT_REDUCIBLE);
     }
 
+    /**
+     * Gets the options with which the answers to this exercise are parsed,
+     * including the limits for parsing what students type.
+     */
+    public ExpressionParser.ParseOptions getParseOptions() {
+        ExpressionParser.ParseOptions exprParseOpts = new ExpressionParser.ParseOptions();
+        exprParseOpts.ASCII = false;
+        exprParseOpts.singleLetterIdentifiers = isParseSingleLetterIdentifiers();
+        exprParseOpts.typer = types;
+        exprParseOpts.setAnswerLimits();
+        return exprParseOpts;
+    }
+
     /**
      * Parses an expression using the parser options of this exercise. Syntax errors
      * are left to be handled by the caller so it can position the text caret
@@ -196,13 +273,8 @@ public class LambdaConversionExercise extends Exercise implements HasIdentifierT
         Expr result;
         
     
-        ExpressionParser.ParseOptions exprParseOpts = new ExpressionParser.ParseOptions();
-        exprParseOpts.ASCII = false;
-        exprParseOpts.singleLetterIdentifiers = isParseSingleLetterIdentifiers();
-        exprParseOpts.typer = types;
-
         try {
-            result = ExpressionParser.parse(exprString, exprParseOpts);
+            result = ExpressionParser.parse(exprString, getParseOptions());
         } catch (BadCharacterException exception) {
             boolean parsedAsType = false;
             try {
@@ -267,7 +339,10 @@ public class LambdaConversionExercise extends Exercise implements HasIdentifierT
         // what we're expecting as the next answer, or some future answer
         // if the user gives something equaling a future answer but
         // notSoFast is true, then it's deemed an incorrect answer.
-        for (int matched_step = currentStep; matched_step < steps.size(); matched_step++) {
+        // Only the steps with the same alpha fingerprint as the answer can
+        // be alpha-equivalent to it.
+        for (Iterator i = getCandidateSteps(userAnswer).iterator(); i.hasNext(); ) {
+            int matched_step = ((Integer)i.next()).intValue();
             Expr correct_answer = (Expr)steps.get(matched_step);
             System.out.println("correct: " + correct_answer);
             System.out.println("user: " + userAnswer);
@@ -285,15 +360,16 @@ public class LambdaConversionExercise extends Exercise implements HasIdentifierT
                 // some action was taken, also checked above), and also an
                 // expression which now no longer needs further alphabetical
                 // variation in order to be beta reduced.
-                try {
-                    Expr.LambdaConversionResult lcr = userAnswer.performLambdaConversion();
-                    
-                    if (steptypes.get(matched_step).equals(ALPHAVARY)
-                        && lcr != null
-                        && lcr.alphabeticalVariant != null)
-                        continue; // continue stepping through the future expected answers -
-                                //maybe it matches a future step that is OK (it shouldn't)
-                } catch (TypeEvaluationException tee) {
+                if (steptypes.get(matched_step).equals(ALPHAVARY)) {
+                    try {
+                        Expr.LambdaConversionResult lcr = userAnswer.performLambdaConversion();
+                        
+                        if (lcr != null
+                            && lcr.alphabeticalVariant != null)
+                            continue; // continue stepping through the future expected answers -
+                                    //maybe it matches a future step that is OK (it shouldn't)
+                    } catch (TypeEvaluationException tee) {
+                    }
                 }
                 
                 currentStep = matched_step;
@@ -455,7 +531,7 @@ public class LambdaConversionExercise extends Exercise implements HasIdentifierT
      *    b) the user has removed an argument from the expression
      */
     private boolean didUserAttemptLambdaConversion(Expr prev_step, Expr answer) {
-        if (!(prev_step instanceof FunApp))
+        if (!(prev_step instanceof FunApp) || prev_step.hasParens())
             return false;
         
         ArrayList correctargs = getFunAppArgs(prev_step);
@@ -657,13 +733,12 @@ public class LambdaConversionExercise extends Exercise implements HasIdentifierT
         
         if (expr instanceof FunApp) {
             FunApp fa = (FunApp)expr;
-            if (fa.getFunc() instanceof Lambda)
+            if (fa.getFunc() instanceof Lambda && !fa.getFunc().hasParens())
                 convs++;
         }
         
-        java.util.List subexprs = expr.getSubExpressions();
-        for (int i = 0; i < subexprs.size(); i++)
-            convs += getNumberOfLambdaConversions((Expr)subexprs.get(i));
+        for (int i = 0; i < expr.arity(); i++)
+            convs += getNumberOfLambdaConversions(expr.child(i));
         
         return convs;
     }
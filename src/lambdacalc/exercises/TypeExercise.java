@@ -88,7 +88,9 @@ public class TypeExercise extends Exercise implements HasIdentifierTyper {
         } catch (BadCharacterException exception) {
             boolean parsedAsExpr = false;
             try {
-                ExpressionParser.parse(answer, new ExpressionParser.ParseOptions());
+                ExpressionParser.ParseOptions exprParseOpts = new ExpressionParser.ParseOptions();
+                exprParseOpts.setAnswerLimits();
+                ExpressionParser.parse(answer, exprParseOpts);
                 parsedAsExpr = true;
             } catch (SyntaxException ex2) {
             }
@@ -33,10 +33,15 @@
 package lambdacalc.gui;
 
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;   
 import java.io.Serializable;
+import java.util.concurrent.ExecutionException;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.*;
 
 import lambdacalc.logic.*;
@@ -49,8 +54,132 @@ public class LambdaEnabledTextField extends JTextField {
 
      private boolean isTempText = false;
     
+     /**
+      * How long to wait after the last edit before checking the text, in
+      * milliseconds, so that fast typing does not start a parse per key.
+      */
+     public static final int VALIDATION_DELAY = 250;
+     
+     private static final Highlighter.HighlightPainter ERROR_PAINTER
+             = new DefaultHighlighter.DefaultHighlightPainter(new Color(255, 180, 180));
+     
+     private ExpressionParser.ParseOptions validationOptions; // null if not validating
+     private final ExpressionParser.IncrementalParser validationParser
+             = new ExpressionParser.IncrementalParser();
+     private final javax.swing.Timer validationTimer;
+     private int validationGeneration = 0; // incremented on each edit, so stale results are dropped
+     private SyntaxException validationError; // null if none
+     private Object errorHighlight; // tag of the highlight of validationError, or null
+     
      public LambdaEnabledTextField() {
      	setFont(Util.getUnicodeFont(16));
+        
+        validationTimer = new javax.swing.Timer(VALIDATION_DELAY, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                startValidation();
+            }
+        });
+        validationTimer.setRepeats(false);
+        
+        getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { textChanged(); }
+            public void removeUpdate(DocumentEvent e) { textChanged(); }
+            public void changedUpdate(DocumentEvent e) { }
+        });
+     }
+     
+     /**
+      * Turns on checking the text for syntax errors as the user types,
+      * parsing it with the given options (within the limits set by
+      * ParseOptions.setAnswerLimits), or turns it off if options is null.
+      * The text is parsed in the background a short while after the
+      * last edit, and a syntax error is shown by highlighting the character
+      * where it was found and in the tool tip. The "validationError" property
+      * is fired whenever the error changes.
+      */
+     public void setValidationOptions(ExpressionParser.ParseOptions options) {
+         validationOptions = options;
+         textChanged();
+     }
+     
+     /**
+      * Gets the syntax error found in the text the last time it was checked,
+      * or null if there was none or the text is not being checked.
+      */
+     public SyntaxException getValidationError() {
+         return validationError;
+     }
+     
+     private void textChanged() {
+         validationGeneration++;
+         validationTimer.stop();
+         if (validationOptions == null || isTempText || getText().trim().length() == 0) {
+             setValidationError(null);
+             return;
+         }
+         validationTimer.restart();
+     }
+     
+     private void startValidation() {
+         if (validationOptions == null || isTempText) return;
+         // The worker gets its own copy of the options and their typer,
+         // since they may be changed here while it parses. What is typed
+         // here is not trusted, so it is parsed within the answer limits.
+         final ExpressionParser.ParseOptions options = validationOptions.copy();
+         options.setAnswerLimits();
+         final String text = getText();
+         final int generation = validationGeneration;
+         
+         new SwingWorker<SyntaxException, Void>() {
+             protected SyntaxException doInBackground() {
+                 try {
+                     validationParser.parse(text, options);
+                     return null;
+                 } catch (SyntaxException se) {
+                     return se;
+                 }
+             }
+             protected void done() {
+                 if (generation != validationGeneration) return; // edited since
+                 try {
+                     setValidationError(get());
+                 } catch (InterruptedException e) {
+                 } catch (ExecutionException e) {
+                     // not a syntax error but a bug in the parser: leave the
+                     // previous state alone rather than mark the text valid
+                     e.getCause().printStackTrace();
+                 }
+             }
+         }.execute();
+     }
+     
+     private void setValidationError(SyntaxException error) {
+         SyntaxException old = validationError;
+         validationError = error;
+         
+         if (errorHighlight != null) {
+             getHighlighter().removeHighlight(errorHighlight);
+             errorHighlight = null;
+         }
+         
+         if (error == null) {
+             setToolTipText(null);
+         } else {
+             setToolTipText(error.getMessage());
+             
+             // Highlight the character where the error was found, or the
+             // last one if it was found at the end of the text.
+             int length = getDocument().getLength();
+             int position = Math.min(error.getPosition(), length - 1);
+             if (position >= 0) {
+                 try {
+                     errorHighlight = getHighlighter().addHighlight(position, position + 1, ERROR_PAINTER);
+                 } catch (BadLocationException e) {
+                 }
+             }
+         }
+         
+         firePropertyChange("validationError", old, error);
      }
      
      public boolean isTempText() {
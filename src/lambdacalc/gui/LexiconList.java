@@ -115,6 +115,11 @@ public class LexiconList extends JPanel
         this.exercise = exercise;
         this.tewidget = widget;
         
+        if (exercise instanceof HasIdentifierTyper)
+            lambdaEditor.setValidationOptions(getParseOptions());
+        else
+            lambdaEditor.setValidationOptions(null);
+        
         tewidget.addSelectionListener(this);
         selectionChanged(null);
     }
@@ -257,18 +262,22 @@ public class LexiconList extends JPanel
             fireChangeMade();
     }
     
+    private ExpressionParser.ParseOptions getParseOptions() {
+        ExpressionParser.ParseOptions opts = new ExpressionParser.ParseOptions();
+        opts.ASCII = false;
+        opts.singleLetterIdentifiers = false; // TODO!
+        opts.typer = ((HasIdentifierTyper)exercise).getIdentifierTyper();
+        opts.setAnswerLimits();
+        return opts;
+    }
+    
     class AssignDenotationListener implements ActionListener {
         public void actionPerformed(ActionEvent e) {
             if (currentNode == null)
                 return;
             
-            ExpressionParser.ParseOptions opts = new ExpressionParser.ParseOptions();
-            opts.ASCII = false;
-            opts.singleLetterIdentifiers = false; // TODO!
-            opts.typer = ((HasIdentifierTyper)exercise).getIdentifierTyper();
-            
             try {
-                Expr ex = ExpressionParser.parse(lambdaEditor.getText(), opts);
+                Expr ex = ExpressionParser.parse(lambdaEditor.getText(), getParseOptions());
                 ex.getType(); // just checking if an exception is thrown
 
                 // Add the meaning to the lexicon for this exercise file if it's
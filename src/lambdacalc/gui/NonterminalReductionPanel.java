@@ -57,6 +57,7 @@ public class NonterminalReductionPanel extends javax.swing.JPanel {
     public void initialize(LambdaConversionExercise exercise, TreeExerciseWidget widget) {
         this.teWidget = widget;
         this.exercise = exercise;
+        txtUserAnswer.setValidationOptions(exercise.getParseOptions());
         tellGUIProblemChanged();
         if (exercise.isNotReducible())
             noSimplificationNeeded();
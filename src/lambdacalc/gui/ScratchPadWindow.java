@@ -476,6 +476,7 @@ public class ScratchPadWindow extends javax.swing.JFrame {
         // TODO maybe singleLetterIdentifiers option should be parametrized
         // and/or dependent on whatever the state of the main window is?
         exprParseOpts.typer = it;
+        exprParseOpts.setAnswerLimits();
         
         String line = txtEnterYourOwnProblem.getText().trim();
             if (!line.equals(txtEnterYourOwnProblem.getText())) {
@@ -593,6 +594,7 @@ public class ScratchPadWindow extends javax.swing.JFrame {
         switchOn(txtEnterYourOwnProblem);
         jButtonEnterProblem.setEnabled(true);
         jButtonCheckAnswer.setEnabled(false);
+        txtUserAnswer.setValidationOptions(null);
         txtUserAnswer.setText("");
         switchOff(txtUserAnswer);
         setRadioButtonsEnabled(true);
@@ -611,6 +613,12 @@ public class ScratchPadWindow extends javax.swing.JFrame {
         
         jButtonEnterProblem.setEnabled(true);
         jButtonCheckAnswer.setEnabled(true);
+        // Check lambda expressions as they are typed, but not types.
+        if (ex instanceof LambdaConversionExercise) {
+            txtUserAnswer.setValidationOptions(((LambdaConversionExercise) ex).getParseOptions());
+        } else {
+            txtUserAnswer.setValidationOptions(null);
+        }
         txtUserAnswer.setText("");
         setRadioButtonsEnabled(true);
         jButtonDoAnotherProblem.setEnabled(true);
@@ -390,6 +390,7 @@ public class TrainingWindow extends JFrame {
         txtUserAnswer.setEnabled(false);
         btnCheckAnswer.setEnabled(false);
 
+        txtUserAnswer.setValidationOptions(null);
         txtUserAnswer.setText("");
         txtFeedback.setText("");
 
@@ -559,6 +560,14 @@ public class TrainingWindow extends JFrame {
         lblDirections.setText(directions);
         lblDirections.setCaretPosition(0);
         
+        // Check lambda expressions as they are typed. Types are not
+        // checked, since the field would flag them as bad expressions.
+        if (ex instanceof LambdaConversionExercise) {
+            txtUserAnswer.setValidationOptions(((LambdaConversionExercise)ex).getParseOptions());
+        } else {
+            txtUserAnswer.setValidationOptions(null);
+        }
+        
         if (ex instanceof TypeExercise) { 
             btnTransfer.setEnabled(false);
             switchViewTo(TYPES_AND_CONVERSIONS);
@@ -109,6 +109,10 @@ public class TreeExerciseWidget extends JPanel {
      * shown on screen. The user may be able to step back and forward
      * through the simplification steps.
      *
+     * In God mode the simplification steps are computed lazily: exprs
+     * holds the steps computed so far, and pending computes the rest
+     * as hasNextStep() and getLastStep() ask for them.
+     *
      * When we create and remove meaning states from ltToMeaningState, we have
      * to also keep in sync the exprs vector here and the one in the Nonterminal
      * this is for (if it's for a nonterminal), so when we save and load the
@@ -119,6 +123,7 @@ public class TreeExerciseWidget extends JPanel {
         public Vector exprs = new Vector(); // of Expr objects, simplification steps
         public int curexpr = 0; // step currently shown on screen
         public String evaluationError; // error message if evaluation failed
+        private LambdaConversionSequence pending; // steps not computed yet, or null
         
         public MeaningState(String error) {
             evaluationError = error;
@@ -141,33 +146,79 @@ public class TreeExerciseWidget extends JPanel {
                 evaluationError = mee.getMessage();
             }
             
-            // When we're in God mode, we pre-simplify the expression so we know
-            // all of the steps in the simplification ahead of time. When not in
+            // When we're in God mode, we simplify the expression ourselves,
+            // computing the steps as they are needed. When not in
             // God mode, we stop immediately at the first step, after the freebie
             // above of taking away the meaning brackets. Additional methods
             // are provided for advancing the simplification state, which appends
             // simplification steps into this state.
-            if (!lambdacalc.Main.GOD_MODE) {
-                return;
-            }
-            while (true) {
-                try {
-                    Expr.LambdaConversionResult r = m.performLambdaConversion();
-                    if (r == null) {
-                      break;
-                    }
-                    m = r.result;
-                    exprs.add(m);
-                } catch (TypeEvaluationException tee) {
-                    evaluationError = tee.getMessage();
-                    return;
-                }
+            if (lambdacalc.Main.GOD_MODE) {
+                pending = new LambdaConversionSequence(m, createBudget());
             }
         }
         
         public MeaningState(Vector steps) {
             exprs = steps;
             curexpr = exprs.size() - 1;
+            if (lambdacalc.Main.GOD_MODE && !exprs.isEmpty()) {
+                // the saved steps may not have gone all the way
+                pending = new LambdaConversionSequence((Expr)exprs.lastElement(), createBudget());
+            }
+        }
+        
+        /**
+         * Creates the budget for the steps computed by pending. The steps
+         * are computed as the user asks for them, so only the number of
+         * steps and the size of the expression are limited, not the time.
+         */
+        private ReductionBudget createBudget() {
+            return new ReductionBudget(ReductionBudget.DEFAULT_MAX_STEPS, ReductionBudget.DEFAULT_MAX_SIZE, 0);
+        }
+        
+        /**
+         * Returns whether there is a step after the current one, computing
+         * it if necessary. If computing it fails, evaluationError is set.
+         */
+        public boolean hasNextStep() {
+            return curexpr < exprs.size() - 1 || computeNextStep();
+        }
+        
+        /**
+         * Computes all remaining steps and returns the index of the last one.
+         */
+        public int getLastStep() {
+            while (computeNextStep())
+                ;
+            return exprs.size() - 1;
+        }
+        
+        /**
+         * Discards the steps after the current one, including those not
+         * computed yet.
+         */
+        public void discardFutureSteps() {
+            exprs.setSize(curexpr + 1);
+            pending = null;
+        }
+        
+        private boolean computeNextStep() {
+            if (pending == null)
+                return false;
+            try {
+                Expr.LambdaConversionResult r = pending.next();
+                if (r == null) {
+                    if (pending.getStopReason() != null)
+                        evaluationError = new ReductionLimitException(pending.getStopReason()).getMessage();
+                    pending = null;
+                    return false;
+                }
+                exprs.add(r.result);
+                return true;
+            } catch (TypeEvaluationException tee) {
+                evaluationError = tee.getMessage();
+                pending = null;
+                return false;
+            }
         }
         
         public Expr getCurrentExpression() {
@@ -519,54 +570,67 @@ public class TreeExerciseWidget extends JPanel {
     String exportCurrentViewToLatex() {
         LFNode cur = this.getSelectedNode();
         if (cur == null) cur = this.lftree;
-        return  "\\documentclass{article}\n"
+        StringBuilder res = new StringBuilder();
+        res.append("\\documentclass{article}\n"
                 + "\\usepackage[a3paper,left=0in,landscape]{geometry}\n"
                 + "\\usepackage{qtree}\n"
                 + "\\def\\qtreepadding{3pt}\n"
                 + "\\begin{document}\n\n"
-                + "\\Tree\n"
-                + this.recursivelyLatexify(cur, 0)
-                + "\n\n\\end{document}\n";
+                + "\\Tree\n");
+        try {
+            this.recursivelyLatexify(cur, 0, res);
+        } catch (java.io.IOException e) {
+            throw new RuntimeException(e); // not reached since a StringBuilder does not throw it
+        }
+        res.append("\n\n\\end{document}\n");
+        return res.toString();
     }
     
-    private String recursivelyLatexify(LFNode cur, int indent) {
-        String res = "";
+    private void recursivelyLatexify(LFNode cur, int indent, StringBuilder res) throws java.io.IOException {
         if (cur instanceof Terminal) {
-            res += ((Terminal)cur).toLatexString(indent);
+            res.append(((Terminal)cur).toLatexString(indent));
         }
         else {
-            res += "[";
+            res.append("[");
             Nonterminal nt = (Nonterminal) cur;
-            JLabel meaningLabel = (JLabel)lfToMeaningLabel.get(cur);
             if (lfToMeaningState.containsKey(cur)) { // node has been evaluated
                 MeaningState ms = (MeaningState)lfToMeaningState.get(cur);
                 if (ms.evaluationError == null) { // there was an error
                     Expr expr = ms.getCurrentExpression();
-                    res += ".{";
+                    res.append(".{");
                     if (cur.getLabel() != null) {
-                        res += cur.getLabel() + " \\\\ ";
+                        res.append(cur.getLabel()).append(" \\\\ ");
                     }
-                    String type = "";
                     if (isTypesDisplayed()) {
+                        String type;
                         try {
                             type = (expr.getType().toLatexString());
                         } catch (TypeEvaluationException e) {
                             type = "\\emph{Type unknown}";
                         }
-                        res += "$" + type + "$ \\\\ ";
+                        res.append("$").append(type).append("$ \\\\ ");
                     }
-                    res += "$" + expr.toLatexString() + "$}";
+                    res.append("$");
+                    expr.render(res, Expr.LATEX);
+                    res.append("$}");
                 } else {  // error in evaluation
-                    res += ".{Problem!} ";
+                    res.append(".{Problem!} ");
                 }
             }
             for (int i = 0; i < nt.size(); i++) {
-                res += "\n" + (new String(new char[indent+2]).replace("\0", " "))
-                        + recursivelyLatexify((LFNode) nt.getChild(i), indent+2);
+                res.append("\n");
+                indent(res, indent+2);
+                recursivelyLatexify((LFNode) nt.getChild(i), indent+2, res);
             }
-            res += "\n" + (new String(new char[indent]).replace("\0", " ")) + "]";
+            res.append("\n");
+            indent(res, indent);
+            res.append("]");
         }
-        return res;
+    }
+    
+    private static void indent(StringBuilder res, int indent) {
+        for (int i = 0; i < indent; i++)
+            res.append(' ');
     }
 
 
@@ -707,7 +771,7 @@ public class TreeExerciseWidget extends JPanel {
                     moveTo(child);
                     return;
                 }
-                if (ms.curexpr < ms.exprs.size()-1) {
+                if (ms.hasNextStep()) {
                     // Child not simplified: move to the child.
                     moveTo(child);
                     return;
@@ -746,7 +810,7 @@ public class TreeExerciseWidget extends JPanel {
         
             // Move the simplification state to the last step.
             MeaningState ms = (MeaningState)lfToMeaningState.get(selectedNode);
-            ms.curexpr = ms.exprs.size()-1;
+            ms.curexpr = ms.getLastStep();
             updateNode(selectedNode);
             
             // Try again to move to the node we want to be at...
@@ -878,8 +942,8 @@ public class TreeExerciseWidget extends JPanel {
         
             // Skip ahead to fully reduced form.
             MeaningState ms = (MeaningState)lfToMeaningState.get(selectedNode);
-            if (ms.curexpr < ms.exprs.size()-1) {
-                ms.curexpr = ms.exprs.size()-1;
+            if (ms.hasNextStep()) {
+                ms.curexpr = ms.getLastStep();
                 updateNode(selectedNode);
                 canvas.invalidate();
             }
@@ -977,7 +1041,7 @@ public class TreeExerciseWidget extends JPanel {
           return false;
         }
         
-        return ms.curexpr == ms.exprs.size() - 1;
+        return !ms.hasNextStep() && ms.evaluationError == null;
     }
     
     public boolean isNodeFullyEvaluated(LFNode node) {
@@ -989,7 +1053,7 @@ public class TreeExerciseWidget extends JPanel {
         
         if (lambdacalc.Main.GOD_MODE) {
             // Has user simplified to the last step?
-            return ms.curexpr == ms.exprs.size() - 1;
+            return !ms.hasNextStep() && ms.evaluationError == null;
         } else {
             // Has user provided an expression that can no longer be simplified?
             // If a type evaluation error occurs, we'll just take that to mean
@@ -1042,7 +1106,7 @@ public class TreeExerciseWidget extends JPanel {
             // skip the meaning brackets state?
             MeaningState ms = (MeaningState)lfToMeaningState.get(node);
             if (ms != null && ms.evaluationError == null) {
-                ms.curexpr = ms.exprs.size() - 1;
+                ms.curexpr = ms.getLastStep();
                 updateNode(node);
                 canvas.invalidate();
             }
@@ -1071,7 +1135,7 @@ public class TreeExerciseWidget extends JPanel {
         // steps and discard "future" steps that haven't
         // been gotten to yet (only because the user may have taken a step
         // back by un-simplifying)
-        ms.exprs.setSize(ms.curexpr + 1);
+        ms.discardFutureSteps();
 
         // append the user's simplification to the end
         ms.exprs.add(parsedMeaning);
@@ -1109,7 +1173,7 @@ public class TreeExerciseWidget extends JPanel {
             MeaningState ms = (MeaningState)lfToMeaningState.get(parent);
             if (ms != null && ms.evaluationError == null) {
                 // Skip the first reduction step (bracket removal)
-                ms.curexpr = ms.exprs.size() - 1;
+                ms.curexpr = ms.getLastStep();
             }
             updateNode(parent);
             // Move up to parent, and repeat...
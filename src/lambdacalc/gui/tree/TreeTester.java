@@ -66,17 +66,20 @@ public class TreeTester extends javax.swing.JFrame {
         panel.setLayout(bl);
                 
         Expr expr = lfnode.getMeaning();
+        LambdaConversionSequence conversions = new LambdaConversionSequence(expr, ReductionBudget.createDefault());
         while (true) {
             JLabel line = new JLabel();
             line.setText(expr.toString());
             line.setFont(lambdacalc.gui.Util.getUnicodeFont(14));
             panel.add(line);
 
-            Expr.LambdaConversionResult r = expr.performLambdaConversion();
+            Expr.LambdaConversionResult r = conversions.next();
             if (r == null)
                 break;
             expr = r.result;
         }
+        if (conversions.getStopReason() != null)
+            throw new ReductionLimitException(conversions.getStopReason());
 
         treenode.setLabel(panel);
         
@@ -61,6 +61,8 @@ public class AssignmentFunction {
     }
 
     public Expr applyTo(Expr e) {
+        if (!e.containsGApp()) // nothing to assign
+            return e;
         return e.replaceAll(map);
     }
 
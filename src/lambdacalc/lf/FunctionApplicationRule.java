@@ -30,6 +30,7 @@ import lambdacalc.logic.AtomicType;
 import lambdacalc.logic.Binder;
 import lambdacalc.logic.CompositeType;
 import lambdacalc.logic.Expr;
+import lambdacalc.logic.FreshVarGenerator;
 import lambdacalc.logic.FunApp;
 import lambdacalc.logic.Lambda;
 import lambdacalc.logic.ProductType;
@@ -168,7 +169,7 @@ public class FunctionApplicationRule extends CompositionRule {
         FunApp fa = new FunApp(new MeaningBracketExpr(fun, g), new MeaningBracketExpr(app, g), alignments);
         if (!alignments.isEmpty()) {
             Map updates = new HashMap();
-            fa = (FunApp) fa.createAlphatypicalVariant(alignments, fa.getAllVars(), updates);
+            fa = (FunApp) fa.createAlphatypicalVariant(alignments, new FreshVarGenerator(fa), updates);
         }
         return fa;
     }
@@ -26,6 +26,7 @@ import java.util.Map;
 import lambdacalc.gui.TrainingWindow;
 import lambdacalc.logic.CompositeType;
 import lambdacalc.logic.Expr;
+import lambdacalc.logic.FreshVarGenerator;
 import lambdacalc.logic.FunApp;
 import lambdacalc.logic.IdentifierTyper;
 import lambdacalc.logic.Lambda;
@@ -192,12 +193,12 @@ public class FunctionCompositionRule extends CompositionRule {
       Map updates = new HashMap();
 
       internalFA = (FunApp) internalFA.createAlphatypicalVariant(
-          alignments, internalFA.getAllVars(), updates
+          alignments, new FreshVarGenerator(internalFA), updates
       );
       
       Map updates2 = new HashMap();
       externalFA = (FunApp) externalFA.createAlphatypicalVariant(
-          alignments, externalFA.getAllVars(), updates
+          alignments, new FreshVarGenerator(externalFA), updates
       );
     }
 
@@ -25,6 +25,7 @@ package lambdacalc.lf;
 import java.util.HashMap;
 import java.util.Map;
 import lambdacalc.gui.TrainingWindow;
+import lambdacalc.logic.FreshVarGenerator;
 import lambdacalc.logic.Type;
 import lambdacalc.logic.CompositeType;
 import lambdacalc.logic.ConstType;
@@ -243,7 +244,7 @@ public class IntensionalFunctionApplicationRule extends CompositionRule {
         FunApp fa = new FunApp(new MeaningBracketExpr(fun, g), app2, alignments);
         if (!alignments.isEmpty()) {
             Map updates = new HashMap();
-            fa = (FunApp) fa.createAlphatypicalVariant(alignments, fa.getAllVars(), updates);
+            fa = (FunApp) fa.createAlphatypicalVariant(alignments, new FreshVarGenerator(fa), updates);
         }
         return fa;
         
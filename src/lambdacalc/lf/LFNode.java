@@ -185,7 +185,7 @@ public abstract class LFNode {
     
     public String toHTMLString() {
         if (getLabel() != null) {
-            String result = escapeHTML(getLabel());
+            String result = Expr.escapeHTML(getLabel());
             int caret = result.indexOf('^');
             if (caret != -1)
                 result = result.substring(0, caret) + "<sup>" + result.substring(caret+1) + "</sup>";
@@ -199,11 +199,6 @@ public abstract class LFNode {
         }
     }
 
-    
-    private String escapeHTML(String text) {
-        // remember first arg to replaceAll is a regular expression
-        return text.replaceAll("&", "&amp;").replaceAll("<", "&lt;").replaceAll(">", "&gt;");
-    }
    
     public abstract void guessRules(RuleList rules, boolean nonBranchingOnly);
     
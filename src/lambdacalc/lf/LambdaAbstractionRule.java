@@ -28,12 +28,12 @@
 
 package lambdacalc.lf;
 
-import java.util.HashSet;
-import java.util.Set;
 import lambdacalc.gui.TrainingWindow;
 import lambdacalc.logic.Expr;
+import lambdacalc.logic.FreshVarGenerator;
 import lambdacalc.logic.IdentifierTyper;
 import lambdacalc.logic.Lambda;
+import lambdacalc.logic.ReductionBudget;
 import lambdacalc.logic.Type;
 import lambdacalc.logic.TypeEvaluationException;
 import lambdacalc.logic.Var;
@@ -126,7 +126,8 @@ public class LambdaAbstractionRule extends CompositionRule {
                 Expr bodyMeaning = body.getMeaning();
                 try { bodyMeaning = 
                         MeaningBracketExpr.
-                        replaceAllMeaningBrackets(bodyMeaning).simplifyFully(); 
+                        replaceAllMeaningBrackets(bodyMeaning)
+                        .simplifyFully(ReductionBudget.createDefault()).getResult(); 
                 } catch (TypeEvaluationException e) {
                 } // shouldn't throw since getMeaning worked
                 var = bodyMeaning.createFreshVar(var);
@@ -144,14 +145,14 @@ public class LambdaAbstractionRule extends CompositionRule {
             // expressions within us will be sure to not create independent variables
             // that conflict with the one we choose.
 
-            Set variablesInUse = new HashSet(g.values());
+            FreshVarGenerator variablesInUse = new FreshVarGenerator(g.values());
 
-            var = Expr.createFreshVar(typingConventions.getVarForType(type, false),
-                    variablesInUse);
+            var = typingConventions.getVarForType(type, false);
             // fallback: use symbol x if we don't know what else to use:
             if (var == null) {
-                var = Expr.createFreshVar(Var.X, variablesInUse);
+                var = Var.X;
             }
+            var = variablesInUse.createFreshVar(var);
         }
         
         // Copy the assignment function being given to us and add the
@@ -21,9 +21,9 @@
 
 package lambdacalc.lf;
 
-import java.util.HashSet;
 import java.util.Iterator;
 import lambdacalc.logic.Expr;
+import lambdacalc.logic.FreshVarGenerator;
 import lambdacalc.logic.Var;
 
 public class LexicalTerminal extends Terminal {
@@ -55,7 +55,7 @@ public class LexicalTerminal extends Terminal {
         // may have a variable accidentally bound from above.
         
         // Collect a list of all variables to avoid.
-        HashSet varsInUse = new HashSet(this.meaning.getAllVars());
+        FreshVarGenerator varsInUse = new FreshVarGenerator(this.meaning);
         for (Iterator i = g.values().iterator(); i.hasNext();)
             varsInUse.add((Var)i.next());
         
@@ -65,7 +65,7 @@ public class LexicalTerminal extends Terminal {
         for (Iterator i = g.values().iterator(); i.hasNext(); ) {
             Var v = (Var)i.next();
             if (m.getAllVars().contains(v)) {
-                Var v2 = Expr.createFreshVar(v, varsInUse);
+                Var v2 = varsInUse.createFreshVar(v);
                 m = m.replace(v, v2);
                 varsInUse.add(v2);
             }
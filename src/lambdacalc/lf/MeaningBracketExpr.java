@@ -53,6 +53,10 @@ public class MeaningBracketExpr extends Expr {
         if (g == null)
             throw new IllegalArgumentException("g cannot be null");
     }
+    
+    public int getKind() {
+        return ExprKind.MEANING_BRACKETS;
+    }
 
     /**
      * @param g may be null
@@ -75,7 +79,7 @@ public class MeaningBracketExpr extends Expr {
         return g;
     }
     
-    protected String toString(int mode) {
+    protected void renderWithoutParens(Appendable out, int mode) throws java.io.IOException {
         String label = node.getLabel();
         if (label != null) {
             if (node.hasIndex()) {
@@ -125,10 +129,17 @@ public class MeaningBracketExpr extends Expr {
 //            }
 //        }
         
-        return label;
+        out.append(label);
     }
 
-    public Type getType() throws TypeEvaluationException {
+    /**
+     * Returns true since the type depends on the current state of the tree.
+     */
+    protected boolean hasVolatileType() {
+        return true;
+    }
+    
+    protected Type computeType() throws TypeEvaluationException {
         try {
             return evaluate().getType();
         } catch (MeaningEvaluationException mee) {
@@ -168,7 +179,7 @@ public class MeaningBracketExpr extends Expr {
             
             e = replaceAllMeaningBrackets(e);
             
-            e = e.simplifyFully();
+            e = e.simplifyFully(ReductionBudget.createDefault()).getCompleteResult();
             
             if (g != null)
                 e = g.applyTo(e);
@@ -177,18 +188,19 @@ public class MeaningBracketExpr extends Expr {
         }
     }
     
-    protected boolean equals(Expr e, boolean collapseBoundVars, Map thisMap, Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap) {
+    protected boolean equalsNode(Expr e, boolean collapseBoundVars, BoundVarMap boundVars, boolean collapseAllVars, java.util.Map freeVarMap) {
         return (e instanceof MeaningBracketExpr) && (node == ((MeaningBracketExpr)e).node);
     }
     
     public static boolean hasMeaningBrackets(Expr expr) {
-        ArrayList objs = new ArrayList();
-        findMeaningBrackets(expr, objs);
-        return objs.size() > 0;
+        return expr.containsMeaningBrackets();
     }
     
     public static Expr replaceAllMeaningBrackets(Expr expr) 
     throws TypeEvaluationException, MeaningEvaluationException {
+        if (!expr.containsMeaningBrackets())
+            return expr;
+        
         // First get a list of all MeaningBracketExpr objects in expr.
         ArrayList objs = new ArrayList();
         findMeaningBrackets(expr, objs);
@@ -206,10 +218,9 @@ public class MeaningBracketExpr extends Expr {
     private static void findMeaningBrackets(Expr expr, ArrayList objs) {
         if (expr instanceof MeaningBracketExpr) {
             objs.add(expr);
-        } else {
-            List subexprs = expr.getSubExpressions();
-            for (Iterator i = subexprs.iterator(); i.hasNext(); )
-                findMeaningBrackets((Expr)i.next(), objs);
+        } else if (expr.containsMeaningBrackets()) {
+            for (int i = 0; i < expr.arity(); i++)
+                findMeaningBrackets(expr.child(i), objs);
         }
     }
     
@@ -309,37 +320,56 @@ public class MeaningBracketExpr extends Expr {
         }
     }
     
-    public int hashCode() {
+    protected int computeHashCode() {
         return node.hashCode();
     }
     
+    protected int computeAlphaFingerprint(BoundVarMap boundVars) {
+        return node.hashCode();
+    }
+    
+    protected boolean isSameNode(Expr other) {
+        MeaningBracketExpr m = (MeaningBracketExpr)other;
+        return node == m.node && g == m.g && topDown == m.topDown;
+    }
+    
     protected Set getVars(boolean unboundOnly) {
         return new HashSet();
     }
 
-    protected Expr performLambdaConversion1(Set accidentalBinders) throws TypeEvaluationException {
+    protected int getNodeFlags() {
+        return MEANING_BRACKETS;
+    }
+    
+    protected Expr computeLambdaConversion1(Set accidentalBinders, ExprTransformation conversion) throws TypeEvaluationException {
         return null;
     }
        
-    protected Expr performLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders) throws TypeEvaluationException {
+    protected Expr computeLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders, ExprTransformation substitution) throws TypeEvaluationException {
         return this;
     }
     
     public List getSubExpressions() {
-        return new ArrayList();
+        return Collections.EMPTY_LIST;
+    }
+
+    public int arity() {
+        return 0;
     }
     
-    public Expr createFromSubExpressions(List subExpressions)
-     throws IllegalArgumentException {
-        return new MeaningBracketExpr(node, g);
+    public Expr child(int index) {
+        throw new IndexOutOfBoundsException("A meaning bracket has no subexpressions");
     }
     
+    protected Expr createWithChild(int index, Expr child) {
+        throw new IndexOutOfBoundsException("A meaning bracket has no subexpressions");
+    }
     
-    protected Expr createAlphabeticalVariant(Set bindersToChange, Set variablesInUse, Map updates) {
+    protected Expr computeAlphabeticalVariant(Set bindersToChange, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
         return this;
     }
     
-    public Expr createAlphatypicalVariant(HashMap<Type,Type> alignments, Set variablesInUse, Map updates) {
+    protected Expr computeAlphatypicalVariant(HashMap<Type,Type> alignments, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
         try {
             return this.evaluate().createAlphatypicalVariant(alignments, variablesInUse, updates);
         } catch (TypeEvaluationException ex) {
@@ -350,7 +380,7 @@ public class MeaningBracketExpr extends Expr {
         return this;
     }
     
-    public void writeToStream(java.io.DataOutputStream output) throws java.io.IOException {
+    protected void writeNodeToStream(java.io.DataOutputStream output) throws java.io.IOException {
         throw new java.io.IOException("This class cannot be serialized.");
     }
    
@@ -34,6 +34,7 @@ import lambdacalc.gui.TrainingWindow;
 import lambdacalc.logic.And;
 import lambdacalc.logic.CompositeType;
 import lambdacalc.logic.ConstType;
+import lambdacalc.logic.FreshVarGenerator;
 import lambdacalc.logic.Type;
 import lambdacalc.logic.Expr;
 import lambdacalc.logic.ExpressionParser;
@@ -142,9 +143,9 @@ public class PredicateModificationRule extends CompositionRule {
         
         if (!typeMatches.isEmpty()) {
             Map updates = new HashMap();
-            leftFA = (FunApp) leftFA.createAlphatypicalVariant(typeMatches, leftFA.getAllVars(), updates);
+            leftFA = (FunApp) leftFA.createAlphatypicalVariant(typeMatches, new FreshVarGenerator(leftFA), updates);
             Map updates2 = new HashMap();
-            rightFA = (FunApp) rightFA.createAlphatypicalVariant(typeMatches, leftFA.getAllVars(), updates2);
+            rightFA = (FunApp) rightFA.createAlphatypicalVariant(typeMatches, new FreshVarGenerator(leftFA), updates2);
         }
         
         And and = new And(leftFA, rightFA);
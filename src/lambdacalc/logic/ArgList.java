@@ -48,11 +48,15 @@ public class ArgList extends NAry {
         if (innerExpressions.length <= 1) throw new IllegalArgumentException("ArgList must have more than one element.");
     }
     
+    public int getKind() {
+        return ExprKind.ARG_LIST;
+    }
+    
     protected String getOpenSymbol() { return "("; }
 
     protected String getCloseSymbol() { return ")"; }
     
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         Type[] t = new Type[getArity()];
         for (int i = 0; i < t.length; i++)
             t[i] = getElements()[i].getType();
@@ -63,9 +67,5 @@ public class ArgList extends NAry {
      throws IllegalArgumentException {
         return new ArgList(subExpressions);
     }
-    
-    ArgList(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
-    }
 
 }
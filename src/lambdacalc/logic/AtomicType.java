@@ -49,6 +49,11 @@ public abstract class AtomicType extends Type {
     public String toString() {
         return String.valueOf(this.symbol);
     }
+    
+    public boolean isIdenticalTo(Type t) {
+        return t != null && t.getClass() == getClass()
+                && ((AtomicType)t).getSymbol() == getSymbol();
+    }
 
     
     public String toShortString() {
@@ -60,7 +65,7 @@ public abstract class AtomicType extends Type {
     }
     
     protected boolean equals(Type t) {
-        if (t instanceof AtomicType) {
+        if (t.isAtomic()) {
             AtomicType at = (AtomicType) t;
             return (this.getSymbol() == at.getSymbol());
         } else { 
@@ -72,9 +77,8 @@ public abstract class AtomicType extends Type {
         return String.valueOf(symbol).hashCode(); // better way of doing this?
     }
     
-    public void writeToStream(java.io.DataOutputStream output) throws java.io.IOException {
-        output.writeUTF("AtomicType");
-        output.writeShort(0); // data format version
+    protected void writeNodeToStream(java.io.DataOutputStream output) throws java.io.IOException {
+        writeNodeHeader(output, "AtomicType");
         output.writeChar(symbol);
     }
     
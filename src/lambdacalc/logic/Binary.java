@@ -69,22 +69,8 @@ public abstract class Binary extends Expr {
         return right;
     }
     
-    protected boolean equals(Expr e, boolean useMaps, Map thisMap, Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap) {
-
-        // ignore parentheses for equality test
-        e = e.stripOutermostParens();
-
-        if (e instanceof Binary) {
-            return this.equals((Binary) e, useMaps, thisMap, otherMap, collapseAllVars, freeVarMap);
-        } else {
-            return false;
-        }
-    }
-    
-    private boolean equals(Binary b, boolean useMaps, Map thisMap, Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap) {
-        return equalsHelper(b)
-                && this.getLeft().equals(b.getLeft(), useMaps, thisMap, otherMap, collapseAllVars, freeVarMap)
-                && this.getRight().equals(b.getRight(), useMaps, thisMap, otherMap, collapseAllVars, freeVarMap);
+    protected boolean equalsNode(Expr e, boolean useMaps, BoundVarMap boundVars, boolean collapseAllVars, java.util.Map freeVarMap) {
+        return e instanceof Binary && equalsHelper((Binary) e);
     }
     
     protected boolean equalsHelper(Binary b) {
@@ -93,8 +79,8 @@ public abstract class Binary extends Expr {
 
     protected Set getVars(boolean unboundOnly) {
         HashSet ret = new HashSet();
-        ret.addAll(getLeft().getVars(unboundOnly));
-        ret.addAll(getRight().getVars(unboundOnly));
+        ret.addAll(getLeft().getVarSet(unboundOnly));
+        ret.addAll(getRight().getVarSet(unboundOnly));
         return ret;
     }
     
@@ -117,63 +103,57 @@ public abstract class Binary extends Expr {
         return result;
     }
     
-    /**
-     * Creates a new binary expression using all the subexpressions given.
-     *
-     * @param subExpressions the list of subexpressions
-     * @throws IllegalArgumentException if the list does not contain exactly two
-     * subexpressions
-     * @return a new expression of the same runtime type as this
-     */
-    public Expr createFromSubExpressions(List subExpressions)
-     throws IllegalArgumentException {
-        if (subExpressions.size() != 2) 
-            throw new IllegalArgumentException("List does not contain exactly two arguments");
-        return create((Expr) subExpressions.get(0), (Expr) subExpressions.get(1));
+    public int arity() {
+        return 2;
     }
     
-    protected Expr createAlphabeticalVariant(Set bindersToChange, Set variablesInUse, Map updates) {
-        return create(getLeft().createAlphabeticalVariant(bindersToChange, variablesInUse, updates),
-                getRight().createAlphabeticalVariant(bindersToChange, variablesInUse, updates));
+    public Expr child(int index) {
+        switch (index) {
+            case 0: return getLeft();
+            case 1: return getRight();
+            default: throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+    }
+    
+    protected Expr createWithChild(int index, Expr child) {
+        if (child(index) == child)
+            return this;
+        if (index == 0)
+            return create(child, getRight());
+        else
+            return create(getLeft(), child);
     }
     
-    public Expr createAlphatypicalVariant(HashMap<Type,Type> alignments, Set variablesInUse, Map updates) {
-        return create(getLeft().createAlphatypicalVariant(alignments, variablesInUse, updates),
-                getRight().createAlphatypicalVariant(alignments, variablesInUse, updates));
+    protected Expr computeAlphabeticalVariant(Set bindersToChange, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
+        variant.vary(0, getLeft(), variablesInUse, updates);
+        variant.vary(1, getRight(), variablesInUse, updates);
+        return this;
     }
     
-    protected Expr performLambdaConversion1(Set accidentalBinders) throws TypeEvaluationException {
+    protected Expr computeAlphatypicalVariant(HashMap<Type,Type> alignments, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
+        variant.vary(0, getLeft(), variablesInUse, updates);
+        variant.vary(1, getRight(), variablesInUse, updates);
+        return this;
+    }
+    
+    protected Expr computeLambdaConversion1(Set accidentalBinders, ExprTransformation conversion) throws TypeEvaluationException {
         // We're looking for a lambda to convert. If we can do a conversion on the left,
         // don't do a conversion on the right!
-        Expr a = getLeft().performLambdaConversion1(accidentalBinders);
-        if (a != null)
-            return create(a, getRight());
-        
-        Expr b = getRight().performLambdaConversion1(accidentalBinders);
-        if (b != null)
-            return create(getLeft(), b);
-        
-        return null;
+        conversion.convert(0, getLeft());
+        conversion.convert(1, getRight());
+        return this;
     }    
 
-    protected Expr performLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders) throws TypeEvaluationException {
-        // We're in the scope of a lambda conversion. Just recurse.
-        return create(getLeft().performLambdaConversion2(var, replacement, binders, accidentalBinders),
-                getRight().performLambdaConversion2(var, replacement, binders, accidentalBinders));
+    protected Expr computeLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders, ExprTransformation substitution) throws TypeEvaluationException {
+        if (!getFreeVarSymbols().get(var.getSymbolId())) return this; // var does not occur free in here
+        // We're in the scope of a lambda conversion. Just go on into both sides.
+        substitution.substitute(0, getLeft());
+        substitution.substitute(1, getRight());
+        return this;
     }
 
-    public void writeToStream(java.io.DataOutputStream output) throws java.io.IOException {
-        output.writeUTF(getClass().getName());
-        output.writeShort(0); // data format version
-        left.writeToStream(output);
-        right.writeToStream(output);
-    }
-    
-    Binary(java.io.DataInputStream input) throws java.io.IOException {
-        // the class name has already been read
-        if (input.readShort() != 0) throw new java.io.IOException("Invalid data."); // future version?
-        left = Expr.readFromStream(input);
-        right = Expr.readFromStream(input);
+    protected void writeNodeToStream(java.io.DataOutputStream output) throws java.io.IOException {
+        writeNodeHeader(output, 0);
     }
 
 }
@@ -72,43 +72,30 @@ public abstract class Binder extends Expr implements VariableBindingExpr {
         this.hasPeriod = hasPeriod;
     }
     
-    protected boolean equals(Expr e, boolean useMaps, Map thisMap, Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap) {
-        
-        // ignore parentheses for equality test
-        e = e.stripOutermostParens();
-
-        if (e instanceof Binder) {
-            return this.equals((Binder) e, useMaps, thisMap, otherMap, collapseAllVars, freeVarMap);
-        } else {
-            return false;           
-        }
+    protected boolean equalsNode(Expr e, boolean useMaps, BoundVarMap boundVars, boolean collapseAllVars, java.util.Map freeVarMap) {
+        // same type of binder; lambda, exists, all...
+        return this.getClass() == e.getClass();
     }
     
     
-    public int hashCode() {
-        return this.getVariable().hashCode() ^ super.hashCode();
-    }    
+    protected boolean isSameNode(Expr other) {
+        return hasPeriod() == ((Binder)other).hasPeriod();
+    }
     
-    private boolean equals(Binder b, boolean useMaps, Map thisMap, Map otherMap, boolean collapseAllVars, Map freeVarMap) {
-        if (useMaps) {
-            thisMap = (thisMap == null) ? new HashMap() : new HashMap(thisMap);
-            otherMap = (otherMap == null) ? new HashMap() :  new HashMap(otherMap);
-
-            // this represents a new fresh variable that both sides'
-            // variables are equated with
-            Object freshObj = new Object();
-
-            // map both sides' variables to the new fresh variable
-            thisMap.put(this.getVariable(), freshObj);
-            otherMap.put(b.getVariable(), freshObj);
-        }
+    protected boolean compareSubExpressions(Expr e, boolean useMaps, BoundVarMap boundVars, boolean collapseAllVars, Map freeVarMap, ExprComparison comparison) {
+        Binder b = (Binder) e;
         
-        return (this.getClass() == b.getClass()) // same type of binder; lambda, exists, all...
-             && (useMaps || this.getVariable().equals(b.getVariable())) // if not using maps, then variables must match
-             && this.getInnerExpr().equals(b.getInnerExpr(),
-                    useMaps, thisMap, otherMap, collapseAllVars, freeVarMap);
+        if (!useMaps) { // if not using maps, then variables must match
+            if (!this.getVariable().equals(b.getVariable()))
+                return false;
+        } else {
+            // equate both sides' variables for the scope of the binders
+            comparison.bind(boundVars, this.getVariable(), b.getVariable());
+        }
+        comparison.compare(this.getInnerExpr(), b.getInnerExpr(),
+                useMaps, boundVars, collapseAllVars, freeVarMap);
+        return true;
     }
-
     
     /**
      * Gets the unicode symbol associated with the binder.
@@ -136,21 +123,26 @@ public abstract class Binder extends Expr implements VariableBindingExpr {
         return result;
     }
     
-    /**
-     * Creates a new Binder  using all the subexpressions given, taking the
-     * value of the hasPeriod argument from this instance
-     *
-     * @param subExpressions the list of subexpressions
-     * @throws IllegalArgumentException if the list does not contain exactly two
-     * subexpressions 
-     * @return a new expression of the same runtime type as this
-     */
-    public Expr createFromSubExpressions(List subExpressions)
-     throws IllegalArgumentException {
-        if (subExpressions.size() != 2) 
-            throw new IllegalArgumentException("List does not contain exactly two arguments");
-        return create((Identifier) subExpressions.get(0), (Expr) subExpressions.get(1));
-    }    
+    public int arity() {
+        return 2;
+    }
+    
+    public Expr child(int index) {
+        switch (index) {
+            case 0: return getVariable();
+            case 1: return getInnerExpr();
+            default: throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+    }
+    
+    protected Expr createWithChild(int index, Expr child) {
+        if (child(index) == child)
+            return this;
+        if (index == 0)
+            return create((Identifier) child, getInnerExpr());
+        else
+            return create(getVariable(), child);
+    }
     
     /**
      * Gets the variable bound by the identifier.
@@ -175,7 +167,7 @@ public abstract class Binder extends Expr implements VariableBindingExpr {
     }
     
     protected Set getVars(boolean unboundOnly) {
-        Set ret = getInnerExpr().getVars(unboundOnly);
+        Set ret = new HashSet(getInnerExpr().getVarSet(unboundOnly));
         if (unboundOnly)
             ret.remove(getVariable());
         else
@@ -193,51 +185,47 @@ public abstract class Binder extends Expr implements VariableBindingExpr {
             throw new ConstInsteadOfVarException("The symbols " + Lambda.SYMBOL + ", " + Exists.SYMBOL + ", and " + ForAll.SYMBOL + " must be followed by a variable, but '" + getVariable() + "' is a constant.");
     }
 
-    protected Expr performLambdaConversion1(Set accidentalBinders) throws TypeEvaluationException {
+    protected Expr computeLambdaConversion1(Set accidentalBinders, ExprTransformation conversion) throws TypeEvaluationException {
         // We're looking for a lambda to convert, but even if this is a lambda, we don't
         // do anything special here. That's handled in FunApp.
-        
-        Expr inside = getInnerExpr().performLambdaConversion1(accidentalBinders);
-        
-        if (inside == null) // nothing happened, return null
-            return null;
-        
-        return create(getVariable(), inside);
+        conversion.convert(1, getInnerExpr());
+        return this;
     }
     
-    protected Expr performLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders) throws TypeEvaluationException {
+    protected Expr computeLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders, ExprTransformation substitution) throws TypeEvaluationException {
+        if (!getFreeVarSymbols().get(var.getSymbolId())) return this; // var does not occur free in here
         if (getVariable().equals(var)) return this; // no binding of var occurs within this scope
         
         // Mark that this binder outscopes things in its scope, so that when we
         // get to a replacement, we know what variables would be accidentally
         // bound.
-        Set binders2 = new HashSet(binders);
-        binders2.add(this);
+        substitution.bind(this);
         
-        return create(getVariable(), getInnerExpr().performLambdaConversion2(var, replacement, binders2, accidentalBinders));
+        substitution.substitute(1, getInnerExpr());
+        return this;
     }
 
-    protected Expr createAlphabeticalVariant(Set bindersToChange, Set variablesInUse, Map updates) {
+    protected Expr computeAlphabeticalVariant(Set bindersToChange, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
         Identifier v = getVariable();
 
         if (bindersToChange.contains(this)) {
             // Choose a fresh variable
             if (v instanceof Const)
                 v = new Var(v.getSymbol(), v.getType(), v.isTypeExplicit()); // very odd, but we need it to be a variable so that we can call createFreshVar
-            v = createFreshVar((Var)v, variablesInUse);
+            v = variablesInUse.createFreshVar((Var)v);
             
             // Push the variable and mapping onto the stack
-            variablesInUse = new HashSet(variablesInUse);
-            variablesInUse.add(v);
+            variablesInUse = variablesInUse.with((Var)v);
             updates = new HashMap(updates);
             updates.put(getVariable(), v);
         }
 
-        // Recurse
-        return create(v, getInnerExpr().createAlphabeticalVariant(bindersToChange, variablesInUse, updates));
+        // Go on into the scope
+        variant.vary(1, getInnerExpr(), variablesInUse, updates);
+        return v == getVariable() ? this : create(v, getInnerExpr());
     }
     
-    public Expr createAlphatypicalVariant(HashMap<Type,Type> alignments, Set variablesInUse, Map updates) {
+    protected Expr computeAlphatypicalVariant(HashMap<Type,Type> alignments, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
         Identifier v = getVariable();
         Type vtype = v.getType();
                 
@@ -245,12 +233,11 @@ public abstract class Binder extends Expr implements VariableBindingExpr {
             if (alignments.containsKey(vtype)) {
                 if (v instanceof Const)
                     v = new Var(v.getSymbol(), v.getType(), v.isTypeExplicit());
-                variablesInUse = new HashSet(variablesInUse);
-                variablesInUse.add(v);
-                v = createFreshVar((Var)v, variablesInUse);
-                v.setType(alignments.get(vtype));
+                variablesInUse = variablesInUse.with((Var)v);
+                v = variablesInUse.createFreshVar((Var)v);
+                v = new Var(v.getSymbol(), alignments.get(vtype), v.isTypeExplicit());
                 
-                variablesInUse.add(v);
+                variablesInUse = variablesInUse.with((Var)v);
                 updates = new HashMap(updates);
                 updates.put(getVariable(), v);
             }
@@ -258,20 +245,26 @@ public abstract class Binder extends Expr implements VariableBindingExpr {
             CompositeType compvtype = (CompositeType)vtype;
             if (!Collections.disjoint(alignments.keySet(), compvtype.getAtomicTypes())) {
                 Type newtype = getAlignedType(compvtype, alignments);
-                variablesInUse = new HashSet(variablesInUse);
-                variablesInUse.add(v);
-                v = createFreshVar((Var)v, variablesInUse);
-                v.setType(newtype);
+                variablesInUse = variablesInUse.with((Var)v);
+                v = variablesInUse.createFreshVar((Var)v);
+                v = new Var(v.getSymbol(), newtype, v.isTypeExplicit());
                 
-                variablesInUse.add(v);
+                variablesInUse = variablesInUse.with((Var)v);
                 updates = new HashMap(updates);
                 updates.put(getVariable(), v);
             }
         }        
-        return create(v, getInnerExpr().createAlphatypicalVariant(alignments, variablesInUse, updates));
+        variant.vary(1, getInnerExpr(), variablesInUse, updates);
+        return v == getVariable() ? this : create(v, getInnerExpr());
     }
     
     
+    public boolean bindsAnyFreeVarOf(Expr expr) {
+        if (!expr.getFreeVarSymbols().get(getVariable().getSymbolId()))
+            return false;
+        return bindsAny(expr.getFreeVars());
+    }
+    
     public boolean bindsAny(Set vars) {
         Identifier bvi = getVariable();
         for (Iterator fvs = vars.iterator(); fvs.hasNext(); ) {
@@ -289,55 +282,50 @@ public abstract class Binder extends Expr implements VariableBindingExpr {
      */
     public abstract boolean dotPolicy();
 
-    protected String toString(int mode) {
-        String inner = innerExpr.toString(mode);
-        if (!(innerExpr instanceof Binder) &&
-            innerExpr.getOperatorPrecedence() >= this.getOperatorPrecedence()) {
-            inner = "[" + inner + "]";
-            
-//        } else if (hasPeriod || ExpressionParser.isIdentifierChar(inner.charAt(0))) {
-//            if (dotPolicy()) {
-//                inner = "." + inner;
-//            } else {
-//                inner = " " + inner;
-//            }
-//        }
-        } else if (hasPeriod || ExpressionParser.isIdentifierChar(inner.charAt(0))) {
-            if (!dotPolicy()) {
-                inner = " " + inner;
-            } 
+    protected void renderWithoutParens(Appendable out, int mode) throws java.io.IOException {
+        if (mode == TXT) {
+            out.append(getSymbol());
+            renderSubExpression(ident, out, mode);
+        } else if (mode == HTML) {
+            out.append(getSymbol());
+            escapeHTML(ident.toString(mode), out);
+        } else if (mode == LATEX) {
+            out.append(getLatexSymbol()).append(' ');
+            renderSubExpression(ident, out, mode);
+        } else {
+            // never reached
+            throw new IllegalArgumentException();
         }
-         
+        
         // if this binder has a dot policy we prescriptively add a dot
         // no matter what the user did (or whoever entered the expression)
         if (dotPolicy()) {
-            inner = "." + inner;
+            out.append('.');
         }
-
-        if (mode == TXT) {
-            return getSymbol() + ident.toString(mode) + inner;
-        } else if (mode == HTML) {
-            return getSymbol() + escapeHTML(ident.toString(mode)) + inner;
-        } else if (mode == LATEX) {
-            return getLatexSymbol() + " " + ident.toString(mode) + inner;
+        
+        if (!(innerExpr instanceof Binder) &&
+            innerExpr.getOperatorPrecedence() >= this.getOperatorPrecedence()) {
+            out.append('[');
+            renderSubExpression(innerExpr, out, mode);
+            out.append(']');
+        } else if (!dotPolicy()) {
+            // without a dot, a space separates the variable from an inner
+            // expression that starts like an identifier
+            String inner = innerExpr.toString(mode);
+            if (hasPeriod || ExpressionParser.isIdentifierChar(inner.charAt(0))) {
+                out.append(' ');
+            }
+            out.append(inner);
+        } else {
+            renderSubExpression(innerExpr, out, mode);
         }
-        // never reached
-        throw new IllegalArgumentException();
     }
     
-    public void writeToStream(java.io.DataOutputStream output) throws java.io.IOException {
-        output.writeUTF(getClass().getName());
-        output.writeShort(0); // data format version
-        ident.writeToStream(output);
-        innerExpr.writeToStream(output);
-        output.writeBoolean(hasPeriod);
+    protected void writeNodeToStream(java.io.DataOutputStream output) throws java.io.IOException {
+        writeNodeHeader(output, 0);
     }
     
-    Binder(java.io.DataInputStream input) throws java.io.IOException {
-        // the class name has already been read
-        if (input.readShort() != 0) throw new java.io.IOException("Invalid data."); // future version?
-        ident = (Identifier)Expr.readFromStream(input);
-        innerExpr = Expr.readFromStream(input);
-        hasPeriod = input.readBoolean();
+    protected void writeNodeTrailer(java.io.DataOutputStream output) throws java.io.IOException {
+        output.writeBoolean(hasPeriod);
     }
 }
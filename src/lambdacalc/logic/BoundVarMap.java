@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+/*
+ * BoundVarMap.java
+ */
+
+package lambdacalc.logic;
+
+/**
+ * The correspondence between the variables bound on each side of a
+ * comparison of two expressions up to the renaming of bound variables
+ * (see ExprComparison).
+ *
+ * Each binder passed on the way down pushes the pair of variables it binds
+ * on each side, and pops it again on the way up, so the pairs form a stack
+ * indexed by binder depth. A variable is bound by the innermost binder of
+ * a variable equal to it on its own side, and two bound variables
+ * correspond if they are bound at the same depth. The arrays grow as
+ * needed and are reused for the whole comparison, so that the map itself
+ * allocates nothing per binder.
+ */
+public final class BoundVarMap {
+    
+    private Identifier[] thisVars = new Identifier[8];
+    private Identifier[] otherVars = new Identifier[8];
+    private int depth = 0;
+    
+    /**
+     * Adds a binder that binds thisVar on this side and otherVar on the
+     * other side.
+     */
+    void push(Identifier thisVar, Identifier otherVar) {
+        if (depth == thisVars.length) {
+            thisVars = (Identifier[])java.util.Arrays.copyOf(thisVars, 2 * depth);
+            otherVars = (Identifier[])java.util.Arrays.copyOf(otherVars, 2 * depth);
+        }
+        thisVars[depth] = thisVar;
+        otherVars[depth] = otherVar;
+        depth++;
+    }
+    
+    /**
+     * Removes the innermost count binders.
+     */
+    void pop(int count) {
+        for (int i = 0; i < count; i++) {
+            depth--;
+            thisVars[depth] = null;
+            otherVars[depth] = null;
+        }
+    }
+    
+    /**
+     * Gets the depth of the innermost binder of v on this side, or -1 if
+     * v is free.
+     */
+    int lookupThis(Var v) {
+        return lookup(thisVars, v);
+    }
+    
+    /**
+     * Gets the depth of the innermost binder of v on the other side, or -1
+     * if v is free.
+     */
+    int lookupOther(Var v) {
+        return lookup(otherVars, v);
+    }
+    
+    /**
+     * Finds the innermost variable in vars equal to v. Constants are never
+     * equal to a variable, and variables are equal if they have the same
+     * symbol and equal types.
+     */
+    private int lookup(Identifier[] vars, Var v) {
+        int symbolId = v.getSymbolId();
+        for (int i = depth - 1; i >= 0; i--) {
+            Identifier b = vars[i];
+            if (b.getKind() == ExprKind.VAR && b.getSymbolId() == symbolId && v.getType().equals(b.getType()))
+                return i;
+        }
+        return -1;
+    }
+}
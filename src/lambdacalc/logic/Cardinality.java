@@ -43,6 +43,10 @@ public class Cardinality extends Unary {
         super(expr);
     }
     
+    public int getKind() {
+        return ExprKind.CARDINALITY;
+    }
+    
     /**
      * Gets the operator precedence of this operator.
      * All values are documented in Expr, so don't change the value here
@@ -52,15 +56,13 @@ public class Cardinality extends Unary {
         return 3;
     }
     
-    protected String toString(int mode) {
-        if (mode == LATEX) {
-            return SYMBOL + getInnerExpr().toString(mode) + SYMBOL;
-        } else {
-            return SYMBOL + getInnerExpr().toString(mode) + SYMBOL;
-        }
+    protected void renderWithoutParens(Appendable out, int mode) throws java.io.IOException {
+        out.append(SYMBOL);
+        renderSubExpression(getInnerExpr(), out, mode);
+        out.append(SYMBOL);
     }
     
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         if (!(getInnerExpr().getType() instanceof CompositeType) || !((CompositeType)getInnerExpr().getType()).getRight().equals(Type.T))
             throw new TypeMismatchException("The cardinality operator can only be applied to something that has the type of a set, i.e. the type of the characteristic function of a set, such as " + Type.ET + ", but " + getInnerExpr() + " is of type " + getInnerExpr().getType() + ".");
         return Type.N;
@@ -69,8 +71,4 @@ public class Cardinality extends Unary {
     protected Unary create(Expr inner) {
         return new Cardinality(inner);
     }
-
-    Cardinality(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
-    }
 }
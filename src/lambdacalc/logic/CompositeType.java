@@ -50,6 +50,10 @@ public class CompositeType extends Type {
         this.right=right;
     }
     
+    public int getKind() {
+        return COMPOSITE_TYPE;
+    }
+    
     /**
      * Gets the type of the domain of the function.
      */
@@ -82,14 +86,14 @@ public class CompositeType extends Type {
     }
     
     protected boolean equals(Type t) {
-        if (t instanceof VarType) {
-            return true;
-        } else if (t instanceof CompositeType) {
-//            CompositeType ct = (CompositeType) t;
-            return (this.getLeft().equals(((CompositeType) t).getLeft())
-                    && (this.getRight().equals(((CompositeType) t).getRight())));
-        } else { 
-            return false;
+        switch (t.getKind()) {
+            case VAR_TYPE:
+                return true;
+            case COMPOSITE_TYPE:
+                return (this.getLeft().equals(((CompositeType) t).getLeft())
+                        && (this.getRight().equals(((CompositeType) t).getRight())));
+            default:
+                return false;
         }
     }
     
@@ -97,6 +101,12 @@ public class CompositeType extends Type {
         return (left.containsVar() || right.containsVar());
     }
     
+    public boolean isIdenticalTo(Type t) {
+        return t.getKind() == COMPOSITE_TYPE
+                && left.isIdenticalTo(((CompositeType)t).left)
+                && right.isIdenticalTo(((CompositeType)t).right);
+    }
+    
     public int hashCode() {
         return left.hashCode() ^ right.hashCode(); // XOR of hash codes
     }
@@ -164,16 +174,15 @@ public class CompositeType extends Type {
     }
 
     
-    public void writeToStream(java.io.DataOutputStream output) throws java.io.IOException {
-        output.writeUTF("CompositeType");
-        output.writeShort(0); // data format version
+    protected void writeNodeToStream(java.io.DataOutputStream output) throws java.io.IOException {
+        writeNodeHeader(output, "CompositeType");
         left.writeToStream(output);
         right.writeToStream(output);
     }
     
     CompositeType(java.io.DataInputStream input) throws java.io.IOException {
         // the class string has already been read
-        if (input.readShort() != 0) throw new java.io.IOException("Invalid data."); // future version?
+        readNodeVersion(input);
         left = Type.readFromStream(input);
         right = Type.readFromStream(input);
     }
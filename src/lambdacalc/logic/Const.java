@@ -47,6 +47,10 @@ public class Const extends Identifier {
     public Const(String symbol, Type type, boolean isTypeExplicit) {
         super(symbol, type, isTypeExplicit);
     }
+    
+    public int getKind() {
+        return ExprKind.CONST;
+    }
     public Const(String symbol, Type type, boolean isTypeExplicit, boolean starred) {
         super(symbol, type, isTypeExplicit, starred); 
     }    
@@ -56,16 +60,16 @@ public class Const extends Identifier {
         return ret;
     }
 
-    protected boolean equals(Identifier i, boolean useMaps, Map thisMap, Map otherMap, Map freeVarMap) {
+    protected boolean equals(Identifier i, boolean useMaps, BoundVarMap boundVars, Map freeVarMap) {
         // ignore maps in all cases, since it only applies to variables
         if (i instanceof Const)
             return this.getType().equals(i.getType()) 
-                && this.getSymbol().equals(i.getSymbol());
+                && this.getSymbolId() == i.getSymbolId();
         else
             return false;
     }
     
-    protected Expr performLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders) throws TypeEvaluationException {
+    protected Expr computeLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders, ExprTransformation substitution) throws TypeEvaluationException {
         // We're doing substitutions. Clearly, not applicable to a constant.
         return this;
     }
@@ -79,11 +83,11 @@ public class Const extends Identifier {
         return new Const(this.getSymbol(), this.getType(), this.isTypeExplicit());
     }
     
-    protected Expr createAlphabeticalVariant(Set bindersToChange, Set variablesInUse, Map updates) {
+    protected Expr computeAlphabeticalVariant(Set bindersToChange, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
         return this;
     }
     
-    public Expr createAlphatypicalVariant(HashMap<Type,Type> alignments, Set variablesInUse, Map updates) {
+    protected Expr computeAlphatypicalVariant(HashMap<Type,Type> alignments, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
         return this;
     }
 
@@ -40,6 +40,10 @@ public class ConstType extends AtomicType {
     public ConstType(char symbol) {
         this.symbol=symbol;
     }
+    
+    public int getKind() {
+        return CONST_TYPE;
+    }
         
     public char getSymbol() {
         return this.symbol;
@@ -59,13 +63,13 @@ public class ConstType extends AtomicType {
     }
     
     protected boolean equals(Type t) {
-        if (t instanceof VarType) {
-            return true;
-        } else if (t instanceof ConstType) {
-            ConstType at = (ConstType) t;
-            return (this.getSymbol() == at.getSymbol());
-        } else { 
-            return false;
+        switch (t.getKind()) {
+            case VAR_TYPE:
+                return true;
+            case CONST_TYPE:
+                return (this.getSymbol() == ((ConstType) t).getSymbol());
+            default:
+                return false;
         }
     }
     
@@ -77,15 +81,14 @@ public class ConstType extends AtomicType {
         return String.valueOf(symbol).hashCode(); // better way of doing this?
     }
     
-    public void writeToStream(java.io.DataOutputStream output) throws java.io.IOException {
-        output.writeUTF("ConstType");
-        output.writeShort(0); // data format version
+    protected void writeNodeToStream(java.io.DataOutputStream output) throws java.io.IOException {
+        writeNodeHeader(output, "ConstType");
         output.writeChar(symbol);
     }
     
     ConstType(java.io.DataInputStream input) throws java.io.IOException {
         // the class string has already been read
-        if (input.readShort() != 0) throw new java.io.IOException("Invalid data."); // future version?
+        readNodeVersion(input);
         symbol = input.readChar();
     }
 }
@@ -58,6 +58,10 @@ public class Equality extends LogicalBinary {
         this.equality = equality;
     }
     
+    public int getKind() {
+        return ExprKind.EQUALITY;
+    }
+    
     public String getSymbol() {
         if (equality)
             return String.valueOf(EQ_SYMBOL);
@@ -66,10 +70,10 @@ public class Equality extends LogicalBinary {
     }
 
     public Type getOperandType() {
-        return null; // doesn't matter since we override getType()
+        return null; // doesn't matter since we override computeType()
     }
     
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         if (!getLeft().getType().equals(getRight().getType()))
             throw new TypeMismatchException("The types of the expressions on the left and right of an equality operator must be the same, but " + getLeft() + " is of type " + getLeft().getType() + " and " + getRight() + " is of type " + getRight().getType() + ".");
         return Type.T;
@@ -83,19 +87,16 @@ public class Equality extends LogicalBinary {
         return new Equality(left, right, equality);
     }
     
-    public void writeToStream(java.io.DataOutputStream output) throws java.io.IOException {
-        super.writeToStream(output);
-        output.writeShort(0); // data format version
+    protected boolean isSameNode(Expr other) {
+        return equality == ((Equality)other).equality;
+    }
+    
+    protected void writeNodeTrailer(java.io.DataOutputStream output) throws java.io.IOException {
+        writeNodeVersion(output, 0);
         output.writeBoolean(equality);
     }
 
     public String getLatexRepr() {
         return this.LATEX_REPR;
     }
-
-    Equality(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
-        if (input.readShort() != 0) throw new java.io.IOException("Invalid data."); // future version?
-        equality = input.readBoolean();
-    }
 }
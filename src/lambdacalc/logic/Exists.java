@@ -55,6 +55,10 @@ public class Exists extends PropositionalBinder {
     public Exists(Identifier ident, Expr innerExpr, boolean hasPeriod) {
         super(ident, innerExpr, hasPeriod);
     }
+    
+    public int getKind() {
+        return ExprKind.EXISTS;
+    }
 
     public String getSymbol() {
         return String.valueOf(SYMBOL);
@@ -71,8 +75,4 @@ public class Exists extends PropositionalBinder {
     public boolean dotPolicy() {
         return true;
     }
-    
-    Exists(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
-    }
 }
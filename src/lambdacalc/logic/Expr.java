@@ -30,14 +30,18 @@
 
 package lambdacalc.logic;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import lambdacalc.lf.MeaningEvaluationException;
@@ -45,14 +49,74 @@ import lambdacalc.lf.MeaningEvaluationException;
 /**
  * An expression in the Lambda calculus.  This is the abstract
  * base class of all expression subclasses. All expressions are immutable.
+ *
+ * Parentheses are not nodes of the tree. The parentheses that were written
+ * around an expression are kept on the expression itself (see withParens),
+ * only so that it is displayed (and saved) the way it was written.
+ * Comparisons, types and lambda conversion never look at them, though
+ * the transformations of an expression keep them where the expression
+ * they were written around is kept.
  */
-public abstract class Expr {
+public abstract class Expr implements Cloneable {
 
     public static final int TXT = 0;
     public static final int HTML = 1;
     public static final int LATEX = 2;
     
+    /**
+     * The constant for round parenthesis ( ), for withParens.
+     */
+    public static final boolean ROUND = true;
+    
+    /**
+     * The constant for square parenthesis [ ], for withParens.
+     */
+    public static final boolean SQUARE = false;
+    
     private boolean starred;
+    
+    private String parens; // the open symbols of the parentheses around this expression, or null
+    
+    // The caches below are filled in lazily, and interned expressions are
+    // shared between threads (the text fields parse on a worker thread).
+    // Two threads that fill in the same cache at once compute the same
+    // value, so nothing is locked. The int caches are written in one go
+    // and are only read into a local variable once, as String.hashCode
+    // does. The caches that hold objects are volatile, so that a thread
+    // which finds one also sees the object fully built.
+    
+    private volatile String[] renderings; // cached by toString(mode), indexed by mode; replaced, not modified
+    
+    private int hash; // cached by hashCode()
+    private int alphaFingerprint; // cached by getAlphaFingerprint()
+    private volatile boolean interned; // set by ExprInterner on canonical instances
+    
+    private volatile Type cachedType; // cached by getType()
+    private volatile TypeEvaluationException cachedTypeError; // cached by getType()
+    private byte typeVolatility; // 0 = not yet known, 1 = stable, 2 = volatile
+    
+    private volatile Set allVars, freeVars; // cached by getAllVars(), getFreeVars()
+    private volatile BitSet allVarSymbols, freeVarSymbols; // cached likewise
+    
+    /**
+     * A flag returned by getNodeFlags() for a node at which
+     * performLambdaConversion1 can do a lambda conversion (or fail).
+     */
+    protected static final int REDEX = 1;
+    
+    /**
+     * A flag returned by getNodeFlags() for a GApp.
+     */
+    protected static final int GAPP = 2;
+    
+    /**
+     * A flag returned by getNodeFlags() for a MeaningBracketExpr.
+     */
+    protected static final int MEANING_BRACKETS = 4;
+    
+    private int flags = -1; // cached by getFlags()
+    
+    private volatile NamelessTerm namelessTerm; // cached by getNamelessTerm()
         
     public static final Expr createIdFn() {
         try {
@@ -72,7 +136,7 @@ public abstract class Expr {
      *   3   Not, Cardinality
      *   2   FunApp, FunComp
      *   1   Identifier
-     *   0   Parens, ArgList (because ArgList is always parenthesized), GApp, SetWithElements, SetWithGenerator -- strongest
+     *   0   (anything in parentheses), ArgList (because ArgList is always parenthesized), GApp, SetWithElements, SetWithGenerator -- strongest
      * 
      * The parser implements this operator precedence independently so don't change it.
      * It is used only for the toString method.
@@ -83,14 +147,26 @@ public abstract class Expr {
     public abstract int getOperatorPrecedence();
     
     /**
-     * This is a helper method for toString() implementations.
-     * @returns the result of toString() on nestedExpr, except that when nestedExpr
-     * has a higher or equal operator precedence than this, it is wrapped with parens.
+     * Gets the kind of the (outermost) expression, one of the constants in
+     * ExprKind. Code that branches on the kind of a node switches on this
+     * rather than testing instanceof against each subclass in turn.
+     */
+    public abstract int getKind();
+    
+    /**
+     * This is a helper method for renderWithoutParens implementations. It
+     * renders nestedExpr, except that when nestedExpr has a higher or equal
+     * operator precedence than this, it is wrapped with parens (unless it
+     * is written with parentheses already).
      */
-    protected final String nestedToString(Expr nestedExpr, int mode) {
-        if (nestedExpr.getOperatorPrecedence() >= this.getOperatorPrecedence())
-            return "[" + nestedExpr.toString(mode) + "]";
-        return nestedExpr.toString(mode);
+    protected final void renderNested(Expr nestedExpr, Appendable out, int mode) throws java.io.IOException {
+        if (!nestedExpr.hasParens() && nestedExpr.getOperatorPrecedence() >= this.getOperatorPrecedence()) {
+            out.append('[');
+            renderSubExpression(nestedExpr, out, mode);
+            out.append(']');
+        } else {
+            renderSubExpression(nestedExpr, out, mode);
+        }
     }
     
     public final String toString() {
@@ -104,19 +180,412 @@ public abstract class Expr {
     public final String toLatexString() {
         return toString(LATEX);
     }
-
-    protected abstract String toString(int mode);
-
-    protected String escapeHTML(String text) {
-        // remember first arg to replaceAll is a regular expression
-        return text.replaceAll("&", "&amp;").replaceAll("<", "&lt;").replaceAll(">", "&gt;");
+    
+    /**
+     * Returns the string for this expression in the given mode. The string
+     * is cached, so that an expression that is displayed again, by itself
+     * or inside of another expression, is not rendered again, unless it
+     * contains meaning brackets, whose labels are taken from the tree.
+     */
+    protected final String toString(int mode) {
+        String[] r = renderings;
+        if (r != null && r[mode] != null)
+            return r[mode];
+        
+        StringBuilder ret = new StringBuilder();
+        try {
+            render(ret, mode);
+        } catch (java.io.IOException e) {
+            throw new RuntimeException(e); // not reached since a StringBuilder does not throw it
+        }
+        String s = ret.toString();
+        
+        if (!containsMeaningBrackets()) {
+            r = (r == null) ? new String[LATEX + 1] : (String[])r.clone();
+            r[mode] = s;
+            renderings = r;
+        }
+        return s;
+    }
+    
+    /**
+     * Writes the string for this expression in the given mode, as toString,
+     * toHTMLString and toLatexString return it, to out. The string is
+     * written piece by piece as the expression is walked, rather than being
+     * built up from the strings of the subexpressions, and the walk keeps
+     * what is left to write on an explicit stack (see Renderer), so that
+     * expressions of any depth can be written.
+     * @param out where the string is written
+     * @param mode TXT, HTML or LATEX
+     * @throws java.io.IOException if out throws it
+     */
+    public final void render(Appendable out, int mode) throws java.io.IOException {
+        render(out, mode, 0);
+    }
+    
+    /**
+     * Writes the string for this expression, leaving out the first skip
+     * pairs of parentheses around it.
+     */
+    private void render(Appendable out, int mode, int skip) throws java.io.IOException {
+        new Renderer(out, mode).run(this, skip);
+    }
+    
+    /**
+     * Implemented by subclasses to write the string for this expression in
+     * the given mode, leaving out the parentheses around the expression
+     * itself (but not those around its subexpressions), which render adds.
+     * Implementations write their subexpressions with renderSubExpression.
+     */
+    protected abstract void renderWithoutParens(Appendable out, int mode) throws java.io.IOException;
+    
+    /**
+     * Writes a subexpression for renderWithoutParens. The subexpression is
+     * not written right away but put on the stack of the Renderer that out
+     * is, which writes it in its place once this node is done.
+     */
+    protected static void renderSubExpression(Expr expr, Appendable out, int mode) throws java.io.IOException {
+        renderSubExpression(expr, out, mode, 0);
+    }
+    
+    /**
+     * Writes a subexpression for renderWithoutParens without the outermost
+     * pair of parentheses around it, which the caller writes in its own way.
+     */
+    protected static void renderSubExpressionInsideParens(Expr expr, Appendable out, int mode) throws java.io.IOException {
+        renderSubExpression(expr, out, mode, 1);
+    }
+    
+    private static void renderSubExpression(Expr expr, Appendable out, int mode, int skip) throws java.io.IOException {
+        if (out instanceof Renderer)
+            ((Renderer)out).add(expr, skip);
+        else
+            expr.render(out, mode, skip);
+    }
+    
+    /**
+     * Writes expressions for render. What remains to be written is kept on
+     * a stack, the next piece first: strings, and subexpressions that have
+     * yet to be rendered. Each node is rendered by renderWithoutParens into
+     * the Renderer itself, which passes the text before the first
+     * subexpression straight on to out (nothing else can come before it)
+     * and puts the rest on the stack in order.
+     */
+    private static final class Renderer implements Appendable {
+        private final Appendable out;
+        private final int mode;
+        private final ArrayDeque stack = new ArrayDeque(); // of String and SubExpression
+        private final ArrayList pieces = new ArrayList(); // what the node being rendered writes after its first subexpression
+        private final StringBuilder text = new StringBuilder(); // the text at the end of pieces
+        
+        private static final class SubExpression {
+            final Expr expr;
+            final int skip; // how many pairs of parentheses around it to leave out
+            
+            SubExpression(Expr expr, int skip) {
+                this.expr = expr;
+                this.skip = skip;
+            }
+        }
+        
+        Renderer(Appendable out, int mode) {
+            this.out = out;
+            this.mode = mode;
+        }
+        
+        void run(Expr expr, int skip) throws java.io.IOException {
+            stack.push(new SubExpression(expr, skip));
+            while (!stack.isEmpty()) {
+                Object next = stack.pop();
+                if (next instanceof String) {
+                    out.append((String)next);
+                    continue;
+                }
+                
+                SubExpression s = (SubExpression)next;
+                Expr e = s.expr;
+                String[] r = e.renderings;
+                if (s.skip == 0 && r != null && r[mode] != null) {
+                    out.append(r[mode]);
+                    continue;
+                }
+                
+                if (e.parens != null) {
+                    out.append(e.parens, s.skip, e.parens.length());
+                    StringBuilder close = new StringBuilder();
+                    for (int i = e.parens.length() - 1; i >= s.skip; i--)
+                        close.append(e.parens.charAt(i) == '(' ? ')' : ']');
+                    if (close.length() > 0)
+                        stack.push(close.toString());
+                }
+                
+                e.renderWithoutParens(this, mode);
+                endText();
+                for (int i = pieces.size() - 1; i >= 0; i--)
+                    stack.push(pieces.get(i));
+                pieces.clear();
+            }
+        }
+        
+        void add(Expr expr, int skip) {
+            endText();
+            pieces.add(new SubExpression(expr, skip));
+        }
+        
+        private void endText() {
+            if (text.length() > 0) {
+                pieces.add(text.toString());
+                text.setLength(0);
+            }
+        }
+        
+        public Appendable append(CharSequence csq) throws java.io.IOException {
+            if (pieces.isEmpty())
+                out.append(csq);
+            else
+                text.append(csq);
+            return this;
+        }
+        
+        public Appendable append(CharSequence csq, int start, int end) throws java.io.IOException {
+            if (pieces.isEmpty())
+                out.append(csq, start, end);
+            else
+                text.append(csq, start, end);
+            return this;
+        }
+        
+        public Appendable append(char c) throws java.io.IOException {
+            if (pieces.isEmpty())
+                out.append(c);
+            else
+                text.append(c);
+            return this;
+        }
+    }
+    
+    private static final String[] HTML_ENTITIES = new String['>' + 1];
+    static {
+        HTML_ENTITIES['&'] = "&amp;";
+        HTML_ENTITIES['<'] = "&lt;";
+        HTML_ENTITIES['>'] = "&gt;";
+    }
+    
+    /**
+     * Returns text with the characters that are special in HTML replaced
+     * by entities.
+     */
+    public static String escapeHTML(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < HTML_ENTITIES.length && HTML_ENTITIES[c] != null) {
+                StringBuilder ret = new StringBuilder(text.length() + 8);
+                try {
+                    escapeHTML(text, ret);
+                } catch (java.io.IOException e) {
+                    throw new RuntimeException(e); // not reached since a StringBuilder does not throw it
+                }
+                return ret.toString();
+            }
+        }
+        return text;
+    }
+    
+    /**
+     * Writes text to out with the characters that are special in HTML
+     * replaced by entities.
+     */
+    public static void escapeHTML(CharSequence text, Appendable out) throws java.io.IOException {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < HTML_ENTITIES.length && HTML_ENTITIES[c] != null) {
+                out.append(text, start, i);
+                out.append(HTML_ENTITIES[c]);
+                start = i + 1;
+            }
+        }
+        out.append(text, start, text.length());
     }
 
     /**
      * Gets the semantic type of the expression, or throws a
      * TypeEvaluationException if there is a type mismatch.
+     * The type (or the type error) is computed once by computeType()
+     * and then cached, unless hasVolatileType() says it may change.
+     * The types of the subexpressions are computed first, bottom-up (see
+     * computeBelow), so that computeType() only looks one level down.
+     */
+    public Type getType() throws TypeEvaluationException {
+        Type type = cachedType;
+        if (type != null)
+            return type;
+        TypeEvaluationException error = cachedTypeError;
+        if (error != null)
+            throw error;
+        
+        if (!hasVolatileType()) {
+            computeBelow(CACHED_TYPE);
+            try {
+                type = computeType();
+                cachedType = type;
+                return type;
+            } catch (TypeEvaluationException e) {
+                cachedTypeError = e;
+                throw e;
+            }
+        }
+        
+        Map types = (Map)VOLATILE_TYPES.get();
+        if (types != null) {
+            Object t = types.get(this);
+            if (t instanceof TypeEvaluationException)
+                throw (TypeEvaluationException)t;
+            if (t != null)
+                return (Type)t;
+        }
+        
+        boolean outermost = (types == null);
+        if (outermost)
+            VOLATILE_TYPES.set(types = new IdentityHashMap());
+        try {
+            computeBelow(CACHED_TYPE);
+            try {
+                Type t = computeType();
+                types.put(this, t);
+                return t;
+            } catch (TypeEvaluationException e) {
+                types.put(this, e);
+                throw e;
+            }
+        } finally {
+            if (outermost)
+                VOLATILE_TYPES.remove();
+        }
+    }
+    
+    /**
+     * The types (or type errors) of the expressions whose types are
+     * volatile and so are not cached, while the outermost call to getType()
+     * for one of them is in progress on this thread, so that each node
+     * above a meaning bracket does not work out the types below it all
+     * over again: Expr => Type or TypeEvaluationException.
+     */
+    private static final ThreadLocal VOLATILE_TYPES = new ThreadLocal();
+    
+    /**
+     * Computes the semantic type of the expression for getType(), or throws
+     * a TypeEvaluationException if there is a type mismatch. The types of
+     * the subexpressions have been computed already.
+     */
+    protected abstract Type computeType() throws TypeEvaluationException;
+    
+    /**
+     * Returns whether the type of this expression can change even though
+     * the expression itself does not, because some subexpression takes
+     * its type from outside of the expression (as the meaning brackets
+     * of a tree node do). Types of such expressions are not cached.
+     */
+    protected boolean hasVolatileType() {
+        byte v = typeVolatility;
+        if (v == 0) {
+            computeBelow(CACHED_VOLATILITY);
+            boolean found = false;
+            for (int i = 0; i < arity() && !found; i++)
+                found = child(i).hasVolatileType();
+            typeVolatility = v = found ? (byte)2 : (byte)1;
+        }
+        return v == 2;
+    }
+    
+    // The cached properties that computeBelow computes.
+    private static final int CACHED_HASH = 0;
+    private static final int CACHED_FLAGS = 1;
+    private static final int CACHED_TYPE = 2;
+    private static final int CACHED_VOLATILITY = 3;
+    private static final int CACHED_ALL_VARS = 4;
+    private static final int CACHED_FREE_VARS = 5;
+    
+    /**
+     * Computes a cached property of each subexpression of this expression
+     * that does not have it yet, bottom-up, with an explicit stack of the
+     * nodes on the way down to the one being visited. Computing the
+     * property of a node then only takes the cached property of its
+     * children, however deep the expression is. The caller computes the
+     * property of this expression itself.
+     */
+    private void computeBelow(int property) {
+        int i = 0;
+        while (i < arity() && child(i).isCached(property))
+            i++;
+        if (i == arity())
+            return; // the usual case
+        
+        ArrayDeque path = new ArrayDeque();
+        path.push(new Frame(this));
+        while (true) {
+            Frame f = (Frame)path.peek();
+            if (f.next < f.expr.arity()) {
+                Expr c = f.expr.child(f.next++);
+                if (!c.isCached(property))
+                    path.push(new Frame(c));
+                continue;
+            }
+            path.pop();
+            if (path.isEmpty())
+                return;
+            f.expr.compute(property);
+        }
+    }
+    
+    private boolean isCached(int property) {
+        switch (property) {
+            case CACHED_HASH: return hash != 0;
+            case CACHED_FLAGS: return flags != -1;
+            case CACHED_TYPE:
+                if (cachedType != null || cachedTypeError != null)
+                    return true;
+                if (!hasVolatileType())
+                    return false;
+                Map types = (Map)VOLATILE_TYPES.get();
+                return types != null && types.containsKey(this);
+            case CACHED_VOLATILITY: return typeVolatility != 0;
+            case CACHED_ALL_VARS: return allVars != null;
+            case CACHED_FREE_VARS: return freeVars != null;
+            default: throw new IllegalArgumentException(String.valueOf(property));
+        }
+    }
+    
+    private void compute(int property) {
+        switch (property) {
+            case CACHED_HASH: hashCode(); break;
+            case CACHED_FLAGS: getFlags(); break;
+            case CACHED_TYPE:
+                try {
+                    getType();
+                } catch (TypeEvaluationException e) {
+                    // it is thrown again when the type is asked for
+                }
+                break;
+            case CACHED_VOLATILITY: hasVolatileType(); break;
+            case CACHED_ALL_VARS: getAllVars(); break;
+            case CACHED_FREE_VARS: getFreeVars(); break;
+            default: throw new IllegalArgumentException(String.valueOf(property));
+        }
+    }
+    
+    /**
+     * A node on the way down an expression in a walk with an explicit
+     * stack, and the position of the child to visit next.
      */
-    public abstract Type getType() throws TypeEvaluationException;
+    private static final class Frame {
+        Expr expr;
+        int next;
+        
+        Frame(Expr expr) {
+            this.expr = expr;
+        }
+    }
 
     public void setType(Type t) throws TypeEvaluationException {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
@@ -131,10 +600,12 @@ public abstract class Expr {
      * @return true iff the expressions are equal up to parens
      */
     public final boolean equals(Object obj) {
+        if (obj == this)
+            return true;
         if (obj instanceof Expr)
             // call equals and specify not to collapse bound variables
             // (useMap=false)
-            return equals((Expr)obj, false, null, null, false, null); // null maps
+            return equals((Expr)obj, false, false, null); // null maps
         else
             return false;
     }
@@ -148,9 +619,11 @@ public abstract class Expr {
      * @return true iff the expressions are equivalent up to parens and bound variables
      */
     public final boolean alphaEquivalent(Expr obj) {
+        if (obj == this)
+            return true;
         // call equals and specify to collapse bound variables
         // (useMap=true)
-        return equals(obj, true, null, null, false, null); // null maps
+        return equals(obj, true, false, null); // null maps
     }
 
     /**
@@ -168,7 +641,9 @@ public abstract class Expr {
      * @return true iff the expressions are equivalent modulo parens and identifiers
      */
     public final boolean operatorEquivalent(Expr obj) {
-        return equals(obj, false, null, null, true, null);
+        if (obj == this)
+            return true;
+        return equals(obj, false, true, null);
     }
 
     /**
@@ -183,57 +658,120 @@ public abstract class Expr {
      */
     public final Map getConsistentFreeVariableRenaming(Expr obj) {
         Map m = new HashMap();
-        if (equals(obj, true, null, null, false, m))
+        if (equals(obj, true, false, m))
             return m;
         return null;
     }
+    
+    /**
+     * Compares this expression with obj (see ExprComparison), with an
+     * empty BoundVarMap if bound variables are collapsed.
+     */
+    private boolean equals(Expr obj, boolean collapseBoundVars, boolean collapseAllVars, Map freeVarMap) {
+        return new ExprComparison(this, obj, collapseBoundVars, collapseBoundVars ? new BoundVarMap() : null, collapseAllVars, freeVarMap).run();
+    }
 
     /**
-     * This method returns this Expr with any parentheses removed.
-     * This is used by equality tests, which all ignore parenthesis.
-     * @return this expression, or the next-outermost non-paren expression if this expression is enclosed in parens
+     * Returns the open symbols, "(" or "[", of the parentheses written
+     * around this expression, outermost first, or null if there are none.
+     */
+    final String getParens() {
+        return parens;
+    }
+    
+    /**
+     * Returns whether this expression was written in parentheses.
+     */
+    public final boolean hasParens() {
+        return parens != null;
+    }
+    
+    /**
+     * Returns this expression written with another pair of parentheses
+     * around it, outside of any it has already.
+     * @param shape ROUND or SQUARE
+     */
+    public final Expr withParens(boolean shape) {
+        return copyWithParens((shape == ROUND ? "(" : "[") + (parens == null ? "" : parens));
+    }
+    
+    /**
+     * Returns this expression with the parentheses around other written
+     * around it, outside of any it has already. This is how a
+     * transformation of an expression keeps its parentheses.
+     */
+    protected final Expr withParensOf(Expr other) {
+        if (other.parens == null)
+            return this;
+        return copyWithParens(parens == null ? other.parens : other.parens + parens);
+    }
+    
+    /**
+     * This method returns this Expr with any parentheses around it removed.
+     * Equality tests ignore parentheses without this; it is only needed to
+     * display an expression without them.
+     * @return this expression, or a copy of it without the parentheses
+     * if it has any
      */
     public final Expr stripOutermostParens() {
-        if (this instanceof Parens)
-            return ((Parens)this).getInnerExpr().stripOutermostParens();
-        return this;
+        return copyWithParens(null);
     }
     
+    /**
+     * Returns this expression with at most one pair of parentheses around
+     * it and around each of its subexpressions, the innermost one.
+     */
     public final Expr stripAnyDoubleParens() {
-        
-        Expr result = this;
-        
-        if (this instanceof Parens 
-                && ((Parens) this).getInnerExpr() instanceof Parens) {
-            return ((Parens) this).getInnerExpr().stripAnyDoubleParens();
-        } //else...
-        Iterator subExpressions = this.getSubExpressions().iterator();
-        List newSubExpr = new Vector();
-        while (subExpressions.hasNext()) {
-            Expr next = (Expr) subExpressions.next();
-            next = next.stripAnyDoubleParens();
-            newSubExpr.add(next);
+        return rewrite(new Rewriter() {
+            Expr leave(Expr e) {
+                String p = e.parens;
+                if (p != null && p.length() > 1)
+                    return e.copyWithParens(p.substring(p.length() - 1));
+                return e;
+            }
+        });
+    }
+    
+    /**
+     * Returns a shallow copy of this expression with the given parentheses,
+     * or this expression if it has them already.
+     */
+    private Expr copyWithParens(String parens) {
+        if (parens == null ? this.parens == null : parens.equals(this.parens))
+            return this;
+        Expr ret;
+        try {
+            ret = (Expr)super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e); // not reached since Expr is Cloneable
         }
-        return createFromSubExpressions(newSubExpr);
+        ret.parens = parens;
+        ret.interned = false; // the interner holds this instance, not the copy
+        ret.namelessTerm = null; // the term keeps the parentheses too
+        ret.renderings = null; // the strings include the parentheses
+        return ret;
     }
     
     /**
      * Implemented by subclasses to test for equivalence of
-     * two expressions. Note that the two expressions may be created from strings that are
+     * two nodes, not looking at their subexpressions, which are compared
+     * afterwards as compareSubExpressions schedules them (see
+     * ExprComparison). Note that the two expressions may be created from strings that are
      * not completely equal, because some normalization has already happened in the parsing.
      * Specifically, non-meaningful whitespaces get collapsed, and periods after binders get normalized.
      * In the following, equivalence "to the letter" will always mean equivalence after this normalization step,
      * because we are not comparing strings but parsed expressions.
      * 
-     * In the simplest case, collapseBoundVars is false, thisMap and otherMap are null, and 
+     * In the simplest case, collapseBoundVars is false, boundVars is null, and 
      * collapseAllVars is false. This setting checks for equivalence to the letter modulo parentheses.
      * 
      * In the case where collapseBoundVars is true, and the other params are as above, we test for
      * alpha-equivalence, that is equivalence to the letter modulo parentheses and consistent renaming
      * of bound variables.
      *
-     * By convention, the map variables are always set to null when an external caller calls this function. They
-     * are only used for recursion.
+     * By convention, boundVars is null when an external caller calls this function without collapsing
+     * bound variables, and empty when it does. Binders add to it only for the comparison of
+     * their subexpressions.
      *
      * Next, if collapseAllVars is set to true, then the method will regard two expressions as equal even
      * if they differ in some variable (free or bound). For example, the following expressions will all be equal:
@@ -253,71 +791,408 @@ public abstract class Expr {
      * @param collapseBoundVars If set to true, then bound variables with different names but in structurally
      * equivalent positions are collapsed (that is, they are considered equal).
      * Example: Lx.x is equal to Ly.y iff this parameter is true.
-     * Mappings can be provided from higher calls using the two Map parameters.
+     * The correspondence between bound variables is passed down from the binders above in boundVars.
      * 
      * @param collapseAllVars see above.
      *
-     * @param thisMap A map from variables to fresh variables, to be applied on this expression iff 
-     * the boolean parameter is set to true.
+     * @param boundVars The pairs of variables bound by the binders on each side that enclose
+     * the expressions being compared, when collapseBoundVars is true.
      *
-     * @param otherMap A map from variables to fresh variables, to be applied on the other expression
-     * iff the boolean parameter is set to false.
      *
-     *
-     * @return true iff both expressions are equal, abstracting over parens, and possibly
+     * @return true iff both nodes are equal, abstracting over parens, and possibly
      * abstracting over bound variables (depending on the parameters)
      */
-    
-    protected abstract boolean equals(Expr e, boolean collapseBoundVars, Map thisMap, Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap);
+    protected abstract boolean equalsNode(Expr e, boolean collapseBoundVars, BoundVarMap boundVars, boolean collapseAllVars, java.util.Map freeVarMap);
     // IMPLEMENTATION NOTES -- TODO cleanup
     /*    
      * , where variables in this and the other expression
-     * are mapped to other fresh objects according to the map (= assignment function)
-     * parameters (each of which may be null to indicate no mapping
-     * has been set yet). 
+     * are matched up according to the binders that enclose them (see BoundVarMap).
      * 
      * 
      * A binder (lambda, for all, exists)
-     * adds a mapping (for the duration of evaluating its sub-parse-tree)
-     * from its variable and the corresponding variable in the other binder
-     * to a new fresh variable represented by "new Object()". The Var
+     * binds (for the duration of comparing its sub-parse-tree)
+     * its variable and the corresponding variable in the other binder
+     * in boundVars, which are taken out again afterwards. The Var
      * class overrides equals in the following way: If the variable is
-     * not mapped, then it is free, and so it compares itself with the
+     * not bound, then it is free, and so it compares itself with the
      * corresponding variable on the other side by comparing the symbols.
-     * But if a mapping is present, the variable is bound, and it consults
-     * the mapping to make sure that the variables on both sides map to the
-     * same Object marker -- although the variables themselves may be different.
+     * But if it is bound, it checks that the variables on both sides are
+     * bound at the same depth -- although the variables themselves may be different.
      */
     
-    public int hashCode() {
-        Iterator iter = this.getSubExpressions().iterator();
-        int result = this.getClass().hashCode();
-        while (iter.hasNext()) {
-            result = result^((Expr)iter.next()).hashCode();
+    /**
+     * Schedules the comparisons of the subexpressions of this expression
+     * with those of e, once equalsNode has found that the nodes themselves
+     * are equal. The parameters are those that equalsNode was called with.
+     * The default implementation compares each subexpression with the one
+     * in the same position in e in the same way. Subclasses override this
+     * to compare them in another way, e.g. to bind variables.
+     * @return false if the subexpressions cannot be equal, without
+     * comparing any further
+     */
+    protected boolean compareSubExpressions(Expr e, boolean collapseBoundVars, BoundVarMap boundVars, boolean collapseAllVars, java.util.Map freeVarMap, ExprComparison comparison) {
+        for (int i = 0; i < arity(); i++)
+            comparison.compare(child(i), e.child(i), collapseBoundVars, boundVars, collapseAllVars, freeVarMap);
+        return true;
+    }
+    
+    /**
+     * Returns a hash code that is consistent with equals(Object), i.e. it
+     * ignores parentheses and everything else that equals() ignores. The
+     * hash code is computed once by computeHashCode() and then cached, which
+     * is safe because expressions are immutable. The hash codes of the
+     * subexpressions are computed first, bottom-up (see computeBelow).
+     */
+    public final int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            computeBelow(CACHED_HASH);
+            h = computeHashCode();
+            if (h == 0) h = 1; // 0 is reserved to mean "not yet computed"
+            hash = h;
+        }
+        return h;
+    }
+    
+    /**
+     * Computes the hash code of this expression. The default implementation
+     * combines the name of the runtime class with the hash codes of the
+     * subexpressions, in order. Subclasses whose equals() ignores some
+     * aspect of their structure must override this to ignore it too.
+     */
+    protected int computeHashCode() {
+        int result = this.getClass().getName().hashCode();
+        for (int i = 0; i < arity(); i++) {
+            result = 31 * result + child(i).hashCode();
         }
         return result;
     }
     
     /**
-     * Gets the variables of this expression.
+     * Returns a hash code that is consistent with alphaEquivalent, i.e. it
+     * ignores parentheses and the names of bound variables, so that
+     * alpha-equivalent expressions have the same fingerprint. Expressions
+     * can then be looked up by their fingerprints, confirming a match with a
+     * single call to alphaEquivalent. The one exception is that a GApp
+     * can be equal to a variable (see GApp.equalsNode) without having the
+     * same fingerprint, so expressions containing a GApp must be compared
+     * directly. Like the hash code, the fingerprint is computed once and
+     * then cached.
+     */
+    public final int getAlphaFingerprint() {
+        int h = alphaFingerprint;
+        if (h == 0) {
+            h = computeAlphaFingerprint();
+            if (h == 0) h = 1; // 0 is reserved to mean "not yet computed"
+            alphaFingerprint = h;
+        }
+        return h;
+    }
+    
+    /**
+     * Computes the fingerprint of this expression for getAlphaFingerprint,
+     * with an explicit stack of the nodes on the way down to the one being
+     * visited. A node without subexpressions contributes
+     * computeAlphaFingerprint(BoundVarMap). Any other node combines its kind
+     * with the fingerprints of its subexpressions, in order, except that
+     * the operands of And, Or and Fusion are summed up, since equals
+     * ignores how they are grouped; that a binder leaves out its variable,
+     * but records it in the BoundVarMap while its body is visited; and that
+     * a SetWithGenerator leaves out the variables on both sides, since the
+     * left hand sides are compared up to a consistent renaming of their
+     * free variables, which bind into the right hand sides.
+     */
+    private int computeAlphaFingerprint() {
+        FingerprintFrame f = FingerprintFrame.enter(this, new BoundVarMap());
+        if (f == null)
+            return computeAlphaFingerprint(new BoundVarMap());
+        ArrayDeque path = new ArrayDeque();
+        path.push(f);
+        while (true) {
+            f = (FingerprintFrame)path.peek();
+            if (f.next < f.expr.arity()) {
+                Expr c = f.expr.child(f.next++);
+                FingerprintFrame g = FingerprintFrame.enter(c, f.childVars);
+                if (g != null)
+                    path.push(g);
+                else
+                    f.add(c.computeAlphaFingerprint(f.childVars));
+                continue;
+            }
+            path.pop();
+            if (f.bound)
+                f.childVars.pop(1);
+            if (path.isEmpty())
+                return f.result;
+            ((FingerprintFrame)path.peek()).add(f.result);
+        }
+    }
+    
+    /**
+     * A node on the way down in computeAlphaFingerprint.
+     */
+    private static final class FingerprintFrame {
+        final Expr expr;
+        int next;
+        final BoundVarMap childVars; // for the subexpressions, or null
+        final boolean sum; // whether the fingerprints of the subexpressions are summed up
+        boolean bound; // whether the node put a variable into childVars
+        int result;
+        
+        private FingerprintFrame(Expr expr, BoundVarMap childVars, boolean sum) {
+            this.expr = expr;
+            this.childVars = childVars;
+            this.sum = sum;
+            this.result = sum ? 0 : expr.getKind() + 1;
+        }
+        
+        /**
+         * Starts visiting expr, with the given variables bound above it,
+         * or returns null if it has no subexpressions.
+         */
+        static FingerprintFrame enter(Expr expr, BoundVarMap boundVars) {
+            if (expr.arity() == 0)
+                return null;
+            switch (expr.getKind()) {
+                case ExprKind.AND:
+                case ExprKind.OR:
+                case ExprKind.FUSION:
+                    return new FingerprintFrame(expr, boundVars, true);
+                case ExprKind.SET_WITH_GENERATOR:
+                    return new FingerprintFrame(expr, null, false);
+            }
+            FingerprintFrame f = new FingerprintFrame(expr, boundVars, false);
+            if (expr instanceof Binder) {
+                Identifier v = ((Binder)expr).getVariable();
+                f.next = 1; // the variable only counts where it occurs
+                if (boundVars != null) {
+                    boundVars.push(v, v);
+                    f.bound = true;
+                }
+            }
+            return f;
+        }
+        
+        void add(int fingerprint) {
+            result = sum ? result + fingerprint : 31 * result + fingerprint;
+        }
+    }
+    
+    /**
+     * Computes the fingerprint of this expression for getAlphaFingerprint
+     * if it has no subexpressions. A bound variable contributes the depth
+     * of its binder, which binders record in boundVars, and a free
+     * variable contributes its symbol. If boundVars is null, every
+     * variable contributes the same value, which is consistent with any
+     * renaming of variables at all. The default implementation returns
+     * a value for the kind of this expression. Subclasses whose
+     * computeHashCode ignores some aspect of their structure must override
+     * this to ignore it too.
+     */
+    protected int computeAlphaFingerprint(BoundVarMap boundVars) {
+        return getKind() + 1;
+    }
+    
+    /**
+     * Returns the canonical instance of this expression. Two expressions
+     * that are written identically -- the same operators, identifiers,
+     * types, parentheses and so on, all the way down -- intern to the very
+     * same object, so that expressions loaded over and over again (e.g.
+     * lexical entries in exercise files) are only held in memory once.
+     * The canonical instances are held weakly and are dropped once no
+     * longer referenced elsewhere.
+     *
+     * @return the canonical instance, which is this expression if it
+     * was not interned before
+     */
+    public final Expr intern() {
+        if (interned) return this;
+        return ExprInterner.intern(this);
+    }
+    
+    /**
+     * Returns whether this is a canonical instance returned by intern().
+     */
+    public final boolean isInterned() {
+        return interned;
+    }
+    
+    void setInterned() {
+        interned = true;
+    }
+    
+    /**
+     * Used by intern() to test whether this expression and another expression
+     * of the same runtime class and with identical subexpressions are also
+     * written identically, i.e. whether they agree in the properties of
+     * the node besides its subexpressions. Subclasses that hold any such
+     * properties must override this, and must not call it from equals(),
+     * since unlike equals() it does not ignore anything.
+     *
+     * @param other an expression of the same runtime class as this
+     * @return true iff the two nodes are written identically
+     */
+    protected boolean isSameNode(Expr other) {
+        return true;
+    }
+    
+    /**
+     * Returns the flags (REDEX, GAPP, MEANING_BRACKETS) that hold of this
+     * node itself, irrespective of its subexpressions. The default
+     * implementation returns 0.
+     */
+    protected int getNodeFlags() {
+        return 0;
+    }
+    
+    /**
+     * Returns the union of the node flags of this expression and all of its
+     * subexpressions, computed once and then cached.
+     */
+    private int getFlags() {
+        int f = flags;
+        if (f == -1) {
+            computeBelow(CACHED_FLAGS);
+            flags = f = computeFlags();
+        }
+        return f;
+    }
+    
+    private int computeFlags() {
+        int f = getNodeFlags();
+        for (int i = 0; i < arity(); i++)
+            f |= child(i).getFlags();
+        return f;
+    }
+    
+    /**
+     * Returns whether performLambdaConversion could do anything on this
+     * expression, i.e. whether it contains a function application whose
+     * function is a lambda expression (or is something that cannot be
+     * applied at all). If this returns false, the expression is in
+     * normal form and reducers skip over it.
+     */
+    public final boolean mayContainRedex() {
+        return (getFlags() & REDEX) != 0;
+    }
+    
+    /**
+     * Returns whether this expression contains a GApp.
+     */
+    public final boolean containsGApp() {
+        return (getFlags() & GAPP) != 0;
+    }
+    
+    /**
+     * Returns whether this expression contains a meaning bracket expression.
+     */
+    public final boolean containsMeaningBrackets() {
+        return (getFlags() & MEANING_BRACKETS) != 0;
+    }
+    
+    /**
+     * Gets the variables of this expression. The set is computed once and
+     * then cached, so it cannot be modified.
      * @return a set of all of the variables used within this expression
      */
     public final Set getAllVars() {
-        return getVars(false);
+        Set vars = allVars;
+        if (vars == null) {
+            computeBelow(CACHED_ALL_VARS);
+            allVars = vars = Collections.unmodifiableSet(getVars(false));
+        }
+        return vars;
     }
     
     /**
      * Gets the free variables of this expression. If this expression is a subexpression of a 
      * larger expression, then any variables that are not bound by any binders in this
-     * subexpression are returned.
+     * subexpression are returned. The set is computed once and
+     * then cached, so it cannot be modified.
      * @returns a set of all of the free (unbound) variables within this expression
      */
     public final Set getFreeVars() {
-        return getVars(true);
+        Set vars = freeVars;
+        if (vars == null) {
+            computeBelow(CACHED_FREE_VARS);
+            freeVars = vars = Collections.unmodifiableSet(getVars(true));
+        }
+        return vars;
+    }
+    
+    /**
+     * Returns getFreeVars() if unboundOnly is true, otherwise getAllVars().
+     * Implementations of getVars use this to get at the cached variables
+     * of their subexpressions.
+     */
+    protected final Set getVarSet(boolean unboundOnly) {
+        return unboundOnly ? getFreeVars() : getAllVars();
+    }
+    
+    /**
+     * Gets the ids (see SymbolTable) of the symbols of the variables in
+     * getAllVars(). A variable can only be in getAllVars() if the bit for its
+     * symbol is set, which makes for a quick test that rules most variables
+     * out. The bit set is cached and must not be modified.
+     */
+    final BitSet getAllVarSymbols() {
+        BitSet symbols = allVarSymbols;
+        if (symbols == null)
+            allVarSymbols = symbols = getSymbols(getAllVars());
+        return symbols;
+    }
+    
+    /**
+     * Gets the ids (see SymbolTable) of the symbols of the variables in
+     * getFreeVars(), like getAllVarSymbols(). The bit set is cached and
+     * must not be modified.
+     */
+    final BitSet getFreeVarSymbols() {
+        BitSet symbols = freeVarSymbols;
+        if (symbols == null)
+            freeVarSymbols = symbols = getSymbols(getFreeVars());
+        return symbols;
+    }
+    
+    /**
+     * Gets the locally nameless representation of this expression (see
+     * NamelessTerm). The term is cached.
+     */
+    final NamelessTerm getNamelessTerm() {
+        NamelessTerm term = namelessTerm;
+        if (term == null)
+            namelessTerm = term = NamelessTerm.build(this, new ArrayList());
+        return term;
+    }
+
+    /**
+     * Gets the term cached by getNamelessTerm, or null if it has not been
+     * built yet.
+     */
+    final NamelessTerm getCachedNamelessTerm() {
+        return namelessTerm;
+    }
+
+    /**
+     * Caches the term that NamelessTerm.build built for this expression
+     * while building the term of an expression it is part of.
+     */
+    final void setNamelessTerm(NamelessTerm term) {
+        namelessTerm = term;
+    }
+    
+    private static BitSet getSymbols(Set vars) {
+        BitSet ret = new BitSet();
+        for (Iterator i = vars.iterator(); i.hasNext(); )
+            ret.set(((Identifier)i.next()).getSymbolId());
+        return ret;
     }
 
     /**
      * Returns the variables used in the expression, possibly only the free ones.
+     * Implementations return a new set, which the caller may modify, but
+     * should get the variables of subexpressions with getVarSet, which
+     * is cached.
      * @param unboundOnly true if only the free variables should be returned
      * @see getAllVars()
      * @see getFreeVars()
@@ -327,14 +1202,45 @@ public abstract class Expr {
 
     /**
      * Simplifies the expression by performing all possible lambda conversions.
+     * This is the same as normalize().
+     * Use a LambdaConversionSequence to get the steps.
+     * @throws ReductionLimitException if the default ReductionBudget runs
+     * out first
      */
     public final Expr simplifyFully() throws TypeEvaluationException {
-        Expr expr = this;    
-        while (true) {
-            LambdaConversionResult r = expr.performLambdaConversion();
-            if (r == null) return expr; // not further simplifiable
-            expr = r.result; // simplification was possible, try again on next iteration
-        }
+        return normalize();
+    }
+
+    /**
+     * Simplifies the expression by performing all possible lambda conversions,
+     * unless the budget runs out first, in which case the result says why.
+     * This should be used for expressions that come from the user or from an
+     * exercise file, which may not have a normal form.
+     * @throws TypeEvaluationException if a function application cannot be
+     * converted, as in performLambdaConversion
+     */
+    public final ReductionResult simplifyFully(ReductionBudget budget) throws TypeEvaluationException {
+        if (!mayContainRedex())
+            return new ReductionResult(this, null);
+        return Normalizer.normalize(this, budget);
+    }
+
+    /**
+     * Returns the normal form of the expression, i.e. the result of
+     * performing all possible lambda conversions. Since the intermediate
+     * steps are not needed, the normal form is computed by normalization by
+     * evaluation (see Normalizer), and alphabetical variants are only made
+     * in the result, if at all. This is done within the default
+     * ReductionBudget, so that an expression without a normal form
+     * cannot hang the program.
+     * @throws ReductionLimitException if the budget runs out first
+     * @throws TypeEvaluationException if a function application cannot be
+     * converted, as in performLambdaConversion
+     */
+    public final Expr normalize() throws TypeEvaluationException {
+        if (!mayContainRedex())
+            return this;
+        return Normalizer.normalize(this);
     }
 
     /**
@@ -396,6 +1302,9 @@ public abstract class Expr {
     	// instances that caused accidental binding in the incorrectly converted
     	// expression. If therse was no accidental binding, the set remains
     	// empty.
+        if (!mayContainRedex())
+            return null;
+        
         Set accidentalBinders = new HashSet();
         Expr result = performLambdaConversion1(accidentalBinders);
         
@@ -412,7 +1321,7 @@ public abstract class Expr {
         // We need to make an alphabetical variant by fixing the binders in the
         // accidentalBinders set. We rename these binders' variables so they do
         // not bind anything accidentally after lambda conversion.
-        Set varsInUse = getAllVars();
+        FreshVarGenerator varsInUse = new FreshVarGenerator(getAllVars());
         Map varMap = new HashMap(); // scratch space for createAlphabeticalVariant
         Expr alphaVary = createAlphabeticalVariant(accidentalBinders, varsInUse, varMap);
         
@@ -428,7 +1337,7 @@ public abstract class Expr {
     }
     
     /**
-     * Helper method for performLambdaConversion. This method is called recursively
+     * Helper method for performLambdaConversion. This method goes
      * down the tree to perform lambda conversion, looking for the lambda to convert.
      * The lambda that we are converting may not be at top scope
      * (it may be embedded as in e.g. Ax.[Ly.P(y)](x).)
@@ -454,7 +1363,21 @@ public abstract class Expr {
      * @return null if no lambda conversion took place, otherwise the lambda-converted
      * expression 
      */
-    protected abstract Expr performLambdaConversion1(Set accidentalBinders) throws TypeEvaluationException;
+    protected final Expr performLambdaConversion1(Set accidentalBinders) throws TypeEvaluationException {
+        return ExprTransformation.performLambdaConversion1(this, accidentalBinders);
+    }
+    
+    /**
+     * Implemented by subclasses to do the work of performLambdaConversion1 at
+     * this node, which may contain a redex. A node that converts a redex
+     * of its own returns the result. Otherwise it schedules the
+     * subexpressions to look in with conversion.convert (or convertEach)
+     * and returns this expression, into which ExprTransformation puts the
+     * conversion it finds, or it returns null if there is nowhere to look.
+     * ExprTransformation puts the parentheses around this expression around
+     * the result.
+     */
+    protected abstract Expr computeLambdaConversion1(Set accidentalBinders, ExprTransformation conversion) throws TypeEvaluationException;
        
     /**
      * Helper method for performLambdaConversion. This method is called by
@@ -491,7 +1414,32 @@ public abstract class Expr {
      * @throws TypeEvaluationException if a type inconsistency is found in any subexpression
      * @return the expression with substitutions performed
      */
-    protected abstract Expr performLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders) throws TypeEvaluationException;
+    protected final Expr performLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders) throws TypeEvaluationException {
+        return ExprTransformation.performLambdaConversion2(this, var, replacement, binders, accidentalBinders);
+    }
+    
+    /**
+     * Implemented by subclasses to do the work of performLambdaConversion2 at
+     * this node. A node whose result does not depend on its subexpressions
+     * returns it. Otherwise it schedules the substitution in its
+     * subexpressions with substitution.substitute, after putting itself
+     * in binders with substitution.bind if it is a binder, and returns this
+     * expression, into which ExprTransformation puts the results.
+     * ExprTransformation puts the parentheses around this expression around
+     * the result.
+     */
+    protected abstract Expr computeLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders, ExprTransformation substitution) throws TypeEvaluationException;
+    
+    /**
+     * Puts the parentheses around this expression around result, a
+     * transformation of this expression, unless it is this expression
+     * itself (or null).
+     */
+    final Expr keepParens(Expr result) {
+        if (parens == null || result == null || result == this)
+            return result;
+        return result.withParensOf(this);
+    }
     
     /**
      * Creates a fresh variable based on the given variable and the 
@@ -505,7 +1453,7 @@ public abstract class Expr {
      */
     public static Var createFreshVar(Var v, Set variablesInUse) {
         while (variablesInUse.contains(v))
-            v = new Var(v.getSymbol() + Identifier.PRIME, v.getType(), v.isTypeExplicit());
+            v = FreshVarGenerator.prime(v);
         return v;
     }
     
@@ -518,7 +1466,11 @@ public abstract class Expr {
      * either bound or free in this expression.
      */
     public final Var createFreshVar(Var v) {
-        return createFreshVar(v, this.getAllVars());
+        // The bit set rules out most variables without indexing the
+        // variables in use.
+        if (!getAllVarSymbols().get(v.getSymbolId()))
+            return v;
+        return new FreshVarGenerator(getAllVars()).createFreshVar(v);
     }
     
     /**
@@ -528,7 +1480,7 @@ public abstract class Expr {
      * either bound or free in this expression.
      */    
     public final Var createFreshVar() {
-        return createFreshVar(Var.X, this.getAllVars());
+        return createFreshVar(Var.X);
     }
 
     /**
@@ -536,24 +1488,18 @@ public abstract class Expr {
      * of this expression that are equal to thisExpr
      * by byExpr. If this expression is equal to thisExpr then byExpr is returned.
      */
-    public final Expr replace(Expr thisExpr, Expr byExpr) {
+    public final Expr replace(final Expr thisExpr, final Expr byExpr) {
+        // A GApp or meaning bracket can only be equal to one of its own kind,
+        // so skip subtrees that contain none.
+        final int kind = thisExpr.getNodeFlags() & (GAPP | MEANING_BRACKETS);
         
-        if (this.equals(thisExpr)) return byExpr;
-        
-        Iterator subExpressions = this.getSubExpressions().iterator();
-        List newSubExpr = new Vector();
-        boolean madeChange = false;
-        while (subExpressions.hasNext()) {
-            Expr next = (Expr) subExpressions.next();
-            Expr newnext = next.replace(thisExpr, byExpr);
-            newSubExpr.add(newnext);
-            if (next != newnext) madeChange = true;
-        }
-        
-        if (madeChange)
-	    return createFromSubExpressions(newSubExpr);
-	else
-	    return this;
+        return rewrite(new Rewriter() {
+            Expr enter(Expr e) {
+                if (e.equals(thisExpr)) return byExpr;
+                if (kind != 0 && (e.getFlags() & kind) == 0) return e;
+                return null;
+            }
+        });
     }
     
     /**
@@ -565,8 +1511,11 @@ public abstract class Expr {
      * the map argument will be a function from GApps to variables, but this need not
      * be the case.
      *
-     * The replacements are performed in the order of traversal inherent to the map.
-     * If the map is unsorted then no guarantee is given as to the order of replacements.
+     * The replacements are simultaneous: the expression is traversed once,
+     * and each subexpression is looked up in the map by its hash code. The
+     * values put in place are not themselves searched for keys, and
+     * subexpressions that contain no key are shared with this expression
+     * rather than copied.
      *
      * Note: An actual AssignmentFunction can't be given as an argument because
      * it's not a Map. We don't provide replaceAll(AssignmentFunction) because
@@ -575,19 +1524,91 @@ public abstract class Expr {
      * applyTo(Expr) in the AssignmentFunction class. I.e. instead of writing
      * e = replaceAll(assnFn), write e = assnFn.applyTo(e).
      * 
-     * @param assignmentFunction a map from expressions to expressions
+     * @param assignmentFunction a map from expressions to expressions, which
+     * must be a map that looks up its keys by equals() and hashCode(), such
+     * as a HashMap
      * @return an expression
      */
-    public final Expr replaceAll(Map assignmentFunction) {
-        Iterator iter = assignmentFunction.entrySet().iterator();
-        Expr result = this;
-        while (iter.hasNext()) {
-            Map.Entry next = (Map.Entry) iter.next();
-            Expr oldExpr = (Expr) next.getKey();
-            Expr newExpr = (Expr) next.getValue();
-            result = result.replace(oldExpr, newExpr);
+    public final Expr replaceAll(final Map assignmentFunction) {
+        if (assignmentFunction.isEmpty())
+            return this;
+        
+        // If every key is a GApp or a meaning bracket, subtrees that
+        // contain neither can be skipped, as in replace().
+        int kind = GAPP | MEANING_BRACKETS;
+        for (Iterator i = assignmentFunction.keySet().iterator(); i.hasNext(); ) {
+            int f = ((Expr)i.next()).getNodeFlags() & (GAPP | MEANING_BRACKETS);
+            if (f == 0) {
+                kind = 0;
+                break;
+            }
+            kind |= f;
+        }
+        final int keyFlags = kind;
+        
+        return rewrite(new Rewriter() {
+            Expr enter(Expr e) {
+                if (keyFlags != 0 && (e.getFlags() & keyFlags) == 0) return e;
+                return (Expr)assignmentFunction.get(e);
+            }
+        });
+    }
+    
+    /**
+     * A transformation of an expression for rewrite.
+     */
+    private static abstract class Rewriter {
+        /**
+         * Returns the expression to put in place of e without going into
+         * it, or null to go into its subexpressions. The default
+         * implementation returns null.
+         */
+        Expr enter(Expr e) {
+            return null;
+        }
+        
+        /**
+         * Returns the expression to put in place of e once its
+         * subexpressions have been put in place. The default implementation
+         * returns e.
+         */
+        Expr leave(Expr e) {
+            return e;
+        }
+    }
+    
+    /**
+     * Applies a transformation to this expression top-down, with an
+     * explicit stack of the nodes on the way down to the one being
+     * visited. Each node is rebuilt with withChild as its subexpressions
+     * are transformed, so subexpressions that do not change are shared
+     * with this expression rather than copied.
+     */
+    private Expr rewrite(Rewriter rewriter) {
+        Expr result = rewriter.enter(this);
+        if (result != null)
+            return result;
+        
+        ArrayDeque path = new ArrayDeque();
+        path.push(new Frame(this));
+        while (true) {
+            Frame f = (Frame)path.peek();
+            if (f.next < f.expr.arity()) {
+                Expr c = f.expr.child(f.next++);
+                Expr r = rewriter.enter(c);
+                if (r == null)
+                    path.push(new Frame(c));
+                else
+                    f.expr = f.expr.withChild(f.next - 1, r);
+                continue;
+            }
+            path.pop();
+            result = rewriter.leave(f.expr);
+            if (path.isEmpty())
+                return result;
+            Frame parent = (Frame)path.peek();
+            parent.expr = parent.expr.withChild(parent.next - 1, result);
         }
-        return result;
     }
     
     /**
@@ -597,18 +1618,58 @@ public abstract class Expr {
     public abstract List getSubExpressions();
     
     /**
-     * Creates a new expression using all the subexpressions given. If
+     * Creates an expression using all the subexpressions given. If
      * the constructor of the concrete subclass takes any additional 
-     * arguments besides the subexpressions, the values for these are taken from
-     * this instance.
+     * arguments besides the subexpressions, the values for these (and the
+     * parentheses around the expression) are taken from this instance.
      *
      * @param subExpressions the list of subexpressions
      * @throws IllegalArgumentException if the list does not contain exactly the
      * number of subexpressions needed for the constructor of the concrete subclass
-     * @return a new expression of the same runtime type as this
+     * @return an expression of the same runtime type as this, which is this
+     * expression if the subexpressions are its own
      */
-    public abstract Expr createFromSubExpressions(List subExpressions)
-     throws IllegalArgumentException;
+    public final Expr createFromSubExpressions(List subExpressions)
+     throws IllegalArgumentException {
+        if (subExpressions.size() != arity())
+            throw new IllegalArgumentException("List does not contain exactly " + arity() + " subexpressions");
+        Expr result = this;
+        for (int i = 0; i < arity(); i++)
+            result = result.withChild(i, (Expr)subExpressions.get(i));
+        return result;
+    }
+    
+    /**
+     * Returns the number of subexpressions of this expression, i.e. the
+     * size of the list that getSubExpressions returns. Together with
+     * child and withChild, this lets a traversal visit the subexpressions
+     * without allocating a list for them.
+     */
+    public abstract int arity();
+    
+    /**
+     * Returns the subexpression at the given position, i.e. the one that
+     * getSubExpressions().get(index) returns.
+     * @throws IndexOutOfBoundsException if index is not less than arity()
+     */
+    public abstract Expr child(int index);
+    
+    /**
+     * Returns an expression like this one but with the subexpression at
+     * the given position replaced by the given expression, taking
+     * everything else from this instance as createFromSubExpressions does.
+     * If the subexpression is already that expression, this is returned.
+     * @throws IndexOutOfBoundsException if index is not less than arity()
+     */
+    public final Expr withChild(int index, Expr child) {
+        return keepParens(createWithChild(index, child));
+    }
+    
+    /**
+     * Implemented by subclasses to do the work of withChild, which puts the
+     * parentheses around this expression around the result.
+     */
+    protected abstract Expr createWithChild(int index, Expr child);
     
     
     
@@ -617,7 +1678,7 @@ public abstract class Expr {
     * This method creates an alphabetical variant by altering the variables used by
     * each of the binders in bindersToChange to a fresh variable.  Binders implement
     * this method by doing the following: If they are in bindersToChange, they choose a fresh variable based
-    * on variablesInUse, add that variable to variablesInUse when they pass it down,
+    * on variablesInUse, add that variable to variablesInUse (with FreshVarGenerator.with) when they pass it down,
     * and add a mapping from the old variable to the new variable in updates, passing
     * that down as well.  Variables implement this method by replacing themselves with
     * another variable according to updates.
@@ -626,9 +1687,30 @@ public abstract class Expr {
     * @param updates a replacement mapping from variables in use to fresh variables
     * @return an expression with alphabetical variant performed
     */
-    protected abstract Expr createAlphabeticalVariant(Set bindersToChange, Set variablesInUse, Map updates);
+    protected final Expr createAlphabeticalVariant(Set bindersToChange, FreshVarGenerator variablesInUse, Map updates) {
+        return ExprTransformation.createAlphabeticalVariant(this, bindersToChange, variablesInUse, updates);
+    }
     
-    public abstract Expr createAlphatypicalVariant(HashMap<Type,Type> alignments, Set variablesInUse, Map updates);
+    /**
+     * Implemented by subclasses to do the work of createAlphabeticalVariant
+     * at this node. A node without subexpressions returns its variant.
+     * Otherwise it schedules the variants of its subexpressions with
+     * variant.vary, passing down the variables in use and updates for their
+     * scope, and returns the expression to put them into, which is this
+     * expression unless the node itself changes. ExprTransformation puts
+     * the parentheses around this expression around the result.
+     */
+    protected abstract Expr computeAlphabeticalVariant(Set bindersToChange, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant);
+    
+    public final Expr createAlphatypicalVariant(HashMap<Type,Type> alignments, FreshVarGenerator variablesInUse, Map updates) {
+        return ExprTransformation.createAlphatypicalVariant(this, alignments, variablesInUse, updates);
+    }
+    
+    /**
+     * Implemented by subclasses to do the work of createAlphatypicalVariant
+     * at this node, in the way computeAlphabeticalVariant does.
+     */
+    protected abstract Expr computeAlphatypicalVariant(HashMap<Type,Type> alignments, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant);
     
     public static HashMap<Type,Type> alignTypes(Type funcT, Type argT) throws MeaningEvaluationException {
         // funcT is the domain type of some function, (eg the <b,t> in <<b,t>,t>)
@@ -636,41 +1718,47 @@ public abstract class Expr {
         HashMap<Type,Type> matches = new HashMap<Type,Type>();
                 
         // Need to walk down the type trees in parallel
-        if (funcT instanceof CompositeType) {
-            if (!(argT instanceof CompositeType)) {
-                throw new MeaningEvaluationException("I'm seeing a function of type " + funcT +
-                        ", but an argument of type " + argT + ", which I can't match up"); // debug
-            }
-            Type funcLT = ((CompositeType)funcT).getLeft(); // b
-            Type funcRT = ((CompositeType)funcT).getRight(); // t
-            Type argLT = ((CompositeType)argT).getLeft(); // et
-            Type argRT = ((CompositeType)argT).getRight(); // t
-            HashMap<Type,Type> leftAlignments = alignTypes(funcLT, argLT);
-            HashMap<Type,Type> rightAlignments = alignTypes(funcRT, argRT);
-            matches.putAll(leftAlignments);
-            // make sure that a polymorphic type is not assigned to two different
-            // concrete types
-            for (Map.Entry<Type,Type> entry : matches.entrySet()) {
-                Type key = entry.getKey();
-                if (rightAlignments.containsKey(key)) {
-                    if (!rightAlignments.get(key).equals(entry.getValue())) {
-                        throw new MeaningEvaluationException("type variable " +
-                                entry.getKey() + " matches " + entry.getValue() + " and " + rightAlignments.get(key));
+        switch (funcT.getKind()) {
+            case Type.COMPOSITE_TYPE: {
+                if (argT.getKind() != Type.COMPOSITE_TYPE) {
+                    throw new MeaningEvaluationException("I'm seeing a function of type " + funcT +
+                            ", but an argument of type " + argT + ", which I can't match up"); // debug
+                }
+                Type funcLT = ((CompositeType)funcT).getLeft(); // b
+                Type funcRT = ((CompositeType)funcT).getRight(); // t
+                Type argLT = ((CompositeType)argT).getLeft(); // et
+                Type argRT = ((CompositeType)argT).getRight(); // t
+                HashMap<Type,Type> leftAlignments = alignTypes(funcLT, argLT);
+                HashMap<Type,Type> rightAlignments = alignTypes(funcRT, argRT);
+                matches.putAll(leftAlignments);
+                // make sure that a polymorphic type is not assigned to two different
+                // concrete types
+                for (Map.Entry<Type,Type> entry : matches.entrySet()) {
+                    Type key = entry.getKey();
+                    if (rightAlignments.containsKey(key)) {
+                        if (!rightAlignments.get(key).equals(entry.getValue())) {
+                            throw new MeaningEvaluationException("type variable " +
+                                    entry.getKey() + " matches " + entry.getValue() + " and " + rightAlignments.get(key));
+                        }
                     }
                 }
+                matches.putAll(rightAlignments);
+                break;
             }
-            matches.putAll(rightAlignments);
-        } else if (funcT instanceof ProductType) {
-            if (!(argT instanceof ProductType)) {
-                throw new MeaningEvaluationException("product problem"); // debug
-            }
-            productTypeHelper(((ProductType)funcT).getSubTypes(), ((ProductType)argT).getSubTypes(), matches);
-        } else {
-            if ((argT instanceof ConstType || argT instanceof CompositeType) && funcT instanceof VarType) {
-                matches.put(funcT, argT);
-            } else if (argT instanceof VarType && (funcT instanceof ConstType || funcT instanceof CompositeType)) {
-                matches.put(argT,funcT);
-            }
+            case Type.PRODUCT_TYPE:
+                if (argT.getKind() != Type.PRODUCT_TYPE) {
+                    throw new MeaningEvaluationException("product problem"); // debug
+                }
+                productTypeHelper(((ProductType)funcT).getSubTypes(), ((ProductType)argT).getSubTypes(), matches);
+                break;
+            case Type.VAR_TYPE:
+                if (argT.getKind() == Type.CONST_TYPE || argT.getKind() == Type.COMPOSITE_TYPE)
+                    matches.put(funcT, argT);
+                break;
+            case Type.CONST_TYPE:
+                if (argT.getKind() == Type.VAR_TYPE)
+                    matches.put(argT, funcT);
+                break;
         }
         return matches;
     }
@@ -685,7 +1773,7 @@ public abstract class Expr {
                             fHead + " matches " + matches.get(fHead) + " and " + aHead);
                 }
             } else {
-                if (fHead instanceof VarType) {
+                if (fHead.getKind() == Type.VAR_TYPE) {
                     matches.put(fHead, aHead);
                 }
             }
@@ -699,7 +1787,7 @@ public abstract class Expr {
         Type oldRight = oldtype.getRight();
         Type newLeft;
         Type newRight;
-        if (oldLeft instanceof CompositeType) {
+        if (oldLeft.getKind() == Type.COMPOSITE_TYPE) {
             newLeft = getAlignedType(((CompositeType)oldLeft), alignments);
         } else {
             if (alignments.containsKey(oldLeft)) {
@@ -708,7 +1796,7 @@ public abstract class Expr {
                 newLeft = oldLeft;
             }
         }
-        if (oldRight instanceof CompositeType) {
+        if (oldRight.getKind() == Type.COMPOSITE_TYPE) {
             newRight = getAlignedType(((CompositeType)oldRight), alignments);
         } else {
             if (alignments.containsKey(oldRight)) {
@@ -722,61 +1810,378 @@ public abstract class Expr {
     
     /**
      * Writes a serialization of the expression to a DataOutputStream.
-     * In implementations of this method in subclasses, the first thing written
-     * must be the name of the class as a string (i.e. "lambdacalc.logic.And").
+     * Each node is written by writeNodeToStream, which in implementations
+     * in subclasses must first write the header, with writeNodeHeader,
+     * which is the name of the class as a string (i.e.
+     * "lambdacalc.logic.And") or, if the stream is an ExprOutputStream, a
+     * one-byte tag, and then anything else about the node that comes
+     * before its subexpressions. The subexpressions follow, in order,
+     * and then whatever writeNodeTrailer writes. The expression is walked
+     * with an explicit stack, so that expressions of any depth can be
+     * written.
      *
-     * Any subclass must provide a constructor that takes a DataInputStream as 
-     * an argument and creates a deserialized instance by reading from that argument.
+     * Any subclass without subexpressions must provide a constructor that
+     * takes a DataInputStream as an argument and creates a deserialized
+     * instance by reading from that argument.
      *
-     * Note also that any subclass needs to be recorded into the code of readFromStream.
+     * Note also that any subclass needs to be recorded into the code of
+     * readFromStream and into NODE_CLASS_NAMES.
+     *
+     * The parentheses around the expression are written around it as
+     * lambdacalc.logic.Parens expressions, as they were when parentheses
+     * were nodes of their own, so that the data can still be read by
+     * earlier versions. In the compact format, each pair of parentheses is
+     * written before the expression as the Parens tag and whether the
+     * parentheses are round.
      *
      * @param output the data stream to which the expression is written
      */
-    public abstract void writeToStream(java.io.DataOutputStream output) throws java.io.IOException;
-   
+    public final void writeToStream(java.io.DataOutputStream output) throws java.io.IOException {
+        writeNodeStart(output);
+        ArrayDeque path = new ArrayDeque();
+        path.push(new Frame(this));
+        while (!path.isEmpty()) {
+            Frame f = (Frame)path.peek();
+            if (f.next < f.expr.arity()) {
+                Expr c = f.expr.child(f.next++);
+                c.writeNodeStart(output);
+                path.push(new Frame(c));
+            } else {
+                path.pop();
+                f.expr.writeNodeEnd(output);
+            }
+        }
+    }
+    
+    /**
+     * Writes the parentheses around this node and the node itself, up to
+     * its subexpressions.
+     */
+    private void writeNodeStart(java.io.DataOutputStream output) throws java.io.IOException {
+        if (parens != null) {
+            for (int i = 0; i < parens.length(); i++) {
+                if (output instanceof ExprOutputStream) {
+                    output.writeByte(PARENS_TAG);
+                    output.writeBoolean(parens.charAt(i) == '(' ? ROUND : SQUARE);
+                } else {
+                    output.writeUTF(PARENS_CLASS_NAME);
+                    output.writeShort(0); // data format version (of Unary)
+                }
+            }
+        }
+        writeNodeToStream(output);
+    }
+    
+    /**
+     * Writes what comes after the subexpressions of this node.
+     */
+    private void writeNodeEnd(java.io.DataOutputStream output) throws java.io.IOException {
+        writeNodeTrailer(output);
+        if (parens != null && !(output instanceof ExprOutputStream)) {
+            for (int i = parens.length() - 1; i >= 0; i--) {
+                output.writeShort(0); // data format version (of Parens)
+                output.writeBoolean(parens.charAt(i) == '(' ? ROUND : SQUARE);
+            }
+        }
+    }
+    
+    private static final String PARENS_CLASS_NAME = "lambdacalc.logic.Parens";
+    
+    /**
+     * The classes of nodes in the order of their tags in the compact
+     * format, which readNodeStart dispatches on. New classes go at
+     * the end, so that the tags of the others stay the same.
+     */
+    private static final String[] NODE_CLASS_NAMES = {
+        PARENS_CLASS_NAME,
+        "lambdacalc.logic.And",
+        "lambdacalc.logic.ArgList",
+        "lambdacalc.logic.Cardinality",
+        "lambdacalc.logic.Const",
+        "lambdacalc.logic.Equality",
+        "lambdacalc.logic.Exists",
+        "lambdacalc.logic.ForAll",
+        "lambdacalc.logic.FunApp",
+        "lambdacalc.logic.GApp",
+        "lambdacalc.logic.If",
+        "lambdacalc.logic.Iff",
+        "lambdacalc.logic.Iota",
+        "lambdacalc.logic.Lambda",
+        "lambdacalc.logic.Multiplication",
+        "lambdacalc.logic.Fusion",
+        "lambdacalc.logic.Not",
+        "lambdacalc.logic.NumericRelation$LessThan",
+        "lambdacalc.logic.NumericRelation$LessThanOrEqual",
+        "lambdacalc.logic.NumericRelation$GreaterThan",
+        "lambdacalc.logic.NumericRelation$GreaterThanOrEqual",
+        "lambdacalc.logic.Or",
+        "lambdacalc.logic.MereologicalRelation$PartOf",
+        "lambdacalc.logic.SetWithElements",
+        "lambdacalc.logic.SetWithGenerator",
+        "lambdacalc.logic.SetRelation$Subset",
+        "lambdacalc.logic.SetRelation$ProperSubset",
+        "lambdacalc.logic.SetRelation$NotSubset",
+        "lambdacalc.logic.SetRelation$Superset",
+        "lambdacalc.logic.SetRelation$ProperSuperset",
+        "lambdacalc.logic.SetRelation$NotSuperset",
+        "lambdacalc.logic.SetRelation$Intersect",
+        "lambdacalc.logic.SetRelation$Union",
+        "lambdacalc.logic.Var",
+    };
+    
+    private static final int PARENS_TAG = 0;
+    
+    private static final HashMap NODE_TAGS = new HashMap(); // class name => Integer
+    
+    static {
+        for (int i = 0; i < NODE_CLASS_NAMES.length; i++)
+            NODE_TAGS.put(NODE_CLASS_NAMES[i], Integer.valueOf(i));
+    }
+    
+    /**
+     * Implemented by subclasses to write this node for writeToStream, up
+     * to its subexpressions, which writeToStream writes next. The
+     * parentheses around the expression are written by writeToStream too.
+     */
+    protected abstract void writeNodeToStream(java.io.DataOutputStream output) throws java.io.IOException;
+    
+    /**
+     * Writes whatever comes after the subexpressions of this node for
+     * writeToStream. The default implementation writes nothing.
+     */
+    protected void writeNodeTrailer(java.io.DataOutputStream output) throws java.io.IOException {
+    }
+    
+    /**
+     * Writes the header of this node for writeNodeToStream: the name of
+     * its class and the data format version, or in the compact format just
+     * the tag of its class.
+     */
+    protected final void writeNodeHeader(java.io.DataOutputStream output, int version) throws java.io.IOException {
+        if (output instanceof ExprOutputStream) {
+            Integer tag = (Integer)NODE_TAGS.get(getClass().getName());
+            if (tag == null) throw new java.io.IOException("This class cannot be serialized.");
+            output.writeByte(tag.intValue());
+        } else {
+            output.writeUTF(getClass().getName());
+            output.writeShort(version);
+        }
+    }
+    
     /**
-     * Reads a serialized expression from a DataInputStream.
+     * Writes a data format version, which the compact format leaves out.
+     */
+    protected static void writeNodeVersion(java.io.DataOutputStream output, int version) throws java.io.IOException {
+        if (!(output instanceof ExprOutputStream))
+            output.writeShort(version);
+    }
+    
+    /**
+     * Reads the data format version written by writeNodeHeader or
+     * writeNodeVersion, which the compact format leaves out.
+     */
+    protected static void readNodeVersion(java.io.DataInputStream input, int version) throws java.io.IOException {
+        if (input instanceof ExprInputStream) return;
+        if (input.readShort() != version) throw new java.io.IOException("Invalid data."); // future version?
+    }
+    
+    /**
+     * Writes a number, such as a count of subexpressions, as a varint in
+     * the compact format or as four bytes otherwise.
+     */
+    protected static void writeNumber(java.io.DataOutputStream output, int value) throws java.io.IOException {
+        if (output instanceof ExprOutputStream)
+            ((ExprOutputStream)output).writeVarInt(value);
+        else
+            output.writeInt(value);
+    }
+    
+    protected static int readNumber(java.io.DataInputStream input) throws java.io.IOException {
+        if (input instanceof ExprInputStream)
+            return ((ExprInputStream)input).readVarInt();
+        return input.readInt();
+    }
+    
+    /**
+     * Writes an identifier symbol, in the compact format as an index into
+     * the table of symbols written to the stream so far.
+     */
+    protected static void writeSymbol(java.io.DataOutputStream output, String symbol) throws java.io.IOException {
+        if (output instanceof ExprOutputStream)
+            ((ExprOutputStream)output).writeSymbol(symbol);
+        else
+            output.writeUTF(symbol);
+    }
+    
+    protected static String readSymbol(java.io.DataInputStream input) throws java.io.IOException {
+        if (input instanceof ExprInputStream)
+            return ((ExprInputStream)input).readSymbol();
+        return input.readUTF();
+    }
+    
+    /**
+     * Reads a serialized expression from a DataInputStream. The nodes on
+     * the way down to the one being read are kept on an explicit stack,
+     * until their subexpressions have been read, so that expressions of
+     * any depth can be read. Each node is interned (see intern()) as soon
+     * as it is complete, which interns the whole expression bottom-up.
      * @param input the data source from which we read the expression instance
      * @return a deserialized expression
      */
     public static Expr readFromStream(java.io.DataInputStream input) throws java.io.IOException {
-        String exprType = input.readUTF();
-        
-        if (exprType.equals("lambdacalc.logic.And")) return new And(input);
-        if (exprType.equals("lambdacalc.logic.ArgList")) return new ArgList(input);
-        if (exprType.equals("lambdacalc.logic.Cardinality")) return new Cardinality(input);
-        if (exprType.equals("lambdacalc.logic.Const")) return new Const(input);
-        if (exprType.equals("lambdacalc.logic.Equality")) return new Equality(input);
-        if (exprType.equals("lambdacalc.logic.Exists")) return new Exists(input);
-        if (exprType.equals("lambdacalc.logic.ForAll")) return new ForAll(input);
-        if (exprType.equals("lambdacalc.logic.FunApp")) return new FunApp(input);
-        if (exprType.equals("lambdacalc.logic.GApp")) return new GApp(input);
-        if (exprType.equals("lambdacalc.logic.If")) return new If(input);
-        if (exprType.equals("lambdacalc.logic.Iff")) return new Iff(input);
-        if (exprType.equals("lambdacalc.logic.Iota")) return new Iota(input);
-        if (exprType.equals("lambdacalc.logic.Lambda")) return new Lambda(input);
-        if (exprType.equals("lambdacalc.logic.Multiplication")) return new Multiplication(input);
-        if (exprType.equals("lambdacalc.logic.Fusion")) return new Fusion(input);
-        if (exprType.equals("lambdacalc.logic.Not")) return new Not(input);
-        if (exprType.equals("lambdacalc.logic.NumericRelation$LessThan")) return new NumericRelation.LessThan(input);
-        if (exprType.equals("lambdacalc.logic.NumericRelation$LessThanOrEqual")) return new NumericRelation.LessThanOrEqual(input);
-        if (exprType.equals("lambdacalc.logic.NumericRelation$GreaterThan")) return new NumericRelation.GreaterThan(input);
-        if (exprType.equals("lambdacalc.logic.NumericRelation$GreaterThanOrEqual")) return new NumericRelation.GreaterThanOrEqual(input);
-        if (exprType.equals("lambdacalc.logic.Or")) return new Or(input);
-        if (exprType.equals("lambdacalc.logic.Parens")) return new Parens(input);
-        if (exprType.equals("lambdacalc.logic.SetWithElements")) return new SetWithElements(input);
-        if (exprType.equals("lambdacalc.logic.SetWithGenerator")) return new SetWithGenerator(input);
-        if (exprType.equals("lambdacalc.logic.SetRelation$Subset")) return new SetRelation.Subset(input);
-        if (exprType.equals("lambdacalc.logic.SetRelation$ProperSubset")) return new SetRelation.ProperSubset(input);
-        if (exprType.equals("lambdacalc.logic.SetRelation$NotSubset")) return new SetRelation.NotSubset(input);
-        if (exprType.equals("lambdacalc.logic.SetRelation$Superset")) return new SetRelation.Superset(input);
-        if (exprType.equals("lambdacalc.logic.SetRelation$ProperSuperset")) return new SetRelation.ProperSuperset(input);
-        if (exprType.equals("lambdacalc.logic.SetRelation$NotSuperset")) return new SetRelation.NotSuperset(input);
-        if (exprType.equals("lambdacalc.logic.SetRelation$Intersect")) return new SetRelation.Intersect(input);
-        if (exprType.equals("lambdacalc.logic.SetRelation$Union")) return new SetRelation.Union(input);
-        if (exprType.equals("lambdacalc.logic.Var")) return new Var(input);
-        
-        throw new java.io.IOException("Invalid data: An expression type was used in the file that is not available in this version of the program: \"" + exprType + "\"");
+        ArrayDeque path = new ArrayDeque(); // of NodeReader
+        while (true) {
+            Expr node = readNodeStart(input, path);
+            if (node == null)
+                continue; // a node with subexpressions, which are read next
+            
+            // Hand the node up to the node it belongs to, finishing that one
+            // too if this was its last subexpression, and so on up.
+            while (true) {
+                node = node.intern();
+                if (path.isEmpty())
+                    return node;
+                NodeReader r = (NodeReader)path.peek();
+                r.children[r.next++] = node;
+                if (r.next < r.children.length)
+                    break;
+                path.pop();
+                node = r.finish(input);
+            }
+        }
+    }
+    
+    /**
+     * A node that is being read, whose subexpressions have been read up
+     * to the position of next.
+     */
+    private static final class NodeReader {
+        final int tag; // the index of its class in NODE_CLASS_NAMES
+        final Expr[] children;
+        int next;
+        boolean round; // for PARENS_TAG in the compact format
+        
+        NodeReader(int tag, int arity) {
+            this.tag = tag;
+            this.children = new Expr[arity];
+        }
+        
+        /**
+         * Reads what comes after the subexpressions of the node and
+         * creates it.
+         */
+        Expr finish(java.io.DataInputStream input) throws java.io.IOException {
+            Expr[] c = children;
+            boolean flag = false;
+            switch (tag) {
+                case PARENS_TAG:
+                    if (!(input instanceof ExprInputStream)) {
+                        readNodeVersion(input, 0); // of Parens
+                        round = input.readBoolean();
+                    }
+                    return c[0].withParens(round);
+                case 5: // Equality
+                    readNodeVersion(input, 0);
+                    flag = input.readBoolean();
+                    break;
+                case 6: case 7: case 12: case 13: // the binders
+                    flag = input.readBoolean(); // hasPeriod
+                    if (!(c[0] instanceof Identifier))
+                        throw new java.io.IOException("Invalid data.");
+                    break;
+            }
+            
+            switch (tag) {
+                case 1: return new And(c[0], c[1]);
+                case 2: return new ArgList(c);
+                case 3: return new Cardinality(c[0]);
+                case 5: return new Equality(c[0], c[1], flag);
+                case 6: return new Exists((Identifier)c[0], c[1], flag);
+                case 7: return new ForAll((Identifier)c[0], c[1], flag);
+                case 8: return new FunApp(c[0], c[1]);
+                case 10: return new If(c[0], c[1]);
+                case 11: return new Iff(c[0], c[1]);
+                case 12: return new Iota((Identifier)c[0], c[1], flag);
+                case 13: return new Lambda((Identifier)c[0], c[1], flag);
+                case 14: return new Multiplication(c[0], c[1]);
+                case 15: return new Fusion(c[0], c[1]);
+                case 16: return new Not(c[0]);
+                case 17: return new NumericRelation.LessThan(c[0], c[1]);
+                case 18: return new NumericRelation.LessThanOrEqual(c[0], c[1]);
+                case 19: return new NumericRelation.GreaterThan(c[0], c[1]);
+                case 20: return new NumericRelation.GreaterThanOrEqual(c[0], c[1]);
+                case 21: return new Or(c[0], c[1]);
+                case 22: return new MereologicalRelation.PartOf(c[0], c[1]);
+                case 23: return new SetWithElements(c);
+                case 24: return new SetWithGenerator(c[0], c[1]);
+                case 25: return new SetRelation.Subset(c[0], c[1]);
+                case 26: return new SetRelation.ProperSubset(c[0], c[1]);
+                case 27: return new SetRelation.NotSubset(c[0], c[1]);
+                case 28: return new SetRelation.Superset(c[0], c[1]);
+                case 29: return new SetRelation.ProperSuperset(c[0], c[1]);
+                case 30: return new SetRelation.NotSuperset(c[0], c[1]);
+                case 31: return new SetRelation.Intersect(c[0], c[1]);
+                case 32: return new SetRelation.Union(c[0], c[1]);
+            }
+            throw new IllegalStateException(); // not reached since readNodeStart only accepts the tags above
+        }
+    }
+    
+    /**
+     * Reads the start of a node: its class and, for a node without
+     * subexpressions, the whole node, which is returned. For any other node,
+     * whatever comes before its subexpressions is read and a NodeReader for
+     * it is pushed onto path, and null is returned.
+     */
+    private static Expr readNodeStart(java.io.DataInputStream input, ArrayDeque path) throws java.io.IOException {
+        int tag;
+        if (input instanceof ExprInputStream) {
+            // In the compact format, the tag is the index of the class in
+            // NODE_CLASS_NAMES.
+            tag = input.readUnsignedByte();
+            if (tag >= NODE_CLASS_NAMES.length)
+                throw new java.io.IOException("Invalid data: An expression type was used in the file that is not available in this version of the program: tag " + tag);
+        } else {
+            String exprType = input.readUTF();
+            Integer t = (Integer)NODE_TAGS.get(exprType);
+            if (t == null)
+                throw new java.io.IOException("Invalid data: An expression type was used in the file that is not available in this version of the program: \"" + exprType + "\"");
+            tag = t.intValue();
+        }
+        
+        NodeReader r;
+        switch (tag) {
+            case 4: return new Const(input);
+            case 9: return new GApp(input);
+            case 33: return new Var(input);
+            
+            case PARENS_TAG: {
+                r = new NodeReader(tag, 1);
+                if (input instanceof ExprInputStream)
+                    r.round = input.readBoolean();
+                else
+                    readNodeVersion(input, 0); // of Unary
+                break;
+            }
+            case 2: case 23: { // ArgList, SetWithElements
+                readNodeVersion(input, 0);
+                int nexprs = readNumber(input);
+                if (nexprs < 2 || nexprs > 25) // sanity checks
+                    throw new java.io.IOException("Invalid data.");
+                r = new NodeReader(tag, nexprs);
+                break;
+            }
+            case 3: case 16: // Cardinality, Not
+                readNodeVersion(input, 0);
+                r = new NodeReader(tag, 1);
+                break;
+            default:
+                readNodeVersion(input, 0);
+                r = new NodeReader(tag, 2);
+                break;
+        }
+        path.push(r);
+        return null;
     }
 
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+/*
+ * ExprComparison.java
+ */
+
+package lambdacalc.logic;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * A comparison of two expressions for Expr.equals and the other tests of
+ * equivalence, which works through the pairs of nodes to compare on an
+ * explicit stack rather than by recursion, so that expressions of any
+ * depth can be compared.
+ *
+ * Each pair of nodes is first compared by itself with Expr.equalsNode.
+ * If the nodes match, Expr.compareSubExpressions then schedules the
+ * comparisons of their subexpressions with compare, which are carried out
+ * in the order they were scheduled before anything that was already on
+ * the stack. A binder puts the pair of variables it binds into the
+ * BoundVarMap with bind, and they are taken out again once the
+ * comparisons it scheduled are done.
+ */
+public final class ExprComparison {
+    
+    private final ArrayDeque steps = new ArrayDeque(); // the next one first
+    private final ArrayList scheduled = new ArrayList(); // by the pair of nodes being compared
+    private BoundVarMap bound; // the map bind put variables into for that pair
+    private int boundCount; // and how many
+    
+    /**
+     * A pair of expressions to compare and how, or, if a is null, a
+     * number of pairs of variables to take out of boundVars.
+     */
+    private static final class Step {
+        final Expr a, b;
+        final boolean collapseBoundVars;
+        final BoundVarMap boundVars;
+        final boolean collapseAllVars;
+        final Map freeVarMap;
+        final int pops;
+        
+        Step(Expr a, Expr b, boolean collapseBoundVars, BoundVarMap boundVars, boolean collapseAllVars, Map freeVarMap) {
+            this.a = a;
+            this.b = b;
+            this.collapseBoundVars = collapseBoundVars;
+            this.boundVars = boundVars;
+            this.collapseAllVars = collapseAllVars;
+            this.freeVarMap = freeVarMap;
+            this.pops = 0;
+        }
+        
+        Step(BoundVarMap boundVars, int pops) {
+            this.a = null;
+            this.b = null;
+            this.collapseBoundVars = true;
+            this.boundVars = boundVars;
+            this.collapseAllVars = false;
+            this.freeVarMap = null;
+            this.pops = pops;
+        }
+    }
+    
+    /**
+     * Creates the comparison of a with b. The parameters are those of
+     * Expr.equalsNode.
+     */
+    ExprComparison(Expr a, Expr b, boolean collapseBoundVars, BoundVarMap boundVars, boolean collapseAllVars, Map freeVarMap) {
+        steps.push(new Step(a, b, collapseBoundVars, boundVars, collapseAllVars, freeVarMap));
+    }
+    
+    /**
+     * Carries out the comparison.
+     * @return true iff the expressions are equal in the way asked for
+     */
+    boolean run() {
+        while (!steps.isEmpty()) {
+            Step s = (Step)steps.pop();
+            if (s.a == null) {
+                s.boundVars.pop(s.pops);
+                continue;
+            }
+            
+            if (!s.a.equalsNode(s.b, s.collapseBoundVars, s.boundVars, s.collapseAllVars, s.freeVarMap))
+                return false;
+            if (s.a.arity() == 0)
+                continue;
+            
+            boundCount = 0;
+            boolean ok = s.a.compareSubExpressions(s.b, s.collapseBoundVars, s.boundVars, s.collapseAllVars, s.freeVarMap, this);
+            if (!ok)
+                return false;
+            
+            if (boundCount > 0)
+                steps.push(new Step(bound, boundCount));
+            for (int i = scheduled.size() - 1; i >= 0; i--)
+                steps.push(scheduled.get(i));
+            scheduled.clear();
+        }
+        return true;
+    }
+    
+    /**
+     * Schedules the comparison of a with b, for compareSubExpressions.
+     * The parameters are those of Expr.equalsNode.
+     */
+    void compare(Expr a, Expr b, boolean collapseBoundVars, BoundVarMap boundVars, boolean collapseAllVars, Map freeVarMap) {
+        scheduled.add(new Step(a, b, collapseBoundVars, boundVars, collapseAllVars, freeVarMap));
+    }
+    
+    /**
+     * Equates thisVar with otherVar in boundVars for the comparisons that
+     * compareSubExpressions schedules.
+     */
+    void bind(BoundVarMap boundVars, Identifier thisVar, Identifier otherVar) {
+        boundVars.push(thisVar, otherVar);
+        bound = boundVars;
+        boundCount++;
+    }
+    
+    /**
+     * Schedules the comparison of the operands of two nested applications
+     * of an associative operator, such as a & [b & c] and [a & b] & c,
+     * whose grouping does not matter. Each expression is flattened as
+     * far as it goes (until a descendant of a different class is reached)
+     * and the operands are compared in order.
+     * @return false if the two have different numbers of operands
+     */
+    boolean compareOperands(Expr a, Expr b, boolean collapseBoundVars, BoundVarMap boundVars, boolean collapseAllVars, Map freeVarMap) {
+        ArrayList operandsA = getOperands(a, a.getClass());
+        ArrayList operandsB = getOperands(b, a.getClass());
+        if (operandsA.size() != operandsB.size())
+            return false;
+        for (int i = 0; i < operandsA.size(); i++)
+            compare((Expr)operandsA.get(i), (Expr)operandsB.get(i), collapseBoundVars, boundVars, collapseAllVars, freeVarMap);
+        return true;
+    }
+    
+    private static ArrayList getOperands(Expr expr, Class operator) {
+        ArrayList ret = new ArrayList();
+        ArrayDeque stack = new ArrayDeque();
+        stack.push(expr);
+        while (!stack.isEmpty()) {
+            Expr e = (Expr)stack.pop();
+            if (e.getClass() != operator) {
+                ret.add(e);
+                continue;
+            }
+            for (int i = e.arity() - 1; i >= 0; i--)
+                stack.push(e.child(i));
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+/*
+ * ExprInputStream.java
+ */
+
+package lambdacalc.logic;
+
+import java.util.ArrayList;
+
+/**
+ * A data input stream that reads expressions and types in the compact
+ * format that ExprOutputStream writes. See ExprOutputStream for the format.
+ */
+public class ExprInputStream extends java.io.DataInputStream {
+    
+    private final ArrayList symbols = new ArrayList();
+    private final ArrayList types = new ArrayList();
+    
+    public ExprInputStream(java.io.InputStream in) {
+        super(in);
+    }
+    
+    /**
+     * Reads an int written by ExprOutputStream.writeVarInt.
+     */
+    public int readVarInt() throws java.io.IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new java.io.IOException("Invalid data.");
+    }
+    
+    /**
+     * Reads an identifier symbol written by ExprOutputStream.writeSymbol.
+     */
+    public String readSymbol() throws java.io.IOException {
+        int index = readVarInt();
+        if (index == 0) {
+            String symbol = readUTF();
+            symbols.add(symbol);
+            return symbol;
+        }
+        if (index > symbols.size())
+            throw new java.io.IOException("Invalid data.");
+        return (String)symbols.get(index - 1);
+    }
+    
+    /**
+     * Reads a reference to a type written before.
+     * @return the type, or null if the type follows in full, in which case
+     * the caller reads it and then calls addType
+     */
+    Type readTypeReference() throws java.io.IOException {
+        int index = readVarInt();
+        if (index == 0)
+            return null;
+        if (index > types.size())
+            throw new java.io.IOException("Invalid data.");
+        return (Type)types.get(index - 1);
+    }
+    
+    /**
+     * Adds a type that has just been read to the table.
+     */
+    void addType(Type type) {
+        types.add(type);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/*
+ * ExprInterner.java
+ */
+
+package lambdacalc.logic;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+
+/**
+ * The table of canonical expressions behind Expr.intern(). The table is
+ * a hash table of weak references, so canonical instances that are no
+ * longer used anywhere else are dropped from it.
+ *
+ * The lookup is shallow: an expression is interned by first interning its
+ * subexpressions, so that two nodes are written identically exactly when
+ * they are of the same class, agree in Expr.isSameNode, and have the very
+ * same (canonical) subexpressions.
+ */
+final class ExprInterner {
+    
+    private static Entry[] table = new Entry[256];
+    private static int count = 0;
+    private static final ReferenceQueue queue = new ReferenceQueue();
+    
+    private static final class Entry extends WeakReference {
+        final int hash;
+        Entry next;
+        
+        Entry(Expr expr, int hash, Entry next) {
+            super(expr, queue);
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+    
+    private ExprInterner() {
+    }
+    
+    /**
+     * Returns the canonical instance of the given expression.
+     */
+    static Expr intern(Expr expr) {
+        if (expr.isInterned())
+            return expr;
+        
+        // The subexpressions are interned first, bottom-up, with an
+        // explicit stack of the nodes on the way down to the one being
+        // interned, each of which is rebuilt with the canonical instances
+        // of its children as they come back up.
+        ArrayDeque path = new ArrayDeque();
+        path.push(new Node(expr));
+        while (true) {
+            Node n = (Node)path.peek();
+            if (n.next < n.expr.arity()) {
+                Expr c = n.expr.child(n.next++);
+                if (!c.isInterned())
+                    path.push(new Node(c));
+                continue;
+            }
+            path.pop();
+            Expr canonical = lookup(n.expr, n.expr.hashCode());
+            if (path.isEmpty())
+                return canonical;
+            Node parent = (Node)path.peek();
+            parent.expr = parent.expr.withChild(parent.next - 1, canonical);
+        }
+    }
+    
+    /**
+     * A node on the way down in intern, and the position of the child to
+     * intern next.
+     */
+    private static final class Node {
+        Expr expr;
+        int next;
+        
+        Node(Expr expr) {
+            this.expr = expr;
+        }
+    }
+    
+    /**
+     * Looks up expr, whose hash code is computed before taking the lock.
+     */
+    private static synchronized Expr lookup(Expr expr, int hash) {
+        expungeStaleEntries();
+        
+        int index = (hash & 0x7FFFFFFF) % table.length;
+        for (Entry e = table[index]; e != null; e = e.next) {
+            if (e.hash != hash) continue;
+            Expr candidate = (Expr)e.get();
+            if (candidate != null && isSameStructure(candidate, expr))
+                return candidate;
+        }
+        
+        table[index] = new Entry(expr, hash, table[index]);
+        expr.setInterned();
+        if (++count > table.length * 3 / 4)
+            resize();
+        return expr;
+    }
+    
+    /**
+     * Tests whether a and b are written identically, given that their
+     * subexpressions are canonical. Unlike equals, this looks at the
+     * parentheses too.
+     */
+    private static boolean isSameStructure(Expr a, Expr b) {
+        if (a.getClass() != b.getClass() || !a.isSameNode(b))
+            return false;
+        if (a.getParens() == null ? b.getParens() != null : !a.getParens().equals(b.getParens()))
+            return false;
+        if (a.arity() != b.arity())
+            return false;
+        for (int i = 0; i < a.arity(); i++)
+            if (a.child(i) != b.child(i))
+                return false;
+        return true;
+    }
+    
+    private static void resize() {
+        Entry[] old = table;
+        table = new Entry[old.length * 2];
+        for (int i = 0; i < old.length; i++) {
+            Entry e = old[i];
+            while (e != null) {
+                Entry next = e.next;
+                int index = (e.hash & 0x7FFFFFFF) % table.length;
+                e.next = table[index];
+                table[index] = e;
+                e = next;
+            }
+        }
+    }
+    
+    private static void expungeStaleEntries() {
+        Object stale;
+        while ((stale = queue.poll()) != null) {
+            Entry entry = (Entry)stale;
+            int index = (entry.hash & 0x7FFFFFFF) % table.length;
+            Entry prev = null;
+            for (Entry e = table[index]; e != null; prev = e, e = e.next) {
+                if (e == entry) {
+                    if (prev == null)
+                        table[index] = e.next;
+                    else
+                        prev.next = e.next;
+                    count--;
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+/*
+ * ExprKind.java
+ */
+
+package lambdacalc.logic;
+
+/**
+ * The kinds of expressions, as returned by Expr.getKind(). Each concrete
+ * subclass of Expr returns its own kind, so that the reducers, comparisons
+ * and the deserializer can dispatch on a node with a switch statement
+ * rather than a chain of instanceof tests. Adding a new subclass of Expr
+ * means adding a kind here, since getKind() is abstract.
+ */
+public final class ExprKind {
+    
+    public static final int VAR = 0;
+    public static final int CONST = 1;
+    public static final int PARENS = 2; // only the nodes for parentheses in a NamelessTerm, see Expr.withParens
+    public static final int FUN_APP = 3;
+    public static final int LAMBDA = 4;
+    public static final int GAPP = 5;
+    public static final int ARG_LIST = 6;
+    public static final int NOT = 7;
+    public static final int AND = 8;
+    public static final int OR = 9;
+    public static final int IF = 10;
+    public static final int IFF = 11;
+    public static final int EQUALITY = 12;
+    public static final int EXISTS = 13;
+    public static final int FOR_ALL = 14;
+    public static final int IOTA = 15;
+    public static final int CARDINALITY = 16;
+    public static final int MULTIPLICATION = 17;
+    public static final int FUSION = 18;
+    public static final int LESS_THAN = 19;
+    public static final int LESS_THAN_OR_EQUAL = 20;
+    public static final int GREATER_THAN = 21;
+    public static final int GREATER_THAN_OR_EQUAL = 22;
+    public static final int PART_OF = 23;
+    public static final int SET_WITH_ELEMENTS = 24;
+    public static final int SET_WITH_GENERATOR = 25;
+    public static final int SUBSET = 26;
+    public static final int PROPER_SUBSET = 27;
+    public static final int NOT_SUBSET = 28;
+    public static final int SUPERSET = 29;
+    public static final int PROPER_SUPERSET = 30;
+    public static final int NOT_SUPERSET = 31;
+    public static final int INTERSECT = 32;
+    public static final int UNION = 33;
+    
+    /**
+     * The kind of a MeaningBracketExpr, which lives in the lf package.
+     */
+    public static final int MEANING_BRACKETS = 34;
+    
+    private ExprKind() {
+    }
+    
+    /**
+     * Returns whether the kind is that of an Identifier, i.e. a Var or a Const.
+     */
+    public static boolean isIdentifier(int kind) {
+        return kind == VAR || kind == CONST;
+    }
+}
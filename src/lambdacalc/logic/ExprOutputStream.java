@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+/*
+ * ExprOutputStream.java
+ */
+
+package lambdacalc.logic;
+
+import java.util.HashMap;
+
+/**
+ * A data output stream that writes expressions and types in the compact
+ * format, which ExprInputStream reads back.
+ *
+ * In the plain format (any other DataOutputStream), each node of an
+ * expression or type is written with the name of its class and a version
+ * number. In the compact format, each node is written with a one-byte tag
+ * instead, numbers are written as varints, and each identifier symbol and
+ * each type is written out only the first time it occurs in the stream.
+ * After that it is written as a varint index into the table of symbols or
+ * types written so far, which the reader builds up in the same order.
+ *
+ * The format versions of the individual nodes are left out, since the
+ * compact format is versioned as a whole (see ExerciseFile).
+ */
+public class ExprOutputStream extends java.io.DataOutputStream {
+    
+    private final HashMap symbols = new HashMap(); // String => Integer
+    private final HashMap types = new HashMap(); // TypeKey => Integer
+    
+    public ExprOutputStream(java.io.OutputStream out) {
+        super(out);
+    }
+    
+    /**
+     * Writes an int as an unsigned varint: seven bits at a time, low bits
+     * first, with the high bit of each byte set if more bytes follow.
+     * Small non-negative numbers take a single byte.
+     */
+    public void writeVarInt(int value) throws java.io.IOException {
+        while ((value & ~0x7F) != 0) {
+            write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        write(value);
+    }
+    
+    /**
+     * Writes an identifier symbol: a reference to the symbol if it has been
+     * written before, or else the symbol itself, which is added to the table.
+     */
+    public void writeSymbol(String symbol) throws java.io.IOException {
+        Integer index = (Integer)symbols.get(symbol);
+        if (index != null) {
+            writeVarInt(index.intValue() + 1);
+            return;
+        }
+        writeVarInt(0);
+        writeUTF(symbol);
+        symbols.put(symbol, Integer.valueOf(symbols.size()));
+    }
+    
+    /**
+     * Writes a reference to the type if it has been written before.
+     * @return false if the type has not been written before, in which case
+     * the caller writes it and then calls addType
+     */
+    boolean writeTypeReference(Type type) throws java.io.IOException {
+        Integer index = (Integer)types.get(new TypeKey(type));
+        if (index != null) {
+            writeVarInt(index.intValue() + 1);
+            return true;
+        }
+        writeVarInt(0);
+        return false;
+    }
+    
+    /**
+     * Adds a type that has just been written to the table. The subtypes
+     * of a type are added before it, as the reader adds them.
+     */
+    void addType(Type type) {
+        types.put(new TypeKey(type), Integer.valueOf(types.size()));
+    }
+    
+    /**
+     * Types are equal to one another when they could be unified, so they
+     * are put in the table by whether they are written identically.
+     */
+    private static class TypeKey {
+        private final Type type;
+        
+        TypeKey(Type type) {
+            this.type = type;
+        }
+        
+        public boolean equals(Object obj) {
+            return obj instanceof TypeKey && type.isIdenticalTo(((TypeKey)obj).type);
+        }
+        
+        public int hashCode() {
+            return type.hashCode();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+/*
+ * ExprTransformation.java
+ */
+
+package lambdacalc.logic;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A transformation of an expression for performLambdaConversion1,
+ * performLambdaConversion2, createAlphabeticalVariant and
+ * createAlphatypicalVariant, which works through the nodes to transform on
+ * an explicit stack rather than by recursion, so that expressions of any
+ * depth can be converted.
+ *
+ * Each node is first transformed by itself with the compute method of
+ * Expr for the transformation (e.g. Expr.computeLambdaConversion2). That
+ * either returns the result for the node, or schedules the transformation
+ * of some of its subexpressions with convert, substitute or vary and
+ * returns the expression to put their results into, with Expr.withChild,
+ * once they are done. The scheduled transformations are carried out in the
+ * order they were scheduled, before anything that was already on the stack.
+ * A binder that puts itself over the substitutions in its scope with bind
+ * is taken out again once the substitutions it scheduled are done.
+ */
+public final class ExprTransformation {
+    
+    private static final int CONVERSION = 0;
+    private static final int SUBSTITUTION = 1;
+    private static final int ALPHABETICAL_VARIANT = 2;
+    private static final int ALPHATYPICAL_VARIANT = 3;
+    
+    private final int kind;
+    
+    // the parameters of the transformation that are the same at every node
+    private final Set accidentalBinders;
+    private final Var var;
+    private final Expr replacement;
+    private final Set binders; // of the binders over the node being transformed
+    private final Set bindersToChange;
+    private final HashMap<Type,Type> alignments;
+    
+    private final ArrayDeque frames = new ArrayDeque(); // the innermost first
+    private final ArrayList scheduled = new ArrayList(); // by the node being transformed
+    private VariableBindingExpr bound; // the binder it put over them, or null
+    
+    /**
+     * An expression to transform, and where to put the result.
+     */
+    private static final class Step {
+        final int index;
+        final Expr expr;
+        final boolean each; // for CONVERSION, whether to go on after a conversion is found
+        final FreshVarGenerator variablesInUse; // for the variants
+        final Map updates; // likewise
+        
+        Step(int index, Expr expr, boolean each, FreshVarGenerator variablesInUse, Map updates) {
+            this.index = index;
+            this.expr = expr;
+            this.each = each;
+            this.variablesInUse = variablesInUse;
+            this.updates = updates;
+        }
+    }
+    
+    /**
+     * A node whose scheduled subexpressions are being transformed.
+     */
+    private static final class Frame {
+        Expr result; // the expression the results are put into
+        final Step[] steps;
+        int next; // the index of the next step
+        final VariableBindingExpr bound; // the binder to take out afterwards, or null
+        boolean converted; // for CONVERSION, whether a step found one
+        
+        Frame(Expr result, Step[] steps, VariableBindingExpr bound) {
+            this.result = result;
+            this.steps = steps;
+            this.bound = bound;
+        }
+    }
+    
+    private ExprTransformation(int kind, Set accidentalBinders, Var var, Expr replacement, Set binders, Set bindersToChange, HashMap<Type,Type> alignments) {
+        this.kind = kind;
+        this.accidentalBinders = accidentalBinders;
+        this.var = var;
+        this.replacement = replacement;
+        this.binders = binders;
+        this.bindersToChange = bindersToChange;
+        this.alignments = alignments;
+    }
+    
+    /**
+     * Does the work of Expr.performLambdaConversion1.
+     */
+    static Expr performLambdaConversion1(Expr expr, Set accidentalBinders) throws TypeEvaluationException {
+        return new ExprTransformation(CONVERSION, accidentalBinders, null, null, null, null, null)
+                .run(expr, null, null);
+    }
+    
+    /**
+     * Does the work of Expr.performLambdaConversion2.
+     */
+    static Expr performLambdaConversion2(Expr expr, Var var, Expr replacement, Set binders, Set accidentalBinders) throws TypeEvaluationException {
+        return new ExprTransformation(SUBSTITUTION, accidentalBinders, var, replacement, new HashSet(binders), null, null)
+                .run(expr, null, null);
+    }
+    
+    /**
+     * Does the work of Expr.createAlphabeticalVariant.
+     */
+    static Expr createAlphabeticalVariant(Expr expr, Set bindersToChange, FreshVarGenerator variablesInUse, Map updates) {
+        try {
+            return new ExprTransformation(ALPHABETICAL_VARIANT, null, null, null, null, bindersToChange, null)
+                    .run(expr, variablesInUse, updates);
+        } catch (TypeEvaluationException e) {
+            throw new RuntimeException(e); // not reached since making variants does not throw it
+        }
+    }
+    
+    /**
+     * Does the work of Expr.createAlphatypicalVariant.
+     */
+    static Expr createAlphatypicalVariant(Expr expr, HashMap<Type,Type> alignments, FreshVarGenerator variablesInUse, Map updates) {
+        try {
+            return new ExprTransformation(ALPHATYPICAL_VARIANT, null, null, null, null, null, alignments)
+                    .run(expr, variablesInUse, updates);
+        } catch (TypeEvaluationException e) {
+            throw new RuntimeException(e); // not reached since making variants does not throw it
+        }
+    }
+    
+    /**
+     * Carries out the transformation of expr.
+     */
+    private Expr run(Expr expr, FreshVarGenerator variablesInUse, Map updates) throws TypeEvaluationException {
+        Expr result = visit(new Step(-1, expr, false, variablesInUse, updates));
+        if (frames.isEmpty())
+            return result;
+        
+        while (true) {
+            Frame f = (Frame)frames.peek();
+            if (f.next < f.steps.length) {
+                Step s = f.steps[f.next++];
+                if (kind == CONVERSION && f.converted && !s.each)
+                    continue;
+                int depth = frames.size();
+                result = visit(s);
+                if (frames.size() == depth)
+                    put(f, s.index, result);
+                continue;
+            }
+            
+            frames.pop();
+            if (f.bound != null)
+                binders.remove(f.bound);
+            result = (kind == CONVERSION && !f.converted) ? null : f.result;
+            if (frames.isEmpty())
+                return result;
+            Frame parent = (Frame)frames.peek();
+            put(parent, parent.steps[parent.next - 1].index, result);
+        }
+    }
+    
+    /**
+     * Transforms the node of a step by itself. Returns its result, unless
+     * it scheduled subexpressions, in which case a frame is pushed for
+     * them and the result is put in place once they are done.
+     */
+    private Expr visit(Step s) throws TypeEvaluationException {
+        Expr e = s.expr;
+        Expr result;
+        switch (kind) {
+            case CONVERSION:
+                if (!e.mayContainRedex())
+                    return null; // nothing to convert in here
+                result = e.computeLambdaConversion1(accidentalBinders, this);
+                break;
+            case SUBSTITUTION:
+                result = e.computeLambdaConversion2(var, replacement, binders, accidentalBinders, this);
+                break;
+            case ALPHABETICAL_VARIANT:
+                result = e.computeAlphabeticalVariant(bindersToChange, s.variablesInUse, s.updates, this);
+                break;
+            default:
+                result = e.computeAlphatypicalVariant(alignments, s.variablesInUse, s.updates, this);
+                break;
+        }
+        result = e.keepParens(result);
+        
+        if (scheduled.isEmpty()) {
+            if (bound != null)
+                throw new IllegalStateException("A binder was put over no substitutions");
+            return result;
+        }
+        
+        frames.push(new Frame(result, (Step[])scheduled.toArray(new Step[scheduled.size()]), bound));
+        scheduled.clear();
+        bound = null;
+        return null;
+    }
+    
+    /**
+     * Puts the result of a step of the frame in place.
+     */
+    private void put(Frame f, int index, Expr result) {
+        if (kind == CONVERSION) {
+            if (result == null)
+                return; // no conversion took place in there
+            f.converted = true;
+        }
+        f.result = f.result.withChild(index, result);
+    }
+    
+    /**
+     * Schedules the search for a lambda conversion in expr, for
+     * computeLambdaConversion1, whose result is put in place of the
+     * subexpression at index. Only one conversion is carried out among
+     * the expressions that a node schedules: once one is found, those
+     * scheduled after it are skipped, and the node is rebuilt around it.
+     * If none is found, the result of the node is null.
+     */
+    public void convert(int index, Expr expr) {
+        scheduled.add(new Step(index, expr, false, null, null));
+    }
+    
+    /**
+     * Schedules the search for a lambda conversion in expr like convert,
+     * except that expr is searched even if a conversion was found in an
+     * expression scheduled before it.
+     */
+    public void convertEach(int index, Expr expr) {
+        scheduled.add(new Step(index, expr, true, null, null));
+    }
+    
+    /**
+     * Schedules the substitution in expr, for computeLambdaConversion2,
+     * whose result is put in place of the subexpression at index.
+     */
+    public void substitute(int index, Expr expr) {
+        scheduled.add(new Step(index, expr, false, null, null));
+    }
+    
+    /**
+     * Puts the binder in the set of binders that scope over the
+     * substitutions that computeLambdaConversion2 schedules.
+     */
+    public void bind(VariableBindingExpr binder) {
+        if (binders.add(binder))
+            bound = binder;
+    }
+    
+    /**
+     * Schedules the variant of expr, for computeAlphabeticalVariant or
+     * computeAlphatypicalVariant, with the given variables in use and
+     * updates, whose result is put in place of the subexpression at index.
+     */
+    public void vary(int index, Expr expr, FreshVarGenerator variablesInUse, Map updates) {
+        scheduled.add(new Step(index, expr, false, variablesInUse, updates));
+    }
+}
@@ -27,6 +27,8 @@
 package lambdacalc.logic;
 
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Parses a string into an Expr object.
@@ -74,7 +76,9 @@ public class ExpressionParser {
     ParseOptions opts = new ParseOptions();
     opts.ASCII = true;
 
-    ParseResultSet rs = parseExpression(args[0], 0, opts, "an expression");
+    ParseResultSet rs = (ParseResultSet) run(
+      parseExpression(args[0], 0, beginParse(args[0], opts, null), "an expression")
+    );
     if (rs.Exception != null) {
       rs.Exception.printStackTrace();
       return;
@@ -130,16 +134,75 @@ public class ExpressionParser {
     public IdentifierTyper typer = IdentifierTyper.createDefault();
 
     /**
-     * This map is populated during the course of parsing an expression and
-     * lists some of the types assigned explicitly in the expression. One type
-     * is remembered per name, so if a single name is used with different types
-     * in different places, only the last one parsed will be listed in the Map.
+     * The value of the limits below that turns them off, which they have
+     * unless setAnswerLimits is called.
      */
-    public Map explicitTypes = new HashMap();
+    public static final int NO_LIMIT = Integer.MAX_VALUE;
 
-    public boolean hasExplicitTypes() {
-      return !explicitTypes.isEmpty();
-    }
+    /**
+     * The limits set by setAnswerLimits, for what students type, still well
+     * beyond any answer to an exercise.
+     */
+    public static final int ANSWER_MAX_LENGTH = 1000;
+    public static final int ANSWER_MAX_DEPTH = 50;
+    public static final int ANSWER_MAX_ALTERNATIVES = 1000;
+
+    /**
+     * The longest expression, in characters, that will be parsed. A longer
+     * one is rejected with a ParseLimitException before parsing starts.
+     */
+    public int maxLength = NO_LIMIT;
+
+    /**
+     * How deeply prefix expressions (parenthesized expressions, binders,
+     * negations, sets and the arguments of predicates) may be nested inside
+     * each other before parsing stops with a ParseLimitException.
+     */
+    public int maxDepth = NO_LIMIT;
+
+    /**
+     * How many alternative parses may be collected for the expression
+     * starting at any one position before parsing stops with a
+     * ParseLimitException. Juxtaposed identifiers and connectives can be read
+     * in exponentially many ways, so this bounds the work of parsing answers
+     * that are not trusted.
+     */
+    public int maxAlternatives = NO_LIMIT;
+
+    /**
+     * The types assigned explicitly in the expression during the current
+     * call to parse(), shared by the contexts cloned from this one, or null
+     * outside of parse() (see ParsedExpression.getExplicitTypes).
+     */
+    private Map explicitTypes;
+
+    /**
+     * The results of the sub-parsers during the current call to parse(),
+     * shared like explicitTypes by the contexts cloned from this one, or
+     * null outside of parse().
+     */
+    private Memo memo;
+
+    /**
+     * The expression being read by the current call to parse(), scanned
+     * once for all of the contexts cloned from this one, or null outside of
+     * parse().
+     */
+    private Tokens tokens;
+
+    /**
+     * The number of prefix expressions being parsed inside each other
+     * during the current call to parse(), in an array shared by the contexts
+     * cloned from this one, or null outside of parse().
+     */
+    private int[] depth;
+
+    /**
+     * The variables that the binders whose scope is being parsed added to
+     * the typer, which tell the contexts apart in the memo, or null outside
+     * of any such binder.
+     */
+    private Scope scope;
 
     public ParseOptions() {
 
@@ -156,14 +219,190 @@ public class ExpressionParser {
       this.ASCII = ASCII;
     }
 
+    /**
+     * Lowers the limits to those for parsing the answers that students type
+     * or submit, which are not trusted.
+     */
+    public void setAnswerLimits() {
+      maxLength = ANSWER_MAX_LENGTH;
+      maxDepth = ANSWER_MAX_DEPTH;
+      maxAlternatives = ANSWER_MAX_ALTERNATIVES;
+    }
+
+    /**
+     * Returns a copy of the options with a copy of the typer, which can be
+     * used to parse on another thread while these options are changed.
+     */
+    public ParseOptions copy() {
+      ParseOptions ret = new ParseOptions(
+        singleLetterIdentifiers, ASCII, typer == null ? null : typer.cloneTyper()
+      );
+      ret.maxLength = maxLength;
+      ret.maxDepth = maxDepth;
+      ret.maxAlternatives = maxAlternatives;
+      return ret;
+    }
+
     ParseOptions cloneContext() {
       ParseOptions ret = new ParseOptions();
       ret.singleLetterIdentifiers = singleLetterIdentifiers;
       ret.ASCII = ASCII;
       ret.typer = typer.cloneTyper();
+      ret.maxLength = maxLength;
+      ret.maxDepth = maxDepth;
+      ret.maxAlternatives = maxAlternatives;
       ret.explicitTypes = explicitTypes;
+      ret.memo = memo;
+      ret.tokens = tokens;
+      ret.depth = depth;
+      ret.scope = scope;
       return ret;
     }
+
+    /**
+     * Returns an immutable snapshot of the options, which equals the
+     * fingerprint of any options that parse every string the same way.
+     * Changing the options or the typer later does not change it.
+     */
+    public Fingerprint getFingerprint() {
+      return new Fingerprint(this);
+    }
+
+    /**
+     * The fingerprint of a ParseOptions, which results of parsing can be
+     * cached by (see ParseCache).
+     */
+    public static final class Fingerprint {
+
+      private final boolean singleLetterIdentifiers;
+      private final boolean ASCII;
+      private final List typer; // IdentifierTyper.getFingerprint, or null if there is no typer
+      private final int maxLength;
+      private final int maxDepth;
+      private final int maxAlternatives;
+      private final int hash;
+
+      private Fingerprint(ParseOptions options) {
+        singleLetterIdentifiers = options.singleLetterIdentifiers;
+        ASCII = options.ASCII;
+        typer = options.typer == null ? null : options.typer.getFingerprint();
+        maxLength = options.maxLength;
+        maxDepth = options.maxDepth;
+        maxAlternatives = options.maxAlternatives;
+        hash = (((typer == null ? 0 : typer.hashCode()) * 31 + maxLength) * 31 + maxDepth) * 31 +
+               maxAlternatives + (singleLetterIdentifiers ? 2 : 0) + (ASCII ? 1 : 0);
+      }
+
+      public boolean equals(Object obj) {
+        if (!(obj instanceof Fingerprint)) {
+          return false;
+        }
+        Fingerprint f = (Fingerprint) obj;
+        return singleLetterIdentifiers == f.singleLetterIdentifiers && ASCII == f.ASCII &&
+               (typer == null ? f.typer == null : typer.equals(f.typer)) &&
+               maxLength == f.maxLength && maxDepth == f.maxDepth &&
+               maxAlternatives == f.maxAlternatives;
+      }
+
+      public int hashCode() {
+        return hash;
+      }
+    }
+  }
+
+  /**
+   * The result of parsing an expression: the expression, and the types given
+   * explicitly to identifiers in it.
+   */
+  public static class ParsedExpression {
+
+    private final Expr expression;
+    private final Map explicitTypes;
+
+    ParsedExpression(Expr expression, Map explicitTypes) {
+      this.expression = expression;
+      this.explicitTypes = explicitTypes;
+    }
+
+    /**
+     * Gets the parsed expression.
+     */
+    public Expr getExpression() {
+      return expression;
+    }
+
+    /**
+     * Gets some of the types assigned explicitly in the expression, as an
+     * unmodifiable map from names to Identifiers (which give both the type
+     * and whether the name is a variable). One type is remembered per name,
+     * so if a single name is used with different types in different places,
+     * only the last one parsed will be listed in the Map.
+     */
+    public Map getExplicitTypes() {
+      return explicitTypes;
+    }
+
+    public boolean hasExplicitTypes() {
+      return !explicitTypes.isEmpty();
+    }
+  }
+
+  /**
+   * Parses the successive versions of a string that is being edited, such
+   * as the text of a field that is checked as the user types. Each version is
+   * compared with the last one parsed, and the scanning of the characters
+   * and identifiers of the parts that were not edited, the typing of
+   * identifiers, and the parses found by the sub-parsers in those parts are
+   * carried over (see Tokens and Memo), so that only the edited region, and
+   * the parses that read it, are worked out again. If the whole string was
+   * parsed recently, its result is reused instead (see ParseCache).
+   *
+   * An instance can be used from any thread, one parse at a time.
+   */
+  public static class IncrementalParser {
+
+    private Tokens tokens; // of the last version parsed, or null
+    private ParseOptions.Fingerprint fingerprint; // of the options it was parsed with
+
+    /**
+     * Parses a version of the string with the given options, like
+     * parseWithExplicitTypes.
+     *
+     * @param expression the expression to be parsed
+     * @param options global options for parsing, e.g. typing conventions
+     * @return the expression and its explicit types
+     * @throws SyntaxException if a parse error occurs
+     */
+    public synchronized ParsedExpression parse(String expression, ParseOptions options)
+      throws SyntaxException {
+      checkLength(expression, options);
+
+      ParseOptions.Fingerprint fingerprint = options.getFingerprint();
+      if (tokens == null || !fingerprint.equals(this.fingerprint)) {
+        tokens = new Tokens(expression, options);
+      } else if (!tokens.expression.equals(expression)) {
+        // Find the edited region: what is left after the longest common
+        // prefix and suffix of the two versions.
+        String previous = tokens.expression;
+        int length = Math.min(previous.length(), expression.length());
+        int start = 0;
+        while (start < length && previous.charAt(start) == expression.charAt(start)) {
+          start++;
+        }
+        int suffix = 0;
+        while (suffix < length - start &&
+               previous.charAt(previous.length() - 1 - suffix) ==
+               expression.charAt(expression.length() - 1 - suffix)) {
+          suffix++;
+        }
+        tokens = new Tokens(
+          tokens, expression, start, previous.length() - suffix, expression.length() - suffix, options
+        );
+      }
+      this.fingerprint = fingerprint;
+
+      return parseWithExplicitTypes(expression, options, fingerprint, tokens);
+    }
   }
 
   /**
@@ -172,7 +411,8 @@ public class ExpressionParser {
    * legitimately ambiguous, to be resolved at the end. This class can also
    * represent a fatal error condition when no parses are possible. So, either
    * Exception is set at Parses is null, or else Parses is a vector of one or
-   * more elements, and Exception is null.
+   * more elements, and Exception is null. Since result sets are shared by the
+   * memo (see Memo), Parses is not modified once the set is returned.
    */
   private static class ParseResultSet {
 
@@ -223,171 +463,882 @@ public class ExpressionParser {
   }
 
   /**
-   * Private constructor. All the methods in this class are static.
-   */
-  private ExpressionParser() {
-  }
-
-  public static Expr parseAndSuppressExceptions(String expression, ParseOptions options) {
-    Expr result = null;
-    try {
-      result = parse(expression, options);
-    } catch (SyntaxException s) {
-      //s.printStackTrace();
-    }
-    return result;
-  }
-
-  /**
-   * Parses an expression with the given options. This is the entry point of
-   * this class.
+   * The packrat memo of a call to parse(). The sub-parsers
+   * parsePrefixExpression and parseFunctionApplicationExpression each return
+   * every parse starting at a position, and the alternative parses of a
+   * string ask them for the same positions over and over, e.g. for the
+   * argument after each possible parse of a function that ends at the same
+   * place, or for the operand after a connective that each of the possible
+   * parses of the first operand is followed by. So each of their results is
+   * recorded here by the sub-parser, the position, and the scope of the
+   * context (which changes only inside of binders), and is reused for the
+   * rest of the parse. (parseInfixExpression is only called at the top and
+   * from within parsePrefixExpression, whose results are already recorded,
+   * so its own results are not.)
    *
-   * @param expression the expression to be parsed
-   * @param options global options for parsing, e.g. typing conventions
-   * @return an Expr object representing the expression
-   * @throws SyntaxException if a parse error occurs
+   * The parses found at a position do not depend on the whatIsExpected
+   * argument, which is only used in error messages. A recorded error
+   * condition is reused only for the same whatIsExpected, so that the
+   * messages stay the same.
+   *
+   * Reusing a result skips over the identifiers it would have loaded, so
+   * the explicit types they would have put in ParseOptions.explicitTypes
+   * are recorded with the result and put there again. It also skips over
+   * the prefix expressions nested in it, so how much deeper they go is
+   * recorded too, and the result is computed again if that would go over
+   * ParseOptions.maxDepth.
    *
+   * The results are kept with the Tokens of the expression, along with the
+   * last position each sub-parser read, so that when the expression is
+   * edited, the results that did not read the edited region are carried
+   * over to the next parse (see carryOver).
    */
-  public static Expr parse(String expression, ParseOptions options) throws SyntaxException {
-    options.explicitTypes.clear();
+  private static class Memo {
 
-    if (expression.trim().length() == 0) {
-      throw new SyntaxException("Enter a lambda expression.", 0);
-    }
+    /**
+     * Finds the positions in the messages of syntax errors, which include
+     * those of the errors they were made from.
+     */
+    private static final Pattern POSITION = Pattern.compile("\\. Pos: (\\d+)");
 
-    ParseResult r = parse2(expression, 0, options, "an expression", true);
+    private final HashMap entries; // MemoKey => MemoEntry
+    private final ArrayList frames = new ArrayList(); // of Frame, for each sub-parser being computed
+    private Frame top; // the last of frames, or null
 
-    return r.Expression;
-  }
+    Memo(HashMap entries) {
+      this.entries = entries;
+    }
 
-  /**
-   * This method starts off the main work of the class. It tries to parse an
-   * expression and then resolve the ambiguities, according to several
-   * constraints. If the expression could not be parsed at all, a
-   * SyntaxException is thrown. To resolve ambiguities, first only the parses
-   * that read the longest amount of the expression are considered. Then, if any
-   * parse is well-typed, discard the non-well-typed parses. Last, take only the
-   * parses that have the least number of free variables. If more than one parse
-   * still results, a SyntaxException is thrown altering the user to the
-   * ambiguities remaining.
-   *
-   * @param expression the text string being parsed
-   * @param start the position at which to start scanning for a prefix
-   * expression
-   * @param context global options for parsing
-   * @param whatIsExpected a string describing what kind of expression is
-   * expected to occur at this position, for error messages
-   * @param readFully true iff a failure to read to the end of the string should
-   * cause an exception to be thrown.
-   * @return a single ParseResult for the best parse
-   * @throws SyntaxException if no parse is possible
-   */
-  private static ParseResult parse2(
-    String expression, int start, ParseOptions context, String whatIsExpected, boolean readFully
-  ) throws SyntaxException {
-    // Parse the string into a number of potential ambiguous parses.
-    ParseResultSet rs = parseExpression(expression, start, context, whatIsExpected);
+    /**
+     * Records an explicit type put in explicitTypes, for the sub-parsers
+     * whose results are being computed.
+     */
+    void noteExplicitType(String id, Identifier ident) {
+      if (top != null) {
+        if (top.explicitTypes == null) {
+          top.explicitTypes = new LinkedHashMap();
+        }
+        putLast(top.explicitTypes, id, ident);
+      }
+    }
 
-    // If a fatal parsing error ocurred such that no parses were available, just
-    // throw the error.
-    if (rs.Exception != null) {
-      throw rs.Exception;
+    /**
+     * Records that the character at index was read, or the end of the
+     * expression if index is its length, for the sub-parsers whose results
+     * are being computed.
+     */
+    void noteRead(int index) {
+      if (top != null && index > top.end) {
+        top.end = index;
+      }
     }
 
-    // Use ordered constraints to filter out parses.
-    // The first constraint is to drop all parses that don't go as far into the
-    // string as the most extensive parse.
-    int maxParse = -1;
-    for (int i = 0; i < rs.Parses.size(); i++) { // get maximum
-      ParseResult r = (ParseResult) rs.Parses.get(i);
-      if (r.Next > maxParse) {
-        maxParse = r.Next;
+    /**
+     * Records how deeply prefix expressions are nested, for the sub-parsers
+     * whose results are being computed.
+     */
+    void noteDepth(int depth) {
+      if (top != null && depth > top.deepest) {
+        top.deepest = depth;
       }
     }
-    for (int i = 0; i < rs.Parses.size(); i++) { // filter out non-maximal parses
-      ParseResult r = (ParseResult) rs.Parses.get(i);
-      if (r.Next < maxParse) {
-        rs.Parses.remove(i);
-        i--;
-      } // decrement i to repeat iteration at same index
+
+    /**
+     * Starts recording what happens while computing the result of a
+     * sub-parser.
+     *
+     * @param depth how deeply prefix expressions are nested where it is called
+     */
+    void beginFrame(int depth) {
+      top = new Frame(depth);
+      frames.add(top);
     }
 
-    // If readFully is true, we are wanting to read the entire string. In that case,
-    // if we haven't gotten to the end of the string, raise an exception.
-    // (When parsing arguments to predicates, this method is called but we don't
-    // want to read to the end of the string.) We'll just take the first error message
-    // we can find in a HowToContinue field, or throw a generic one if there aren't any
-    // prepared messages.
-    if (readFully && maxParse != expression.length() &&
-        skipWhitespace(expression, maxParse) != -1) {
-      for (int i = 0; i < rs.Parses.size(); i++) { // filter out non-maximal parses
-        ParseResult r = (ParseResult) rs.Parses.get(i);
-        if (r.HowToContinue != null) {
-          throw r.HowToContinue;
+    /**
+     * Stops recording what happens while computing the result of a
+     * sub-parser, and records the result. What was recorded counts for the
+     * enclosing sub-parser too.
+     */
+    void endFrame(MemoKey key, String whatIsExpected, ParseResultSet result) {
+      Frame frame = (Frame) frames.remove(frames.size() - 1);
+      top = frames.isEmpty() ? null : (Frame) frames.get(frames.size() - 1);
+      MemoEntry entry =
+        new MemoEntry(whatIsExpected, result, frame.explicitTypes, frame.end, frame.deepest - frame.depth);
+      entries.put(key, entry);
+      noteEntry(entry, frame.depth);
+    }
+
+    /**
+     * Returns a recorded result for a call of a sub-parser, or null if it
+     * must be computed.
+     *
+     * @param depth how deeply prefix expressions are nested where it is called
+     * @param maxDepth how deeply they may be nested
+     */
+    MemoEntry get(MemoKey key, String whatIsExpected, int depth, int maxDepth) {
+      MemoEntry entry = (MemoEntry) entries.get(key);
+      if (entry == null ||
+          entry.result.Exception != null && !entry.whatIsExpected.equals(whatIsExpected) ||
+          entry.height > maxDepth - depth) {
+        return null;
+      }
+      return entry;
+    }
+
+    /**
+     * Puts the explicit types that were put while computing a recorded
+     * result again, and records what else happened for the sub-parsers whose
+     * results are being computed, as if the result were computed again.
+     */
+    void replay(MemoEntry entry, ParseOptions context) {
+      if (entry.explicitTypes != null) {
+        for (Iterator i = entry.explicitTypes.entrySet().iterator(); i.hasNext();) {
+          Map.Entry e = (Map.Entry) i.next();
+          context.explicitTypes.put(e.getKey(), e.getValue());
         }
       }
-      throw new SyntaxException("\"" + expression.substring(maxParse) +
-                                "\" doesn't look like a complete lambda expression.",
-                                maxParse);
+      noteEntry(entry, context.depth[0]);
     }
 
-    // Next, if any parse is well typed, then drop the non-well-typed parses.
-    boolean hasWellTyped = false;
-    for (int i = 0; i < rs.Parses.size(); i++) {
-      ParseResult r = (ParseResult) rs.Parses.get(i);
-      try {
-        Type t = r.Expression.getType(); // return value is not important
-        hasWellTyped = true; // not executed if type evaluation fails
-      } catch (TypeEvaluationException tee) {
+    /**
+     * Records what happened while computing a recorded result, for the
+     * sub-parsers whose results are being computed.
+     *
+     * @param depth how deeply prefix expressions are nested where it is called
+     */
+    private void noteEntry(MemoEntry entry, int depth) {
+      if (entry.explicitTypes != null) {
+        for (Iterator i = entry.explicitTypes.entrySet().iterator(); i.hasNext();) {
+          Map.Entry e = (Map.Entry) i.next();
+          noteExplicitType((String) e.getKey(), (Identifier) e.getValue());
+        }
       }
+      noteRead(entry.end);
+      noteDepth(depth + entry.height);
     }
-    if (hasWellTyped) {
-      for (int i = 0; i < rs.Parses.size(); i++) { // filter out non-maximal parses
-        ParseResult r = (ParseResult) rs.Parses.get(i);
-        try {
-          r.Expression.getType(); // return value is not important
-        } catch (TypeEvaluationException tee) {
-          rs.Parses.remove(i);
-          i--; // decrement i to repeat iteration at same index
+
+    /**
+     * Puts an entry at the end of the iteration order of map, since the
+     * last type put for a name is the one that counts.
+     */
+    private static void putLast(LinkedHashMap map, Object key, Object value) {
+      map.remove(key);
+      map.put(key, value);
+    }
+
+    /**
+     * Carries the results recorded for an expression over to an edited
+     * version of it, in which the characters from start up to end were
+     * replaced by the characters up to newEnd, like the Tokens. The results
+     * of the calls that read only characters before the edit are kept as
+     * they are. Those of the calls at or after the end of the edit are kept
+     * with their positions, and the positions in their error messages, moved
+     * over to where the same text is now. The others are dropped.
+     *
+     * @return the results for the edited version
+     */
+    static HashMap carryOver(HashMap entries, int start, int end, int newEnd) {
+      HashMap carried = new HashMap();
+      IdentityHashMap moved = new IdentityHashMap(); // of result sets and errors, to keep them shared
+      int shift = newEnd - end;
+      for (Iterator i = entries.entrySet().iterator(); i.hasNext();) {
+        Map.Entry e = (Map.Entry) i.next();
+        MemoKey key = (MemoKey) e.getKey();
+        MemoEntry entry = (MemoEntry) e.getValue();
+        if (entry.end < start) {
+          carried.put(key, entry);
+        } else if (key.start >= end) {
+          ParseResultSet result = move(entry.result, shift, moved);
+          if (result != null) {
+            carried.put(
+              new MemoKey(key.parser, key.start + shift, key.scope),
+              new MemoEntry(entry.whatIsExpected, result, entry.explicitTypes, entry.end + shift, entry.height)
+            );
+          }
         }
       }
+      return carried;
     }
-  
-    // If more than one parse remains, the expression might be ambiguous.
-    if (rs.Parses.size() > 1) {
-      Vector alternatives = new Vector();
-      parses:
-      for (int i = 0; i < rs.Parses.size(); i++) {
-        ParseResult r = (ParseResult) rs.Parses.get(i);
-        // This shouldn't happen, but just in case two parsing paths produced the 
-        // same expression, keep only one of them
-        if (i != 0) {
-          for (int j = 0; j < i; j++) {
-            ParseResult r0 = (ParseResult) rs.Parses.get(j);
-            if (r.Expression.equals(r0.Expression)) {
-              continue parses;
+
+    /**
+     * Moves the positions in a result set over by shift, or returns null if
+     * it holds an error that cannot be moved.
+     */
+    private static ParseResultSet move(ParseResultSet result, int shift, IdentityHashMap moved) {
+      if (moved.containsKey(result)) {
+        return (ParseResultSet) moved.get(result);
+      }
+      ParseResultSet ret;
+      if (result.Exception != null) {
+        SyntaxException ex = move(result.Exception, shift, moved);
+        ret = ex == null ? null : new ParseResultSet(ex);
+      } else {
+        Vector parses = new Vector(result.Parses.size());
+        for (int i = 0; i < result.Parses.size(); i++) {
+          ParseResult r = (ParseResult) result.Parses.get(i);
+          SyntaxException ex = null;
+          if (r.HowToContinue != null) {
+            ex = move(r.HowToContinue, shift, moved);
+            if (ex == null) {
+              parses = null;
+              break;
             }
           }
+          parses.add(new ParseResult(r.Expression, r.Next + shift, ex));
         }
-        alternatives.add(r.Expression.toString());
+        ret = parses == null ? null : new ParseResultSet(parses);
       }
-      
-      // Two distinct parses available. Tell the user to clarify
-      if (alternatives.size() > 1) {
-        String ase;
-        if (hasWellTyped) {
-          ase = "Your expression is ambiguous between the following possibilities " +
-                 "and should be corrected by adding parentheses";
+      moved.put(result, ret);
+      return ret;
+    }
+
+    /**
+     * Moves the positions in a syntax error over by shift, or returns null
+     * if it is not one of the errors that the sub-parsers return, or if a
+     * position would move before the start of the expression. (That happens
+     * to an error at the end of the expression, which is put at the last
+     * character, when the expression is edited down to nothing. It would
+     * come back as -1, which means no position, when text is typed again.)
+     */
+    private static SyntaxException move(SyntaxException ex, int shift, IdentityHashMap moved) {
+      if (moved.containsKey(ex)) {
+        return (SyntaxException) moved.get(ex);
+      }
+      SyntaxException ret = null;
+      String message = ex.getMessage();
+      String suffix = ". Pos: " + ex.getPosition();
+      if ((ex.getClass() == SyntaxException.class || ex.getClass() == BadCharacterException.class) &&
+          message.endsWith(suffix)) {
+        Matcher m = POSITION.matcher(message.substring(0, message.length() - suffix.length()));
+        StringBuffer buf = new StringBuffer();
+        boolean movable = true;
+        while (m.find()) {
+          int position = Integer.parseInt(m.group(1)) + shift;
+          movable &= position >= 0;
+          m.appendReplacement(buf, ". Pos: " + position);
+        }
+        m.appendTail(buf);
+        int position = ex.getPosition() < 0 ? ex.getPosition() : ex.getPosition() + shift;
+        movable &= ex.getPosition() < 0 || position >= 0;
+        if (!movable) {
+          ret = null;
+        } else if (ex instanceof BadCharacterException) {
+          ret = new BadCharacterException(buf.toString(), position);
         } else {
-          ase = "Your expression is not well-formed, but it's not clear what exatly " +
-                "you were going for. Please add parentheses to see more information about " +
-                "what went wrong. For instance";
+          ret = new SyntaxException(buf.toString(), position);
         }
-        throw new AmbiguousStringException(ase, alternatives);
+      }
+      moved.put(ex, ret);
+      return ret;
+    }
+  }
+
+  /**
+   * What happens while computing the result of a sub-parser, for the memo.
+   */
+  private static class Frame {
+
+    final int depth; // how deeply prefix expressions were nested where it was called
+    LinkedHashMap explicitTypes; // put in explicitTypes, in order, or null
+    int end = -1; // the last position read
+    int deepest; // how deeply prefix expressions were nested in it
+
+    Frame(int depth) {
+      this.depth = depth;
+      deepest = depth;
+    }
+  }
+
+  private static class MemoKey {
+
+    final int parser; // one of the *_PARSER constants
+    final int start;
+    final Scope scope; // of the context, or null
+
+    MemoKey(int parser, int start, Scope scope) {
+      this.parser = parser;
+      this.start = start;
+      this.scope = scope;
+    }
+
+    public boolean equals(Object obj) {
+      if (!(obj instanceof MemoKey)) {
+        return false;
+      }
+      MemoKey k = (MemoKey) obj;
+      return parser == k.parser && start == k.start &&
+             (scope == null ? k.scope == null : scope.equals(k.scope));
+    }
+
+    public int hashCode() {
+      return (parser * 31 + start) * 31 + (scope == null ? 0 : scope.hashCode());
+    }
+  }
+
+  private static class MemoEntry {
+
+    final String whatIsExpected;
+    final ParseResultSet result;
+    final LinkedHashMap explicitTypes; // put while computing the result, in order, or null
+    final int end; // the last position read while computing it, the length for the end
+    final int height; // how much more deeply prefix expressions were nested in it
+
+    MemoEntry(String whatIsExpected, ParseResultSet result, LinkedHashMap explicitTypes, int end, int height) {
+      this.whatIsExpected = whatIsExpected;
+      this.result = result;
+      this.explicitTypes = explicitTypes;
+      this.end = end;
+      this.height = height;
+    }
+  }
+
+  /**
+   * The variables added to the typer of a context by the binders whose
+   * scope it is for, innermost last. Contexts with equal scopes type
+   * identifiers alike, so the memo shares results between them, and across
+   * parses of edited versions of an expression.
+   */
+  private static class Scope {
+
+    private final Scope outer; // or null
+    private final String symbol;
+    private final boolean isVariable;
+    private final Type type;
+    private final int hash;
+
+    Scope(Scope outer, String symbol, boolean isVariable, Type type) {
+      this.outer = outer;
+      this.symbol = symbol;
+      this.isVariable = isVariable;
+      this.type = type;
+      hash = ((outer == null ? 0 : outer.hash) * 31 + symbol.hashCode()) * 31 + type.hashCode() +
+             (isVariable ? 1 : 0);
+    }
+
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Scope)) {
+        return false;
+      }
+      Scope s = (Scope) obj;
+      return hash == s.hash && isVariable == s.isVariable && symbol.equals(s.symbol) &&
+             type.equals(s.type) && (outer == null ? s.outer == null : outer.equals(s.outer));
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * The expression being parsed by a call to parse(), scanned into tokens.
+   * The characters are translated by getChar once, up front, and the
+   * identifier read at a position and the typing of an identifier by a
+   * typer are each worked out the first time the parse asks for them. The
+   * alternative parses of a string read the same identifiers again and
+   * again, often in contexts with the same typer, so each identifier is read
+   * and looked up once per parse instead. Positions are still positions in
+   * the string, since that is what error messages report.
+   *
+   * The results of the sub-parsers recorded by the memo of a parse are
+   * kept here too, for the next parse of the same expression. When a string
+   * is edited and parsed again (see IncrementalParser), the tokens and the
+   * results of the parts the edit did not touch are carried over.
+   */
+  private static class Tokens {
+
+    private final String expression;
+    private final char[] chars; // the character at each position, as getChar reads it
+    private final Token[] identifiers; // the identifier read at each position, or null if not read yet
+    private final IdentityHashMap typings = new IdentityHashMap(); // IdentifierTyper => HashMap (identifier => Typing)
+    private final HashMap results; // MemoKey => MemoEntry, see Memo
+    private final IdentifierTyper typer; // of the options
+
+    Tokens(String expression, ParseOptions options) {
+      this.expression = expression;
+      typer = options.typer;
+      results = new HashMap();
+      chars = expression.toCharArray();
+      if (options.ASCII) {
+        for (int i = 0; i < chars.length; i++) {
+          chars[i] = translateChar(chars[i]);
+        }
+      }
+      identifiers = new Token[chars.length];
+    }
+
+    /**
+     * Makes the tokens of an edited version of previous.expression, in which
+     * the characters from start up to end were replaced by the characters of
+     * expression from start up to newEnd. Only the replaced characters are
+     * translated. Reading an identifier looks only at the characters from
+     * where it starts up to the one that ends it, so the identifiers read
+     * before the edit that did not look at it, and all those read after it,
+     * are kept. So are the typings by the typer of the previous options,
+     * which are valid for the typer of these options as long as the options
+     * have the same fingerprint, even if the typer is a copy. (The other
+     * typers belong to the contexts of binders in the previous parse.) The
+     * results of the sub-parsers are carried over by Memo.carryOver.
+     */
+    Tokens(Tokens previous, String expression, int start, int end, int newEnd, ParseOptions options) {
+      this.expression = expression;
+      typer = options.typer;
+      results = Memo.carryOver(previous.results, start, end, newEnd);
+      chars = new char[expression.length()];
+      System.arraycopy(previous.chars, 0, chars, 0, start);
+      for (int i = start; i < newEnd; i++) {
+        chars[i] = options.ASCII ? translateChar(expression.charAt(i)) : expression.charAt(i);
+      }
+      System.arraycopy(previous.chars, end, chars, newEnd, previous.chars.length - end);
+
+      identifiers = new Token[chars.length];
+      for (int i = 0; i < start; i++) {
+        Token token = previous.identifiers[i];
+        if (token != null && token.end < start) {
+          identifiers[i] = token;
+        }
+      }
+      int shift = newEnd - end;
+      for (int i = end; i < previous.identifiers.length; i++) {
+        Token token = previous.identifiers[i];
+        if (token != null) {
+          identifiers[i + shift] = new Token(token.id, token.end + shift);
+        }
+      }
+
+      Object typings = previous.typings.get(previous.typer);
+      if (typings != null) {
+        this.typings.put(options.typer, typings);
+      }
+    }
+
+    Typing getTyping(IdentifierTyper typer, String id) {
+      HashMap typings = (HashMap) this.typings.get(typer);
+      if (typings == null) {
+        typings = new HashMap();
+        this.typings.put(typer, typings);
+      }
+      Typing typing = (Typing) typings.get(id);
+      if (typing == null) {
+        typing = new Typing(typer, id);
+        typings.put(id, typing);
+      }
+      return typing;
+    }
+  }
+
+  /**
+   * An identifier read by readIdentifier, and the position after it.
+   */
+  private static class Token {
+
+    final String id;
+    final int end;
+
+    Token(String id, int end) {
+      this.id = id;
+      this.end = end;
+    }
+  }
+
+  /**
+   * How a typer types an identifier: whether it is a variable and its type,
+   * or else the exception the typer threw for it.
+   */
+  private static class Typing {
+
+    final boolean isVariable;
+    final Type type;
+    final IdentifierTypeUnknownException error;
+
+    Typing(IdentifierTyper typer, String id) {
+      boolean isVariable = false;
+      Type type = null;
+      IdentifierTypeUnknownException error = null;
+      try {
+        isVariable = typer.isVariable(id);
+        type = typer.getType(id);
+      } catch (IdentifierTypeUnknownException e) {
+        error = e;
+      }
+      this.isVariable = isVariable;
+      this.type = type;
+      this.error = error;
+    }
+  }
+
+  /**
+   * Thrown when a parse goes over one of the limits in its ParseOptions.
+   * Unlike other errors, which only rule out one way of reading the
+   * expression, this stops the whole parse, so it is thrown rather than
+   * returned as a ParseResultSet, and parse() throws the ParseLimitException
+   * it carries.
+   */
+  private static class LimitExceeded extends RuntimeException {
+
+    final ParseLimitException exception;
+
+    LimitExceeded(String message, int position) {
+      exception = new ParseLimitException(message, position);
+    }
+  }
+
+  /**
+   * A call of one of the sub-parsers below. The sub-parsers call each other
+   * for the expressions inside the ones they parse, such as the expression in
+   * parentheses, in the scope of a binder, or after a connective, so the
+   * calls are nested as deeply as the expression is. So that this is bounded
+   * by ParseOptions.maxDepth and not by the Java stack, each call is a Task,
+   * and run() keeps the calls that wait for the result of another one on a
+   * stack of its own. A task computes until it needs the result of another
+   * call and returns the task for that call; run() runs it and passes its
+   * result to the next call of resume(). The local variables of a sub-parser
+   * that it needs after such a call are fields of its task, and state records
+   * where it carries on.
+   */
+  private abstract static class Task {
+
+    final String expression; // the text string being parsed
+    final ParseOptions context; // global options for parsing
+    int state = 0; // where resume() carries on, 0 at first
+    Object result; // the result of the call, once resume() has returned null
+
+    Task(String expression, ParseOptions context) {
+      this.expression = expression;
+      this.context = context;
+    }
+
+    /**
+     * Carries on with the call.
+     *
+     * @param sub the result of the task returned by the previous call of
+     * resume(), or null on the first call
+     * @return a task whose result is needed to carry on, or null if the call
+     * is done and result is set
+     */
+    abstract Task resume(Object sub);
+
+    /**
+     * Sets the result of the call and returns null, for resume() to return.
+     */
+    Task finish(Object result) {
+      this.result = result;
+      return null;
+    }
+  }
+
+  private static final int PREFIX_PARSER = 0;
+  private static final int FUNCTION_APPLICATION_PARSER = 1;
+  private static final int FUNCTION_APPLICATION_WITHOUT_SPACE_PARSER = 2;
+
+  /**
+   * Private constructor. All the methods in this class are static.
+   */
+  private ExpressionParser() {
+  }
+
+  public static Expr parseAndSuppressExceptions(String expression, ParseOptions options) {
+    Expr result = null;
+    try {
+      result = parse(expression, options);
+    } catch (SyntaxException s) {
+      //s.printStackTrace();
+    }
+    return result;
+  }
+
+  /**
+   * Parses an expression with the given options. This is the entry point of
+   * this class.
+   *
+   * @param expression the expression to be parsed
+   * @param options global options for parsing, e.g. typing conventions
+   * @return an Expr object representing the expression
+   * @throws SyntaxException if a parse error occurs
+   *
+   */
+  public static Expr parse(String expression, ParseOptions options) throws SyntaxException {
+    return parseWithExplicitTypes(expression, options).getExpression();
+  }
+
+  /**
+   * Parses an expression with the given options, like parse, and also
+   * returns the types assigned explicitly in it. The result is reused if
+   * the same string was parsed recently with options of the same
+   * fingerprint (see ParseCache).
+   *
+   * @param expression the expression to be parsed
+   * @param options global options for parsing, e.g. typing conventions
+   * @return the expression and its explicit types
+   * @throws SyntaxException if a parse error occurs
+   */
+  public static ParsedExpression parseWithExplicitTypes(String expression, ParseOptions options)
+    throws SyntaxException {
+    checkLength(expression, options);
+    return parseWithExplicitTypes(expression, options, options.getFingerprint(), null);
+  }
+
+  /**
+   * Helper method for parseWithExplicitTypes and IncrementalParser.
+   *
+   * @param fingerprint the fingerprint of the options
+   * @param tokens the tokens of the expression, or null to scan it afresh
+   */
+  private static ParsedExpression parseWithExplicitTypes(
+    String expression, ParseOptions options, ParseOptions.Fingerprint fingerprint, Tokens tokens
+  ) throws SyntaxException {
+    Object cached = ParseCache.get(expression, fingerprint);
+    if (cached instanceof SyntaxException) {
+      throw (SyntaxException) cached;
+    }
+    if (cached != null) {
+      return (ParsedExpression) cached;
+    }
+
+    ParsedExpression result;
+    try {
+      result = parseWithoutCache(expression, options, tokens);
+    } catch (SyntaxException se) {
+      ParseCache.put(expression, fingerprint, se);
+      throw se;
+    }
+    ParseCache.put(expression, fingerprint, result);
+    return result;
+  }
+
+  /**
+   * Rejects an expression longer than the options allow.
+   */
+  private static void checkLength(String expression, ParseOptions options) throws SyntaxException {
+    if (expression.length() > options.maxLength) {
+      throw new ParseLimitException(
+        "Your expression is too long. Expressions can be at most " + options.maxLength +
+        " characters long.",
+        options.maxLength
+      );
+    }
+  }
+
+  /**
+   * Helper method for parseWithExplicitTypes, which parses the expression
+   * without the cache.
+   */
+  private static ParsedExpression parseWithoutCache(
+    String expression, ParseOptions options, Tokens tokens
+  ) throws SyntaxException {
+    if (expression.trim().length() == 0) {
+      throw new SyntaxException("Enter a lambda expression.", 0);
+    }
+
+    ParseOptions context = beginParse(expression, options, tokens);
+    ParseResult r;
+    try {
+      r = parse2(expression, 0, context, "an expression", true);
+    } catch (LimitExceeded e) {
+      throw e.exception;
+    }
+
+    return new ParsedExpression(
+      r.Expression.intern(), Collections.unmodifiableMap(context.explicitTypes)
+    );
+  }
+
+  /**
+   * Makes the context for a parse of the expression with the given options,
+   * which holds the state of the parse, so that the options themselves are
+   * not changed by parsing.
+   *
+   * @param tokens the tokens of the expression, or null to scan it afresh
+   */
+  private static ParseOptions beginParse(String expression, ParseOptions options, Tokens tokens) {
+    ParseOptions context = new ParseOptions(
+      options.singleLetterIdentifiers, options.ASCII, options.typer
+    );
+    context.maxDepth = options.maxDepth;
+    context.maxAlternatives = options.maxAlternatives;
+    context.explicitTypes = new HashMap();
+    context.tokens = tokens != null ? tokens : new Tokens(expression, context);
+    context.memo = new Memo(context.tokens.results);
+    context.depth = new int[1];
+    return context;
+  }
+  /**
+   * Runs a task, and the tasks whose results it needs, in a loop over an
+   * explicit stack of the calls in progress (see Task).
+   *
+   * @return the result of the task
+   */
+  private static Object run(Task task) {
+    ArrayDeque stack = new ArrayDeque(); // of Task, the innermost call on top
+    stack.push(task);
+    Object sub = null;
+    while (true) {
+      Task top = (Task) stack.peek();
+      Task next = top.resume(sub);
+      if (next != null) {
+        stack.push(next);
+        sub = null;
+      } else {
+        stack.pop();
+        if (stack.isEmpty()) {
+          return top.result;
+        }
+        sub = top.result;
+      }
+    }
+  }
+
+
+  /**
+   * This method starts off the main work of the class. It tries to parse an
+   * expression and then resolve the ambiguities, according to several
+   * constraints. If the expression could not be parsed at all, a
+   * SyntaxException is thrown. To resolve ambiguities, first only the parses
+   * that read the longest amount of the expression are considered. Then, if any
+   * parse is well-typed, discard the non-well-typed parses. Last, take only the
+   * parses that have the least number of free variables. If more than one parse
+   * still results, a SyntaxException is thrown altering the user to the
+   * ambiguities remaining.
+   *
+   * @param expression the text string being parsed
+   * @param start the position at which to start scanning for a prefix
+   * expression
+   * @param context global options for parsing
+   * @param whatIsExpected a string describing what kind of expression is
+   * expected to occur at this position, for error messages
+   * @param readFully true iff a failure to read to the end of the string should
+   * cause an exception to be thrown.
+   * @return a single ParseResult for the best parse
+   * @throws SyntaxException if no parse is possible
+   */
+  private static ParseResult parse2(
+    String expression, int start, ParseOptions context, String whatIsExpected, boolean readFully
+  ) throws SyntaxException {
+    // Parse the string into a number of potential ambiguous parses.
+    ParseResultSet rs = (ParseResultSet) run(parseExpression(expression, start, context, whatIsExpected));
+    return chooseParse(expression, rs, readFully, context);
+  }
+
+  /**
+   * Resolves the ambiguities among the parses in rs as described for parse2,
+   * for parse2 and for the arguments of predicates.
+   *
+   * @param expression the text string being parsed
+   * @param rs the possible parses of an expression
+   * @param readFully true iff a failure to read to the end of the string should
+   * cause an exception to be thrown.
+   * @param context global options for parsing
+   * @return a single ParseResult for the best parse
+   * @throws SyntaxException if no parse is possible
+   */
+  private static ParseResult chooseParse(
+    String expression, ParseResultSet rs, boolean readFully, ParseOptions context
+  ) throws SyntaxException {
+
+    // If a fatal parsing error ocurred such that no parses were available, just
+    // throw the error.
+    if (rs.Exception != null) {
+      throw rs.Exception;
+    }
+
+    // Use ordered constraints to filter out parses, in a copy of the
+    // parses, since result sets are shared by the memo.
+    Vector parses = new Vector(rs.Parses);
+    // The first constraint is to drop all parses that don't go as far into the
+    // string as the most extensive parse.
+    int maxParse = -1;
+    for (int i = 0; i < parses.size(); i++) { // get maximum
+      ParseResult r = (ParseResult) parses.get(i);
+      if (r.Next > maxParse) {
+        maxParse = r.Next;
+      }
+    }
+    for (int i = 0; i < parses.size(); i++) { // filter out non-maximal parses
+      ParseResult r = (ParseResult) parses.get(i);
+      if (r.Next < maxParse) {
+        parses.remove(i);
+        i--;
+      } // decrement i to repeat iteration at same index
+    }
+
+    // If readFully is true, we are wanting to read the entire string. In that case,
+    // if we haven't gotten to the end of the string, raise an exception.
+    // (When parsing arguments to predicates, this method is called but we don't
+    // want to read to the end of the string.) We'll just take the first error message
+    // we can find in a HowToContinue field, or throw a generic one if there aren't any
+    // prepared messages.
+    if (readFully && maxParse != expression.length() &&
+        skipWhitespace(expression, maxParse, context) != -1) {
+      for (int i = 0; i < parses.size(); i++) { // filter out non-maximal parses
+        ParseResult r = (ParseResult) parses.get(i);
+        if (r.HowToContinue != null) {
+          throw r.HowToContinue;
+        }
+      }
+      throw new SyntaxException("\"" + expression.substring(maxParse) +
+                                "\" doesn't look like a complete lambda expression.",
+                                maxParse);
+    }
+
+    // Next, if any parse is well typed, then drop the non-well-typed parses.
+    boolean hasWellTyped = false;
+    for (int i = 0; i < parses.size(); i++) {
+      ParseResult r = (ParseResult) parses.get(i);
+      try {
+        Type t = r.Expression.getType(); // return value is not important
+        hasWellTyped = true; // not executed if type evaluation fails
+      } catch (TypeEvaluationException tee) {
+      }
+    }
+    if (hasWellTyped) {
+      for (int i = 0; i < parses.size(); i++) { // filter out non-maximal parses
+        ParseResult r = (ParseResult) parses.get(i);
+        try {
+          r.Expression.getType(); // return value is not important
+        } catch (TypeEvaluationException tee) {
+          parses.remove(i);
+          i--; // decrement i to repeat iteration at same index
+        }
+      }
+    }
+  
+    // If more than one parse remains, the expression might be ambiguous.
+    if (parses.size() > 1) {
+      Vector alternatives = new Vector();
+      parses:
+      for (int i = 0; i < parses.size(); i++) {
+        ParseResult r = (ParseResult) parses.get(i);
+        // This shouldn't happen, but just in case two parsing paths produced the 
+        // same expression, keep only one of them
+        if (i != 0) {
+          for (int j = 0; j < i; j++) {
+            ParseResult r0 = (ParseResult) parses.get(j);
+            if (r.Expression.equals(r0.Expression)) {
+              continue parses;
+            }
+          }
+        }
+        alternatives.add(r.Expression.toString());
+      }
+      
+      // Two distinct parses available. Tell the user to clarify
+      if (alternatives.size() > 1) {
+        String ase;
+        if (hasWellTyped) {
+          ase = "Your expression is ambiguous between the following possibilities " +
+                 "and should be corrected by adding parentheses";
+        } else {
+          ase = "Your expression is not well-formed, but it's not clear what exatly " +
+                "you were going for. Please add parentheses to see more information about " +
+                "what went wrong. For instance";
+        }
+        throw new AmbiguousStringException(ase, alternatives);
       }
     }
 
-    return (ParseResult) rs.Parses.get(0);
+    return (ParseResult) parses.get(0);
   }
 
   /**
@@ -395,12 +1346,14 @@ public class ExpressionParser {
    *
    * @param expression the text string being parsed
    * @param start the position at which to start scanning for an identifier
+   * @param context global parsing options
    * @return a position in the string after any whitespace, or -1 if whitespace
    * goes to the end of the expression.
    */
-  private static int skipWhitespace(String expression, int start) {
+  private static int skipWhitespace(String expression, int start, ParseOptions context) {
     while (true) {
       if (start == expression.length()) {
+        noteRead(start, context);
         return -1;
       }
       if (expression.charAt(start) != ' ') {
@@ -408,9 +1361,25 @@ public class ExpressionParser {
       }
       start++;
     }
+    noteRead(start, context);
     return start;
   }
 
+  /**
+   * Records for the memo that the character at index was read, or the end
+   * of the expression if index is its length. The sub-parsers read the
+   * string only through getChar, skipWhitespace and readIdentifier, which
+   * call this, and where they call this themselves.
+   *
+   * @param index the position read
+   * @param context global parsing options
+   */
+  private static void noteRead(int index, ParseOptions context) {
+    if (context.memo != null) {
+      context.memo.noteRead(index);
+    }
+  }
+
   /**
    * Tests if a character is a letter. Unlike Java, this method does *not* treat
    * the lambda symbol as a letter.
@@ -433,27 +1402,40 @@ public class ExpressionParser {
    * @return the letter, mapped to a special character if necessary
    */
   private static char getChar(String expression, int index, ParseOptions context) {
+    noteRead(index, context);
+    if (context.tokens != null) {
+      return context.tokens.chars[index];
+    }
     char c = expression.charAt(index);
     if (context.ASCII) {
-            // All of the ASCII symbol replacements at this level are 
-      // single character substitutions.
-      switch (c) {
-        case Not.INPUT_SYMBOL:
-          c = Not.SYMBOL;
-          break;
-        case ForAll.INPUT_SYMBOL:
-          c = ForAll.SYMBOL;
-          break;
-        case Exists.INPUT_SYMBOL:
-          c = Exists.SYMBOL;
-          break;
-        case Lambda.INPUT_SYMBOL:
-          c = Lambda.SYMBOL;
-          break;
-        case Iota.INPUT_SYMBOL:
-          c = Iota.SYMBOL;
-          break;
-      }
+      c = translateChar(c);
+    }
+    return c;
+  }
+
+  /**
+   * Maps the capital letters that stand for special symbols in the ASCII
+   * parsing option into those symbols, for getChar.
+   */
+  private static char translateChar(char c) {
+    // All of the ASCII symbol replacements at this level are 
+    // single character substitutions.
+    switch (c) {
+      case Not.INPUT_SYMBOL:
+        c = Not.SYMBOL;
+        break;
+      case ForAll.INPUT_SYMBOL:
+        c = ForAll.SYMBOL;
+        break;
+      case Exists.INPUT_SYMBOL:
+        c = Exists.SYMBOL;
+        break;
+      case Lambda.INPUT_SYMBOL:
+        c = Lambda.SYMBOL;
+        break;
+      case Iota.INPUT_SYMBOL:
+        c = Iota.SYMBOL;
+        break;
     }
     return c;
   }
@@ -473,292 +1455,358 @@ public class ExpressionParser {
    * @param context global options for parsing
    * @param whatIsExpected a string describing what kind of expression is
    * expected to occur at this position, for error messages
-   * @return all prefix expressions that could be parsed at this point
+   * @return a task whose result is all prefix expressions that could be parsed
+   * at this point
    */
-  private static ParseResultSet parsePrefixExpression(
+  private static Task parsePrefixExpression(
     String expression, int start, ParseOptions context, String whatIsExpected
   ) {
-    start = skipWhitespace(expression, start);
-    if (start == -1) {
-      return new ParseResultSet(
-        new SyntaxException(
-          "You seem to be missing " + whatIsExpected + " at the end of your expression.",
-          expression.length() - 1
-        )
-      );
+    return memoize(PREFIX_PARSER, expression, start, context, whatIsExpected);
+  }
+
+  /**
+   * A call of parsePrefixExpression whose result is not in the memo.
+   */
+  private static class PrefixTask extends Task {
+
+    private static final int START = 0;
+    private static final int BRACKETED = 1; // the expression inside brackets was parsed
+    private static final int NEGATED = 2; // the expression after a negation was parsed
+    private static final int BINDER_VARIABLE = 3; // the variable after a binder was parsed
+    private static final int BINDER_SCOPE = 4; // the expression in its scope was parsed
+    private static final int SET_ELEMENT = 5; // an expression in a set was parsed
+    private static final int PREDICATE = 6; // an identifier or predicate was parsed
+
+    private int start;
+    private final String whatIsExpected;
+    private char c; // the character the prefix expression starts with
+    private String bracketname; // for parentheses, brackets and cardinality bars
+    private char closeChar;
+    private ParseResult var; // for binders
+    private boolean hadPeriod;
+    private Vector elements; // for sets
+    private int next;
+    private boolean gotPipe;
+    private Expr rightExpr;
+
+    PrefixTask(String expression, int start, ParseOptions context, String whatIsExpected) {
+      super(expression, context);
+      this.start = start;
+      this.whatIsExpected = whatIsExpected;
+    }
+
+    Task resume(Object sub) {
+      switch (state) {
+        case START:
+          return begin();
+        case BRACKETED:
+          return finish(wrapBracketed((ParseResultSet) sub));
+        case NEGATED:
+          return finish(wrapNegated((ParseResultSet) sub));
+        case BINDER_VARIABLE:
+          return parseBinderScope((ParseResultSet) sub);
+        case BINDER_SCOPE:
+          return finish(wrapBinder((ParseResultSet) sub));
+        case SET_ELEMENT:
+          return continueSet((ParseResultSet) sub);
+        case PREDICATE:
+          return finish(sub);
+        default:
+          throw new RuntimeException(); // unreachable
+      }
     }
-    char c = getChar(expression, start, context);
 
-    switch (c) {
-      case '(':
-      case '[':
-      case '|':
-        String bracketname = null;
-        char closeChar = ' ';
-        if (c == '(') {
-          bracketname = "parentheses";
-          closeChar = ')';
-        }
-        if (c == '[') {
-          bracketname = "brackets";
-          closeChar = ']';
-        }
-        if (c == '|') {
-          bracketname = "cardinality bars";
-          closeChar = '|';
-        }
-        ParseResultSet parenrs = parseExpression(
-          expression, start + 1, context, "an expression inside your " + bracketname
+    private Task begin() {
+      start = skipWhitespace(expression, start, context);
+      if (start == -1) {
+        return finish(
+          new ParseResultSet(
+            new SyntaxException(
+              "You seem to be missing " + whatIsExpected + " at the end of your expression.",
+              expression.length() - 1
+            )
+          )
         );
-        if (parenrs.Exception != null) {
-          return parenrs; // return any fatal errors directly
-        }
-        int needCloseParenAt = -1; // a position that we need a close paren at, if no
-        // possible parse of a subclass ends with the close paren character
-        SyntaxException orFixError = null; // corresponding to needCloseParenAt, the
-        // HowToContinue exception that resulted in
-        // not parsing more of the inner expression
-
-        Vector result = new Vector(); // possible parses
-
-        // Wrap each possible parse of the subexpression in Parens.
-        for (int i = 0; i < parenrs.Parses.size(); i++) {
-          ParseResult parenr = (ParseResult) parenrs.Parses.get(i);
-
-          // Does the subexpression get followed by closeChar?
-          int newstart = skipWhitespace(expression, parenr.Next);
-          if (newstart == -1) {
-            // If we hit the end of the string, we need a close paren there.
-            needCloseParenAt = expression.length() - 1;
-            orFixError = null;
-            continue;
-          }
-          if (getChar(expression, newstart, context) != closeChar) {
-            needCloseParenAt = newstart;
-            orFixError = parenr.HowToContinue; // why did the subexpression end there
-            continue;
-          }
+      }
+      c = getChar(expression, start, context);
 
-          // If it is followed by closeChar, wrap it in Parens and
-          // consider it a possible parse.
-          Expr e = null;
+      switch (c) {
+        case '(':
+        case '[':
+        case '|':
+          bracketname = null;
+          closeChar = ' ';
           if (c == '(') {
-            e = new Parens(parenr.Expression, Parens.ROUND);
+            bracketname = "parentheses";
+            closeChar = ')';
           }
           if (c == '[') {
-            e = new Parens(parenr.Expression, Parens.SQUARE);
+            bracketname = "brackets";
+            closeChar = ']';
           }
           if (c == '|') {
-            e = new Cardinality(parenr.Expression);
+            bracketname = "cardinality bars";
+            closeChar = '|';
           }
-          result.add(new ParseResult(e, newstart + 1));
-        }
+          state = BRACKETED;
+          return parseExpression(
+            expression, start + 1, context, "an expression inside your " + bracketname
+          );
 
-        // If no possible parses are followed by closeChar, raise an exception
-        // and give the user one of the possible positions where closeChar
-        // would have been a good idea.
-        if (result.size() == 0) {
-          if (orFixError == null) {
-            return new ParseResultSet(
-                new SyntaxException(
-                  "You need a '" + closeChar + "' at the indicated location.",
-                  needCloseParenAt
-                )
-            );
-          } else {
-            return new ParseResultSet(
-                new SyntaxException(
-                  orFixError.getMessage() + " Or, perhaps add a '" +
-                  closeChar + "' at the indicated location.",
-                  needCloseParenAt
-                )
-            );
-          }
-        }
+        case Not.SYMBOL:
+          // Get the possibilities for the subexpression
+          state = NEGATED;
+          return parsePrefixExpression(
+            expression, start + 1, context, "an expression after the negation operator"
+          );
 
-        return new ParseResultSet(result);
-      //break
+        case ForAll.SYMBOL: //fall through
+        case Exists.SYMBOL: //fall through
+        case Lambda.SYMBOL: //fall through
+        case Iota.SYMBOL:
+          // Get the identifier that follows the binder.
+          state = BINDER_VARIABLE;
+          return parseIdentifier(expression, start + 1, context, "a variable");
 
-      case Not.SYMBOL:
-        // Get the possibilities for the subexpression
-        ParseResultSet negrs = parsePrefixExpression(
-          expression, start + 1, context, "an expression after the negation operator"
-        );
-        if (negrs.Exception != null) {
-          return negrs; // return any fatal errors directly
+        case '{':
+          elements = new Vector();
+          next = start + 1;
+          gotPipe = false;
+          rightExpr = null;
+
+          // Read an expression.
+          state = SET_ELEMENT;
+          return parseExpression(expression, next, context, "an expression");
+
+        default:
+          // Hope that it's an identifier or predicate. If not, a BadCharacterException is returned.
+          String exp = whatIsExpected == null ? "an expression" : whatIsExpected;
+          state = PREDICATE;
+          return parsePredicate(expression, start, context, exp, false);
+      }
+    }
+
+    private ParseResultSet wrapBracketed(ParseResultSet parenrs) {
+      if (parenrs.Exception != null) {
+        return parenrs; // return any fatal errors directly
+      }
+      int needCloseParenAt = -1; // a position that we need a close paren at, if no
+      // possible parse of a subclass ends with the close paren character
+      SyntaxException orFixError = null; // corresponding to needCloseParenAt, the
+      // HowToContinue exception that resulted in
+      // not parsing more of the inner expression
+
+      Vector result = new Vector(); // possible parses
+
+      // Wrap each possible parse of the subexpression in Parens.
+      for (int i = 0; i < parenrs.Parses.size(); i++) {
+        ParseResult parenr = (ParseResult) parenrs.Parses.get(i);
+
+        // Does the subexpression get followed by closeChar?
+        int newstart = skipWhitespace(expression, parenr.Next, context);
+        if (newstart == -1) {
+          // If we hit the end of the string, we need a close paren there.
+          needCloseParenAt = expression.length() - 1;
+          orFixError = null;
+          continue;
         }
-        // By parsing a prefix expression as opposed to just any expression here,
-        // we achieve the effect that negation binds more strongly than any other infix operator, 
-        // and more strongly than function application.
-        // E.g. ~A & B is parsed as [~A] & B                
-
-        // Wrap each possible parse of the subexpression in negation
-        for (int i = 0; i < negrs.Parses.size(); i++) {
-          ParseResult negr = (ParseResult) negrs.Parses.get(i);
-          negrs.Parses.set(i, new ParseResult(new Not(negr.Expression),
-                                              negr.Next));
+        if (getChar(expression, newstart, context) != closeChar) {
+          needCloseParenAt = newstart;
+          orFixError = parenr.HowToContinue; // why did the subexpression end there
+          continue;
         }
 
-        // Return the wrapped possible parses
-        return negrs;
-        //break
-
-      case ForAll.SYMBOL: //fall through
-      case Exists.SYMBOL: //fall through
-      case Lambda.SYMBOL: //fall through
-      case Iota.SYMBOL:
-        // Get the identifier that follows the binder.
-        ParseResultSet vars = parseIdentifier(expression, start + 1, context, "a variable");
-        if (vars.Exception != null) {
-          return vars; // return any fatal errors directly
+        // If it is followed by closeChar, record the parentheses on
+        // the subexpression and consider it a possible parse.
+        Expr e = null;
+        if (c == '(') {
+          e = parenr.Expression.withParens(Expr.ROUND);
+        }
+        if (c == '[') {
+          e = parenr.Expression.withParens(Expr.SQUARE);
+        }
+        if (c == '|') {
+          e = new Cardinality(parenr.Expression);
         }
-        ParseResult var = (ParseResult) vars.Parses.get(0); // parseIdentifier always returns a singleton, if anything
-        if (!(var.Expression instanceof Identifier)) { // should never occur??
+        result.add(new ParseResult(e, newstart + 1));
+      }
+
+      // If no possible parses are followed by closeChar, raise an exception
+      // and give the user one of the possible positions where closeChar
+      // would have been a good idea.
+      if (result.size() == 0) {
+        if (orFixError == null) {
           return new ParseResultSet(
+              new SyntaxException(
+                "You need a '" + closeChar + "' at the indicated location.",
+                needCloseParenAt
+              )
+          );
+        } else {
+          return new ParseResultSet(
+              new SyntaxException(
+                orFixError.getMessage() + " Or, perhaps add a '" +
+                closeChar + "' at the indicated location.",
+                needCloseParenAt
+              )
+          );
+        }
+      }
+
+      return new ParseResultSet(result);
+    }
+
+    private ParseResultSet wrapNegated(ParseResultSet negrs) {
+      if (negrs.Exception != null) {
+        return negrs; // return any fatal errors directly
+      }
+      // By parsing a prefix expression as opposed to just any expression here,
+      // we achieve the effect that negation binds more strongly than any other infix operator, 
+      // and more strongly than function application.
+      // E.g. ~A & B is parsed as [~A] & B                
+
+      // Wrap each possible parse of the subexpression in negation
+      Vector negated = new Vector();
+      for (int i = 0; i < negrs.Parses.size(); i++) {
+        ParseResult negr = (ParseResult) negrs.Parses.get(i);
+        negated.add(new ParseResult(new Not(negr.Expression), negr.Next));
+      }
+
+      // Return the wrapped possible parses
+      return new ParseResultSet(negated);
+    }
+
+    private Task parseBinderScope(ParseResultSet vars) {
+      if (vars.Exception != null) {
+        return finish(vars); // return any fatal errors directly
+      }
+      var = (ParseResult) vars.Parses.get(0); // parseIdentifier always returns a singleton, if anything
+      if (!(var.Expression instanceof Identifier)) { // should never occur??
+        return finish(
+          new ParseResultSet(
             new SyntaxException(
               "After a binder, a variable must come next: " + var.Expression + ".",
               start + 1
             )
-          );
-        }
-        int start1 = var.Next;
+          )
+        );
+      }
+      int start1 = var.Next;
 
-        // See if a period follows and remember whether one does.
-        start = skipWhitespace(expression, start1);
-        if (start == -1) {
-          return new ParseResultSet(
+      // See if a period follows and remember whether one does.
+      start = skipWhitespace(expression, start1, context);
+      if (start == -1) {
+        return finish(
+          new ParseResultSet(
             new SyntaxException(
               "You seem to be missing an expression following the binder at the end of your expression.",
               expression.length() - 1
             )
-          );
-        }
+          )
+        );
+      }
 
-        boolean hadWhiteSpace = (start1 != start);
+      boolean hadWhiteSpace = (start1 != start);
 
-        boolean hadPeriod = false;
-        if (getChar(expression, start, context) == '.') {
-          start++;
-          hadPeriod = true;
-        }
+      hadPeriod = false;
+      if (getChar(expression, start, context) == '.') {
+        start++;
+        hadPeriod = true;
+      }
 
-        // Remember the type of the variable, since it might have been given explicitly,
-        // so that when we encounter it within our scope, we can give it the same type.
-        // Cloning the context clones the IdentifierTyper, so we can modify it
-        // in context2 and it will be unchanged when we pop out of this scope.
-        ParseOptions context2 = context.cloneContext();
-        Identifier varid = (Identifier) var.Expression;
+      // Remember the type of the variable, since it might have been given explicitly,
+      // so that when we encounter it within our scope, we can give it the same type.
+      // Cloning the context clones the IdentifierTyper, so we can modify it
+      // in context2 and it will be unchanged when we pop out of this scope.
+      // If the typer already gives the variable that type, we keep the context,
+      // so that the memo can share the parses in the scope with the parses of
+      // the same text outside of it.
+      ParseOptions context2 = context;
+      Identifier varid = (Identifier) var.Expression;
+      if (!isTypedAs(context, varid)) {
+        context2 = context.cloneContext();
         context2.typer.addEntry(varid.getSymbol(), varid instanceof Var, varid.getType());
+        context2.scope = new Scope(context.scope, varid.getSymbol(), varid instanceof Var, varid.getType());
+      }
 
-        // Just parse anything inside the scope of the binder
-        ParseResultSet insides = parseInfixExpression(
-          expression, start, context2,
-          "the expression in the scope of the " + c + " binder", true, true
-        );
-        if (insides.Exception != null) {
-          return insides; // return any fatal errors immediately
-        }
+      // Just parse anything inside the scope of the binder
+      state = BINDER_SCOPE;
+      return parseInfixExpression(
+        expression, start, context2,
+        "the expression in the scope of the " + c + " binder", true, true
+      );
+    }
 
-        // Wrap each possible parse inside a Binder expression
-        for (int i = 0; i < insides.Parses.size(); i++) {
-          ParseResult inside = (ParseResult) insides.Parses.get(i);
+    private ParseResultSet wrapBinder(ParseResultSet insides) {
+      if (insides.Exception != null) {
+        return insides; // return any fatal errors immediately
+      }
 
-          Binder bin;
-          switch (c) {
-            case ForAll.SYMBOL:
-              bin = new ForAll((Identifier) var.Expression, inside.Expression, hadPeriod);
-              break;
-            case Exists.SYMBOL:
-              bin = new Exists((Identifier) var.Expression, inside.Expression, hadPeriod);
-              break;
-            case Lambda.SYMBOL:
-              bin = new Lambda((Identifier) var.Expression, inside.Expression, hadPeriod);
-              break;
-            case Iota.SYMBOL:
-              bin = new Iota((Identifier) var.Expression, inside.Expression, hadPeriod);
-              break;
-            default:
-              throw new RuntimeException(); // unreachable
-          }
+      // Wrap each possible parse inside a Binder expression
+      Vector bound = new Vector();
+      for (int i = 0; i < insides.Parses.size(); i++) {
+        ParseResult inside = (ParseResult) insides.Parses.get(i);
 
-          insides.Parses.set(i, new ParseResult(bin, inside.Next, inside.HowToContinue));
+        Binder bin;
+        switch (c) {
+          case ForAll.SYMBOL:
+            bin = new ForAll((Identifier) var.Expression, inside.Expression, hadPeriod);
+            break;
+          case Exists.SYMBOL:
+            bin = new Exists((Identifier) var.Expression, inside.Expression, hadPeriod);
+            break;
+          case Lambda.SYMBOL:
+            bin = new Lambda((Identifier) var.Expression, inside.Expression, hadPeriod);
+            break;
+          case Iota.SYMBOL:
+            bin = new Iota((Identifier) var.Expression, inside.Expression, hadPeriod);
+            break;
+          default:
+            throw new RuntimeException(); // unreachable
         }
 
-        // return the possible parses
-        return insides;
-        //break
-
-      case '{':
-        Vector elements = new Vector();
-
-        int next = start + 1;
-        boolean gotPipe = false;
-        Expr rightExpr = null;
-
-        while (true) {
-          // Read an expression.
-          ParseResultSet elemrs = parseExpression(expression, next, context, "an expression");
-          if (elemrs.Exception != null) {
-            return elemrs; // return fatal errors immediately
-          }
-          // Be greedy and take the longest parseable expression at this location.
-          Expr e = null;
-          for (int i = 0; i < elemrs.Parses.size(); i++) {
-            ParseResult elemr = (ParseResult) elemrs.Parses.get(i);
-            if (e == null || elemr.Next > next) {
-              e = elemr.Expression;
-              next = elemr.Next;
-            }
-          }
-
-          if (gotPipe) {
-            // this is the part after the pipe
-            rightExpr = e;
-          } else {
-            // Add this to the elements list.
-            elements.add(e);
-          }
-
-          next = skipWhitespace(expression, next);
-          if (next == -1) {
-            return new ParseResultSet(
-              new SyntaxException("You need a '}' to complete the set.", expression.length())
-            );
-          }
+        bound.add(new ParseResult(bin, inside.Next, inside.HowToContinue));
+      }
 
-          char c2 = getChar(expression, next, context);
+      // return the possible parses
+      return new ParseResultSet(bound);
+    }
 
-          if (c2 == '}') {
-            next++;
-            break;
-          }
+    private Task continueSet(ParseResultSet elemrs) {
+      if (elemrs.Exception != null) {
+        return finish(elemrs); // return fatal errors immediately
+      }
+      // Be greedy and take the longest parseable expression at this location.
+      Expr e = null;
+      for (int i = 0; i < elemrs.Parses.size(); i++) {
+        ParseResult elemr = (ParseResult) elemrs.Parses.get(i);
+        if (e == null || elemr.Next > next) {
+          e = elemr.Expression;
+          next = elemr.Next;
+        }
+      }
 
-          // If we've gotten an expression after the pipe, we had better have been done.
-          if (rightExpr != null) {
-            return new ParseResultSet(
-              new SyntaxException("You need a '}' to complete the set.", next)
-            );
-          }
+      if (gotPipe) {
+        // this is the part after the pipe
+        rightExpr = e;
+      } else {
+        // Add this to the elements list.
+        elements.add(e);
+      }
 
-          if (c2 == '|') {
-            if (elements.size() > 1) {
-              return new ParseResultSet(
-                new SyntaxException(
-                  "A vertical bar cannot be used in a set that also has a list of elements.",
-                  next
-                )
-              );
-            }
-            gotPipe = true;
-          } else if (c2 != ',') {
-            return new ParseResultSet(
-              new SyntaxException("You need a ',' between elements in a set.", next)
-            );
-          }
+      next = skipWhitespace(expression, next, context);
+      if (next == -1) {
+        return finish(
+          new ParseResultSet(
+            new SyntaxException("You need a '}' to complete the set.", expression.length())
+          )
+        );
+      }
 
-          next++;
-        }
+      char c2 = getChar(expression, next, context);
 
+      if (c2 == '}') {
+        next++;
         Vector results = new Vector();
         if (rightExpr == null) {
           results.add(
@@ -769,14 +1817,66 @@ public class ExpressionParser {
             new ParseResult(new SetWithGenerator((Expr) elements.get(0), rightExpr), next)
           );
         }
-        return new ParseResultSet(results);
-        //break
+        return finish(new ParseResultSet(results));
+      }
+
+      // If we've gotten an expression after the pipe, we had better have been done.
+      if (rightExpr != null) {
+        return finish(
+          new ParseResultSet(
+            new SyntaxException("You need a '}' to complete the set.", next)
+          )
+        );
+      }
+
+      if (c2 == '|') {
+        if (elements.size() > 1) {
+          return finish(
+            new ParseResultSet(
+              new SyntaxException(
+                "A vertical bar cannot be used in a set that also has a list of elements.",
+                next
+              )
+            )
+          );
+        }
+        gotPipe = true;
+      } else if (c2 != ',') {
+        return finish(
+          new ParseResultSet(
+            new SyntaxException("You need a ',' between elements in a set.", next)
+          )
+        );
+      }
 
-      default:
-        // Hope that it's an identifier or predicate. If not, a BadCharacterException is returned.
-        String exp = whatIsExpected == null ? "an expression" : whatIsExpected;
-        return parsePredicate(expression, start, context, exp, false);
+      next++;
+
+      // Read the next expression.
+      return parseExpression(expression, next, context, "an expression");
+    }
+  }
+
+  /**
+   * Returns whether the typer already gives the identifier's symbol the
+   * identifier's type and makes it a variable or constant the same way, in
+   * which case adding an entry for it to the typer would change nothing.
+   */
+  private static boolean isTypedAs(ParseOptions context, Identifier ident) {
+    Typing typing = getTyping(context, ident.getSymbol());
+    return typing.error == null &&
+           typing.isVariable == (ident instanceof Var) &&
+           typing.type.isIdenticalTo(ident.getType());
+  }
+
+  /**
+   * Looks up how the typer of the context types an identifier, only once
+   * per typer and identifier during parse() (see Tokens).
+   */
+  private static Typing getTyping(ParseOptions context, String id) {
+    if (context.tokens == null) {
+      return new Typing(context.typer, id);
     }
+    return context.tokens.getTyping(context.typer, id);
   }
 
   /**
@@ -787,9 +1887,9 @@ public class ExpressionParser {
    * @param context global options for parsing
    * @param whatIsExpected a string describing what kind of expression is
    * expected to occur at this position, for error messages
-   * @return an identifier or an error condition
+   * @return a task whose result is an identifier or an error condition
    */
-  private static ParseResultSet parseIdentifier(
+  private static Task parseIdentifier(
     String expression, int start, ParseOptions context, String whatIsExpected
   ) {
     return parsePredicate(expression, start, context, whatIsExpected, true);
@@ -811,236 +1911,266 @@ public class ExpressionParser {
    * identifier is specified (i.e. x<e>), then we know to load the identifier as
    * a variable, and 3) the error message reflects that we're looking for a
    * variable.
-   * @return an identifier, predicate, or error condition
+   * @return a task whose result is an identifier, predicate, or error condition
    */
-  private static ParseResultSet parsePredicate(
+  private static Task parsePredicate(
     String expression, int start, ParseOptions context, String whatIsExpected, boolean isRightAfterBinder
   ) {
-    // If there's no more here, return an error condition.
-    start = skipWhitespace(expression, start);
-    if (start == -1) {
-      return new ParseResultSet(
-        new SyntaxException(
-          "You seem to be missing " + whatIsExpected + " at the end of your expression.",
-          expression.length() - 1
-        )
-      );
-    }
-
-    int realStart = start;
-    char c = expression.charAt(start);
+    return new PredicateTask(expression, start, context, whatIsExpected, isRightAfterBinder);
+  }
 
-    if (!isIdentifierChar(c) && !(context.ASCII && c == '\\') &&
-        c != SetWithElements.EMPTY_SET_SYMBOL) {
-      if (isRightAfterBinder) {
-        return new ParseResultSet(
-          new BadCharacterException(
-            "I'm expecting a variable at the indicated location, " +
-            "but variables must start with a letter.",
-            start
-          )
-        );
-      } else {
-        return new ParseResultSet(
-          new BadCharacterException(
-            "You cannot have a '" + c + "' at the indicated location. I'm expecting to find " +
-            whatIsExpected + " there.",
-              start
-          )
-        );
+  /**
+   * A call of parsePredicate.
+   */
+  private static class PredicateTask extends Task {
+
+    private static final int START = 0;
+    private static final int ARGUMENT = 1; // an argument in parentheses was parsed
+
+    private int start;
+    private final String whatIsExpected;
+    private final boolean isRightAfterBinder;
+    private int realStart;
+    private String id;
+    private Type specifiedType;
+    private boolean specifiedTypeIsReallySpecified;
+    private boolean parens;
+    private boolean mightBeG;
+    private ArrayList arguments;
+    private boolean first;
+
+    PredicateTask(
+      String expression, int start, ParseOptions context, String whatIsExpected, boolean isRightAfterBinder
+    ) {
+      super(expression, context);
+      this.start = start;
+      this.whatIsExpected = whatIsExpected;
+      this.isRightAfterBinder = isRightAfterBinder;
+    }
+
+    Task resume(Object sub) {
+      if (state == START) {
+        return begin();
       }
-    }
-
-    // Read in the identifier until the first non-letter-or-number
-    // If we're doing single letter identifiers, then stop before
-    // the next letter too.
-    String id = String.valueOf(c);
-    start++;
-    
-    // If the first character was a backslash, we have to read
-    // in the next character literally. In the loop below, it is
-    // already translating characters according to our conventions.
-    // But we keep the backslash for later, since we're not sure if
-    // literal escaping of the next character was wanted, or else
-    // something like \alpha.
-    if (id.equals("\\") && start < expression.length()) {
-      id += expression.charAt(start++);
-    }
 
-    while (start < expression.length()) {
-      char ic = getChar(expression, start, context);
-      if (ic == '\\' && context.ASCII) {
-        // escape next character (and this time, trash the backslash!)
-        ic = expression.charAt(++start);
-      }
-      if (!isIdentifierChar(ic) || context.singleLetterIdentifiers && isLetter(ic)) {
-        break;
+      // The argument that the task returned by readArguments parsed.
+      try {
+        ParseResult arg = chooseParse(expression, (ParseResultSet) sub, false, context);
+        arguments.add(arg.Expression);
+        start = arg.Next;
+      } catch (SyntaxException se) {
+        String mes = "Argument " + (arguments.size() + 1) + " to the predicate " + id +
+                     " at the indicated location had the following problem: " + se.getMessage();
+        return finish(new ParseResultSet(new SyntaxException(mes, se.getPosition())));
       }
-      id += ic;
-      start++;
+      return readArguments();
     }
 
-    // If the identifier starts with a backslash, the user meant
-    // one of two things: either he is giving an escape code
-    // like \alpha, or he means to escape just the first letter,
-    // as in \LIKES to prevet the L from becomming a lambda.
-    // If the whole thing is a valid escape sequence, use it.
-    if (id.startsWith("\\")) {
-      String code = id.substring(1);
-      String decoded = translateEscapeCode(code);
-      if (decoded != code) {
-        id = decoded;
-      } else {
-        // it wasn't a valid escape sequence so just lop off
-        // the initial backslash, since it already did its job
-        // of escaping the next character.
-        id = code;
+    private Task begin() {
+      // If there's no more here, return an error condition.
+      start = skipWhitespace(expression, start, context);
+      if (start == -1) {
+        return finish(
+          new ParseResultSet(
+            new SyntaxException(
+              "You seem to be missing " + whatIsExpected + " at the end of your expression.",
+              expression.length() - 1
+            )
+          )
+        );
       }
-    }
 
-    // If an underscore follows the name of the identifier, then the identifier's
-    // type follows.
-    Type specifiedType = null;
-    boolean specifiedTypeIsReallySpecified = true;
-    if (start < expression.length() && getChar(expression, start, context) == '_') {
-      start++;
-      try {
-        TypeParser.ParseResult tr = TypeParser.parseType(expression, start, true);
-        start = tr.end + 1;
-        specifiedType = tr.result;
-      } catch (SyntaxException se) {
-        return new ParseResultSet(se);
+      realStart = start;
+      char c = expression.charAt(start);
+
+      if (!isIdentifierChar(c) && !(context.ASCII && c == '\\') &&
+          c != SetWithElements.EMPTY_SET_SYMBOL) {
+        if (isRightAfterBinder) {
+          return finish(
+            new ParseResultSet(
+              new BadCharacterException(
+                "I'm expecting a variable at the indicated location, " +
+                "but variables must start with a letter.",
+                start
+              )
+            )
+          );
+        } else {
+          return finish(
+            new ParseResultSet(
+              new BadCharacterException(
+                "You cannot have a '" + c + "' at the indicated location. I'm expecting to find " +
+                whatIsExpected + " there.",
+                  start
+              )
+            )
+          );
+        }
       }
-    }
 
-    boolean parsePredicate = true;
+      Token token = readIdentifier(expression, start, context);
+      id = token.id;
+      start = token.end;
 
-    // For the emptyset symbol, we don't expect it to be defined in the typing
-    // conventions. Further, take an underscore type specification as the element
-    // type T, not its type <T, t>. Also don't allow parsing arguments after this
-    // symbol as if it were a predicate.
-    if (id.equals(Character.toString(SetWithElements.EMPTY_SET_SYMBOL))) {
-      if (specifiedType == null) {
-        specifiedType = Type.E; // default element type
+      // If an underscore follows the name of the identifier, then the identifier's
+      // type follows.
+      specifiedType = null;
+      specifiedTypeIsReallySpecified = true;
+      if (start < expression.length() && getChar(expression, start, context) == '_') {
+        start++;
+        try {
+          TypeParser.ParseResult tr = TypeParser.parseType(expression, start, true);
+          start = tr.end + 1;
+          specifiedType = tr.result;
+        } catch (SyntaxException se) {
+          noteRead(expression.length(), context);
+          return finish(new ParseResultSet(se));
+        }
+        noteRead(start, context);
       }
-      specifiedType = new CompositeType(specifiedType, Type.T);
-      parsePredicate = false;
-      specifiedTypeIsReallySpecified = false;
-    }
 
-    // If the identifier looks like an integer, type it by default as type N.
-    if (specifiedType == null) {
-      try {
-        int asInt = Integer.parseInt(id);
-        specifiedType = Type.N;
+      boolean parsePredicate = true;
+
+      // For the emptyset symbol, we don't expect it to be defined in the typing
+      // conventions. Further, take an underscore type specification as the element
+      // type T, not its type <T, t>. Also don't allow parsing arguments after this
+      // symbol as if it were a predicate.
+      if (id.equals(Character.toString(SetWithElements.EMPTY_SET_SYMBOL))) {
+        if (specifiedType == null) {
+          specifiedType = Type.E; // default element type
+        }
+        specifiedType = new CompositeType(specifiedType, Type.T);
         parsePredicate = false;
         specifiedTypeIsReallySpecified = false;
-      } catch (Exception e) {
-        // whatever
       }
-    }
 
-    // If we're at the end of the expression, or if our caller does not permit us
-    // to parse a predicate, we won't parse a predicate.
-    if (start == expression.length() || isRightAfterBinder) {
-      parsePredicate = false;
-    }
-    // If parens, or another identifier, follow immediately, it is a predicate.
-    // We parse such predicates here. If neither of those conditions holds, then
-    // we return the identifier we found.
-    else if (!(getChar(expression, start, context) == '(' ||
-               context.singleLetterIdentifiers && isLetter(getChar(expression, start, context)))) {
-      parsePredicate = false;
-    }
+      // If the identifier looks like an integer, type it by default as type N.
+      if (specifiedType == null) {
+        try {
+          int asInt = Integer.parseInt(id);
+          specifiedType = Type.N;
+          parsePredicate = false;
+          specifiedTypeIsReallySpecified = false;
+        } catch (Exception e) {
+          // whatever
+        }
+      }
 
-    if (!parsePredicate) {
-      try {
-        Identifier ident = loadIdentifier(
-          id, context, start, null, specifiedType, specifiedTypeIsReallySpecified, isRightAfterBinder
-        );
-        return new ParseResultSet(new ParseResult(ident, start));
-      } catch (IdentifierTypeUnknownException itue) {
-        return new ParseResultSet(new SyntaxException(itue.getMessage(), realStart));
+      // If we're at the end of the expression, or if our caller does not permit us
+      // to parse a predicate, we won't parse a predicate.
+      if (start == expression.length() || isRightAfterBinder) {
+        parsePredicate = false;
+      }
+      // If parens, or another identifier, follow immediately, it is a predicate.
+      // We parse such predicates here. If neither of those conditions holds, then
+      // we return the identifier we found.
+      else if (!(getChar(expression, start, context) == '(' ||
+                 context.singleLetterIdentifiers && isLetter(getChar(expression, start, context)))) {
+        parsePredicate = false;
       }
-    }
 
-    boolean parens = false;
-    if (getChar(expression, start, context) == '(') {
-      start++;
-      parens = true;
-    }
-
-    // If we found the identifier 'g' and an open parenthesis,
-    // then if we find a close parenthesis, and further if
-    // what comes in the middle is an integer, then parse
-    // this predicate as a GApp of type e. Otherwise, we fall through
-    // and parse this like a normal predicate.
-    //
-    // TODO: If we read in a GApp of type other than e then we don't
-    // notice this. Is this a problem?
-    boolean mightBeG = false;
-    if (id.equals("g") && parens) {
-      int closeparen = expression.indexOf(')', start);
-      if (closeparen != -1) {
-        mightBeG = true;
-        String param = expression.substring(start, closeparen).trim();
+      if (!parsePredicate) {
         try {
-          int idx = Integer.valueOf(param).intValue();
-          return new ParseResultSet(new ParseResult(new GApp(idx, Type.E), closeparen + 1));
-        } catch (NumberFormatException e) {
-          // fall through to treating this
-          // like a normal predicate
+          Identifier ident = loadIdentifier(
+            id, context, start, null, specifiedType, specifiedTypeIsReallySpecified, isRightAfterBinder
+          );
+          return finish(new ParseResultSet(new ParseResult(ident, start)));
+        } catch (IdentifierTypeUnknownException itue) {
+          return finish(new ParseResultSet(new SyntaxException(itue.getMessage(), realStart)));
         }
       }
-    }
 
-    ArrayList arguments = new ArrayList();
-    boolean first = true;
-    while (true) {
-      if (parens) {
-        // skip whitespace and look for close parens
-        start = skipWhitespace(expression, start);
-        if (start == -1) {
-          return new ParseResultSet(
-            new SyntaxException(
-              "You seem to be missing " +
-              (first ? "a comma, expression, or close parenthesis" : "a comma or close parenthesis") +
-              " at the end of your expression.",
-              expression.length() - 1
-            )
-          );
-        }
-        if (getChar(expression, start, context) == ')') {
-          start++;
-          break;
-        }
-      } else {
-        if (start == expression.length()) {
-          break;
-        }
-        if (!isLetter(getChar(expression, start, context))) {
-          break;
+      parens = false;
+      if (getChar(expression, start, context) == '(') {
+        start++;
+        parens = true;
+      }
+
+      // If we found the identifier 'g' and an open parenthesis,
+      // then if we find a close parenthesis, and further if
+      // what comes in the middle is an integer, then parse
+      // this predicate as a GApp of type e. Otherwise, we fall through
+      // and parse this like a normal predicate.
+      //
+      // TODO: If we read in a GApp of type other than e then we don't
+      // notice this. Is this a problem?
+      mightBeG = false;
+      if (id.equals("g") && parens) {
+        int closeparen = expression.indexOf(')', start);
+        noteRead(closeparen != -1 ? closeparen : expression.length(), context);
+        if (closeparen != -1) {
+          mightBeG = true;
+          String param = expression.substring(start, closeparen).trim();
+          try {
+            int idx = Integer.valueOf(param).intValue();
+            return finish(new ParseResultSet(new ParseResult(new GApp(idx, Type.E), closeparen + 1)));
+          } catch (NumberFormatException e) {
+            // fall through to treating this
+            // like a normal predicate
+          }
         }
       }
 
-      if (parens) {
-        if (!first) {
-          // With parentheses, we need commas between the arguments.
-          if (getChar(expression, start, context) != ',') {
-            return new ParseResultSet(
-              new SyntaxException(
-                "If another argument to the predicate " + id +
-                " starts at the indicated location, use a comma to separate it from the " +
-                "previous argument. Otherwise, close your parentheses.",
-                start
+      arguments = new ArrayList();
+      first = true;
+      return readArguments();
+    }
+
+    /**
+     * Reads the arguments of the predicate from start on. An argument in
+     * parentheses is parsed by the task that this returns, after which
+     * resume() records it and calls this again.
+     */
+    private Task readArguments() {
+      while (true) {
+        if (parens) {
+          // skip whitespace and look for close parens
+          start = skipWhitespace(expression, start, context);
+          if (start == -1) {
+            return finish(
+              new ParseResultSet(
+                new SyntaxException(
+                  "You seem to be missing " +
+                  (first ? "a comma, expression, or close parenthesis" : "a comma or close parenthesis") +
+                  " at the end of your expression.",
+                  expression.length() - 1
+                )
               )
             );
           }
-          start++;
+          if (getChar(expression, start, context) == ')') {
+            start++;
+            break;
+          }
+        } else {
+          noteRead(start, context);
+          if (start == expression.length()) {
+            break;
+          }
+          if (!isLetter(getChar(expression, start, context))) {
+            break;
+          }
         }
-        first = false;
 
-        try {
+        if (parens) {
+          if (!first) {
+            // With parentheses, we need commas between the arguments.
+            if (getChar(expression, start, context) != ',') {
+              return finish(
+                new ParseResultSet(
+                  new SyntaxException(
+                    "If another argument to the predicate " + id +
+                    " starts at the indicated location, use a comma to separate it from the " +
+                    "previous argument. Otherwise, close your parentheses.",
+                    start
+                  )
+                )
+              );
+            }
+            start++;
+          }
+          first = false;
+
           String exp;
           if (arguments.size() == 0) {
             if (!mightBeG) {
@@ -1052,79 +2182,163 @@ public class ExpressionParser {
           } else {
             exp = "the next argument to the predicate " + id;
           }
-          ParseResult arg = parse2(expression, start, context, exp, false);
-          arguments.add(arg.Expression);
-          start = arg.Next;
-        } catch (SyntaxException se) {
-          String mes = "Argument " + (arguments.size() + 1) + " to the predicate " + id +
-                       " at the indicated location had the following problem: " + se.getMessage();
-          return new ParseResultSet(new SyntaxException(mes, se.getPosition()));
-        }
-      } else {
-        char cc = getChar(expression, start, context);
-        if (!isLetter(cc)) {// should not reach here...?
-          return new ParseResultSet(
-            new SyntaxException("Invalid identifier as an argument to " + id + ".", start)
-          );
-        }
-        try {
-          arguments.add(loadIdentifier(String.valueOf(cc), context, start, null, null, false, false));
-        } catch (IdentifierTypeUnknownException itue) {
-          return new ParseResultSet(
-              new SyntaxException(itue.getMessage(), start));
+          state = ARGUMENT;
+          return parseExpression(expression, start, context, exp);
+        } else {
+          char cc = getChar(expression, start, context);
+          if (!isLetter(cc)) {// should not reach here...?
+            return finish(
+              new ParseResultSet(
+                new SyntaxException("Invalid identifier as an argument to " + id + ".", start)
+              )
+            );
+          }
+          try {
+            arguments.add(loadIdentifier(String.valueOf(cc), context, start, null, null, false, false));
+          } catch (IdentifierTypeUnknownException itue) {
+            return finish(
+              new ParseResultSet(
+                new SyntaxException(itue.getMessage(), start)
+              )
+            );
+          }
+          start++;
+        }
+      }
+
+      return finish(applyPredicate());
+    }
+
+    /**
+     * Makes the predicate applied to the arguments that were read.
+     */
+    private ParseResultSet applyPredicate() {
+      if (arguments.size() == 0) { // "P()" is not valid
+        return new ParseResultSet(
+          new SyntaxException(
+            "Within the parenthesis of a predicate, one or more expressions must appear.",
+            start
+          )
+        );
+      }
+
+      // If the type of the identifier is not known to the IdentifierTyper,
+      // we'll infer its type from the types of the arguments, and assume
+      // it is a constant and a function that yields a truth value.
+      Type inferType = null;
+      try {
+        if (arguments.size() == 1) {
+          inferType = new CompositeType(((Expr) arguments.get(0)).getType(), Type.T);
+        } else {
+          Type[] argtypes = new Type[arguments.size()];
+          for (int i = 0; i < arguments.size(); i++) {
+            argtypes[i] = ((Expr) arguments.get(i)).getType();
+          }
+          inferType = new CompositeType(new ProductType(argtypes), Type.T);
         }
-        start++;
+      } catch (TypeEvaluationException e) {
+      }
+
+      Identifier ident;
+
+      try {
+        ident = loadIdentifier(
+          id, context, start, inferType, specifiedType, specifiedTypeIsReallySpecified, false
+        );
+      } catch (IdentifierTypeUnknownException itue) {
+        return new ParseResultSet(
+          new SyntaxException(itue.getMessage(), realStart)
+        );
       }
-    }
 
-    if (arguments.size() == 0) { // "P()" is not valid
-      return new ParseResultSet(
-        new SyntaxException(
-          "Within the parenthesis of a predicate, one or more expressions must appear.",
+      if (arguments.size() == 1) { // P(a) : a is an identifier; there is no ArgList
+        ParseResult pr = new ParseResult(new FunApp(ident, (Expr) arguments.get(0)), start);
+        return new ParseResultSet(pr);
+      } else { // P(a,b) : (a,b) is an ArgList
+        ParseResult pr = new ParseResult(
+          new FunApp(ident, new ArgList((Expr[]) arguments.toArray(new Expr[0]))),
           start
-        )
-      );
+        );
+        return new ParseResultSet(pr);
+      }
     }
+  }
 
-    // If the type of the identifier is not known to the IdentifierTyper,
-    // we'll infer its type from the types of the arguments, and assume
-    // it is a constant and a function that yields a truth value.
-    Type inferType = null;
-    try {
-      if (arguments.size() == 1) {
-        inferType = new CompositeType(((Expr) arguments.get(0)).getType(), Type.T);
-      } else {
-        Type[] argtypes = new Type[arguments.size()];
-        for (int i = 0; i < arguments.size(); i++) {
-          argtypes[i] = ((Expr) arguments.get(i)).getType();
-        }
-        inferType = new CompositeType(new ProductType(argtypes), Type.T);
-      }
-    } catch (TypeEvaluationException e) {
+  /**
+   * Reads the identifier that starts at position start in expression, which
+   * must be a character that can start one. Each position is read only once
+   * per parse (see Tokens).
+   *
+   * @param expression the text string being parsed
+   * @param start the position of the first character of the identifier
+   * @param context global options for parsing
+   * @return the identifier, with any escapes translated, and the position
+   * after it
+   */
+  private static Token readIdentifier(String expression, int start, ParseOptions context) {
+    Tokens tokens = context.tokens;
+    if (tokens != null && tokens.identifiers[start] != null) {
+      noteRead(tokens.identifiers[start].end, context);
+      return tokens.identifiers[start];
     }
+    int realStart = start;
 
-    Identifier ident;
+    // Read in the identifier until the first non-letter-or-number
+    // If we're doing single letter identifiers, then stop before
+    // the next letter too.
+    char c = expression.charAt(start);
+    StringBuilder buf = new StringBuilder();
+    buf.append(c);
+    start++;
+    
+    // If the first character was a backslash, we have to read
+    // in the next character literally. In the loop below, it is
+    // already translating characters according to our conventions.
+    // But we keep the backslash for later, since we're not sure if
+    // literal escaping of the next character was wanted, or else
+    // something like \alpha.
+    if (c == '\\' && start < expression.length()) {
+      buf.append(expression.charAt(start++));
+    }
 
-    try {
-      ident = loadIdentifier(
-        id, context, start, inferType, specifiedType, specifiedTypeIsReallySpecified, false
-      );
-    } catch (IdentifierTypeUnknownException itue) {
-      return new ParseResultSet(
-        new SyntaxException(itue.getMessage(), realStart)
-      );
+    while (start < expression.length()) {
+      char ic = getChar(expression, start, context);
+      if (ic == '\\' && context.ASCII) {
+        // escape next character (and this time, trash the backslash!)
+        ic = expression.charAt(++start);
+      }
+      if (!isIdentifierChar(ic) || context.singleLetterIdentifiers && isLetter(ic)) {
+        break;
+      }
+      buf.append(ic);
+      start++;
     }
+    String id = buf.toString();
 
-    if (arguments.size() == 1) { // P(a) : a is an identifier; there is no ArgList
-      ParseResult pr = new ParseResult(new FunApp(ident, (Expr) arguments.get(0)), start);
-      return new ParseResultSet(pr);
-    } else { // P(a,b) : (a,b) is an ArgList
-      ParseResult pr = new ParseResult(
-        new FunApp(ident, new ArgList((Expr[]) arguments.toArray(new Expr[0]))),
-        start
-      );
-      return new ParseResultSet(pr);
+    // If the identifier starts with a backslash, the user meant
+    // one of two things: either he is giving an escape code
+    // like \alpha, or he means to escape just the first letter,
+    // as in \LIKES to prevet the L from becomming a lambda.
+    // If the whole thing is a valid escape sequence, use it.
+    if (id.startsWith("\\")) {
+      String code = id.substring(1);
+      String decoded = translateEscapeCode(code);
+      if (decoded != code) {
+        id = decoded;
+      } else {
+        // it wasn't a valid escape sequence so just lop off
+        // the initial backslash, since it already did its job
+        // of escaping the next character.
+        id = code;
+      }
+    }
+
+    Token token = new Token(id, start);
+    if (tokens != null) {
+      tokens.identifiers[realStart] = token;
     }
+    noteRead(start, context);
+    return token;
   }
 
   // TODO write a formal semantic paper about the difference between
@@ -1198,13 +2412,14 @@ public class ExpressionParser {
         }
     }
 
+    Typing typing = getTyping(context, id);
     if (specifiedType == null) {
-      try {
-        isvar = context.typer.isVariable(id);
-        type = context.typer.getType(id);
-      } catch (IdentifierTypeUnknownException e) {
+      if (typing.error == null) {
+        isvar = typing.isVariable;
+        type = typing.type;
+      } else {
         if (inferredType == null) {
-          throw e;
+          throw typing.error;
         }
         isvar = false;
         type = inferredType;
@@ -1215,9 +2430,8 @@ public class ExpressionParser {
       if (!isRightAfterBinder) {
         // We're not after a binder, but that doesn't mean it's *not* a variable.
         // Let's check our typing conventions for that.
-        try {
-          isvar = context.typer.isVariable(id);
-        } catch (IdentifierTypeUnknownException e) {
+        if (typing.error == null) {
+          isvar = typing.isVariable;
         }
       }
     }
@@ -1230,6 +2444,9 @@ public class ExpressionParser {
     }
     if (specifiedType != null && specifiedTypeIsReallySpecified) {
       context.explicitTypes.put(id, ident); // ident because it stores both type and isVar
+      if (context.memo != null) {
+        context.memo.noteExplicitType(id, ident);
+      }
     }
     return ident;
   }
@@ -1262,218 +2479,337 @@ public class ExpressionParser {
    * look-ahead in parsing quantifiers
    * @param testSpaceRequired if true, just test that if an infix operator is
    * found, that it is surrounded by spaces
-   * @return the possible infix expressions (or something lesser as fallback)
-   * that could be parsed at this location
+   * @return a task whose result is the possible infix expressions (or
+   * something lesser as fallback) that could be parsed at this location
    */
-  private static ParseResultSet parseInfixExpression(
+  private static Task parseInfixExpression(
     String expression, int start, ParseOptions context, String whatIsExpected,
     boolean testSpaceRequired, boolean allowFunctionApplicationSpaceInTrivialReturn
   ) {
-    Vector results = new Vector();
+    return new InfixTask(
+      expression, start, context, whatIsExpected,
+      testSpaceRequired, allowFunctionApplicationSpaceInTrivialReturn
+    );
+  }
 
-    // The first thing to do is parse the first operand. However, if the
-    // allowFunctionApplicationSpaceInTrivialReturn parameter is false,
-    // this means that if we are returning a prefix expression directly and
-    // not within an infix expression, then we must have parsed the function
-    // application expression with allowSpace set to false.
-        
-    ParseResultSet trivialReturn, firstConjuncts;
+  /**
+   * A call of parseInfixExpression.
+   */
+  private static class InfixTask extends Task {
+
+    private static final int START = 0;
+    private static final int FIRST_CONJUNCTS = 1; // the first operand was parsed
+    private static final int TRIVIAL_RETURN = 2; // ... and again without spaces
+    private static final int REMAINDER = 3; // the rest after a first operand was parsed
+
+    private final int start;
+    private final String whatIsExpected;
+    private final boolean testSpaceRequired;
+    private final boolean allowFunctionApplicationSpaceInTrivialReturn;
+    private Vector results;
+    private ParseResultSet firstConjuncts;
+    private int i; // the first conjunct whose remainder is being parsed
+
+    InfixTask(
+      String expression, int start, ParseOptions context, String whatIsExpected,
+      boolean testSpaceRequired, boolean allowFunctionApplicationSpaceInTrivialReturn
+    ) {
+      super(expression, context);
+      this.start = start;
+      this.whatIsExpected = whatIsExpected;
+      this.testSpaceRequired = testSpaceRequired;
+      this.allowFunctionApplicationSpaceInTrivialReturn = allowFunctionApplicationSpaceInTrivialReturn;
+    }
+
+    Task resume(Object sub) {
+      switch (state) {
+        case START:
+          results = new Vector();
+
+          // The first thing to do is parse the first operand. However, if the
+          // allowFunctionApplicationSpaceInTrivialReturn parameter is false,
+          // this means that if we are returning a prefix expression directly and
+          // not within an infix expression, then we must have parsed the function
+          // application expression with allowSpace set to false.
+          state = FIRST_CONJUNCTS;
+          return parseFunctionApplicationExpression(
+            expression, start, context, whatIsExpected, true
+          );
 
-    firstConjuncts = parseFunctionApplicationExpression(
-      expression, start, context, whatIsExpected, true
-    );
-    if (firstConjuncts.Exception != null) {
-      return firstConjuncts; // return any fatal errors immediately
-    }
-    if (allowFunctionApplicationSpaceInTrivialReturn) {
-      trivialReturn = firstConjuncts;
-    } else {
-      trivialReturn = parseFunctionApplicationExpression(
-        expression, start, context, whatIsExpected, false
-      );
-      if (trivialReturn.Exception != null) {
-        return trivialReturn; // shouldn't happen if the first one succeeds
+        case FIRST_CONJUNCTS:
+          firstConjuncts = (ParseResultSet) sub;
+          if (firstConjuncts.Exception != null) {
+            return finish(firstConjuncts); // return any fatal errors immediately
+          }
+          if (allowFunctionApplicationSpaceInTrivialReturn) {
+            return recordTrivialReturn(firstConjuncts);
+          }
+          state = TRIVIAL_RETURN;
+          return parseFunctionApplicationExpression(
+            expression, start, context, whatIsExpected, false
+          );
+
+        case TRIVIAL_RETURN:
+          ParseResultSet trivialReturn = (ParseResultSet) sub;
+          if (trivialReturn.Exception != null) {
+            return finish(trivialReturn); // shouldn't happen if the first one succeeds
+          }
+          return recordTrivialReturn(trivialReturn);
+
+        case REMAINDER:
+          // Return any error conditions of the rest immediately.
+          if (sub != null) {
+            return finish(new ParseResultSet((SyntaxException) sub));
+          }
+          i++;
+          return parseNextRemainder();
+
+        default:
+          throw new RuntimeException(); // unreachable
       }
     }
 
-    // Then, for the result set in trivialReturn, record those nondeterministic parsing paths.
-    for (Iterator i = trivialReturn.Parses.iterator(); i.hasNext();) {
-      results.add(i.next());
+    private Task recordTrivialReturn(ParseResultSet trivialReturn) {
+      // Then, for the result set in trivialReturn, record those nondeterministic parsing paths.
+      for (Iterator j = trivialReturn.Parses.iterator(); j.hasNext();) {
+        results.add(j.next());
+      }
+      i = 0;
+      return parseNextRemainder();
     }
 
-    // When we parse the first conjunct, we can get any number of possible parses back,
-    // and for each we continue trying to parse the rest of the expression looking
-    // for a following infix operator.
-    for (int i = 0; i < firstConjuncts.Parses.size(); i++) {
-      ParseResult firstConjunct = (ParseResult) firstConjuncts.Parses.get(i);
+    /**
+     * When we parse the first conjunct, we can get any number of possible parses back,
+     * and for each we continue trying to parse the rest of the expression looking
+     * for a following infix operator.
+     */
+    private Task parseNextRemainder() {
+      for (; i < firstConjuncts.Parses.size(); i++) {
+        ParseResult firstConjunct = (ParseResult) firstConjuncts.Parses.get(i);
       
-      if (firstConjunct.Expression instanceof Binder ||
-          firstConjunct.Expression instanceof Not && ((Not)firstConjunct.Expression).dominatesBinder()) {
-        // Binders have lower precedence than all binary operators, so shouldn't
-        // appear as left hand side of any binary expression
-        continue;
-      }
+        if (isBareBinder(firstConjunct.Expression)) {
+          // Binders have lower precedence than all binary operators, so shouldn't
+          // appear as left hand side of any binary expression
+          continue;
+        }
 
-      ArrayList operators = new ArrayList();
-      ArrayList operands = new ArrayList();
+        ArrayList operators = new ArrayList();
+        ArrayList operands = new ArrayList();
 
-      operands.add(firstConjunct.Expression);
+        operands.add(firstConjunct.Expression);
 
-      // Continue parsing the rest and return any error conditions immediately.
-      SyntaxException err = parseInfixExpressionRemainder(
-        expression, firstConjunct.Next, context, operators, operands, results, testSpaceRequired
-      );
-      if (err != null) {
-        return new ParseResultSet(err);
+        // Continue parsing the rest.
+        state = REMAINDER;
+        return new InfixRemainderTask(
+          expression, firstConjunct.Next, context, operators, operands, results, testSpaceRequired
+        );
       }
-    }
 
-    return new ParseResultSet(results);
+      return finish(new ParseResultSet(results));
+    }
   }
 
   /**
-   * Parse the remainder of an infix expression, returning any error conditions.
+   * Parse the remainder of an infix expression. The result is any error
+   * condition, or null.
    */
-  private static SyntaxException parseInfixExpressionRemainder(
-    String expression, int start, ParseOptions context,
-    ArrayList operators, ArrayList operands, Vector results, boolean testSpaceRequired
-  ) {
-    // Skip any white space after the previous expression to where we expect an operator
-    int pstart = start;
-    start = skipWhitespace(expression, start);
-    boolean wsBefore = (pstart != start);
-
-    // We know we've reached the end of this infix expression if we've hit the
-    // end of the string.
-    if (start == -1) {
-      return null;
-    }
+  private static class InfixRemainderTask extends Task {
+
+    private static final int START = 0;
+    private static final int RIGHT_OPERANDS = 1; // the operand after the connective was parsed
+    private static final int REMAINDER = 2; // the rest after an operand was parsed
+
+    private int start;
+    private final ArrayList operators;
+    private final ArrayList operands;
+    private final Vector results;
+    private final boolean testSpaceRequired;
+    private char c; // the connective
+    private ParseResultSet nextoperands;
+    private int i; // the right operand whose remainder is being parsed
+
+    InfixRemainderTask(
+      String expression, int start, ParseOptions context,
+      ArrayList operators, ArrayList operands, Vector results, boolean testSpaceRequired
+    ) {
+      super(expression, context);
+      this.start = start;
+      this.operators = operators;
+      this.operands = operands;
+      this.results = results;
+      this.testSpaceRequired = testSpaceRequired;
+    }
+
+    Task resume(Object sub) {
+      switch (state) {
+        case START:
+          return begin();
+
+        case RIGHT_OPERANDS:
+          nextoperands = (ParseResultSet) sub;
+
+          // If parsing the right operand failed completely, then we return the reason. Because
+          // a failure to parse that expression is fatal, since we've already gotten the connective,
+          // we are right to return it fatally.
+          if (nextoperands.Exception != null) {
+            return finish(nextoperands.Exception);
+          }
+          i = 0;
+          return parseNextRemainder();
 
-    char c = getChar(expression, start, context);
+        case REMAINDER:
+          if (sub != null) {
+            return finish(sub);
+          }
+          checkAlternatives(results, start, context);
+          i++;
+          return parseNextRemainder();
 
-    // If we're in ASCII mode, convert the ASCII character
-    // to a unicode character, and possibly read a few more
-    // characters to get the symbol.
-    if (context.ASCII) {
-      char cnext = (start + 1 < expression.length()) ? expression.charAt(start + 1) : (char) 0;
-      char cnextnext = (start + 2 < expression.length()) ? expression.charAt(start + 2) : (char) 0;
-
-      if (c == And.INPUT_SYMBOL) { // '&' //todo: also And.ALTERNATE_INPUT_SYMBOL?
-        c = And.SYMBOL; // wedge
-      } else if (c == Or.INPUT_SYMBOL) {
-        c = Or.SYMBOL;
-      } else if (c == Multiplication.INPUT_SYMBOL) {
-        c = Multiplication.SYMBOL;
-      } else if (c == Fusion.INPUT_SYMBOL) {
-        c = Fusion.SYMBOL;
-      } else if (c == '-' && cnext == '>') {
-        c = If.SYMBOL;
-        start++;
-      } else if (c == '<' && cnext == '-' && cnextnext == '>') {
-        c = Iff.SYMBOL;
-        start += 2;
-      } else if (c == '!' && cnext == '=') {
-        c = Equality.NEQ_SYMBOL;
-        start++;
-      } // numeric connectives
-      else if (c == '<' && cnext == '=') {
-        c = NumericRelation.LessThanOrEqual.SYMBOL;
-        start++;
-      } else if (c == '>' && cnext == '=') {
-        c = NumericRelation.GreaterThanOrEqual.SYMBOL;
-        start++;
-      } // all of the set connectives are doubled characters
-      // set intersection: double carets or double v's.
-      else if (c == '^' && cnext == '^') {
-        c = SetRelation.Intersect.SYMBOL;
-        start++;
-      } else if (c == 'V' && cnext == 'V') {
-        c = SetRelation.Intersect.SYMBOL;
-        start++;
-      } else if (c == '!' && cnext == '<' && cnextnext == '<') {
-        c = SetRelation.NotSubset.SYMBOL;
-        start++;
-      } else if (c == '<' && cnext == '<' && cnextnext == '<') {
-        c = SetRelation.ProperSubset.SYMBOL;
-        start++;
-      } else if (c == '<' && cnext == '<') {
-        c = SetRelation.Subset.SYMBOL;
-        start++;
-      } else if (c == '!' && cnext == '>' && cnextnext == '>') {
-        c = SetRelation.NotSuperset.SYMBOL;
-        start++;
-      } else if (c == '>' && cnext == '>' && cnextnext == '>') {
-        c = SetRelation.ProperSuperset.SYMBOL;
-        start++;
-      } else if (c == '>' && cnext == '>') {
-        c = SetRelation.Superset.SYMBOL;
-        start++;
-      } else if (c == '<' && cnext == ':') {
-        c = MereologicalRelation.PartOf.SYMBOL;
-        start++;
+        default:
+          throw new RuntimeException(); // unreachable
       }
     }
 
-    start++;
+    private Task begin() {
+      // Skip any white space after the previous expression to where we expect an operator
+      int pstart = start;
+      start = skipWhitespace(expression, start, context);
+      boolean wsBefore = (pstart != start);
 
-    // If the next character isn't and, or, if, iff, eq, or neq, then we're at the end of
-    // our expression. Since we've found something complete already, and we have no indication
-    // that the user intended a connective, there's no need to return any error status.
-    if (!(c == And.SYMBOL||
-          c == Or.SYMBOL ||
-          c == If.SYMBOL ||
-          c == Iff.SYMBOL ||
-          c == Equality.EQ_SYMBOL ||
-          c == Equality.NEQ_SYMBOL ||
-          c == Multiplication.SYMBOL ||
-          c == Fusion.SYMBOL ||
-          c == NumericRelation.LessThan.SYMBOL ||
-          c == NumericRelation.LessThanOrEqual.SYMBOL ||
-          c == NumericRelation.GreaterThan.SYMBOL ||
-          c == NumericRelation.GreaterThanOrEqual.SYMBOL ||
-          c == SetRelation.Subset.SYMBOL ||
-          c == SetRelation.ProperSubset.SYMBOL ||
-          c == SetRelation.NotSubset.SYMBOL ||
-          c == SetRelation.Superset.SYMBOL ||
-          c == SetRelation.ProperSuperset.SYMBOL ||
-          c == SetRelation.NotSuperset.SYMBOL ||
-          c == SetRelation.Intersect.SYMBOL ||
-          c == SetRelation.Union.SYMBOL ||
-          c == MereologicalRelation.PartOf.SYMBOL)
-        ) {
-      return null;
-    }
+      // We know we've reached the end of this infix expression if we've hit the
+      // end of the string.
+      if (start == -1) {
+        return finish(null);
+      }
+
+      c = getChar(expression, start, context);
+
+      // If we're in ASCII mode, convert the ASCII character
+      // to a unicode character, and possibly read a few more
+      // characters to get the symbol.
+      if (context.ASCII) {
+        char cnext = (start + 1 < expression.length()) ? expression.charAt(start + 1) : (char) 0;
+        char cnextnext = (start + 2 < expression.length()) ? expression.charAt(start + 2) : (char) 0;
+        noteRead(Math.min(start + 2, expression.length()), context);
+
+        if (c == And.INPUT_SYMBOL) { // '&' //todo: also And.ALTERNATE_INPUT_SYMBOL?
+          c = And.SYMBOL; // wedge
+        } else if (c == Or.INPUT_SYMBOL) {
+          c = Or.SYMBOL;
+        } else if (c == Multiplication.INPUT_SYMBOL) {
+          c = Multiplication.SYMBOL;
+        } else if (c == Fusion.INPUT_SYMBOL) {
+          c = Fusion.SYMBOL;
+        } else if (c == '-' && cnext == '>') {
+          c = If.SYMBOL;
+          start++;
+        } else if (c == '<' && cnext == '-' && cnextnext == '>') {
+          c = Iff.SYMBOL;
+          start += 2;
+        } else if (c == '!' && cnext == '=') {
+          c = Equality.NEQ_SYMBOL;
+          start++;
+        } // numeric connectives
+        else if (c == '<' && cnext == '=') {
+          c = NumericRelation.LessThanOrEqual.SYMBOL;
+          start++;
+        } else if (c == '>' && cnext == '=') {
+          c = NumericRelation.GreaterThanOrEqual.SYMBOL;
+          start++;
+        } // all of the set connectives are doubled characters
+        // set intersection: double carets or double v's.
+        else if (c == '^' && cnext == '^') {
+          c = SetRelation.Intersect.SYMBOL;
+          start++;
+        } else if (c == 'V' && cnext == 'V') {
+          c = SetRelation.Intersect.SYMBOL;
+          start++;
+        } else if (c == '!' && cnext == '<' && cnextnext == '<') {
+          c = SetRelation.NotSubset.SYMBOL;
+          start++;
+        } else if (c == '<' && cnext == '<' && cnextnext == '<') {
+          c = SetRelation.ProperSubset.SYMBOL;
+          start++;
+        } else if (c == '<' && cnext == '<') {
+          c = SetRelation.Subset.SYMBOL;
+          start++;
+        } else if (c == '!' && cnext == '>' && cnextnext == '>') {
+          c = SetRelation.NotSuperset.SYMBOL;
+          start++;
+        } else if (c == '>' && cnext == '>' && cnextnext == '>') {
+          c = SetRelation.ProperSuperset.SYMBOL;
+          start++;
+        } else if (c == '>' && cnext == '>') {
+          c = SetRelation.Superset.SYMBOL;
+          start++;
+        } else if (c == '<' && cnext == ':') {
+          c = MereologicalRelation.PartOf.SYMBOL;
+          start++;
+        }
+      }
 
-    // See if any white space is after the connective
-    int pstart2 = start;
-    boolean wsAfter = (pstart2 != skipWhitespace(expression, start));
+      start++;
 
-    // If we're testing whether spaces are required around the operators,
-    // if no space was found on either side, return an error condition.
-    // Never require spaces around multiplication or fusion.
-    if (testSpaceRequired && (!wsBefore || !wsAfter) &&
-        c != Multiplication.SYMBOL && c != Fusion.SYMBOL) {
-      return new SyntaxException(
-        "Spaces are required around '" + c + "' connectives.", pstart
-      );
-    }
+      // If the next character isn't and, or, if, iff, eq, or neq, then we're at the end of
+      // our expression. Since we've found something complete already, and we have no indication
+      // that the user intended a connective, there's no need to return any error status.
+      if (!(c == And.SYMBOL||
+            c == Or.SYMBOL ||
+            c == If.SYMBOL ||
+            c == Iff.SYMBOL ||
+            c == Equality.EQ_SYMBOL ||
+            c == Equality.NEQ_SYMBOL ||
+            c == Multiplication.SYMBOL ||
+            c == Fusion.SYMBOL ||
+            c == NumericRelation.LessThan.SYMBOL ||
+            c == NumericRelation.LessThanOrEqual.SYMBOL ||
+            c == NumericRelation.GreaterThan.SYMBOL ||
+            c == NumericRelation.GreaterThanOrEqual.SYMBOL ||
+            c == SetRelation.Subset.SYMBOL ||
+            c == SetRelation.ProperSubset.SYMBOL ||
+            c == SetRelation.NotSubset.SYMBOL ||
+            c == SetRelation.Superset.SYMBOL ||
+            c == SetRelation.ProperSuperset.SYMBOL ||
+            c == SetRelation.NotSuperset.SYMBOL ||
+            c == SetRelation.Intersect.SYMBOL ||
+            c == SetRelation.Union.SYMBOL ||
+            c == MereologicalRelation.PartOf.SYMBOL)
+          ) {
+        return finish(null);
+      }
 
-    // Try to parse the right operand.
-    ParseResultSet nextoperands = parseFunctionApplicationExpression(
-      expression, start, context,
-      "another expression after the " + c + " connective", true
-    );
+      // See if any white space is after the connective
+      int pstart2 = start;
+      boolean wsAfter = (pstart2 != skipWhitespace(expression, start, context));
+
+      // If we're testing whether spaces are required around the operators,
+      // if no space was found on either side, return an error condition.
+      // Never require spaces around multiplication or fusion.
+      if (testSpaceRequired && (!wsBefore || !wsAfter) &&
+          c != Multiplication.SYMBOL && c != Fusion.SYMBOL) {
+        return finish(
+          new SyntaxException(
+            "Spaces are required around '" + c + "' connectives.", pstart
+          )
+        );
+      }
 
-    // If parsing the right operand failed completely, then we return the reason. Because
-    // a failure to parse that expression is fatal, since we've already gotten the connective,
-    // we are right to return it fatally.
-    if (nextoperands.Exception != null) {
-      return nextoperands.Exception;
+      // Try to parse the right operand.
+      state = RIGHT_OPERANDS;
+      return parseFunctionApplicationExpression(
+        expression, start, context,
+        "another expression after the " + c + " connective", true
+      );
     }
 
-    // For each possible right operand, record what we have so far as the end of a
-    // nondeterministic path, and recursively parse for more operands.
-    for (int i = 0; i < nextoperands.Parses.size(); i++) {
+    /**
+     * For each possible right operand, record what we have so far as the end of a
+     * nondeterministic path, and parse for more operands.
+     */
+    private Task parseNextRemainder() {
+      if (i == nextoperands.Parses.size()) {
+        return finish(null);
+      }
       ParseResult right = (ParseResult) nextoperands.Parses.get(i);
       
       // Clone the list of operators and operands that we have so
@@ -1489,19 +2825,15 @@ public class ExpressionParser {
         operators2, operands2, right.Next, right.HowToContinue, results
       );
       if (err2 != null) {
-        return err2;
+        return finish(err2);
       }
 
       // Try to parse more infix operators...
-      SyntaxException err = parseInfixExpressionRemainder(
+      state = REMAINDER;
+      return new InfixRemainderTask(
         expression, right.Next, context, operators2, operands2, results, testSpaceRequired
       );
-      if (err != null) {
-        return err;
-      }
     }
-
-    return null;
   }
 
   /**
@@ -1531,8 +2863,7 @@ public class ExpressionParser {
       int s = operands.size() - 1;
       for (int i = 1; i < s; i++) {
         Expr o = (Expr) operands.get(i);
-        if (o instanceof Binder ||
-            o instanceof Not && ((Not)o).dominatesBinder()) {
+        if (isBareBinder(o)) {
           return null;
         }
       }
@@ -1640,8 +2971,7 @@ public class ExpressionParser {
               Boolean binderInBetween = false;
               for(int v = 1; v < interveners.size(); v++) {
                 Expr o = (Expr) interveners.get(v);
-                if (o instanceof Binder ||
-                    o instanceof Not && ((Not)o).dominatesBinder()) {
+                if (isBareBinder(o)) {
                   binderInBetween = true;
                 }
               }
@@ -1696,10 +3026,9 @@ public class ExpressionParser {
         // Skip over any parses that would cut off a binding expression between two
         // infix operators. For instance, ignore the parse of P(x) & Ay.Q(y) & Q(z)
         // on which P(x) & Ay.Q(y) is a constituent
-        if (left instanceof LogicalBinary) {
+        if (left instanceof LogicalBinary && !left.hasParens()) {
           Expr r = ((LogicalBinary)left).getRight();
-          if (r instanceof Binder ||
-              r instanceof Not && ((Not)r).dominatesBinder()) {
+          if (isBareBinder(r)) {
             break;
           }
         }
@@ -1809,32 +3138,85 @@ public class ExpressionParser {
    * @param context global options for parsing
    * @param whatIsExpected a string describing what kind of expression is
    * expected to occur at this position, for error messages
-   * @return a set of possible parses of function application expressions or
-   * something lesser as fallback, or an error condition
+   * @return a task whose result is a set of possible parses of function
+   * application expressions or something lesser as fallback, or an error
+   * condition
    */
-  private static ParseResultSet parseFunctionApplicationExpression(
+  private static Task parseFunctionApplicationExpression(
     String expression, int start, ParseOptions context, String whatIsExpected, boolean allowSpace
   ) {
-    // Parse the left-hand side of the function application, which can be
-    // any type of expression besides function application.
-    ParseResultSet lefts = parsePrefixExpression(expression, start, context, whatIsExpected);
-    if (lefts.Exception != null) {
-      return lefts; // return any fatal errors immediately
-    }
-    // Collect possible parses here. Delay adding the left expression until later.
-    Vector results = new Vector();
-
-    // For each possible parse of the left hand side, try to parse an expression
-    // after it as its argument.
-    for (int i = 0; i < lefts.Parses.size(); i++) {
-      ParseResult left = (ParseResult) lefts.Parses.get(i);
-      parseFunctionApplicationRemainder(expression, context, left, results, allowSpace);
+    int parser = allowSpace ? FUNCTION_APPLICATION_PARSER : FUNCTION_APPLICATION_WITHOUT_SPACE_PARSER;
+    return memoize(parser, expression, start, context, whatIsExpected);
+  }
+
+  /**
+   * A call of parseFunctionApplicationExpression whose result is not in the
+   * memo.
+   */
+  private static class FunctionApplicationTask extends Task {
+
+    private static final int START = 0;
+    private static final int LEFTS = 1; // the left-hand side was parsed
+    private static final int REMAINDER = 2; // the rest after a left-hand side was parsed
+
+    private final int start;
+    private final String whatIsExpected;
+    private final boolean allowSpace;
+    private ParseResultSet lefts;
+    private Vector results;
+    private int i; // the left-hand side whose remainder is being parsed
+
+    FunctionApplicationTask(
+      String expression, int start, ParseOptions context, String whatIsExpected, boolean allowSpace
+    ) {
+      super(expression, context);
+      this.start = start;
+      this.whatIsExpected = whatIsExpected;
+      this.allowSpace = allowSpace;
+    }
+
+    Task resume(Object sub) {
+      switch (state) {
+        case START:
+          // Parse the left-hand side of the function application, which can be
+          // any type of expression besides function application.
+          state = LEFTS;
+          return parsePrefixExpression(expression, start, context, whatIsExpected);
+
+        case LEFTS:
+          lefts = (ParseResultSet) sub;
+          if (lefts.Exception != null) {
+            return finish(lefts); // return any fatal errors immediately
+          }
+          // Collect possible parses here. Delay adding the left expression until later.
+          results = new Vector();
+          i = 0;
+          return parseNextRemainder();
+
+        case REMAINDER:
+          checkAlternatives(results, start, context);
+          i++;
+          return parseNextRemainder();
+
+        default:
+          throw new RuntimeException(); // unreachable
+      }
     }
 
-    return new ParseResultSet(results);
+    /**
+     * For each possible parse of the left hand side, try to parse an expression
+     * after it as its argument.
+     */
+    private Task parseNextRemainder() {
+      if (i == lefts.Parses.size()) {
+        return finish(new ParseResultSet(results));
+      }
+      ParseResult left = (ParseResult) lefts.Parses.get(i);
+      state = REMAINDER;
+      return new FunctionApplicationRemainderTask(expression, context, left, results, allowSpace);
+    }
   }
 
-
   /**
    * Try to parse the right-hand-side of a function application. If the string
    * ends, we just yield the left hand side directly. Otherwise, we parse a
@@ -1842,109 +3224,266 @@ public class ExpressionParser {
    * Left-associativity is accomplished by taking this result and using it as
    * the left-hand-side of a further attempt to find a right-hand-side/FunApp.
    * Possible parses --- both for the left-hand-side alone and for the whole
-   * thing as a FunApp --- are collected in results.
-   *
-   * @param expression the text string being parsed
-   * @param start the position at which to start scanning for a function
-   * application
-   * @param context global options for parsing
-   * @param whatIsExpected a string describing what kind of expression is
-   * expected to occur at this position, for error messages
-   * @param left the left-hand-side of the function application
-   * @param results the list into which possible parses of function application
-   * (ending at any point) are added
+   * thing as a FunApp --- are collected in results. The task has no result of
+   * its own.
    */
-  private static void parseFunctionApplicationRemainder(
-    String expression, ParseOptions context, ParseResult left, Vector results, boolean allowSpace
-  ) {
-    // Attempt to parse a second expression, and if we get one,
-    // we create a FunApp between the first (left) and second.
-
-    // Skip any white space after the previous expression.
-    // If we hit the end of the string, skipWhitespace returns -1, and we
-    // record the possible parse of just the left hand expression and then break out.
-    int start = skipWhitespace(expression, left.Next);
-    if (start == -1) {
-      results.add(left);
-      return;
+  private static class FunctionApplicationRemainderTask extends Task {
+
+    private static final int START = 0;
+    private static final int RIGHTS = 1; // the argument was parsed
+    private static final int REMAINDER = 2; // the rest after an argument was parsed
+
+    private final ParseResult left; // the left-hand-side of the function application
+    private final Vector results; // possible parses, ending at any point
+    private final boolean allowSpace;
+    private int start;
+    private ParseResultSet rights;
+    private int j; // the argument whose remainder is being parsed
+
+    FunctionApplicationRemainderTask(
+      String expression, ParseOptions context, ParseResult left, Vector results, boolean allowSpace
+    ) {
+      super(expression, context);
+      this.left = left;
+      this.results = results;
+      this.allowSpace = allowSpace;
+    }
+
+    Task resume(Object sub) {
+      switch (state) {
+        case START:
+          return begin();
+
+        case RIGHTS:
+          return parseRights((ParseResultSet) sub);
+
+        case REMAINDER:
+          checkAlternatives(results, start, context);
+          j++;
+          return parseNextRemainder();
+
+        default:
+          throw new RuntimeException(); // unreachable
+      }
     }
 
-    // Binders have lower precedence than function application, so shouldn't
-    // appear as the function of any FunApp pair. This excludes things like
-    // Lx.P(x) a  ~~>  P(a). To achieve this, parens are needed around the lambda
-    // expression: (Lx.P(x)) a
-    if (left.Expression instanceof Binder ||
-        left.Expression instanceof Not && ((Not) left.Expression).dominatesBinder()) {
-      results.add(left);
-      return;
-    }
+    private Task begin() {
+      // Attempt to parse a second expression, and if we get one,
+      // we create a FunApp between the first (left) and second.
 
-    // If we don't allow spaces between the function and argument,
-    // but a space was encountered, we're done.
-    if (!allowSpace && left.Next != start) {
-      results.add(left);
-      return;
+      // Skip any white space after the previous expression.
+      // If we hit the end of the string, skipWhitespace returns -1, and we
+      // record the possible parse of just the left hand expression and then break out.
+      start = skipWhitespace(expression, left.Next, context);
+      if (start == -1) {
+        results.add(left);
+        return finish(null);
+      }
+
+      // Binders have lower precedence than function application, so shouldn't
+      // appear as the function of any FunApp pair. This excludes things like
+      // Lx.P(x) a  ~~>  P(a). To achieve this, parens are needed around the lambda
+      // expression: (Lx.P(x)) a
+      if (isBareBinder(left.Expression)) {
+        results.add(left);
+        return finish(null);
+      }
+
+      // If we don't allow spaces between the function and argument,
+      // but a space was encountered, we're done.
+      if (!allowSpace && left.Next != start) {
+        results.add(left);
+        return finish(null);
+      }
+
+      // Parse a prefix expression to our right.
+      state = RIGHTS;
+      return parsePrefixExpression(
+        expression, start, context, "an argument to the function " + left.Expression.toString()
+      );
     }
 
-    // Parse a prefix expression to our right.
-    ParseResultSet rights = parsePrefixExpression(
-      expression, start, context, "an argument to the function " + left.Expression.toString()
-    );
+    private Task parseRights(ParseResultSet rights) {
+      this.rights = rights;
 
-    // If parsing what we think might be an argument failed, we want to alter our
-    // error message depending on the type of the left argument. If indeed it is
-    // a function-typed thing, or if we can't determine its type, then indicate
-    // in the HowToContinue field of the left-hand-side how parsing the argument
-    // failed. However, if the left-thing isn't a function, then if parsing
-    // the argument failed (because there is no argument; how's that for presupposition
-    // cancellation!), don't bother passing that information up. The user
-    // probably didn't intend to parse an argument.
-    if (rights.Exception != null) {
-      try {
-        Type t = left.Expression.getType();
-        if (!(t instanceof CompositeType)) {
-          results.add(left);
-          return;
+      // If parsing what we think might be an argument failed, we want to alter our
+      // error message depending on the type of the left argument. If indeed it is
+      // a function-typed thing, or if we can't determine its type, then indicate
+      // in the HowToContinue field of the left-hand-side how parsing the argument
+      // failed. However, if the left-thing isn't a function, then if parsing
+      // the argument failed (because there is no argument; how's that for presupposition
+      // cancellation!), don't bother passing that information up. The user
+      // probably didn't intend to parse an argument.
+      if (rights.Exception != null) {
+        try {
+          Type t = left.Expression.getType();
+          if (!(t instanceof CompositeType)) {
+            results.add(left);
+            return finish(null);
+          }
+        } catch (TypeEvaluationException tee) {
+          // nevermind
         }
-      } catch (TypeEvaluationException tee) {
-        // nevermind
       }
-    }
 
-    // We return the nondeterministic path up to
-    // the left expression and note in its HowToContinue
-    // field the error that prevents us from continuing
-    // it with the text that follows.
-    // If !allowSpace, which means we're right in the scope of a binder,
-    // and if there wasn't space (there wasn't, we checked already) and we
-    // were able to parse the next argument, then
-    // we always parse the function application low, so we *don't* allow
-    // the nondeterministic parsing path that ends after the function, which
-    // allows the argument to be parsed higher up.
-    if (allowSpace || rights.Exception != null) {
-      results.add(new ParseResult(left.Expression, left.Next, rights.Exception));
-    }
+      // We return the nondeterministic path up to
+      // the left expression and note in its HowToContinue
+      // field the error that prevents us from continuing
+      // it with the text that follows.
+      // If !allowSpace, which means we're right in the scope of a binder,
+      // and if there wasn't space (there wasn't, we checked already) and we
+      // were able to parse the next argument, then
+      // we always parse the function application low, so we *don't* allow
+      // the nondeterministic parsing path that ends after the function, which
+      // allows the argument to be parsed higher up.
+      if (allowSpace || rights.Exception != null) {
+        results.add(new ParseResult(left.Expression, left.Next, rights.Exception));
+      }
 
-    // And if indeed we had an error getting the argument, we have to stop.
-    if (rights.Exception != null) {
-      return;
+      // And if indeed we had an error getting the argument, we have to stop.
+      if (rights.Exception != null) {
+        return finish(null);
+      }
+
+      j = 0;
+      return parseNextRemainder();
     }
 
-    // For each possible parse to our right, assemble a FunApp, and then
-    // recursively attempt to parse yet another argument to our right.
-    // We don't add the parsed FunApp to results here. Rather, we delay
-    // that until later in the recursive call so that if it has a failed
-    // parse of a further argument, it can note in the ParseResult what
-    // the error was.
-    for (int j = 0; j < rights.Parses.size(); j++) {
+    /**
+     * For each possible parse to our right, assemble a FunApp, and then
+     * attempt to parse yet another argument to our right.
+     * We don't add the parsed FunApp to results here. Rather, we delay
+     * that until later in the task for the rest so that if it has a failed
+     * parse of a further argument, it can note in the ParseResult what
+     * the error was.
+     */
+    private Task parseNextRemainder() {
+      if (j == rights.Parses.size()) {
+        return finish(null);
+      }
       ParseResult right = (ParseResult) rights.Parses.get(j);
       Expr expr = new FunApp(left.Expression, right.Expression); // left associativity
-      parseFunctionApplicationRemainder(
+      state = REMAINDER;
+      return new FunctionApplicationRemainderTask(
         expression, context, new ParseResult(expr, right.Next), results, allowSpace
       );
     }
   }
 
+  /**
+   * Runs one of the sub-parsers, or reuses its result if it has already been
+   * run at this position in this context (see Memo).
+   *
+   * @param parser the sub-parser, one of the *_PARSER constants
+   * @return a task whose result is a set of possible parses
+   */
+  private static Task memoize(
+    int parser, String expression, int start, ParseOptions context, String whatIsExpected
+  ) {
+    return new MemoizedTask(parser, expression, start, context, whatIsExpected);
+  }
+
+  /**
+   * A call of one of the sub-parsers through memoize.
+   */
+  private static class MemoizedTask extends Task {
+
+    private static final int START = 0;
+    private static final int COMPUTED = 1; // the sub-parser was run
+
+    private final int parser;
+    private final int start;
+    private final String whatIsExpected;
+    private MemoKey key;
+
+    MemoizedTask(int parser, String expression, int start, ParseOptions context, String whatIsExpected) {
+      super(expression, context);
+      this.parser = parser;
+      this.start = start;
+      this.whatIsExpected = whatIsExpected;
+    }
+
+    Task resume(Object sub) {
+      Memo memo = context.memo;
+      if (state == START) {
+        if (memo != null) {
+          key = new MemoKey(parser, start, context.scope);
+          MemoEntry entry = memo.get(key, whatIsExpected, context.depth[0], context.maxDepth);
+          if (entry != null) {
+            memo.replay(entry, context);
+            return finish(entry.result);
+          }
+          memo.beginFrame(context.depth[0]);
+        }
+
+        if (parser == PREFIX_PARSER) {
+          if (++context.depth[0] > context.maxDepth) {
+            throw new LimitExceeded(
+              "Your expression is nested too deeply. Parentheses, binders and the like can be " +
+              "nested at most " + context.maxDepth + " deep.",
+              start
+            );
+          }
+          if (memo != null) {
+            memo.noteDepth(context.depth[0]);
+          }
+        }
+        state = COMPUTED;
+        return compute(parser, expression, start, context, whatIsExpected);
+      }
+
+      if (parser == PREFIX_PARSER) {
+        context.depth[0]--;
+      }
+      if (memo != null) {
+        memo.endFrame(key, whatIsExpected, (ParseResultSet) sub);
+      }
+      return finish(sub);
+    }
+  }
+
+  /**
+   * Stops the parse if more alternative parses have been collected in
+   * results than the options allow.
+   *
+   * @param start the position of the parses, for the error message
+   */
+  private static void checkAlternatives(Vector results, int start, ParseOptions context) {
+    if (results.size() > context.maxAlternatives) {
+      throw new LimitExceeded(
+        "Your expression can be read in too many ways at the indicated location. " +
+        "Add parentheses to make clear what you mean.",
+        start
+      );
+    }
+  }
+
+  private static Task compute(
+    int parser, String expression, int start, ParseOptions context, String whatIsExpected
+  ) {
+    switch (parser) {
+      case PREFIX_PARSER:
+        return new PrefixTask(expression, start, context, whatIsExpected);
+      case FUNCTION_APPLICATION_PARSER:
+        return new FunctionApplicationTask(expression, start, context, whatIsExpected, true);
+      case FUNCTION_APPLICATION_WITHOUT_SPACE_PARSER:
+        return new FunctionApplicationTask(expression, start, context, whatIsExpected, false);
+      default:
+        throw new RuntimeException(); // unreachable
+    }
+  }
+
+  /**
+   * Returns whether e is a binder, or a negated binder, that is not enclosed
+   * in parentheses, so that its scope extends as far to the right as possible.
+   */
+  private static boolean isBareBinder(Expr e) {
+    if (e.hasParens()) {
+      return false;
+    }
+    return e instanceof Binder || e instanceof Not && ((Not)e).dominatesBinder();
+  }
+
   /**
    * Parses an expression at position start in expression. We first try to parse
    * a function application because it is the operator with the lowest
@@ -1956,10 +3495,10 @@ public class ExpressionParser {
    * @param context global options for parsing
    * @param whatIsExpected a string describing what kind of expression is
    * expected to occur at this position, for error messages
-   * @return the set of possible expressions parsed starting at this location
-   * (and ending wherever), or an error condition
+   * @return a task whose result is the set of possible expressions parsed
+   * starting at this location (and ending wherever), or an error condition
    */
-  private static ParseResultSet parseExpression(
+  private static Task parseExpression(
     String expression, int start, ParseOptions context, String whatIsExpected
   ) {
     return parseInfixExpression(expression, start, context, whatIsExpected, false, true);
@@ -59,6 +59,10 @@ public class ForAll extends PropositionalBinder {
     public String getSymbol() {
         return String.valueOf(SYMBOL);
     }
+    
+    public int getKind() {
+        return ExprKind.FOR_ALL;
+    }
 
     public String getLatexSymbol() {
         return this.LATEX_REPR;
@@ -71,8 +75,4 @@ public class ForAll extends PropositionalBinder {
     protected Binder create(Identifier variable, Expr inner) {
         return new ForAll(variable, inner, hasPeriod());
     }
-
-    ForAll(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
-    }
 }
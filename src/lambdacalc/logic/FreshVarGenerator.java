@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+/*
+ * FreshVarGenerator.java
+ */
+
+package lambdacalc.logic;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Chooses fresh variables that are not in use in some scope. A fresh
+ * variable is chosen as in Expr.createFreshVar: it has the same type and
+ * prefix as the given variable, but with as many primes appended as needed
+ * until it is not in use.
+ *
+ * The variables in use are indexed by their symbol ids (see SymbolTable),
+ * so checking a candidate looks only at the variables with the same
+ * symbol, and the candidates are stepped through with
+ * SymbolTable.getPrimedId without creating a Var for each. A variable can
+ * be added for an inner scope with with(), which shares the variables of
+ * the outer scope rather than copying them, so that code that renames
+ * binders on its way down an expression does not copy the set of
+ * variables in use at each binder.
+ */
+public final class FreshVarGenerator {
+    
+    private final HashMap index; // Integer symbol id => ArrayList of Vars
+    private final FreshVarGenerator outer; // null at the outermost scope
+    private final Var var; // the variable added by this scope, if not outermost
+    
+    /**
+     * Creates a generator that avoids the given variables. Identifiers
+     * other than variables are ignored, since they are never equal to a
+     * variable.
+     */
+    public FreshVarGenerator(Collection variablesInUse) {
+        index = new HashMap();
+        outer = null;
+        var = null;
+        for (Iterator i = variablesInUse.iterator(); i.hasNext(); ) {
+            Object v = i.next();
+            if (v instanceof Var)
+                add((Var)v);
+        }
+    }
+    
+    /**
+     * Creates a generator that avoids the variables used, free or bound,
+     * in expr.
+     */
+    public FreshVarGenerator(Expr expr) {
+        this(expr.getAllVars());
+    }
+    
+    private FreshVarGenerator(FreshVarGenerator outer, Var var) {
+        this.index = outer.index;
+        this.outer = outer;
+        this.var = var;
+    }
+    
+    /**
+     * Adds a variable to the variables in use in this scope.
+     */
+    public void add(Var v) {
+        Integer id = Integer.valueOf(v.getSymbolId());
+        ArrayList vars = (ArrayList)index.get(id);
+        if (vars == null) {
+            vars = new ArrayList(1);
+            index.put(id, vars);
+        }
+        vars.add(v);
+    }
+    
+    /**
+     * Returns a generator for an inner scope in which v is also in use.
+     * Variables added to the inner scope with add() are in use in this
+     * scope too, so an inner scope should add variables only with with().
+     */
+    public FreshVarGenerator with(Var v) {
+        return new FreshVarGenerator(this, v);
+    }
+    
+    /**
+     * Returns whether the variable is in use, i.e. whether a variable
+     * equal to it is.
+     */
+    public boolean isInUse(Var v) {
+        return isInUse(v.getSymbolId(), v.getType());
+    }
+    
+    /**
+     * Returns whether a variable with the given symbol and type is in use.
+     * Like Var.equals, this compares the types with Type.equals, so that
+     * a type variable is equal to any type.
+     */
+    private boolean isInUse(int symbolId, Type type) {
+        for (FreshVarGenerator g = this; g.outer != null; g = g.outer)
+            if (g.var.getSymbolId() == symbolId && type.equals(g.var.getType()))
+                return true;
+        
+        ArrayList vars = (ArrayList)index.get(Integer.valueOf(symbolId));
+        if (vars == null)
+            return false;
+        for (int i = 0; i < vars.size(); i++)
+            if (type.equals(((Var)vars.get(i)).getType()))
+                return true;
+        return false;
+    }
+    
+    /**
+     * Creates a fresh variable based on v that is not in use in this scope.
+     * @return v itself if it is not in use, or else v with as many primes
+     * appended as needed
+     */
+    public Var createFreshVar(Var v) {
+        int id = v.getSymbolId();
+        Type type = v.getType();
+        if (!isInUse(id, type))
+            return v;
+        do {
+            id = SymbolTable.getPrimedId(id);
+        } while (isInUse(id, type));
+        return new Var(SymbolTable.getSymbol(id), type, v.isTypeExplicit());
+    }
+    
+    /**
+     * Returns v with one more prime appended to its symbol.
+     */
+    public static Var prime(Var v) {
+        return new Var(SymbolTable.getSymbol(SymbolTable.getPrimedId(v.getSymbolId())), v.getType(), v.isTypeExplicit());
+    }
+}
@@ -55,6 +55,10 @@ public class FunApp extends Binary {
         super(func, arg);
     }
     
+    public int getKind() {
+        return ExprKind.FUN_APP;
+    }
+    
     public FunApp(Expr func, Expr arg, HashMap<Type,Type> alignments) {
         super(func, arg);
     }
@@ -85,30 +89,34 @@ public class FunApp extends Binary {
         return getRight();
     }
     
-    protected String toString(int mode) {
-        String arg = getArg().toString(mode);
-        String func = getFunc().toString(mode);
-        if (!(getArg() instanceof Parens) && !(getArg() instanceof ArgList)) {
-            arg = "(" + arg + ")";
+    protected void renderWithoutParens(Appendable out, int mode) throws java.io.IOException {
+        if (getFunc().hasParens()) {
+            // render the parentheses as square brackets
+            out.append('[');
+            renderSubExpressionInsideParens(getFunc(), out, mode);
+            out.append(']');
+        } else if (!(getFunc() instanceof Identifier || getFunc() instanceof FunApp)) {
+            out.append('[');
+            renderSubExpression(getFunc(), out, mode);
+            out.append(']');
+        } else {
+            renderSubExpression(getFunc(), out, mode);
         }
-        if (!(getFunc() instanceof Identifier || getFunc() instanceof FunApp)) {
-//            arg = " " + arg;
-            if (!(getFunc() instanceof Parens)) {
-              func = "[" + func + "]";
-            } else {
-              if (getFunc() instanceof Parens) {    
-                ((Parens)getFunc()).setSquare();
-              }
-            }
+        
+        if (!getArg().hasParens() && !(getArg() instanceof ArgList)) {
+            out.append('(');
+            renderSubExpression(getArg(), out, mode);
+            out.append(')');
+        } else {
+            renderSubExpression(getArg(), out, mode);
         }
-        return func + arg;
     }
     
     protected Binary create(Expr left, Expr right) {
         return new FunApp(left, right);
     }
 
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         if (!(getFunc().getType() instanceof CompositeType))
             throw new TypeMismatchException
                     (getFunc() + " cannot be applied as a function " +
@@ -204,69 +212,77 @@ public class FunApp extends Binary {
         }
     }
     
-    protected Expr performLambdaConversion1(Set accidentalBinders) throws TypeEvaluationException {
+    protected Expr computeLambdaConversion1(Set accidentalBinders, ExprTransformation conversion) throws TypeEvaluationException {
         // We're looking for a lambda to convert...
         
         Expr func = getFunc().stripOutermostParens(); // we need to strip parens to see what it really is
-        Expr arg = getArg().stripOutermostParens(); // undo the convention of parens around the argument
         
         // In the case of nested function applications, the structurally innermost one gets 
-        // simplified first, so we just recurse down the tree. 
+        // simplified first, so we look there first. 
         // E.g. in Lx.Ly.body (a) (b) 
         // the structurally innermost FA is Lx.Ly.body (a)
-        if (func instanceof FunApp) {
-            Expr inside = func.performLambdaConversion1(accidentalBinders);
-            if (inside != null)
-                return new FunApp(inside, getArg()); // TODO why are we using getArg() and not just arg here?
-
-        // If the function is in fact a Lambda, then we begin substitutions.
-        } else if (func instanceof Lambda) {
-            Lambda lambda = (Lambda)func;
-            if (!(lambda.getVariable() instanceof Var))
-                throw new ConstInsteadOfVarException
-                        ("A variable must be bound by the " + Lambda.SYMBOL
-                        + ", but " + lambda.getVariable() + " is a constant " +
-                        "according to the typing conventions in effect.");
-            Var var = (Var)lambda.getVariable();
+        switch (func.getKind()) {
+            case ExprKind.FUN_APP:
+                conversion.convert(0, func);
+                break;
             
-            Expr inside = lambda.getInnerExpr().stripOutermostParens();
+            // If the function is in fact a Lambda, then we begin substitutions.
+            case ExprKind.LAMBDA: {
+                Lambda lambda = (Lambda)func;
+                if (lambda.getVariable().getKind() != ExprKind.VAR)
+                    throw new ConstInsteadOfVarException
+                            ("A variable must be bound by the " + Lambda.SYMBOL
+                            + ", but " + lambda.getVariable() + " is a constant " +
+                            "according to the typing conventions in effect.");
+                Var var = (Var)lambda.getVariable();
+                
+                Expr inside = lambda.getInnerExpr().stripOutermostParens();
+                Expr arg = getArg().stripOutermostParens(); // undo the convention of parens around the argument
+                
+                Set binders = new HashSet(); // initialize for use down below
+                return inside.performLambdaConversion2(var, arg, binders, accidentalBinders);
+            }
             
-            Set binders = new HashSet(); // initialize for use down below
-            return inside.performLambdaConversion2(var, arg, binders, accidentalBinders);
+            // If the function is an identifier, it's OK, but we don't recurse into it.
+            case ExprKind.VAR:
+            case ExprKind.CONST:
             
-        // If the function is an identifier, it's OK, but we don't recurse into it.
-        } else if (func instanceof Identifier) {
-
-        // The same thing happens if the function is a GApp (from a higher-type trace).
-        } else if (func instanceof GApp) {
-
-        } else {
-            throw new TypeMismatchException("The left hand side of a function application must be a lambda expression or a function-typed constant or variable: " + func);
+            // The same thing happens if the function is a GApp (from a higher-type trace).
+            case ExprKind.GAPP:
+                break;
+            
+            default:
+                throw new TypeMismatchException("The left hand side of a function application must be a lambda expression or a function-typed constant or variable: " + func);
         }
         
-        // If we've gotten here, then no lambda conversion took place within
-        // our scope. That means that we must see if we can do any lambda conversion
-        // in the argument.
-        Expr arglc = getArg().performLambdaConversion1(accidentalBinders);
-        
-        // If even there no lambda conversions are possible, then return null to
-        // signify that nothing happened.
-        if (arglc == null)
-            return null;
-        
-        // Otherwise, the arg did do a lambda conversion, so we reconstruct ourself.
-        return new FunApp(getFunc(), arglc);
+        // If no lambda conversion takes place within the function, then we
+        // must see if we can do any lambda conversion in the argument. If
+        // even there no lambda conversions are possible, nothing happens.
+        conversion.convert(1, getArg());
+        return this;
     }
     
-    protected Expr performLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders) throws TypeEvaluationException {
+    protected int getNodeFlags() {
+        // performLambdaConversion1 converts (or rejects) anything that is
+        // not an identifier, GApp, or nested function application
+        Expr func = getFunc().stripOutermostParens();
+        switch (func.getKind()) {
+            case ExprKind.VAR:
+            case ExprKind.CONST:
+            case ExprKind.GAPP:
+            case ExprKind.FUN_APP:
+                return 0;
+            default:
+                return REDEX;
+        }
+    }
+    
+    protected Expr computeLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders, ExprTransformation substitution) throws TypeEvaluationException {
+        if (!getFreeVarSymbols().get(var.getSymbolId())) return this; // var does not occur free in here
         // We're in the scope of a lambda. In that case, we keep performing substitutions
         // in our function and in our argument.
-        return new FunApp(
-                getFunc().performLambdaConversion2(var, replacement, binders, accidentalBinders),
-                getArg().performLambdaConversion2(var, replacement, binders, accidentalBinders));
-    }
-
-    FunApp(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
+        substitution.substitute(0, getFunc());
+        substitution.substitute(1, getArg());
+        return this;
     }
 }
@@ -29,9 +29,7 @@
  */
 package lambdacalc.logic;
 
-import java.util.Arrays;
 import java.util.Map;
-import java.util.stream.Stream;
 
 /**
  * Represents plural sum formation, as in the collective interpretation of
@@ -47,12 +45,18 @@ public class Fusion extends Binary {
         super(left, right);
     }
     
-    protected String toString(int mode) {
+    public int getKind() {
+        return ExprKind.FUSION;
+    }
+    
+    protected void renderWithoutParens(Appendable out, int mode) throws java.io.IOException {
+        renderSubExpression(getLeft(), out, mode);
         if (mode == LATEX) {
-            return getLeft().toString(mode) + LATEX_SYMBOL + getRight().toString(mode);
+            out.append(LATEX_SYMBOL);
         } else { // mode == HTML || mode == TXT
-            return getLeft().toString(mode) + SYMBOL + getRight().toString(mode);
+            out.append(SYMBOL);
         }
+        renderSubExpression(getRight(), out, mode);
     }
 
     /**
@@ -68,7 +72,7 @@ public class Fusion extends Binary {
         return new Fusion(left, right);
     }
     
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         if (!getLeft().getType().equals(Type.E) ||
             !getRight().getType().equals(Type.E)) {
             String msg = "The types of the expressions on the left and right " +
@@ -81,60 +85,18 @@ public class Fusion extends Binary {
     }
     
     
-    protected boolean equals(Expr e, boolean useMaps, Map thisMap, Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap) {
-
-        // ignore parentheses for equality test
-        e = e.stripOutermostParens();
-
-        if (e instanceof Fusion) {
-            return this.equals((Fusion) e, useMaps, thisMap, otherMap, collapseAllVars, freeVarMap);
-        } else {
-            return false;
-        }
-    }
-    
-    private boolean equals(Fusion b, boolean useMaps, Map thisMap, Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap) {
-        // If the immediate daughters are equal, then this node is equal
-        if (this.getClass() != b.getClass()) {
-            return false;
-        } else if (this.getLeft().equals(b.getLeft(), useMaps, thisMap, otherMap, collapseAllVars, freeVarMap)
-                   && this.getRight().equals(b.getRight(), useMaps, thisMap, otherMap, collapseAllVars, freeVarMap)
-                  ) {
-            return true;
-        } else {
-            // If they're not equal, it might be due to some difference in bracketing,
-            // which doesn't ultimately matter, since this operation is associative
-            // So we flatten the expression as much as we can (until we hit a
-            // descendent with a different class), and then compare the flat arrays of juncts
-            Expr[] junctsA = equalsRec(this);
-            Expr[] junctsB = equalsRec(b);
-            if (junctsA.length != junctsB.length) {
-                return false;
-            } else {
-                for (int i = 0; i < junctsA.length; i++) {
-                    if (!junctsA[i].equals(junctsB[i], useMaps, thisMap, otherMap, collapseAllVars, freeVarMap)) {
-                        return false;
-                    }
-                }
-                return true;
-            }
-        }
+    protected boolean compareSubExpressions(Expr e, boolean useMaps, BoundVarMap boundVars, boolean collapseAllVars, Map freeVarMap, ExprComparison comparison) {
+        // A difference in bracketing doesn't ultimately matter, since this
+        // operation is associative. So we flatten the expressions as much as
+        // we can (until we hit a descendent with a different class), and then
+        // compare the flat lists of juncts.
+        return comparison.compareOperands(this, e, useMaps, boundVars, collapseAllVars, freeVarMap);
     }
     
-    protected Expr[] equalsRec(Expr b) {
-        if (b.getClass() != this.getClass()) {
-            Expr[] junct = {b};
-            return junct;
-        } else {
-            return Stream.concat(
-                     Arrays.stream(equalsRec(((Fusion)b).getLeft())),
-                     Arrays.stream(equalsRec(((Fusion)b).getRight()))
-                   ).toArray(Expr[]::new);
-        }
-    }     
-    
-    Fusion(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
+    protected int computeHashCode() {
+        // equals flattens nested Fusions, so the hash code has to be
+        // insensitive to how they are grouped
+        return getLeft().hashCode() + getRight().hashCode();
     }
 
 }
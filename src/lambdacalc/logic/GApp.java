@@ -28,12 +28,12 @@
 
 package lambdacalc.logic;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -62,12 +62,25 @@ public class GApp extends Expr {
         this.type=type;
     }
     
+    public int getKind() {
+        return ExprKind.GAPP;
+    }
+    
     public int getIndex() {
         return this.index;
     }
     
-    public int hashCode() {
-        return new Integer(this.getIndex()).hashCode() ^ super.hashCode();
+    protected int computeHashCode() {
+        return 31 * getClass().getName().hashCode() + getIndex();
+    }
+    
+    protected int computeAlphaFingerprint(BoundVarMap boundVars) {
+        return 31 * (getKind() + 1) + getIndex();
+    }
+    
+    protected boolean isSameNode(Expr other) {
+        GApp g = (GApp)other;
+        return getIndex() == g.getIndex() && type.isIdenticalTo(g.type);
     }
     
     /**
@@ -82,7 +95,7 @@ public class GApp extends Expr {
     /**
      * Gets the semantic type of this expression, that is, e.
      */
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         return this.type;
     }
     
@@ -97,18 +110,14 @@ public class GApp extends Expr {
      * 
      * @param collapseAllVars this parameter is ignored
      *
-     * @param thisMap this parameter is ignored
-     *
-     * @param otherMap this parameter is ignored
+     * @param boundVars this parameter is ignored
      *
      *
      * @return true iff both expressions are GApps and have the same index and type
      * or the comparator is an indexed variable with the same index as this GApp
      */
-    protected boolean equals
-            (Expr e, boolean collapseBoundVars, Map thisMap, 
-            Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap) {
-        e = e.stripOutermostParens();
+    protected boolean equalsNode
+            (Expr e, boolean collapseBoundVars, BoundVarMap boundVars, boolean collapseAllVars, java.util.Map freeVarMap) {
         boolean sameGApp =
             e instanceof GApp &&
             this.getIndex() == ((GApp) e).getIndex() &&
@@ -146,7 +155,11 @@ public class GApp extends Expr {
      * @return null if no lambda conversion took place, otherwise the lambda-converted
      * expression 
      */
-    protected Expr performLambdaConversion1(Set accidentalBinders)
+    protected int getNodeFlags() {
+        return GAPP;
+    }
+    
+    protected Expr computeLambdaConversion1(Set accidentalBinders, ExprTransformation conversion)
     throws TypeEvaluationException {
         return null;
     }
@@ -160,11 +173,12 @@ public class GApp extends Expr {
      * @param replacement this parameter is ignored
      * @param binders this parameter is ignored
      * @param accidentalBinders this parameter is ignored
+     * @param substitution this parameter is ignored
      * @throws TypeEvaluationException never thrown
      * @return the expression unchanged
      */
-    protected Expr performLambdaConversion2
-            (Var var, Expr replacement, Set binders, Set accidentalBinders) 
+    protected Expr computeLambdaConversion2
+            (Var var, Expr replacement, Set binders, Set accidentalBinders, ExprTransformation substitution) 
             throws TypeEvaluationException {
         return this;
     }
@@ -177,14 +191,15 @@ public class GApp extends Expr {
     * @param bindersToChange this parameter is ignored
     * @param variablesInUse this parameter is ignored
     * @param updates this parameter is ignored
+    * @param variant this parameter is ignored
     * @return the expression unchanged
     */
-    protected Expr createAlphabeticalVariant
-            (Set bindersToChange, Set variablesInUse, Map updates) {
+    protected Expr computeAlphabeticalVariant
+            (Set bindersToChange, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
         return this;
     }
-    public Expr createAlphatypicalVariant
-            (HashMap<Type,Type> alignments, Set variablesInUse, Map updates) {
+    protected Expr computeAlphatypicalVariant
+            (HashMap<Type,Type> alignments, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
         return this;
     }
     
@@ -194,22 +209,20 @@ public class GApp extends Expr {
      * @return an empty list
      */
     public List getSubExpressions() {
-        return new Vector(0);
+        return Collections.EMPTY_LIST;
+    }
+
+    public int arity() {
+        return 0;
     }
     
-    /**
-     * Returns a copy of this GApp.
-     *
-     * @param subExpressions the list of subexpressions (must be null or empty)
-     * @throws IllegalArgumentException if the list is nonnull and nonempty
-     * @return a copy of this
-     */
-    public Expr createFromSubExpressions(List subExpressions)
-     throws IllegalArgumentException {
-        if (subExpressions != null && subExpressions.size() != 0) 
-            throw new IllegalArgumentException("List is nonempty");
-        return create();
-    }    
+    public Expr child(int index) {
+        throw new IndexOutOfBoundsException("A GApp has no subexpressions");
+    }
+    
+    protected Expr createWithChild(int index, Expr child) {
+        throw new IndexOutOfBoundsException("A GApp has no subexpressions");
+    }
     
     /**
      * Creates a new instance of this variable, that is, shallowly copies it.
@@ -220,28 +233,27 @@ public class GApp extends Expr {
         return new GApp(this.getIndex(), this.type);
     }
     
-    protected String toString(int mode)  {
+    protected void renderWithoutParens(Appendable out, int mode) throws java.io.IOException {
         Type varType;
         try {
           varType = this.getType();
         } catch (TypeEvaluationException e) {
           varType = Type.E;
         }
-        return SYMBOL + OPEN_BRACKET + this.getIndex() + ", " +
-          varType + CLOSE_BRACKET;
+        out.append(SYMBOL).append(OPEN_BRACKET).append(String.valueOf(this.getIndex()))
+          .append(", ").append(varType.toString()).append(CLOSE_BRACKET);
 
-        // return "v" + this.getIndex();
+        // out.append("v" + this.getIndex());
     }
     
     /**
      * Writes a serialization of the expression to a DataOutputStream.
      * @param output the data stream to which the expression is written
      */
-    public void writeToStream(java.io.DataOutputStream output)
+    protected void writeNodeToStream(java.io.DataOutputStream output)
         throws java.io.IOException {
-        output.writeUTF(getClass().getName());
-        output.writeShort(1); // data format version
-        output.writeInt(index);
+        writeNodeHeader(output, 1);
+        writeNumber(output, index);
         type.writeToStream(output);
     }
    
@@ -253,8 +265,8 @@ public class GApp extends Expr {
      */
     GApp(java.io.DataInputStream input) throws java.io.IOException {
         // the class name has already been read
-        if (input.readShort() != 1) throw new java.io.IOException("Invalid data."); // future version?
-        index = input.readInt();
+        readNodeVersion(input, 1);
+        index = readNumber(input);
         type = Type.readFromStream(input);
     }
 }
@@ -27,10 +27,10 @@
 
 package lambdacalc.logic;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Vector;
 
 /**
  * The abstract base class of constants (Const) and variables (Var).
@@ -50,6 +50,7 @@ public abstract class Identifier extends Expr {
     private Type type;
     private boolean typeIsExplicit;
     private boolean starred;
+    private int symbolId = -1; // cached by getSymbolId()
     
     public Identifier(String symbol, Type type, boolean isTypeExplicit) {
         this(symbol, type, isTypeExplicit, false);
@@ -73,63 +74,99 @@ public abstract class Identifier extends Expr {
         return 1;
     }
     
-    protected boolean equals(Expr e, boolean useMaps, Map thisMap, Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap) {
+    protected boolean equalsNode(Expr e, boolean useMaps, BoundVarMap boundVars, boolean collapseAllVars, java.util.Map freeVarMap) {
  
-        // ignore parentheses for equality test
-        e = e.stripOutermostParens();
-
         if (e instanceof Identifier) {
             if (collapseAllVars) return true;
-            return this.equals((Identifier) e, useMaps, thisMap, otherMap, freeVarMap);
+            return this.equals((Identifier) e, useMaps, boundVars, freeVarMap);
         } else {
             return false;           
         }
     }
     
-    public int hashCode() {
-        return this.symbol.hashCode()^super.hashCode();
+    protected int computeHashCode() {
+        // The type is left out because type equality is loose: a VarType
+        // is equal to every other type.
+        return 31 * getClass().getName().hashCode() + symbol.hashCode();
+    }
+    
+    protected int computeAlphaFingerprint(BoundVarMap boundVars) {
+        // The type is left out for the same reason.
+        return 31 * (getKind() + 1) + symbol.hashCode();
+    }
+    
+    protected boolean isSameNode(Expr other) {
+        Identifier i = (Identifier)other;
+        return getSymbolId() == i.getSymbolId() && typeIsExplicit == i.typeIsExplicit
+                && starred == i.starred && type.isIdenticalTo(i.type);
     }
     
-    protected abstract boolean equals(Identifier i, boolean useMaps, Map thisMap, Map otherMap, Map freeVarMap);
+    protected abstract boolean equals(Identifier i, boolean useMaps, BoundVarMap boundVars, Map freeVarMap);
     
-    protected Expr performLambdaConversion1(Set accidentalBinders) throws TypeEvaluationException {
+    protected Expr computeLambdaConversion1(Set accidentalBinders, ExprTransformation conversion) throws TypeEvaluationException {
         // We're looking for a lambda. None here.
         return null;
     }
     
-    protected String toString(int mode) {
-        if (!isTypeExplicit()) {
-            if (mode == HTML) {
-//                return escapeHTML((this.starred ? "*" : "") + this.symbol);
-                return escapeHTML(this.symbol);
-            } else if (mode == TXT ) {
-//                return (this.starred ? "*" : "") + this.symbol;
-                return this.symbol;
-            } else  { // mode == LATEX
-//                String res = (this.starred ? "*" : "") + this.symbol
-                String res = this.symbol
-                        .replace(String.valueOf(PRIME), LATEX_PRIME_REPR)
-                        .replace(String.valueOf(PRIME_INPUT_SYMBOL), LATEX_PRIME_REPR)
-                        .replace("\\prime}^{","\\prime ");// hack to merge multiple primes
-                String resTruncated = res.replace(LATEX_PRIME_REPR, "");
-                if (resTruncated.length() > 1) { // after stripping away primes, we still have multiple letters
-                    res = "\\mbox{" + res + "}";
-                }
-                return res;
+    protected void renderWithoutParens(Appendable out, int mode) throws java.io.IOException {
+        if (mode == HTML) {
+            escapeHTML(this.symbol, out);
+            if (isTypeExplicit()) {
+                out.append("<sub>");
+                escapeHTML(type.toString(), out);
+                out.append("</sub>");
             }
-        } else if (mode == HTML) {
-//            return escapeHTML((this.starred ? "*" : "") + symbol) + "<sub>" + escapeHTML(type.toString()) + "</sub>";
-            return escapeHTML(this.symbol) + "<sub>" + escapeHTML(type.toString()) + "</sub>";
         } else if (mode == LATEX) {
-//            return (this.starred ? "{}^*" : "") + this.symbol + "_{" + type.toLatexString() + "}";
-            return this.symbol + "_{" + type.toLatexString() + "}";
-
+            if (isTypeExplicit())
+                out.append(this.symbol).append("_{").append(type.toLatexString()).append('}');
+            else
+                renderLatexSymbol(out);
         } else { // mode == TXT
-//            return (this.starred ? "*" : "") + this.symbol + "_" + type.toShortString();
-            return this.symbol + "_" + type.toShortString();
+            out.append(this.symbol);
+            if (isTypeExplicit())
+                out.append('_').append(type.toShortString());
         }
     }
     
+    /**
+     * Writes the symbol in LaTeX, with each prime as a superscript \prime
+     * (primes in a row share one superscript), and in an \mbox if it has
+     * more than one letter (or more than one prime in a row).
+     */
+    private void renderLatexSymbol(Appendable out) throws java.io.IOException {
+        int letters = 0;
+        boolean primesInARow = false;
+        for (int i = 0; i < symbol.length(); i++) {
+            if (!isPrime(symbol.charAt(i)))
+                letters++;
+            else if (i > 0 && isPrime(symbol.charAt(i - 1)))
+                primesInARow = true;
+        }
+        boolean mbox = letters > 1 || primesInARow;
+        
+        if (mbox)
+            out.append("\\mbox{");
+        for (int i = 0; i < symbol.length(); i++) {
+            char c = symbol.charAt(i);
+            if (!isPrime(c)) {
+                out.append(c);
+                continue;
+            }
+            if (i > 0 && isPrime(symbol.charAt(i - 1)))
+                out.append(" \\prime");
+            else
+                out.append("^{\\prime");
+            if (i + 1 == symbol.length() || !isPrime(symbol.charAt(i + 1)))
+                out.append('}');
+        }
+        if (mbox)
+            out.append('}');
+    }
+    
+    private static boolean isPrime(char c) {
+        return c == PRIME || c == PRIME_INPUT_SYMBOL;
+    }
+    
     /**
      * Gets the string name of the identifier.
      */
@@ -137,12 +174,28 @@ public abstract class Identifier extends Expr {
         return symbol;
     }
     
+    /**
+     * Gets the id of the symbol in the SymbolTable.
+     */
+    public final int getSymbolId() {
+        int id = symbolId;
+        if (id == -1)
+            symbolId = id = SymbolTable.getId(symbol);
+        return id;
+    }
+    
     public Type getType() {
         return type;
     }
     
+    protected Type computeType() {
+        return type;
+    }
+    
     @Override
     public void setType(Type t) {
+        if (isInterned())
+            throw new UnsupportedOperationException("Cannot change the type of an interned identifier.");
         type = t;
     }
     
@@ -168,27 +221,24 @@ public abstract class Identifier extends Expr {
      * @return an empty list
      */
     public List getSubExpressions() {
-        return new Vector(0);
+        return Collections.EMPTY_LIST;
+    }
+
+    public int arity() {
+        return 0;
     }
     
-    /**
-     * Returns a copy of this Identifier.
-     *
-     * @param subExpressions the list of subexpressions (must be null or empty)
-     * @throws IllegalArgumentException if the list is nonnull and nonempty
-     * @return a copy of this
-     */
-    public Expr createFromSubExpressions(List subExpressions)
-     throws IllegalArgumentException {
-        if (subExpressions != null && subExpressions.size() != 0) 
-            throw new IllegalArgumentException("List is nonempty");
-        return create();
+    public Expr child(int index) {
+        throw new IndexOutOfBoundsException("An identifier has no subexpressions");
+    }
+    
+    protected Expr createWithChild(int index, Expr child) {
+        throw new IndexOutOfBoundsException("An identifier has no subexpressions");
     }
     
-    public void writeToStream(java.io.DataOutputStream output) throws java.io.IOException {
-        output.writeUTF(getClass().getName());
-        output.writeShort(1); // data format version
-        output.writeUTF(symbol);
+    protected void writeNodeToStream(java.io.DataOutputStream output) throws java.io.IOException {
+        writeNodeHeader(output, 1);
+        writeSymbol(output, symbol);
         type.writeToStream(output);
         output.writeBoolean(typeIsExplicit);
         output.writeBoolean(starred);
@@ -196,8 +246,8 @@ public abstract class Identifier extends Expr {
     
     Identifier(java.io.DataInputStream input) throws java.io.IOException {
         // the class name has already been read
-        if (input.readShort() != 1) throw new java.io.IOException("Invalid data."); // future version?
-        symbol = input.readUTF();
+        readNodeVersion(input, 1);
+        symbol = readSymbol(input);
         type = Type.readFromStream(input);
         typeIsExplicit = input.readBoolean();
         starred = input.readBoolean();
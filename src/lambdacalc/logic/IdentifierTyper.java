@@ -52,6 +52,23 @@ public class IdentifierTyper {
             type = t;
             this.descr = descr;
         }
+        
+        /**
+         * Tests whether the entries type the same identifiers the same way;
+         * the descriptions do not matter.
+         */
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry))
+                return false;
+            Entry e = (Entry)obj;
+            return start.equals(e.start) && end.equals(e.end) && var == e.var
+                && type.isIdenticalTo(e.type);
+        }
+        
+        public int hashCode() {
+            return ((start.hashCode() * 31 + end.hashCode()) * 31 + type.hashCode()) * 2
+                + (var ? 1 : 0);
+        }
     }
     
     private ArrayList entries = new ArrayList();
@@ -214,6 +231,16 @@ public class IdentifierTyper {
         return ret;
     }
     
+    /**
+     * Returns a snapshot of the mappings that does not change as entries are
+     * added, and that equals the snapshot of any typer that types every
+     * identifier the same way because it has the same entries in the same
+     * order. Used to key the ParseCache.
+     */
+    List getFingerprint() {
+        return Collections.unmodifiableList(new ArrayList(entries));
+    }
+    
     public String toString() {
         String ret = "";
         TypeMapping[] m = getMapping();
@@ -46,6 +46,10 @@ public class If extends LogicalBinary {
     public If(Expr left, Expr right) {
         super(left, right);
     }
+    
+    public int getKind() {
+        return ExprKind.IF;
+    }
 
     public String getSymbol() {
         return String.valueOf(SYMBOL);
@@ -62,8 +66,4 @@ public class If extends LogicalBinary {
     protected Binary create(Expr left, Expr right) {
         return new If(left, right);
     }
-
-    If(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
-    }
 }
@@ -46,6 +46,10 @@ public class Iff extends LogicalBinary {
     public Iff(Expr left, Expr right) {
         super(left,right);
     }
+    
+    public int getKind() {
+        return ExprKind.IFF;
+    }
 
     public String getLatexRepr() {
         return LATEX_REPR;
@@ -63,8 +67,4 @@ public class Iff extends LogicalBinary {
     protected Binary create(Expr left, Expr right) {
         return new Iff(left, right);
     }
-
-    Iff(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
-    }
 }
@@ -61,6 +61,10 @@ public class Iota extends Binder {
     public Iota(Identifier ident, Expr innerExpr, boolean hasPeriod) {
         super(ident, innerExpr, hasPeriod);
     }
+    
+    public int getKind() {
+        return ExprKind.IOTA;
+    }
 
     public String getSymbol() {
         return String.valueOf(SYMBOL);
@@ -87,14 +91,10 @@ public class Iota extends Binder {
         return 8;
     }
     
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         checkVariable();
         if (!getInnerExpr().getType().equals(Type.T))
             throw new TypeEvaluationException("The inside of the iota binder in " + toString() + " must be of type t.");
         return getVariable().getType();
     }
-    
-    Iota(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
-    }
 }
@@ -58,6 +58,10 @@ public class Lambda extends Binder {
         super(ident,innerExpr,hasPeriod);
         this.starred = starred;
     }
+    
+    public int getKind() {
+        return ExprKind.LAMBDA;
+    }
     public Lambda(Identifier ident, Expr innerExpr, boolean hasPeriod) {
         super(ident,innerExpr,hasPeriod);
         this.starred = false;
@@ -88,16 +92,16 @@ public class Lambda extends Binder {
         return this.LATEX_REPR;
     }
 
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         checkVariable();
         return new CompositeType(getVariable().getType(), getInnerExpr().getType());
     }
 
     protected Binder create(Identifier variable, Expr inner) {
-        return new Lambda(variable, inner, hasPeriod());
+        return new Lambda(variable, inner, hasPeriod(), starred);
     }
     
-    Lambda(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
+    protected boolean isSameNode(Expr other) {
+        return super.isSameNode(other) && starred == ((Lambda)other).starred;
     }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/*
+ * LambdaConversionSequence.java
+ */
+
+package lambdacalc.logic;
+
+/**
+ * The sequence of lambda conversions that simplify an expression, computed
+ * lazily one step at a time. Each call to next() performs one more lambda
+ * conversion, as Expr.performLambdaConversion does, on the result of the
+ * previous step. Callers that display or compare only the first few steps
+ * never pay for the rest.
+ *
+ * Since the reducers skip over subexpressions that are already in normal
+ * form (see Expr.mayContainRedex), a step only visits the path from the
+ * root down to the next redex, rather than the whole expression.
+ *
+ * If the sequence is given a ReductionBudget, it stops when the budget runs
+ * out, as if the expression were fully simplified, and getStopReason() says
+ * why. This keeps an expression without a normal form from converting
+ * forever.
+ */
+public class LambdaConversionSequence {
+    
+    private Expr current;
+    private int steps = 0;
+    private boolean finished = false;
+    private final ReductionBudget budget;
+    private String stopReason; // why the budget ran out, or null
+    
+    /**
+     * Creates the sequence of lambda conversions starting at expr.
+     */
+    public LambdaConversionSequence(Expr expr) {
+        this(expr, ReductionBudget.unlimited());
+    }
+    
+    /**
+     * Creates the sequence of lambda conversions starting at expr, which
+     * stops when the budget runs out.
+     */
+    public LambdaConversionSequence(Expr expr, ReductionBudget budget) {
+        current = expr;
+        this.budget = budget;
+    }
+    
+    /**
+     * Performs the next lambda conversion.
+     * @return the result of the conversion, including the alphabetical variant
+     * that was needed for it if any, or null if the expression is fully
+     * simplified or the budget has run out
+     * @throws TypeEvaluationException if the conversion fails on a type
+     * inconsistency, in which case the sequence is left where it was
+     */
+    public Expr.LambdaConversionResult next() throws TypeEvaluationException {
+        if (finished || stopReason != null)
+            return null;
+        
+        stopReason = budget.check(steps);
+        if (stopReason != null)
+            return null;
+        
+        Expr.LambdaConversionResult r = current.performLambdaConversion();
+        if (r == null) {
+            finished = true;
+            return null;
+        }
+        
+        // A conversion that goes over the budget is dropped, so that
+        // getCurrent() is the last expression within it.
+        stopReason = budget.check(steps + 1, r.result);
+        if (stopReason != null)
+            return null;
+        
+        current = r.result;
+        steps++;
+        return r;
+    }
+    
+    /**
+     * Gets the result of the last conversion performed, or the original
+     * expression if none has been performed yet.
+     */
+    public Expr getCurrent() {
+        return current;
+    }
+    
+    /**
+     * Gets the number of conversions performed so far.
+     */
+    public int getStepCount() {
+        return steps;
+    }
+    
+    /**
+     * Returns why the budget ran out, one of the reasons in ReductionBudget,
+     * or null if it has not.
+     */
+    public String getStopReason() {
+        return stopReason;
+    }
+    
+    /**
+     * Returns whether next() has found that no more conversions are possible.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+    
+    /**
+     * Performs all of the remaining conversions.
+     * @return the fully simplified expression, or the last expression
+     * within the budget if it ran out
+     */
+    public Expr finish() throws TypeEvaluationException {
+        while (next() != null)
+            ;
+        return current;
+    }
+    
+    /**
+     * Performs all of the remaining conversions.
+     * @return the simplified expression, and why the budget ran out if it did
+     */
+    public ReductionResult finishWithinBudget() throws TypeEvaluationException {
+        return new ReductionResult(finish(), stopReason);
+    }
+}
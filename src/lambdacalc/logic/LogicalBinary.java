@@ -49,24 +49,27 @@ public abstract class LogicalBinary extends Binary {
         super(left, right);
     }
     
-    protected String toString(int mode) {
+    protected void renderWithoutParens(Appendable out, int mode) throws java.io.IOException {
         String symbol = getSymbol();
         if (mode == Expr.LATEX) {
             symbol = this.getLatexRepr();
         }
-        return partToString(getLeft(), mode) + " " + symbol + " " + partToString(getRight(), mode);
+        renderPart(getLeft(), out, mode);
+        out.append(' ').append(symbol).append(' ');
+        renderPart(getRight(), out, mode);
     }
     
-    private String partToString(Expr expr, int mode) {
+    private void renderPart(Expr expr, Appendable out, int mode) throws java.io.IOException {
         // And, Or, Intersect, and Union are associative, so we omit parens for nested these.
         if ((this instanceof And ||
              this instanceof Or ||
              this instanceof SetRelation.Intersect ||
              this instanceof SetRelation.Union)
             && expr.getClass() == getClass()) {
-            return expr.toString(mode);
+            renderSubExpression(expr, out, mode);
+        } else {
+            renderNested(expr, out, mode);
         }
-        return nestedToString(expr, mode);
     }
     
     /**
@@ -91,7 +94,7 @@ public abstract class LogicalBinary extends Binary {
         return 6;
     }
     
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         // Our default implementation checks that the operands are of type t,
         // but this is overridden in Equality which only checks that the
         // types of the operands are the same.
@@ -101,8 +104,4 @@ public abstract class LogicalBinary extends Binary {
             throw new TypeMismatchException("The parts of the logical connective " + getSymbol() + " must be of type " + getOperandType() + ", but " + getRight() + " is of type " + getRight().getType() + ".");
         return Type.T;
     }    
-    
-    LogicalBinary(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
-    }
 }
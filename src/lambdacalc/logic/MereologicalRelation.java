@@ -39,12 +39,12 @@ public abstract class MereologicalRelation extends LogicalBinary {
     }
     
     public Type getOperandType() {
-        return null; // doesn't matter since we override getType()
+        return null; // doesn't matter since we override computeType()
     }
     
     protected abstract Type getResultingType() throws TypeEvaluationException;
     
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         if (!getLeft().getType().equals(Type.E) ||
             !getRight().getType().equals(Type.E)) {
             String msg = "The types of the expressions on the left and right " +
@@ -56,20 +56,16 @@ public abstract class MereologicalRelation extends LogicalBinary {
         return getResultingType();
     }
 
-    MereologicalRelation(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
-    }
-
     public static class PartOf extends MereologicalRelation {
         public static final char SYMBOL = '\u2291'; // sqsubset or equal to symbol (plain subset is 2282)
         public static final String INPUT_SYMBOL = "<:";
         public static final String LATEX_REPR = "\\sqsubseteq";
         public static final int KEY_EVENT = KeyEvent.VK_SEMICOLON;
         public PartOf(Expr left, Expr right) { super(left, right); }
+        public int getKind() { return ExprKind.PART_OF; }
         public String getSymbol() { return String.valueOf(SYMBOL); }
         public String getLatexRepr() { return LATEX_REPR; }
         protected Type getResultingType() throws TypeEvaluationException { return Type.T; }
         protected Binary create(Expr left, Expr right) { return new PartOf(left, right); }
-        PartOf(java.io.DataInputStream input) throws java.io.IOException { super(input); }
     }
 }
@@ -43,12 +43,18 @@ public class Multiplication extends Binary {
         super(left, right);
     }
     
-    protected String toString(int mode) {
+    public int getKind() {
+        return ExprKind.MULTIPLICATION;
+    }
+    
+    protected void renderWithoutParens(Appendable out, int mode) throws java.io.IOException {
+        renderSubExpression(getLeft(), out, mode);
         if (mode == LATEX) {
-            return getLeft().toString(mode) + LATEX_SYMBOL + getRight().toString(mode);
+            out.append(LATEX_SYMBOL);
         } else { // mode == HTML || mode == TXT
-            return getLeft().toString(mode) + SYMBOL + getRight().toString(mode);
+            out.append(SYMBOL);
         }
+        renderSubExpression(getRight(), out, mode);
     }
 
     /**
@@ -64,7 +70,7 @@ public class Multiplication extends Binary {
         return new Multiplication(left, right);
     }
     
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         if (!getLeft().getType().equals(Type.N) ||
             !getRight().getType().equals(Type.N)) {
             String msg = "The types of the expressions on the left and right " +
@@ -75,9 +81,5 @@ public class Multiplication extends Binary {
         }
         return Type.N;
     }
-    
-    Multiplication(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
-    }
 
 }
@@ -78,84 +78,42 @@ public abstract class NAry extends Expr {
 
     protected abstract String getCloseSymbol();
     
-    protected String toString(int mode) {
-        String ret = null;
+    protected void renderWithoutParens(Appendable out, int mode) throws java.io.IOException {
+        out.append(getOpenSymbol());
         for (int i = 0; i < exprs.length; i++) {
-            if (ret == null) {
-                if (mode == LATEX && (getOpenSymbol().equals("[") || getOpenSymbol().equals("{"))) {
-                    ret += "\\";
-                }
-                ret = getOpenSymbol();
-            } else {
-                ret += ",";
-            }
-            ret += exprs[i].toString(mode); // note that we don't ever wrap it with parens because the comma separator here makes this unambiguous
+            if (i > 0)
+                out.append(',');
+            renderSubExpression(exprs[i], out, mode); // note that we don't ever wrap it with parens because the comma separator here makes this unambiguous
         }
-        if (mode == LATEX && (getCloseSymbol().equals("]") || getOpenSymbol().equals("}"))) {
-            ret += "\\";
-        }
-        ret += getCloseSymbol();
-        return ret;
+        out.append(getCloseSymbol());
     }
 
     
-    protected boolean equals(Expr e, boolean useMaps, Map thisMap, Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap) {
-        // ignore parentheses for equality test
-        e = e.stripOutermostParens();
-
-        if (e.getClass() == getClass())
-            return equals((NAry)e, useMaps, thisMap, otherMap, collapseAllVars, freeVarMap);
-        else
-            return false;
-    }
-    
-    private boolean equals(NAry a, boolean useMaps, Map thisMap, Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap) {
-        if (a.exprs.length != exprs.length)
-            return false;
-        for (int i = 0; i < exprs.length; i++)
-            if (!exprs[i].equals(a.exprs[i], useMaps, thisMap, otherMap, collapseAllVars, freeVarMap))
-                return false;
-        return true;
+    protected boolean equalsNode(Expr e, boolean useMaps, BoundVarMap boundVars, boolean collapseAllVars, java.util.Map freeVarMap) {
+        return e.getClass() == getClass() && ((NAry)e).exprs.length == exprs.length;
     }
     
     protected Set getVars(boolean unboundOnly) {
         HashSet ret = new HashSet();
         for (int i = 0; i < exprs.length; i++)
-            ret.addAll(exprs[i].getVars(unboundOnly));
+            ret.addAll(exprs[i].getVarSet(unboundOnly));
         return ret;
     }
 
-    protected Expr performLambdaConversion1(Set accidentalBinders) throws TypeEvaluationException {
-        // Looking for a lambda, but only do conversion in the first arg!
-        Expr[] e = new Expr[exprs.length];
-        boolean didConversion = false;
-        for (int i = 0; i < exprs.length; i++) {
-//            if (!didConversion) {
-//                e[i] = exprs[i].performLambdaConversion1(accidentalBinders);
-//                if (e[i] != null)
-//                    didConversion = true;
-//                else
-//                    e[i] = exprs[i];
-//            }
-            e[i] = exprs[i].performLambdaConversion1(accidentalBinders);
-            if (e[i] != null)
-                didConversion = true;
-            else
-                e[i] = exprs[i];
-        }
-        
-        if (!didConversion) // nothing happened
-            return null;
-        
-        return createFromSubExpressions(e);
+    protected Expr computeLambdaConversion1(Set accidentalBinders, ExprTransformation conversion) throws TypeEvaluationException {
+        // Looking for a lambda, and doing a conversion in each arg that has one
+        // (convert instead of convertEach would only do it in the first).
+        for (int i = 0; i < exprs.length; i++)
+            conversion.convertEach(i, exprs[i]);
+        return this;
     }
 
-    protected Expr performLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders) throws TypeEvaluationException {
+    protected Expr computeLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders, ExprTransformation substitution) throws TypeEvaluationException {
+        if (!getFreeVarSymbols().get(var.getSymbolId())) return this; // var does not occur free in here
         // In the scope of a lambda. Do substitutions everywhere.
-        Expr[] e = new Expr[exprs.length];
         for (int i = 0; i < exprs.length; i++)
-            e[i] = exprs[i].performLambdaConversion2(var, replacement, binders, accidentalBinders);
-        return createFromSubExpressions(e);
+            substitution.substitute(i, exprs[i]);
+        return this;
     }
  
     /**
@@ -166,51 +124,40 @@ public abstract class NAry extends Expr {
         return Arrays.asList(this.getElements());
     }
     
-    /**
-     * Creates a new NAry using all the subexpressions given.
-     *
-     * @param subExpressions the list of subexpressions
-     * @throws IllegalArgumentException not implemented
-     * @return a new ArgList
-     */
-    public Expr createFromSubExpressions(List subExpressions) {
-        return createFromSubExpressions((Expr[])subExpressions.toArray(new Expr[0]));
+    protected abstract Expr createFromSubExpressions(Expr[] subExpressions);
+    
+    public int arity() {
+        return exprs.length;
     }
     
-    protected abstract Expr createFromSubExpressions(Expr[] subExpressions);
+    public Expr child(int index) {
+        return exprs[index];
+    }
+    
+    protected Expr createWithChild(int index, Expr child) {
+        if (exprs[index] == child)
+            return this;
+        Expr[] e = (Expr[])exprs.clone();
+        e[index] = child;
+        return createFromSubExpressions(e);
+    }
     
     
     
-    protected Expr createAlphabeticalVariant(Set bindersToChange, Set variablesInUse, Map updates) {
-        Expr[] e = new Expr[exprs.length];
+    protected Expr computeAlphabeticalVariant(Set bindersToChange, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
         for (int i = 0; i < exprs.length; i++)
-            e[i] = exprs[i].createAlphabeticalVariant(bindersToChange, variablesInUse, updates);
-        return createFromSubExpressions(e);
+            variant.vary(i, exprs[i], variablesInUse, updates);
+        return this;
     }
     
-    public Expr createAlphatypicalVariant(HashMap<Type,Type> alignments, Set variablesInUse, Map updates) {
-        Expr[] e = new Expr[exprs.length];
+    protected Expr computeAlphatypicalVariant(HashMap<Type,Type> alignments, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
         for (int i = 0; i < exprs.length; i++)
-            e[i] = exprs[i].createAlphatypicalVariant(alignments, variablesInUse, updates);
-        return createFromSubExpressions(e);
+            variant.vary(i, exprs[i], variablesInUse, updates);
+        return this;
     }
 
-    public void writeToStream(java.io.DataOutputStream output) throws java.io.IOException {
-        output.writeUTF(getClass().getName());
-        output.writeShort(0); // data format version
-        output.writeInt(exprs.length);
-        for (int i = 0; i < exprs.length; i++)
-            exprs[i].writeToStream(output);
-    }
-    
-    NAry(java.io.DataInputStream input) throws java.io.IOException {
-        // class name has already been read
-        if (input.readShort() != 0) throw new java.io.IOException("Invalid data."); // future version?
-        int nexprs = input.readInt();
-        if (nexprs < 2 || nexprs > 25) // sanity checks
-            throw new java.io.IOException("Invalid data.");
-        exprs = new Expr[nexprs];
-        for (int i = 0; i < nexprs; i++)
-            exprs[i] = Expr.readFromStream(input);
+    protected void writeNodeToStream(java.io.DataOutputStream output) throws java.io.IOException {
+        writeNodeHeader(output, 0);
+        writeNumber(output, exprs.length);
     }
 }
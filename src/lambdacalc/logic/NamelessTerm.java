@@ -0,0 +1,1209 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/*
+ * NamelessTerm.java
+ */
+
+package lambdacalc.logic;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A locally nameless representation of an expression, used internally
+ * by the reduction engines. Bound variables are represented by de Bruijn
+ * indices (the number of binders between the variable and the binder that
+ * binds it), while free variables, constants and everything else keep
+ * the Expr they came from. Substitution therefore never needs to rename
+ * anything: lambda conversion cannot accidentally bind a free variable
+ * of the argument, and no alphabetical variants are made along the way.
+ *
+ * Names are only chosen again by toExpr(), which reuses the names of the
+ * original binders and makes an alphabetical variant (by adding primes,
+ * like Expr.createFreshVar) only where a binder would otherwise capture
+ * a free variable. Each term node also keeps the Expr node it came from,
+ * so that subexpressions that were not changed by the reduction come
+ * back as the very same Expr objects.
+ *
+ * Lambda, Exists, ForAll, Iota and the other Binders bind their variable
+ * in their inner expression. A SetWithGenerator binds the free variables of
+ * its template in both the template and the filter, just as in
+ * SetWithGenerator.getVars.
+ *
+ * Terms are immutable, except that a Suspended substitution remembers
+ * the result of pushing it.
+ */
+public abstract class NamelessTerm {
+    
+    private static final BitSet NO_SYMBOLS = new BitSet();
+    
+    /**
+     * One more than the largest de Bruijn index that is free in this
+     * term, i.e. that refers to a binder outside of it, or 0 if the term is
+     * locally closed. Shifting and substitution skip locally closed terms.
+     */
+    final int looseIndices;
+    
+    /**
+     * The ids (see SymbolTable) of the symbols of the free variables of the
+     * term that are not represented by indices. This must not be modified.
+     */
+    final BitSet freeSymbols;
+    
+    /**
+     * Whether the term contains a redex, in the sense of
+     * Expr.mayContainRedex().
+     */
+    final boolean redex;
+    
+    NamelessTerm(int looseIndices, BitSet freeSymbols, boolean redex) {
+        this.looseIndices = looseIndices;
+        this.freeSymbols = freeSymbols;
+        this.redex = redex;
+    }
+    
+    /**
+     * Converts an expression to its locally nameless representation.
+     */
+    public static NamelessTerm fromExpr(Expr expr) {
+        return expr.getNamelessTerm();
+    }
+    
+    /**
+     * Converts an expression in the scope of the variables in env, which
+     * are bound by the binders around it, innermost last, without looking
+     * at its cached term. The subexpressions are converted with an explicit
+     * stack of the nodes on the way down to the one being converted, so
+     * that expressions of any depth can be converted. A subexpression in
+     * which none of the variables in scope occurs free is converted on its
+     * own, i.e. its cached term is used, or cached once it is built.
+     */
+    static NamelessTerm build(Expr expr, ArrayList env) {
+        ArrayDeque path = new ArrayDeque();
+        NamelessTerm result = startBuilding(expr, env, path, false);
+        if (path.isEmpty())
+            return result;
+        
+        while (true) {
+            Building f = (Building)path.peek();
+            if (f.next < f.children.length) {
+                int depth = path.size();
+                NamelessTerm c = fromExpr(f.child(f.next), env, path);
+                if (path.size() == depth)
+                    f.children[f.next++] = c;
+                continue;
+            }
+            
+            path.pop();
+            if (f.vars != null)
+                for (int i = 0; i < f.vars.length; i++)
+                    env.remove(env.size() - 1);
+            result = f.finish();
+            if (path.isEmpty())
+                return result;
+            Building parent = (Building)path.peek();
+            parent.children[parent.next++] = result;
+        }
+    }
+    
+    /**
+     * Converts a subexpression for build, in the scope of the variables in
+     * env. Returns its term, or null if a node was pushed on the path for
+     * its subexpressions.
+     */
+    private static NamelessTerm fromExpr(Expr expr, ArrayList env, ArrayDeque path) {
+        BitSet symbols = expr.getFreeVarSymbols();
+        for (int i = 0; i < env.size(); i++)
+            if (symbols.get(((Var)env.get(i)).getSymbolId()))
+                return startBuilding(expr, env, path, false);
+        NamelessTerm term = expr.getCachedNamelessTerm();
+        if (term != null)
+            return term;
+        return startBuilding(expr, env, path, true);
+    }
+    
+    /**
+     * Converts an expression for build by itself. Returns its term if it
+     * has no subexpressions to convert, or else pushes a node on the path
+     * for them, puts the variables it binds in env, and returns null.
+     * If cache is true, the term is cached in the expression once it is
+     * built.
+     */
+    private static NamelessTerm startBuilding(Expr expr, ArrayList env, ArrayDeque path, boolean cache) {
+        // The parentheses around an expression are a node of their own,
+        // so that the expression inside them is converted on its own.
+        if (expr.hasParens()) {
+            path.push(new Building(expr, null, 0, 1, true, cache));
+            return null;
+        }
+        
+        if (expr instanceof Var) {
+            for (int i = env.size() - 1; i >= 0; i--)
+                if (expr.equals(env.get(i)))
+                    return new Bound(env.size() - 1 - i, (Var)expr);
+        }
+        
+        Var[] vars;
+        int first;
+        if (expr instanceof Binder) {
+            Binder b = (Binder)expr;
+            vars = (b.getVariable() instanceof Var)
+                ? new Var[] { (Var)b.getVariable() }
+                : new Var[0]; // a constant, which binds nothing
+            first = 1;
+        } else if (expr instanceof SetWithGenerator) {
+            SetWithGenerator s = (SetWithGenerator)expr;
+            vars = (Var[])s.getTemplate().getFreeVars().toArray(new Var[0]);
+            first = 0;
+        } else if (expr.arity() == 0) {
+            NamelessTerm term = new Leaf(expr);
+            if (cache)
+                expr.setNamelessTerm(term);
+            return term;
+        } else {
+            vars = null;
+            first = 0;
+        }
+        
+        path.push(new Building(expr, vars, first, expr.arity() - first, false, cache));
+        if (vars != null)
+            for (int i = 0; i < vars.length; i++)
+                env.add(vars[i]);
+        return null;
+    }
+    
+    /**
+     * A node whose subexpressions are being converted by build.
+     */
+    private static final class Building {
+        final Expr expr;
+        final Var[] vars; // the variables it binds, or null if it is a Node
+        final int first; // the index of the first subexpression to convert
+        final NamelessTerm[] children;
+        int next; // the index in children of the next one to convert
+        final boolean parens; // whether this is the node for the parentheses around expr
+        final boolean cache; // whether to cache the term in expr
+        
+        Building(Expr expr, Var[] vars, int first, int count, boolean parens, boolean cache) {
+            this.expr = expr;
+            this.vars = vars;
+            this.first = first;
+            this.children = new NamelessTerm[count];
+            this.parens = parens;
+            this.cache = cache;
+        }
+        
+        Expr child(int index) {
+            if (parens)
+                return expr.stripOutermostParens();
+            return expr.child(first + index);
+        }
+        
+        NamelessTerm finish() {
+            NamelessTerm term;
+            if (vars == null)
+                term = new Node(expr, children, true, parens);
+            else
+                term = new Binding(expr, vars, children, true);
+            if (cache)
+                expr.setNamelessTerm(term);
+            return term;
+        }
+    }
+    
+    /**
+     * Converts this term back to an expression. Binders keep the names of
+     * the variables they had in the original expression, unless that would
+     * capture a free variable, in which case the variable is primed.
+     */
+    public final Expr toExpr() {
+        return toExpr(new Namer(this));
+    }
+    
+    /**
+     * Converts this term, in the scope of binders of the given variables
+     * (innermost last), back to an expression. Used for error messages.
+     */
+    final Expr toExpr(List env) {
+        Namer namer = new Namer(this);
+        namer.originals.addAll(env);
+        namer.chosen.addAll(env);
+        return toExpr(namer);
+    }
+    
+    /**
+     * Converts this term back to an expression with the names that namer
+     * chooses, with an explicit stack of the terms on the way down to the
+     * one being converted, so that terms of any depth can be converted.
+     */
+    private Expr toExpr(Namer namer) {
+        ArrayDeque path = new ArrayDeque();
+        Expr result = startNaming(namer, path);
+        if (path.isEmpty())
+            return result;
+        
+        while (true) {
+            Naming f = (Naming)path.peek();
+            if (f.next < f.children.length) {
+                int depth = path.size();
+                Expr c = f.children[f.next].startNaming(namer, path);
+                if (path.size() == depth)
+                    f.put(c);
+                continue;
+            }
+            
+            path.pop();
+            result = f.finish(namer);
+            if (path.isEmpty())
+                return result;
+            ((Naming)path.peek()).put(result);
+        }
+    }
+    
+    /**
+     * Converts this term back to an expression by itself, for toExpr.
+     * Returns the expression, unless it has children to convert, in which
+     * case it pushes a Naming for them on the path and returns null.
+     */
+    abstract Expr startNaming(Namer namer, ArrayDeque path);
+    
+    /**
+     * A term whose children are being converted back to expressions by
+     * toExpr.
+     */
+    private static final class Naming {
+        Expr result; // the expression the children are put into
+        final NamelessTerm[] children;
+        final int first; // the index in result of the first child
+        int next; // the index of the next child to convert
+        final int vars; // the number of variables it pushed on the namer
+        final boolean parens; // whether result is an expression to put the parentheses of around the child
+        
+        Naming(Expr result, NamelessTerm[] children, int first, int vars, boolean parens) {
+            this.result = result;
+            this.children = children;
+            this.first = first;
+            this.vars = vars;
+            this.parens = parens;
+        }
+        
+        void put(Expr child) {
+            if (parens)
+                result = child.withParensOf(result);
+            else
+                result = result.withChild(first + next, child);
+            next++;
+        }
+        
+        Expr finish(Namer namer) {
+            for (int i = 0; i < vars; i++) {
+                namer.originals.remove(namer.originals.size() - 1);
+                namer.chosen.remove(namer.chosen.size() - 1);
+            }
+            return result;
+        }
+    }
+    
+    /**
+     * Returns this term with all indices of at least cutoff increased by d.
+     * The shift may be left suspended (see Suspended).
+     */
+    abstract NamelessTerm shift(int d, int cutoff);
+    
+    /**
+     * Returns this term with the index depth replaced by arg (shifted under
+     * the binders in between), and with the indices larger than depth
+     * decreased by one, since the binder of depth goes away. The
+     * substitution may be left suspended (see Suspended).
+     */
+    abstract NamelessTerm subst(int depth, NamelessTerm arg);
+    
+    /**
+     * Returns this term, with a suspended substitution or shift at its top
+     * carried out, so that the returned term is not a Suspended.
+     */
+    NamelessTerm expose() {
+        return this;
+    }
+    
+    /**
+     * Performs one lambda conversion, choosing the same redex as
+     * Expr.performLambdaConversion does.
+     * @return the converted term, or null if there is nothing to convert
+     * @throws TypeEvaluationException if the function in a function
+     * application is something that cannot be applied
+     */
+    public final NamelessTerm reduceStep() throws TypeEvaluationException {
+        // The variables of the binders around the term being looked at,
+        // innermost last, which are only used for error messages.
+        ArrayList env = new ArrayList();
+        
+        // The terms on the way down to it, with an explicit stack so
+        // that terms of any depth can be converted.
+        ArrayDeque path = new ArrayDeque();
+        
+        NamelessTerm result = startStep(env, path);
+        if (path.isEmpty())
+            return result;
+        
+        while (true) {
+            Stepping f = (Stepping)path.peek();
+            if (f.next < f.targets.length && (f.all || !f.converted)) {
+                NamelessTerm t = f.targets[f.next++];
+                if (t == null)
+                    continue;
+                int depth = path.size();
+                NamelessTerm c = t.startStep(env, path);
+                if (path.size() == depth)
+                    f.put(f.next - 1, c);
+                continue;
+            }
+            
+            path.pop();
+            for (int i = 0; i < f.vars; i++)
+                env.remove(env.size() - 1);
+            result = f.finish();
+            if (path.isEmpty())
+                return result;
+            Stepping parent = (Stepping)path.peek();
+            parent.put(parent.next - 1, result);
+        }
+    }
+    
+    /**
+     * Helper method for reduceStep that looks for the lambda conversion
+     * in this term by itself. Returns the converted term, or null if there
+     * is nothing to convert, unless the conversion is to be looked for in
+     * its children, in which case it pushes a Stepping for them on the
+     * path, puts the variables it binds in env, and returns null.
+     */
+    abstract NamelessTerm startStep(ArrayList env, ArrayDeque path) throws TypeEvaluationException;
+    
+    /**
+     * A term in whose children reduceStep looks for a lambda conversion.
+     * It looks in the first of them that has one (like
+     * Binary.computeLambdaConversion1), or in all of them (like
+     * NAry.computeLambdaConversion1).
+     */
+    private static final class Stepping {
+        final NamelessTerm term; // a Node or a Binding
+        final NamelessTerm[] targets; // the terms to look in, by child, or null for a child not to look in
+        NamelessTerm[] children; // the children of the result, copied once there was a conversion
+        int next; // the index of the next target
+        final boolean all; // whether to go on after the first conversion
+        final int vars; // the number of variables pushed on env
+        boolean converted; // whether there was a conversion
+        
+        Stepping(NamelessTerm term, NamelessTerm[] children, NamelessTerm[] targets, boolean all, int vars) {
+            this.term = term;
+            this.children = children;
+            this.targets = targets;
+            this.all = all;
+            this.vars = vars;
+        }
+        
+        void put(int index, NamelessTerm child) {
+            if (child == null)
+                return; // nothing to convert in there
+            if (!converted)
+                children = children.clone();
+            children[index] = child;
+            converted = true;
+        }
+        
+        NamelessTerm finish() {
+            if (!converted)
+                return null;
+            if (term instanceof Node)
+                return ((Node)term).copy(children);
+            Binding b = (Binding)term;
+            return new Binding(b.prototype, b.vars, children);
+        }
+    }
+    
+    /**
+     * Performs all possible lambda conversions.
+     */
+    public final NamelessTerm reduceFully() throws TypeEvaluationException {
+        NamelessTerm t = this;
+        for (NamelessTerm next = t.reduceStep(); next != null; next = t.reduceStep())
+            t = next;
+        return t;
+    }
+    
+    /**
+     * Returns the number of nodes in this term.
+     */
+    public final int size() {
+        ArrayDeque stack = new ArrayDeque();
+        stack.push(this);
+        int ret = 0;
+        while (!stack.isEmpty()) {
+            NamelessTerm t = ((NamelessTerm)stack.pop()).expose();
+            ret++;
+            if (t instanceof Binding)
+                ret += ((Binding)t).vars.length;
+            pushChildren(t, stack);
+        }
+        return ret;
+    }
+    
+    /**
+     * Returns whether the term contains a free variable that is equal
+     * to v.
+     */
+    final boolean hasFreeVar(Var v) {
+        int symbol = v.getSymbolId();
+        if (!freeSymbols.get(symbol))
+            return false;
+        ArrayDeque stack = new ArrayDeque();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            NamelessTerm t = (NamelessTerm)stack.pop();
+            if (!t.freeSymbols.get(symbol))
+                continue;
+            t = t.expose();
+            if (t instanceof Leaf && v.equals(((Leaf)t).expr))
+                return true;
+            pushChildren(t, stack);
+        }
+        return false;
+    }
+    
+    /**
+     * Returns whether the index is free in this term.
+     */
+    final boolean hasIndex(int index) {
+        if (index >= looseIndices)
+            return false;
+        
+        // the terms to look in, and the index to look for in each, which
+        // is larger in the scope of a Binding
+        ArrayDeque stack = new ArrayDeque();
+        int[] indices = new int[16];
+        stack.push(this);
+        indices[0] = index;
+        while (!stack.isEmpty()) {
+            NamelessTerm t = (NamelessTerm)stack.pop();
+            int i = indices[stack.size()];
+            if (i >= t.looseIndices)
+                continue;
+            t = t.expose();
+            if (t instanceof Bound && ((Bound)t).index == i)
+                return true;
+            if (t instanceof Binding)
+                i += ((Binding)t).vars.length;
+            NamelessTerm[] children = childrenOf(t);
+            for (int c = 0; c < children.length; c++) {
+                if (stack.size() == indices.length)
+                    indices = Arrays.copyOf(indices, indices.length * 2);
+                indices[stack.size()] = i;
+                stack.push(children[c]);
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Adds the variables of this term (free variables and the variables
+     * of binders) to the set.
+     */
+    final void collectVars(Set vars) {
+        ArrayDeque stack = new ArrayDeque();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            NamelessTerm t = ((NamelessTerm)stack.pop()).expose();
+            if (t instanceof Leaf && ((Leaf)t).expr instanceof Var)
+                vars.add(((Leaf)t).expr);
+            if (t instanceof Binding)
+                vars.addAll(Arrays.asList(((Binding)t).vars));
+            pushChildren(t, stack);
+        }
+    }
+    
+    private static final NamelessTerm[] NO_CHILDREN = new NamelessTerm[0];
+    
+    /**
+     * Returns the children of an exposed term.
+     */
+    private static NamelessTerm[] childrenOf(NamelessTerm t) {
+        if (t instanceof Node)
+            return ((Node)t).children;
+        if (t instanceof Binding)
+            return ((Binding)t).children;
+        return NO_CHILDREN;
+    }
+    
+    private static void pushChildren(NamelessTerm t, ArrayDeque stack) {
+        NamelessTerm[] children = childrenOf(t);
+        for (int i = 0; i < children.length; i++)
+            stack.push(children[i]);
+    }
+    
+    /**
+     * Strips parentheses, like Expr.stripOutermostParens.
+     */
+    static NamelessTerm stripParens(NamelessTerm t) {
+        t = t.expose();
+        while (t instanceof Node && ((Node)t).parens)
+            t = ((Node)t).children[0].expose();
+        return t;
+    }
+    
+    /**
+     * Like stripParens, but leaves a Suspended term suspended if it cannot
+     * turn out to be in parentheses, so that a further substitution can be
+     * combined with it.
+     */
+    static NamelessTerm stripParensLazily(NamelessTerm t) {
+        if (t instanceof Suspended && !((Suspended)t).mayBeParens())
+            return t;
+        return stripParens(t);
+    }
+    
+    private static int looseIndices(NamelessTerm[] children, int bound) {
+        int ret = 0;
+        for (int i = 0; i < children.length; i++)
+            if (children[i].looseIndices - bound > ret)
+                ret = children[i].looseIndices - bound;
+        return ret;
+    }
+    
+    private static BitSet freeSymbols(NamelessTerm[] children) {
+        BitSet ret = NO_SYMBOLS;
+        boolean copied = false;
+        for (int i = 0; i < children.length; i++) {
+            BitSet s = children[i].freeSymbols;
+            if (s.isEmpty() || s == ret)
+                continue;
+            if (ret.isEmpty()) {
+                ret = s;
+            } else {
+                if (!copied) {
+                    ret = (BitSet)ret.clone();
+                    copied = true;
+                }
+                ret.or(s);
+            }
+        }
+        return ret;
+    }
+    
+    private static boolean redex(NamelessTerm[] children) {
+        for (int i = 0; i < children.length; i++)
+            if (children[i].redex)
+                return true;
+        return false;
+    }
+    
+    /**
+     * Keeps track of the names chosen for the binders during toExpr.
+     */
+    static final class Namer {
+        final NamelessTerm root;
+        final ArrayList originals = new ArrayList(); // Vars of the binders in scope, innermost last
+        final ArrayList chosen = new ArrayList(); // the Vars chosen for them
+        private FreshVarGenerator varsInUse; // computed when the first variable is renamed
+        
+        Namer(NamelessTerm root) {
+            this.root = root;
+        }
+        
+        /**
+         * Chooses the name for the variable v of a binder whose scope
+         * consists of the given terms and which binds k variables. The
+         * names of the first count of them have been chosen and pushed
+         * already.
+         */
+        Var choose(Var v, NamelessTerm[] scope, int k, int count) {
+            if (!captures(v, scope, k, count))
+                return v;
+            
+            if (varsInUse == null) {
+                Set vars = new HashSet();
+                root.collectVars(vars);
+                varsInUse = new FreshVarGenerator(vars);
+            }
+            
+            do {
+                v = FreshVarGenerator.prime(v);
+            } while (varsInUse.isInUse(v) || captures(v, scope, k, count));
+            return v;
+        }
+        
+        /**
+         * Returns whether any of the variables of the innermost count
+         * binders in scope was given a new name. An unchanged term that only
+         * refers to binders that kept their names needs no new names itself,
+         * since it came from an expression in which nothing was captured.
+         */
+        boolean renamedAny(int count) {
+            for (int i = chosen.size() - 1; i >= 0 && i >= chosen.size() - count; i--)
+                if (chosen.get(i) != originals.get(i))
+                    return true;
+            return false;
+        }
+        
+        /**
+         * Returns whether naming the binder's variable v would capture a
+         * variable that occurs free in the scope.
+         */
+        private boolean captures(Var v, NamelessTerm[] scope, int k, int count) {
+            // the other variables of the same binder
+            for (int i = chosen.size() - count; i < chosen.size(); i++)
+                if (v.equals(chosen.get(i)))
+                    return true;
+            
+            for (int i = 0; i < scope.length; i++) {
+                NamelessTerm t = scope[i];
+                
+                // free variables
+                if (t.freeSymbols.get(v.getSymbolId()) && t.hasFreeVar(v))
+                    return true;
+                
+                // variables of binders further out, which are referred to
+                // by the indices from k on
+                for (int index = k; index < t.looseIndices; index++) {
+                    int pos = chosen.size() - count - 1 - (index - k);
+                    if (pos >= 0 && v.equals(chosen.get(pos)) && t.hasIndex(index))
+                        return true;
+                }
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * A variable bound by a binder in the term.
+     */
+    static final class Bound extends NamelessTerm {
+        final int index;
+        final Var occurrence; // the variable as written in the original expression
+        
+        Bound(int index, Var occurrence) {
+            super(index + 1, NO_SYMBOLS, false);
+            this.index = index;
+            this.occurrence = occurrence;
+        }
+        
+        Expr startNaming(Namer namer, ArrayDeque path) {
+            int pos = namer.chosen.size() - 1 - index;
+            if (pos < 0) // not bound by anything we know of
+                return occurrence;
+            Object chosen = namer.chosen.get(pos);
+            if (chosen == namer.originals.get(pos))
+                return occurrence;
+            return (Var)chosen;
+        }
+        
+        NamelessTerm shift(int d, int cutoff) {
+            if (index < cutoff)
+                return this;
+            return new Bound(index + d, occurrence);
+        }
+        
+        NamelessTerm subst(int depth, NamelessTerm arg) {
+            if (index == depth)
+                return arg.shift(depth, 0);
+            if (index > depth)
+                return new Bound(index - 1, occurrence);
+            return this;
+        }
+        
+        NamelessTerm startStep(ArrayList env, ArrayDeque path) {
+            return null;
+        }
+    }
+    
+    /**
+     * An expression without subexpressions: a free variable, a constant,
+     * a GApp, meaning brackets, or an empty set.
+     */
+    static final class Leaf extends NamelessTerm {
+        final Expr expr;
+        
+        Leaf(Expr expr) {
+            super(0, symbolOf(expr), false);
+            this.expr = expr;
+        }
+        
+        private static BitSet symbolOf(Expr expr) {
+            if (!(expr instanceof Var))
+                return NO_SYMBOLS;
+            BitSet ret = new BitSet();
+            ret.set(((Var)expr).getSymbolId());
+            return ret;
+        }
+        
+        Expr startNaming(Namer namer, ArrayDeque path) {
+            return expr;
+        }
+        
+        NamelessTerm shift(int d, int cutoff) {
+            return this;
+        }
+        
+        NamelessTerm subst(int depth, NamelessTerm arg) {
+            return this;
+        }
+        
+        NamelessTerm startStep(ArrayList env, ArrayDeque path) {
+            return null;
+        }
+    }
+    
+    /**
+     * An expression that does not bind variables, with its subexpressions.
+     */
+    static final class Node extends NamelessTerm {
+        final Expr prototype; // the expression this node is an instance of
+        final NamelessTerm[] children;
+        final boolean pristine; // whether this is the term of prototype itself
+        final boolean parens; // whether this is the parentheses around prototype, with the rest of it as the child
+        
+        Node(Expr prototype, NamelessTerm[] children) {
+            this(prototype, children, false, false);
+        }
+        
+        Node(Expr prototype, NamelessTerm[] children, boolean pristine, boolean parens) {
+            super(looseIndices(children, 0), freeSymbols(children),
+                    isRedex(prototype, children, parens) || redex(children));
+            this.prototype = prototype;
+            this.children = children;
+            this.pristine = pristine;
+            this.parens = parens;
+        }
+        
+        /**
+         * Gets the kind of expression this node is, ExprKind.PARENS for
+         * parentheses.
+         */
+        int getKind() {
+            return parens ? ExprKind.PARENS : prototype.getKind();
+        }
+        
+        /**
+         * Whether this is a function application that performLambdaConversion1
+         * would convert (or reject); cf. FunApp.getNodeFlags.
+         */
+        private static boolean isRedex(Expr prototype, NamelessTerm[] children, boolean parens) {
+            if (parens || prototype.getKind() != ExprKind.FUN_APP)
+                return false;
+            NamelessTerm func = stripParens(children[0]);
+            if (func instanceof Bound)
+                return false;
+            if (func instanceof Leaf)
+                return !isNeutral(((Leaf)func).expr);
+            return !(func instanceof Node && ((Node)func).getKind() == ExprKind.FUN_APP);
+        }
+        
+        /**
+         * Whether a function application with expr as its function is left
+         * alone, i.e. if expr is an identifier or a GApp.
+         */
+        static boolean isNeutral(Expr expr) {
+            switch (expr.getKind()) {
+                case ExprKind.VAR:
+                case ExprKind.CONST:
+                case ExprKind.GAPP:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        
+        /**
+         * Returns a node of the same kind as this node with the given children.
+         */
+        Node copy(NamelessTerm[] children) {
+            return new Node(prototype, children, false, parens);
+        }
+        
+        Expr startNaming(Namer namer, ArrayDeque path) {
+            if (pristine && !namer.renamedAny(looseIndices))
+                return prototype;
+            path.push(new Naming(prototype, children, 0, 0, parens));
+            return null;
+        }
+        
+        NamelessTerm shift(int d, int cutoff) {
+            if (looseIndices <= cutoff || d == 0)
+                return this;
+            return Suspended.shift(this, d, cutoff);
+        }
+        
+        NamelessTerm subst(int depth, NamelessTerm arg) {
+            if (looseIndices <= depth)
+                return this;
+            return Suspended.subst(this, depth, arg);
+        }
+        
+        NamelessTerm startStep(ArrayList env, ArrayDeque path) throws TypeEvaluationException {
+            if (!redex)
+                return null;
+            
+            if (getKind() == ExprKind.FUN_APP) {
+                // cf. FunApp.computeLambdaConversion1
+                NamelessTerm func = stripParens(children[0]);
+                
+                if (func instanceof Node && ((Node)func).getKind() == ExprKind.FUN_APP) {
+                    // the structurally innermost function application is
+                    // looked at first, then the argument
+                    path.push(new Stepping(this, children, new NamelessTerm[] { func, children[1] }, false, 0));
+                    return null;
+                    
+                } else if (func instanceof Binding && ((Binding)func).prototype.getKind() == ExprKind.LAMBDA) {
+                    Binding lambda = (Binding)func;
+                    if (lambda.vars.length == 0)
+                        throw new ConstInsteadOfVarException
+                                ("A variable must be bound by the " + Lambda.SYMBOL
+                                + ", but " + ((Lambda)lambda.prototype).getVariable() + " is a constant " +
+                                "according to the typing conventions in effect.");
+                    NamelessTerm inside = stripParensLazily(lambda.children[0]);
+                    return inside.subst(0, stripParensLazily(children[1]));
+                    
+                } else if (func instanceof Bound || (func instanceof Leaf && isNeutral(((Leaf)func).expr))) {
+                    
+                } else {
+                    throw new TypeMismatchException("The left hand side of a function application must be a lambda expression or a function-typed constant or variable: " + func.toExpr(env));
+                }
+                
+                path.push(new Stepping(this, children, new NamelessTerm[] { null, children[1] }, false, 0));
+                return null;
+            }
+            
+            path.push(new Stepping(this, children, children, prototype instanceof NAry, 0));
+            return null;
+        }
+    }
+    
+    /**
+     * An expression that binds variables: a Binder, which binds its variable
+     * in its inner expression, or a SetWithGenerator, which binds the free
+     * variables of its template in both of its subexpressions.
+     */
+    static final class Binding extends NamelessTerm {
+        final Expr prototype; // the expression this node is an instance of
+        final Var[] vars; // the variables bound, outermost first
+        final NamelessTerm[] children; // the scope of the variables
+        final boolean pristine; // whether this is the term of prototype itself
+        
+        Binding(Expr prototype, Var[] vars, NamelessTerm[] children) {
+            this(prototype, vars, children, false);
+        }
+        
+        Binding(Expr prototype, Var[] vars, NamelessTerm[] children, boolean pristine) {
+            super(looseIndices(children, vars.length), freeSymbols(children), redex(children));
+            this.prototype = prototype;
+            this.vars = vars;
+            this.children = children;
+            this.pristine = pristine;
+        }
+        
+        Expr startNaming(Namer namer, ArrayDeque path) {
+            if (pristine && !namer.renamedAny(looseIndices))
+                return prototype;
+            for (int i = 0; i < vars.length; i++) {
+                Var v = namer.choose(vars[i], children, vars.length, i);
+                namer.originals.add(vars[i]);
+                namer.chosen.add(v);
+            }
+            
+            // A binder's variable comes before the inner expression.
+            Expr result = prototype;
+            int first = 0;
+            if (prototype instanceof Binder) {
+                if (vars.length > 0)
+                    result = result.withChild(0, (Var)namer.chosen.get(namer.chosen.size() - 1));
+                first = 1;
+            }
+            // The variables are taken out again once the children are done.
+            path.push(new Naming(result, children, first, vars.length, false));
+            return null;
+        }
+        
+        NamelessTerm shift(int d, int cutoff) {
+            if (looseIndices <= cutoff || d == 0)
+                return this;
+            return Suspended.shift(this, d, cutoff);
+        }
+        
+        NamelessTerm subst(int depth, NamelessTerm arg) {
+            if (looseIndices <= depth)
+                return this;
+            return Suspended.subst(this, depth, arg);
+        }
+        
+        NamelessTerm startStep(ArrayList env, ArrayDeque path) {
+            if (!redex)
+                return null;
+            env.addAll(Arrays.asList(vars));
+            path.push(new Stepping(this, children, children, false, vars.length));
+            return null;
+        }
+    }
+    
+    /**
+     * A term with a substitution or a shift that has not been carried out
+     * yet, i.e. an explicit substitution as in the lambda-sigma calculus.
+     * A lambda conversion thus takes constant time, and the substitution
+     * is pushed into the term one node at a time, only where the term is
+     * looked at, by the search for the next redex or by toExpr. Subterms in
+     * which the variable does not occur are never copied.
+     * 
+     * The substitution replaces the indices from cutoff on by the args,
+     * simultaneously, and decreases the indices after them by the number
+     * of args and increases them by shift. (A shift has no args; a single
+     * substitution has one arg and no shift.) When the arguments of a
+     * function of several arguments are substituted one after another, the
+     * substitutions are combined into one, so that the function's body is
+     * pushed through only once.
+     * 
+     * The looseIndices, freeSymbols and redex of a Suspended are estimates
+     * from above, computed without pushing the substitution.
+     */
+    static final class Suspended extends NamelessTerm {
+        private static final NamelessTerm[] NO_ARGS = new NamelessTerm[0];
+        
+        private NamelessTerm term; // the term, until the substitution is pushed
+        private final int cutoff; // the first index replaced or shifted
+        private final NamelessTerm[] args; // replacements for the indices from cutoff on
+        private final int shift; // the amount the indices after them are shifted by
+        private NamelessTerm exposed; // cached by expose()
+        
+        private final BitSet argSymbols; // the free symbols of the args
+        
+        private Suspended(NamelessTerm term, int cutoff, NamelessTerm[] args, int shift) {
+            this(term, cutoff, args, shift, NamelessTerm.freeSymbols(args));
+        }
+        
+        private Suspended(NamelessTerm term, int cutoff, NamelessTerm[] args, int shift, BitSet argSymbols) {
+            super(looseIndices(term, cutoff, args, shift), union(term.freeSymbols, argSymbols), redex(term, args));
+            this.term = term;
+            this.cutoff = cutoff;
+            this.args = args;
+            this.shift = shift;
+            this.argSymbols = argSymbols;
+        }
+        
+        /**
+         * Returns the term shifted by d at cutoff, cf. NamelessTerm.shift.
+         */
+        static NamelessTerm shift(NamelessTerm term, int d, int cutoff) {
+            return new Suspended(term, cutoff, NO_ARGS, d);
+        }
+        
+        /**
+         * Returns the term with arg substituted for depth, cf.
+         * NamelessTerm.subst.
+         */
+        static NamelessTerm subst(NamelessTerm term, int depth, NamelessTerm arg) {
+            if (term instanceof Suspended) {
+                // If the substitution in term replaces the indices right
+                // after depth, the two can be combined.
+                Suspended s = (Suspended)term;
+                if (s.term != null && s.shift == 0 && s.cutoff == depth + 1) {
+                    NamelessTerm[] args = new NamelessTerm[s.args.length + 1];
+                    args[0] = arg;
+                    System.arraycopy(s.args, 0, args, 1, s.args.length);
+                    return new Suspended(s.term, depth, args, 0);
+                }
+            }
+            return new Suspended(term, depth, new NamelessTerm[] { arg }, 0);
+        }
+        
+        private static int looseIndices(NamelessTerm term, int cutoff, NamelessTerm[] args, int shift) {
+            int ret = term.looseIndices - args.length + shift;
+            for (int i = 0; i < args.length; i++)
+                if (args[i].looseIndices + cutoff > ret)
+                    ret = args[i].looseIndices + cutoff;
+            return ret;
+        }
+        
+        private static BitSet union(BitSet a, BitSet b) {
+            if (b.isEmpty() || a == b)
+                return a;
+            if (a.isEmpty())
+                return b;
+            BitSet ret = (BitSet)a.clone();
+            ret.or(b);
+            return ret;
+        }
+        
+        /**
+         * Returns whether the term may contain a redex after the substitution:
+         * if it has one already, or if an argument has one, or if an
+         * argument that could be applied is substituted.
+         */
+        private static boolean redex(NamelessTerm term, NamelessTerm[] args) {
+            if (term.redex)
+                return true;
+            for (int i = 0; i < args.length; i++)
+                if (args[i].redex || !isNeutral(args[i]))
+                    return true;
+            return false;
+        }
+        
+        /**
+         * Returns whether substituting t for a variable cannot make a redex,
+         * i.e. if t is a variable, a constant or a GApp; cf. Node.isRedex.
+         */
+        private static boolean isNeutral(NamelessTerm t) {
+            if (t instanceof Bound)
+                return true;
+            if (t instanceof Leaf)
+                return Node.isNeutral(((Leaf)t).expr);
+            return false;
+        }
+        
+        /**
+         * Returns whether the exposed term may be a Node for Parens, without
+         * exposing it.
+         */
+        boolean mayBeParens() {
+            NamelessTerm t = this;
+            while (t instanceof Suspended) {
+                Suspended s = (Suspended)t;
+                t = s.exposed != null ? s.exposed : s.term;
+            }
+            if (t instanceof Node)
+                return ((Node)t).parens;
+            return t instanceof Bound;
+        }
+        
+        NamelessTerm expose() {
+            if (exposed != null)
+                return exposed;
+            
+            // The term of a Suspended may be another Suspended, and so may
+            // be the result of pushing it, so they are exposed with an
+            // explicit stack of the ones waiting. Those whose bit in pushed
+            // is set have pushed their substitution, and their exposed term
+            // is the one being exposed. The others push their substitution
+            // into it first.
+            ArrayDeque waiting = new ArrayDeque();
+            BitSet pushed = new BitSet();
+            NamelessTerm t = this;
+            while (true) {
+                while (t instanceof Suspended && ((Suspended)t).exposed == null) {
+                    pushed.clear(waiting.size());
+                    waiting.push(t);
+                    t = ((Suspended)t).term;
+                }
+                if (t instanceof Suspended)
+                    t = ((Suspended)t).exposed;
+                
+                // t is exposed now
+                while (true) {
+                    if (waiting.isEmpty())
+                        return t;
+                    Suspended s = (Suspended)waiting.peek();
+                    if (!pushed.get(waiting.size() - 1)) {
+                        pushed.set(waiting.size() - 1);
+                        t = s.push(t);
+                        break;
+                    }
+                    waiting.pop();
+                    s.exposed = t;
+                    s.term = null; // no longer needed
+                }
+            }
+        }
+        
+        /**
+         * Carries out the substitution at the top of t, leaving it
+         * suspended in the children of t.
+         */
+        private NamelessTerm push(NamelessTerm t) {
+            if (t instanceof Node) {
+                Node n = (Node)t;
+                return n.copy(pushInto(n.children, 0));
+            }
+            if (t instanceof Binding) {
+                Binding b = (Binding)t;
+                return new Binding(b.prototype, b.vars, pushInto(b.children, b.vars.length));
+            }
+            if (t instanceof Bound)
+                return lookup((Bound)t, cutoff);
+            return t;
+        }
+        
+        /**
+         * Returns what this substitution replaces b by, at the given
+         * cutoff.
+         */
+        private NamelessTerm lookup(Bound b, int c) {
+            if (b.index < c)
+                return b;
+            if (b.index < c + args.length)
+                return args[b.index - c].shift(c, 0);
+            return new Bound(b.index - args.length + shift, b.occurrence);
+        }
+        
+        /**
+         * Suspends this substitution in the children, which are in the
+         * scope of the given number of binders more than this term.
+         */
+        private NamelessTerm[] pushInto(NamelessTerm[] children, int binders) {
+            int c = cutoff + binders;
+            NamelessTerm[] ret = new NamelessTerm[children.length];
+            for (int i = 0; i < ret.length; i++) {
+                NamelessTerm child = children[i];
+                if (child.looseIndices <= c || (args.length == 0 && shift == 0))
+                    ret[i] = child;
+                else if (child instanceof Bound)
+                    ret[i] = lookup((Bound)child, c);
+                else
+                    ret[i] = new Suspended(child, c, args, shift, argSymbols);
+            }
+            return ret;
+        }
+        
+        Expr startNaming(Namer namer, ArrayDeque path) {
+            return expose().startNaming(namer, path);
+        }
+        
+        NamelessTerm shift(int d, int cutoff) {
+            if (looseIndices <= cutoff || d == 0)
+                return this;
+            return shift(this, d, cutoff);
+        }
+        
+        NamelessTerm subst(int depth, NamelessTerm arg) {
+            if (looseIndices <= depth)
+                return this;
+            return subst(this, depth, arg);
+        }
+        
+        NamelessTerm startStep(ArrayList env, ArrayDeque path) throws TypeEvaluationException {
+            if (!redex)
+                return null;
+            return expose().startStep(env, path);
+        }
+    }
+}
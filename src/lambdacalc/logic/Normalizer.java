@@ -0,0 +1,774 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+/*
+ * Normalizer.java
+ */
+
+package lambdacalc.logic;
+
+import java.util.ArrayDeque;
+
+/**
+ * Computes the normal form of an expression by normalization by evaluation,
+ * for Expr.normalize(). The expression, in its locally nameless
+ * representation (see NamelessTerm), is evaluated into a domain of
+ * semantic values in which a lambda expression is a closure that pairs
+ * the lambda with the values of the variables bound around it, so that
+ * applying it simply evaluates its body with one more value. The value is
+ * then read back into a term. No intermediate terms are built and nothing
+ * is ever substituted, which makes this faster than performing the lambda
+ * conversions one at a time when only the result is wanted, the more so
+ * the larger the expression.
+ *
+ * The result is the same as that of simplifyFully: like
+ * FunApp.performLambdaConversion1, the evaluator strips the parentheses
+ * around the function, the body of the lambda and the argument when
+ * converting, and leaves them alone everywhere else. Arguments are
+ * evaluated only when the variable they are bound to is used, and then
+ * only once (call by need), so an argument that a conversion throws away is
+ * never looked at, just as in the step-by-step engine, while an argument
+ * that is used many times is not converted again for each of its copies. The other Binders and
+ * SetWithGenerator are evaluated like lambdas, but are never applied;
+ * argument lists (ArgList) are treated like any other expression, so
+ * a lambda over a variable of a ProductType takes the whole list.
+ *
+ * If the expression contains a function application that cannot be
+ * converted, the step-by-step engine is run instead to report the error,
+ * so that the exception is the same as the one from performLambdaConversion.
+ */
+final class Normalizer {
+    
+    private final ReductionBudget budget;
+    private int steps = 0; // the number of lambdas applied so far
+    private int built = 0; // the number of nodes read back so far
+    
+    // The work waiting for the value or term being computed, the innermost
+    // first (see run).
+    private final ArrayDeque frames = new ArrayDeque();
+    
+    // What eval, evalStructure and readBack return when they have pushed
+    // frames for the rest of their work and left a request to run.
+    private static final Object PENDING = new Object();
+    
+    // The kinds of request.
+    private static final int EVAL = 0;
+    private static final int EVAL_STRUCTURE = 1;
+    private static final int READ_BACK = 2;
+    
+    // The request that run carries out next.
+    private int request;
+    private NamelessTerm requestTerm;
+    private Env requestEnv;
+    private Value requestValue;
+    private int requestDepth;
+    
+    private Normalizer(ReductionBudget budget) {
+        this.budget = budget;
+    }
+    
+    /**
+     * Returns the normal form of the expression, within the default budget.
+     * @throws ReductionLimitException if the budget runs out first
+     */
+    static Expr normalize(Expr expr) throws TypeEvaluationException {
+        ReductionResult result = normalize(expr, ReductionBudget.createDefault());
+        if (!result.isComplete())
+            throw new ReductionLimitException(result.getStopReason());
+        return result.getResult();
+    }
+    
+    /**
+     * Returns the normal form of the expression, unless the budget runs out
+     * first. Each lambda that is applied counts as a lambda conversion, and
+     * the nodes built when reading back count toward the size limit along
+     * with the nodes of the normal form. Since the evaluator has no
+     * intermediate expressions to show, if the budget runs out the result
+     * is the expression as given.
+     * 
+     * If a conversion fails, the step-by-step engine is run instead,
+     * within what is left of the budget, to report the error. Its result
+     * is as far as it got.
+     */
+    static ReductionResult normalize(Expr expr, ReductionBudget budget) throws TypeEvaluationException {
+        Normalizer normalizer = new Normalizer(budget);
+        try {
+            return normalizer.evaluate(expr);
+        } catch (TypeEvaluationException e) {
+        }
+        
+        return reduceFully(NamelessTerm.fromExpr(expr), budget, normalizer.steps);
+    }
+    
+    /**
+     * Helper method for normalize that evaluates the expression and reads
+     * it back.
+     */
+    private ReductionResult evaluate(Expr expr) throws TypeEvaluationException {
+        steps = 0;
+        built = 0;
+        frames.clear();
+        try {
+            frames.push(new ReadingBack(0));
+            NamelessTerm result = (NamelessTerm)run(eval(NamelessTerm.fromExpr(expr), null, 0));
+            if (budget.getMaxSize() > 0 && countNodes(result, budget.getMaxSize() + 1) > budget.getMaxSize())
+                throw new ReductionLimitException(ReductionBudget.SIZE_LIMIT);
+            return new ReductionResult(result.toExpr(), null);
+        } catch (ReductionLimitException e) {
+            return new ReductionResult(expr, e.getReason());
+        }
+    }
+    
+    /**
+     * Runs the step-by-step engine within the budget, after the given number
+     * of steps. If a conversion fails, it throws the same exception as
+     * performLambdaConversion would. The size of the term is only checked
+     * every so many steps, as counting its nodes takes longer than a step.
+     */
+    private static ReductionResult reduceFully(NamelessTerm term, ReductionBudget budget, int steps) throws TypeEvaluationException {
+        for (NamelessTerm next = term.reduceStep(); next != null; next = term.reduceStep()) {
+            String reason = budget.check(++steps);
+            if (reason == null && steps % 16 == 0 && budget.getMaxSize() > 0
+                    && countNodes(next, budget.getMaxSize() + 1) > budget.getMaxSize())
+                reason = ReductionBudget.SIZE_LIMIT;
+            if (reason != null)
+                return new ReductionResult(term.toExpr(), reason);
+            term = next;
+        }
+        return new ReductionResult(term.toExpr(), null);
+    }
+    
+    /**
+     * Counts a lambda conversion against the budget.
+     */
+    private void step() throws ReductionLimitException {
+        String reason = budget.check(++steps);
+        if (reason != null)
+            throw new ReductionLimitException(reason);
+    }
+    
+    /**
+     * Counts a node that was read back against the size limit of the budget.
+     */
+    private void build() throws ReductionLimitException {
+        if (budget.getMaxSize() > 0 && ++built > budget.getMaxSize())
+            throw new ReductionLimitException(ReductionBudget.SIZE_LIMIT);
+    }
+    
+    /**
+     * Returns the number of nodes in term, counting only up to limit. The
+     * subterms that reading back shares are counted each time they occur,
+     * as toExpr copies them.
+     */
+    private static int countNodes(NamelessTerm term, int limit) {
+        ArrayDeque stack = new ArrayDeque();
+        stack.push(term);
+        int count = 0;
+        while (!stack.isEmpty() && count < limit) {
+            NamelessTerm t = ((NamelessTerm)stack.pop()).expose();
+            count++;
+            NamelessTerm[] children;
+            if (t instanceof NamelessTerm.Node)
+                children = ((NamelessTerm.Node)t).children;
+            else if (t instanceof NamelessTerm.Binding)
+                children = ((NamelessTerm.Binding)t).children;
+            else
+                continue;
+            for (int i = 0; i < children.length; i++)
+                stack.push(children[i]);
+        }
+        return count;
+    }
+    
+    /**
+     * A semantic value. Values are shared by all the places a variable bound
+     * to them occurs, and they remember the term they were last read back
+     * as, so that they are evaluated and read back only once.
+     */
+    private abstract static class Value {
+        NamelessTerm readBack; // the term this value was read back as
+        int readBackDepth; // ... in the scope of this many binders
+    }
+    
+    /**
+     * A term without redexes, with the values of the variables bound around
+     * it. Such a term only has to be evaluated further if its loose indices
+     * have to change when it is read back, which is usually not the case.
+     */
+    private static final class Inert extends Value {
+        final NamelessTerm term;
+        final Env env;
+        Inert(NamelessTerm term, Env env) {
+            this.term = term;
+            this.env = env;
+        }
+    }
+    
+    /**
+     * A variable of a binder that is being read back, identified by its
+     * de Bruijn level (the number of binders around it), together with
+     * the variable as it was written where it occurs.
+     */
+    private static final class Level extends Value {
+        final int level;
+        final Var occurrence;
+        Level(int level, Var occurrence) {
+            this.level = level;
+            this.occurrence = occurrence;
+        }
+    }
+    
+    /**
+     * A binding expression (a lambda or another binder) together with the
+     * values of the variables bound around it.
+     */
+    private static final class Closure extends Value {
+        final NamelessTerm.Binding binding;
+        final Env env;
+        int applications; // the number of times this lambda was applied
+        Closure normalForm; // the same lambda with its body normalized
+        Closure(NamelessTerm.Binding binding, Env env) {
+            this.binding = binding;
+            this.env = env;
+        }
+    }
+    
+    /**
+     * An expression that does not bind variables with the values of its
+     * subexpressions. A function application is only represented this way
+     * if its function cannot be converted (e.g. a constant), in which case
+     * the argument is left as a Thunk until it is read back.
+     */
+    private static final class Structure extends Value {
+        final NamelessTerm.Node node;
+        final Value[] children;
+        Structure(NamelessTerm.Node node, Value[] children) {
+            this.node = node;
+            this.children = children;
+        }
+    }
+    
+    /**
+     * A term that has not been evaluated yet. It is evaluated the first time
+     * its value is needed and the value is kept (call by need), so that
+     * the redexes in an argument are only converted once however many times
+     * the variable it is bound to occurs.
+     */
+    private static final class Thunk extends Value {
+        NamelessTerm term; // until it is evaluated
+        Env env; // likewise
+        Value value; // once it is evaluated
+        Thunk(NamelessTerm term, Env env) {
+            this.term = term;
+            this.env = env;
+        }
+    }
+    
+    /**
+     * The values of the variables bound around a term, innermost first, so
+     * that the value of index i is the i-th element of the list.
+     */
+    private static final class Env {
+        final Value value;
+        final Env next;
+        Env(Value value, Env next) {
+            this.value = value;
+            this.next = next;
+        }
+        
+        Value lookup(int index) {
+            Env e = this;
+            for (int i = 0; i < index; i++)
+                e = e.next;
+            return e.value;
+        }
+    }
+    
+    /**
+     * Carries out the requests left by eval, evalStructure, readBack and
+     * the frames, and passes each result to the frame waiting for it,
+     * until no frames are left. The work thus waits for the values and
+     * terms it needs on an explicit stack rather than on the Java stack,
+     * so that expressions of any depth can be normalized. The evaluation
+     * of the body of a lambda that is applied does not even take a frame.
+     * @param result the result of the first piece of work, or PENDING
+     * @return the result for the bottom frame
+     */
+    private Object run(Object result) throws TypeEvaluationException {
+        while (true) {
+            if (result == PENDING) {
+                switch (request) {
+                    case EVAL:
+                        result = eval(requestTerm, requestEnv, requestDepth);
+                        break;
+                    case EVAL_STRUCTURE:
+                        result = evalStructure(requestTerm, requestEnv, requestDepth);
+                        break;
+                    default:
+                        result = readBack(requestValue, requestDepth);
+                        break;
+                }
+                continue;
+            }
+            if (frames.isEmpty())
+                return result;
+            result = ((Frame)frames.pop()).resume(result);
+        }
+    }
+    
+    /**
+     * Leaves a request for run to carry out next, and returns PENDING.
+     */
+    private Object later(int request, NamelessTerm term, Env env, Value value, int depth) {
+        this.request = request;
+        requestTerm = term;
+        requestEnv = env;
+        requestValue = value;
+        requestDepth = depth;
+        return PENDING;
+    }
+    
+    /**
+     * Work waiting for a value or a term.
+     */
+    private abstract class Frame {
+        /**
+         * Goes on with the work once the result it waited for is known.
+         * Returns the result of the work, or PENDING if more is needed,
+         * in which case the frame pushes itself (or others) again.
+         */
+        abstract Object resume(Object result) throws TypeEvaluationException;
+    }
+    
+    /**
+     * Evaluates a term in an environment. depth is the number of binders
+     * that are being read back around the evaluation; the Levels in env
+     * are all less than it.
+     * @return the value, or PENDING
+     */
+    private Object eval(NamelessTerm term, Env env, int depth) throws TypeEvaluationException {
+        term = term.expose(); // terms that were read back may have been shifted
+        
+        if (term instanceof NamelessTerm.Bound) {
+            NamelessTerm.Bound b = (NamelessTerm.Bound)term;
+            Value v = env.lookup(b.index);
+            if (v instanceof Thunk)
+                return force((Thunk)v, depth);
+            if (v instanceof Level && ((Level)v).occurrence != b.occurrence)
+                v = new Level(((Level)v).level, b.occurrence); // keep the variable as written
+            return v;
+        }
+        
+        // (A binding expression with loose indices is made into a Closure
+        // instead, so that it can keep track of how often it is applied.)
+        if (!term.redex && (term.looseIndices == 0 || !(term instanceof NamelessTerm.Binding)))
+            return new Inert(term, term.looseIndices == 0 ? null : env);
+        
+        return evalStructure(term, env, depth);
+    }
+    
+    /**
+     * Returns the value of the thunk, evaluating it if it was not yet.
+     * @return the value, or PENDING
+     */
+    private Object force(Thunk thunk, int depth) {
+        if (thunk.value != null)
+            return thunk.value;
+        frames.push(new Forcing(thunk));
+        return later(EVAL, thunk.term, thunk.env, null, depth);
+    }
+    
+    /**
+     * Keeps the value of a thunk that was evaluated.
+     */
+    private final class Forcing extends Frame {
+        final Thunk thunk;
+        Forcing(Thunk thunk) {
+            this.thunk = thunk;
+        }
+        
+        Object resume(Object result) {
+            thunk.value = (Value)result;
+            thunk.term = null; // no longer needed
+            thunk.env = null;
+            return result;
+        }
+    }
+    
+    /**
+     * Evaluates a term that is not a Bound without checking whether it is
+     * inert.
+     * @return the value, or PENDING
+     */
+    private Object evalStructure(NamelessTerm term, Env env, int depth) throws TypeEvaluationException {
+        if (term instanceof NamelessTerm.Leaf)
+            return new Inert(term, null);
+        
+        if (term instanceof NamelessTerm.Binding)
+            return new Closure((NamelessTerm.Binding)term, env);
+        
+        NamelessTerm.Node node = (NamelessTerm.Node)term;
+        if (node.getKind() == ExprKind.FUN_APP)
+            frames.push(new Applying(node, env, depth));
+        else
+            frames.push(new EvaluatingChildren(node, env, depth));
+        return later(EVAL, node.children[0], env, null, depth);
+    }
+    
+    /**
+     * Makes a Structure of the values of the children of a node, which are
+     * evaluated one after another.
+     */
+    private final class EvaluatingChildren extends Frame {
+        final NamelessTerm.Node node;
+        final Env env;
+        final int depth;
+        final Value[] children;
+        int next = 0; // the index of the child being evaluated
+        EvaluatingChildren(NamelessTerm.Node node, Env env, int depth) {
+            this.node = node;
+            this.env = env;
+            this.depth = depth;
+            this.children = new Value[node.children.length];
+        }
+        
+        Object resume(Object result) {
+            children[next++] = (Value)result;
+            if (next < children.length) {
+                frames.push(this);
+                return later(EVAL, node.children[next], env, null, depth);
+            }
+            return new Structure(node, children);
+        }
+    }
+    
+    /**
+     * Applies the value of the function of the function application node to
+     * its argument, cf. FunApp.computeLambdaConversion1.
+     */
+    private final class Applying extends Frame {
+        final NamelessTerm.Node node;
+        final Env env;
+        final int depth;
+        Value func; // the value of the function, once it is evaluated
+        Closure lambda; // the lambda, while its normal form is read back
+        Applying(NamelessTerm.Node node, Env env, int depth) {
+            this.node = node;
+            this.env = env;
+            this.depth = depth;
+        }
+        
+        Object resume(Object result) throws TypeEvaluationException {
+            if (lambda != null) {
+                lambda.normalForm = new Closure((NamelessTerm.Binding)((NamelessTerm)result).expose(), variables(depth));
+                return applyLambda(lambda.normalForm);
+            }
+            
+            if (func == null)
+                func = (Value)result;
+            
+            // Strip the parentheses around the value of the function. An
+            // inert term in the scope of binders whose variables have
+            // values is evaluated, since a lambda expression substituted
+            // for a variable in it may be applied.
+            Value f = (Value)result;
+            while (true) {
+                if (f instanceof Structure && ((Structure)f).node.getKind() == ExprKind.PARENS) {
+                    f = ((Structure)f).children[0];
+                } else if (f instanceof Inert && ((Inert)f).env != null) {
+                    frames.push(this);
+                    return later(EVAL_STRUCTURE, ((Inert)f).term, ((Inert)f).env, null, depth);
+                } else if (f instanceof Inert && ((Inert)f).term instanceof NamelessTerm.Node
+                        && ((NamelessTerm.Node)((Inert)f).term).getKind() == ExprKind.PARENS) {
+                    f = new Inert(((NamelessTerm.Node)((Inert)f).term).children[0], null);
+                } else {
+                    break;
+                }
+            }
+            
+            if (f instanceof Inert && ((Inert)f).term instanceof NamelessTerm.Binding)
+                f = new Closure((NamelessTerm.Binding)((Inert)f).term, ((Inert)f).env);
+            
+            if (f instanceof Closure && ((Closure)f).binding.prototype.getKind() == ExprKind.LAMBDA) {
+                Closure lambda = (Closure)f;
+                if (lambda.binding.vars.length == 0)
+                    throw new ConstInsteadOfVarException("A variable must be bound by the " + Lambda.SYMBOL + ".");
+                step();
+                
+                // When a lambda expression whose body has redexes, or may have
+                // some once the values of its free indices are substituted, is
+                // applied more than once (typically because it was the argument
+                // of another lambda whose variable occurs several times), its
+                // body is normalized once, instead of once for each application.
+                if (lambda.binding.redex || lambda.binding.looseIndices > 0) {
+                    if (lambda.normalForm == null && ++lambda.applications > 1) {
+                        this.lambda = lambda;
+                        frames.push(this);
+                        return later(READ_BACK, null, null, lambda, depth);
+                    }
+                    if (lambda.normalForm != null)
+                        lambda = lambda.normalForm;
+                }
+                
+                return applyLambda(lambda);
+            }
+            
+            if (isNeutral(f))
+                return new Structure(node, new Value[] { func, new Thunk(node.children[1], env) });
+            
+            throw new TypeMismatchException("The left hand side of a function application must be a lambda expression or a function-typed constant or variable.");
+        }
+        
+        /**
+         * Evaluates the body of the lambda with its variable bound to the
+         * argument. This is the value of the function application, so it
+         * is left to run without a frame.
+         */
+        private Object applyLambda(Closure lambda) {
+            Thunk arg = new Thunk(NamelessTerm.stripParens(node.children[1]), env);
+            return later(EVAL, NamelessTerm.stripParens(lambda.binding.children[0]), new Env(arg, lambda.env), null, depth);
+        }
+    }
+    
+    /**
+     * Returns whether the value is one that a function application can be
+     * left alone with: a variable, a constant, a GApp, or another such
+     * function application.
+     */
+    private static boolean isNeutral(Value f) {
+        if (f instanceof Level)
+            return true;
+        if (f instanceof Structure)
+            return ((Structure)f).node.getKind() == ExprKind.FUN_APP;
+        if (f instanceof Inert) {
+            NamelessTerm t = ((Inert)f).term;
+            if (t instanceof NamelessTerm.Leaf) {
+                Expr e = ((NamelessTerm.Leaf)t).expr;
+                return NamelessTerm.Node.isNeutral(e);
+            }
+            return t instanceof NamelessTerm.Node && ((NamelessTerm.Node)t).getKind() == ExprKind.FUN_APP;
+        }
+        return false;
+    }
+    
+    /**
+     * Reads back a value as a term in the scope of depth binders. Where
+     * nothing changed, the original terms are returned, so that toExpr
+     * can return the original expressions.
+     * 
+     * A value that was read back before is not read back again: the
+     * same term is returned, with its loose indices shifted if it is now
+     * in the scope of a different number of binders. The resulting term
+     * may thus share subterms, which toExpr turns into separate copies.
+     * @return the term, or PENDING
+     */
+    private Object readBack(Value v, int depth) throws TypeEvaluationException {
+        if (v instanceof Thunk) {
+            Thunk t = (Thunk)v;
+            if (t.value == null) {
+                frames.push(new ReadingBack(depth));
+                return force(t, depth);
+            }
+            v = t.value;
+        }
+        
+        if (v instanceof Level)
+            return new NamelessTerm.Bound(depth - 1 - ((Level)v).level, ((Level)v).occurrence);
+        
+        if (v.readBack == null)
+            return quote(v, depth);
+        if (depth == v.readBackDepth)
+            return v.readBack;
+        return v.readBack.shift(depth - v.readBackDepth, 0);
+    }
+    
+    /**
+     * Reads back a value once it is known.
+     */
+    private final class ReadingBack extends Frame {
+        final int depth;
+        ReadingBack(int depth) {
+            this.depth = depth;
+        }
+        
+        Object resume(Object result) throws TypeEvaluationException {
+            return readBack((Value)result, depth);
+        }
+    }
+    
+    /**
+     * Helper method for readBack that reads back any value other than a
+     * Thunk or Level, and remembers the term in the value.
+     * @return the term, or PENDING
+     */
+    private Object quote(Value v, int depth) throws TypeEvaluationException {
+        if (v instanceof Inert) {
+            Inert i = (Inert)v;
+            if (isIdentity(i.env, i.term.looseIndices, depth))
+                return remember(v, i.term, depth);
+            // the term may turn out to have redexes after all, if a lambda
+            // expression was substituted for a variable in it
+            frames.push(new Remembering(v, depth));
+            frames.push(new ReadingBack(depth));
+            return later(EVAL_STRUCTURE, i.term, i.env, null, depth);
+        }
+        
+        if (v instanceof Closure) {
+            QuotingClosure q = new QuotingClosure((Closure)v, depth);
+            frames.push(q);
+            frames.push(new ReadingBack(q.depth));
+            return later(EVAL, q.binding.children[0], q.env, null, q.depth);
+        }
+        
+        Structure s = (Structure)v;
+        frames.push(new QuotingStructure(s, depth));
+        return later(READ_BACK, null, null, s.children[0], depth);
+    }
+    
+    /**
+     * Remembers the term that a value was read back as in the scope of
+     * depth binders, and returns it.
+     */
+    private static NamelessTerm remember(Value v, NamelessTerm term, int depth) {
+        v.readBack = term;
+        v.readBackDepth = depth;
+        return term;
+    }
+    
+    /**
+     * Remembers the term that a value was read back as, once it is known.
+     */
+    private final class Remembering extends Frame {
+        final Value value;
+        final int depth;
+        Remembering(Value value, int depth) {
+            this.value = value;
+            this.depth = depth;
+        }
+        
+        Object resume(Object result) {
+            return remember(value, (NamelessTerm)result, depth);
+        }
+    }
+    
+    /**
+     * Reads back a Closure by evaluating the children of its binding with
+     * its variables bound to themselves, and reading them back, one after
+     * another.
+     */
+    private final class QuotingClosure extends Frame {
+        final Closure closure;
+        final NamelessTerm.Binding binding;
+        final int outerDepth; // the depth the closure is read back at
+        final int depth; // the depth of the children
+        final Env env; // the environment of the children
+        final NamelessTerm[] children;
+        int next = 0; // the index of the child being read back
+        QuotingClosure(Closure closure, int outerDepth) {
+            this.closure = closure;
+            this.binding = closure.binding;
+            this.outerDepth = outerDepth;
+            this.depth = outerDepth + binding.vars.length;
+            Env env = closure.env;
+            for (int i = 0; i < binding.vars.length; i++)
+                env = new Env(new Level(outerDepth + i, binding.vars[i]), env);
+            this.env = env;
+            this.children = new NamelessTerm[binding.children.length];
+        }
+        
+        Object resume(Object result) throws TypeEvaluationException {
+            children[next++] = (NamelessTerm)result;
+            if (next < children.length) {
+                frames.push(this);
+                frames.push(new ReadingBack(depth));
+                return later(EVAL, binding.children[next], env, null, depth);
+            }
+            
+            boolean madeChange = false;
+            for (int i = 0; i < children.length; i++)
+                if (children[i] != binding.children[i])
+                    madeChange = true;
+            if (!madeChange)
+                return remember(closure, binding, outerDepth);
+            build();
+            return remember(closure, new NamelessTerm.Binding(binding.prototype, binding.vars, children), outerDepth);
+        }
+    }
+    
+    /**
+     * Reads back a Structure by reading back its children one after
+     * another.
+     */
+    private final class QuotingStructure extends Frame {
+        final Structure structure;
+        final int depth;
+        final NamelessTerm[] children;
+        int next = 0; // the index of the child being read back
+        QuotingStructure(Structure structure, int depth) {
+            this.structure = structure;
+            this.depth = depth;
+            this.children = new NamelessTerm[structure.children.length];
+        }
+        
+        Object resume(Object result) throws TypeEvaluationException {
+            children[next++] = (NamelessTerm)result;
+            if (next < children.length) {
+                frames.push(this);
+                return later(READ_BACK, null, null, structure.children[next], depth);
+            }
+            
+            NamelessTerm.Node node = structure.node;
+            boolean madeChange = false;
+            for (int i = 0; i < children.length; i++)
+                if (children[i] != node.children[i])
+                    madeChange = true;
+            if (!madeChange)
+                return remember(structure, node, depth);
+            build();
+            return remember(structure, node.copy(children), depth);
+        }
+    }
+    
+    /**
+     * Returns an environment in which each index refers to the variable of
+     * the corresponding binder being read back in the scope of depth
+     * binders, i.e. in which terms keep their meaning.
+     */
+    private static Env variables(int depth) {
+        Env env = null;
+        for (int level = 0; level < depth; level++)
+            env = new Env(new Level(level, null), env);
+        return env;
+    }
+    
+    /**
+     * Returns whether the first count values in env are the variables of
+     * the binders directly around a term being read back in the scope
+     * of depth binders, in which case the indices of the term stay the same.
+     */
+    private static boolean isIdentity(Env env, int count, int depth) {
+        for (int i = 0; i < count; i++, env = env.next)
+            if (!(env.value instanceof Level) || ((Level)env.value).level != depth - 1 - i)
+                return false;
+        return true;
+    }
+}
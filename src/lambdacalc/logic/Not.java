@@ -47,6 +47,10 @@ public class Not extends Unary {
         super(expr);
     }
     
+    public int getKind() {
+        return ExprKind.NOT;
+    }
+    
     /**
      * Gets the operator precedence of this operator.
      * All values are documented in Expr, so don't change the value here
@@ -56,21 +60,20 @@ public class Not extends Unary {
         return 3;
     }
     
-    protected String toString(int mode) {
-        String prefix;
+    protected void renderWithoutParens(Appendable out, int mode) throws java.io.IOException {
         if (mode == LATEX) {
-            prefix = this.LATEX_REPR;
+            out.append(this.LATEX_REPR);
         } else { // mode == HTML || mode == TXT
-            prefix = String.valueOf(SYMBOL);
+            out.append(SYMBOL);
         }
         // As a special case, we don't need to put parens around binders since it's unambiguous.
         if (getInnerExpr() instanceof Binder)
-            return prefix + getInnerExpr().toString(mode);
+            renderSubExpression(getInnerExpr(), out, mode);
         else
-            return prefix + nestedToString(getInnerExpr(), mode);
+            renderNested(getInnerExpr(), out, mode);
     }
     
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         if (!getInnerExpr().getType().equals(Type.T))
             throw new TypeMismatchException("Negation can only be applied to something of type t, but " + getInnerExpr() + " is of type " + getInnerExpr().getType() + ".");
         return Type.T;
@@ -78,7 +81,9 @@ public class Not extends Unary {
     
     public Boolean dominatesBinder() {
       Expr ie = getInnerExpr();
-      if (ie instanceof Binder) {
+      if (ie.hasParens()) {
+        return false;
+      } else if (ie instanceof Binder) {
         System.out.println("dominates binder: " + ie.toString());
         return true;
       } else if (ie instanceof Not && ((Not)ie).dominatesBinder()) {
@@ -92,8 +97,4 @@ public class Not extends Unary {
     protected Unary create(Expr inner) {
         return new Not(inner);
     }
-
-    Not(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
-    }
 }
@@ -28,9 +28,7 @@
 package lambdacalc.logic;
 
 import java.awt.event.KeyEvent;
-import java.util.Arrays;
 import java.util.Map;
-import java.util.stream.Stream;
 
 /**
  * Represents the disjunction binary connective.
@@ -56,6 +54,10 @@ public class Or extends LogicalBinary {
         super(left, right);
     }
     
+    public int getKind() {
+        return ExprKind.OR;
+    }
+    
     public String getSymbol() {
         return String.valueOf(SYMBOL);
     }
@@ -72,58 +74,17 @@ public class Or extends LogicalBinary {
         return new Or(left, right);
     }
     
-    protected boolean equals(Expr e, boolean useMaps, Map thisMap, Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap) {
-
-        // ignore parentheses for equality test
-        e = e.stripOutermostParens();
-
-        if (e instanceof Or) {
-            return this.equals((Or) e, useMaps, thisMap, otherMap, collapseAllVars, freeVarMap);
-        } else {
-            return false;
-        }
+    protected boolean compareSubExpressions(Expr e, boolean useMaps, BoundVarMap boundVars, boolean collapseAllVars, Map freeVarMap, ExprComparison comparison) {
+        // A difference in bracketing doesn't ultimately matter, since this
+        // operation is associative. So we flatten the expressions as much as
+        // we can (until we hit a descendent with a different class), and then
+        // compare the flat lists of juncts.
+        return comparison.compareOperands(this, e, useMaps, boundVars, collapseAllVars, freeVarMap);
     }
     
-    private boolean equals(Or b, boolean useMaps, Map thisMap, Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap) {
-        if (this.getClass() != b.getClass()) {
-            return false;
-        } else if (this.getLeft().equals(b.getLeft(), useMaps, thisMap, otherMap, collapseAllVars, freeVarMap)
-                   && this.getRight().equals(b.getRight(), useMaps, thisMap, otherMap, collapseAllVars, freeVarMap)
-                  ) {
-            return true;
-        } else {
-            Expr[] junctsA = equalsRec(this);
-            Expr[] junctsB = equalsRec(b);
-            if (junctsA.length != junctsB.length) {
-                return false;
-            } else {
-            // If they're not equal, it might be due to some difference in bracketing,
-            // which doesn't ultimately matter, since this operation is associative
-            // So we flatten the expression as much as we can (until we hit a
-            // descendent with a different class), and then compare the flat arrays of juncts
-                for (int i = 0; i < junctsA.length; i++) {
-                    if (!junctsA[i].equals(junctsB[i], useMaps, thisMap, otherMap, collapseAllVars, freeVarMap)) {
-                        return false;
-                    }
-                }
-                return true;
-            }
-        }
-    }
-    
-    protected Expr[] equalsRec(Expr b) {
-        if (b.getClass() != this.getClass()) {
-            Expr[] junct = {b};
-            return junct;
-        } else {
-            return Stream.concat(
-                     Arrays.stream(equalsRec(((Or)b).getLeft())),
-                     Arrays.stream(equalsRec(((Or)b).getRight()))
-                   ).toArray(Expr[]::new);
-        }
-    }    
-
-    Or(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
+    protected int computeHashCode() {
+        // equals flattens nested Ors, so the hash code has to be
+        // insensitive to how they are grouped
+        return getLeft().hashCode() + getRight().hashCode();
     }
 }
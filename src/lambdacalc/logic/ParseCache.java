@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+/*
+ * ParseCache.java
+ */
+
+package lambdacalc.logic;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The results of recent calls to ExpressionParser.parse, so that a string
+ * that is parsed again with the same options, like the answers checked by
+ * an exercise or the definitions repeated across lexicon files, is parsed
+ * only once. The results are keyed by the string and the fingerprint of the
+ * parse options (see ExpressionParser.ParseOptions.getFingerprint), and both
+ * the parses and the syntax errors are kept, since both are determined by
+ * the key. The least recently used results are dropped once there are more
+ * than getCapacity() of them.
+ *
+ * The cache is shared by all threads.
+ */
+public final class ParseCache {
+    
+    /**
+     * The number of results kept unless setCapacity is called.
+     */
+    public static final int DEFAULT_CAPACITY = 1000;
+    
+    private static int capacity = DEFAULT_CAPACITY;
+    private static long hits = 0;
+    private static long misses = 0;
+    
+    private static final LinkedHashMap results = new LinkedHashMap(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > capacity;
+        }
+    };
+    
+    private static final class Key {
+        private final String expression;
+        private final Object fingerprint;
+        
+        Key(String expression, Object fingerprint) {
+            this.expression = expression;
+            this.fingerprint = fingerprint;
+        }
+        
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key k = (Key)obj;
+            return expression.equals(k.expression) && fingerprint.equals(k.fingerprint);
+        }
+        
+        public int hashCode() {
+            return expression.hashCode() * 31 + fingerprint.hashCode();
+        }
+    }
+    
+    private ParseCache() {
+    }
+    
+    /**
+     * Gets the result of parsing the expression with options of the given
+     * fingerprint, either an ExpressionParser.ParsedExpression or a
+     * SyntaxException, or null if it is not in the cache.
+     */
+    static synchronized Object get(String expression, Object fingerprint) {
+        Object result = results.get(new Key(expression, fingerprint));
+        if (result != null)
+            hits++;
+        else
+            misses++;
+        return result;
+    }
+    
+    /**
+     * Records the result of parsing the expression with options of the given
+     * fingerprint.
+     */
+    static synchronized void put(String expression, Object fingerprint, Object result) {
+        results.put(new Key(expression, fingerprint), result);
+    }
+    
+    /**
+     * Gets the number of parses that were answered from the cache.
+     */
+    public static synchronized long getHitCount() {
+        return hits;
+    }
+    
+    /**
+     * Gets the number of parses that were not in the cache.
+     */
+    public static synchronized long getMissCount() {
+        return misses;
+    }
+    
+    /**
+     * Gets the number of results currently kept.
+     */
+    public static synchronized int size() {
+        return results.size();
+    }
+    
+    /**
+     * Gets the largest number of results kept.
+     */
+    public static synchronized int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Sets the largest number of results kept, dropping the least recently
+     * used results if there are more. A capacity of zero turns the cache off.
+     */
+    public static synchronized void setCapacity(int newCapacity) {
+        if (newCapacity < 0)
+            throw new IllegalArgumentException("The capacity cannot be negative.");
+        capacity = newCapacity;
+        Iterator i = results.keySet().iterator();
+        while (results.size() > capacity) {
+            i.next();
+            i.remove();
+        }
+    }
+    
+    /**
+     * Drops all of the results and resets the counters.
+     */
+    public static synchronized void clear() {
+        results.clear();
+        hits = 0;
+        misses = 0;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+/*
+ * ParseLimitException.java
+ */
+
+package lambdacalc.logic;
+
+/**
+ * This subclass of SyntaxException is thrown by the ExpressionParser
+ * when an expression goes over one of the limits set in its ParseOptions:
+ * its length, how deeply it is nested, or how many ways there are to read
+ * it at some position.
+ */
+public class ParseLimitException extends SyntaxException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Constructs an instance with the given message for the limit
+     * that was exceeded at the given position in the string being
+     * parsed.
+     */
+    public ParseLimitException(String message, int position) {
+        super(message, position);
+    }
+}
@@ -51,6 +51,10 @@ public class ProductType extends Type {
         if (subtypes.length <= 1) throw new IllegalArgumentException();
     }
     
+    public int getKind() {
+        return PRODUCT_TYPE;
+    }
+    
     /**
      * Gets the sub-types of this product type.
      */
@@ -66,22 +70,20 @@ public class ProductType extends Type {
     }
     
     protected boolean equals(Type t) {
-        if (t instanceof VarType) {
-            return true;
-        } else if (t instanceof ProductType) {
-            Type[] a1 = getSubTypes();
-            Type[] a2 = ((ProductType)t).getSubTypes();
-            if (a1.length != a2.length) return false;
-            for (int i = 0; i < a1.length; i++) {
-                Type l = a1[i];
-                Type r = a2[i];
-                boolean guard = a1[i].equals(a2[i]);
-                if (!guard)
-                    return false;
-            }
-            return true;
-        } else { 
-            return false;
+        switch (t.getKind()) {
+            case VAR_TYPE:
+                return true;
+            case PRODUCT_TYPE:
+                Type[] a1 = getSubTypes();
+                Type[] a2 = ((ProductType)t).getSubTypes();
+                if (a1.length != a2.length) return false;
+                for (int i = 0; i < a1.length; i++) {
+                    if (!a1[i].equals(a2[i]))
+                        return false;
+                }
+                return true;
+            default:
+                return false;
         }
     }
     
@@ -94,6 +96,18 @@ public class ProductType extends Type {
         return false;
     }
     
+    public boolean isIdenticalTo(Type t) {
+        if (t.getKind() != PRODUCT_TYPE)
+            return false;
+        Type[] other = ((ProductType)t).subtypes;
+        if (other.length != subtypes.length)
+            return false;
+        for (int i = 0; i < subtypes.length; i++)
+            if (!subtypes[i].isIdenticalTo(other[i]))
+                return false;
+        return true;
+    }
+    
     public int hashCode() {
         int hc = 0;
         for (int i = 0; i < subtypes.length; i++)
@@ -127,18 +141,17 @@ public class ProductType extends Type {
         return ret;
     }
     
-    public void writeToStream(java.io.DataOutputStream output) throws java.io.IOException {
-        output.writeUTF("ProductType");
-        output.writeShort(0); // data format version
-        output.writeInt(subtypes.length);
+    protected void writeNodeToStream(java.io.DataOutputStream output) throws java.io.IOException {
+        writeNodeHeader(output, "ProductType");
+        writeCount(output, subtypes.length);
         for (int i = 0; i < subtypes.length; i++)
             subtypes[i].writeToStream(output);
     }
     
     ProductType(java.io.DataInputStream input) throws java.io.IOException {
         // the class string has already been read
-        if (input.readShort() != 0) throw new java.io.IOException("Invalid data."); // future version?
-        int ntypes = input.readInt();
+        readNodeVersion(input);
+        int ntypes = readCount(input);
         if (ntypes <= 1 || ntypes > 25) // sanity checks
             throw new java.io.IOException("Invalid data.");
         subtypes = new Type[ntypes];
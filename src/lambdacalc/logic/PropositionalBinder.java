@@ -53,14 +53,10 @@ public abstract class PropositionalBinder extends Binder {
         return 8;
     }
     
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         checkVariable();
         if (!getInnerExpr().getType().equals(Type.T))
             throw new TypeEvaluationException("The inside of the propositional binder in " + toString() + " must be of type t.");
         return Type.T;
     }
-    
-    PropositionalBinder(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
-    }
 }
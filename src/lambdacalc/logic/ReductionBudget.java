@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+/*
+ * ReductionBudget.java
+ */
+
+package lambdacalc.logic;
+
+import java.util.ArrayDeque;
+
+/**
+ * Limits on how much work simplifying an expression may take: a maximum
+ * number of lambda conversions, a maximum size of the expression, and a
+ * deadline, plus a flag that another thread can set with cancel() to stop
+ * the work early. A term that does not have a normal form, or one whose
+ * normal form is too large, can thus not hang the program.
+ *
+ * A budget is passed to Expr.simplifyFully(ReductionBudget) or to a
+ * LambdaConversionSequence. When it runs out, they stop and report one of
+ * the reasons below, which are phrased so that they can be shown to the
+ * user. A limit of zero means that there is no limit.
+ */
+public class ReductionBudget {
+    
+    /**
+     * The reason given when the maximum number of lambda conversions
+     * has been performed.
+     */
+    public static final String STEP_LIMIT = "too many lambda conversions were needed";
+    
+    /**
+     * The reason given when the expression grew beyond the maximum size.
+     */
+    public static final String SIZE_LIMIT = "the expression became too large";
+    
+    /**
+     * The reason given when the deadline passed.
+     */
+    public static final String TIME_LIMIT = "simplifying took too long";
+    
+    /**
+     * The reason given when cancel() was called.
+     */
+    public static final String CANCELLED = "simplifying was cancelled";
+    
+    /**
+     * The default maximum number of lambda conversions, far more than any
+     * exercise needs.
+     */
+    public static final int DEFAULT_MAX_STEPS = 10000;
+    
+    /**
+     * The default maximum size of an expression, in nodes.
+     */
+    public static final int DEFAULT_MAX_SIZE = 200000;
+    
+    /**
+     * The default time limit, in milliseconds.
+     */
+    public static final long DEFAULT_TIME_LIMIT = 10000;
+    
+    private final int maxSteps;
+    private final int maxSize;
+    private final long deadline; // in System.currentTimeMillis() terms, or 0
+    private volatile boolean cancelled = false;
+    
+    /**
+     * Creates a budget.
+     * @param maxSteps the maximum number of lambda conversions, or 0
+     * @param maxSize the maximum number of nodes in the expression, or 0
+     * @param timeLimit the number of milliseconds from now on that the
+     * work may take, or 0
+     */
+    public ReductionBudget(int maxSteps, int maxSize, long timeLimit) {
+        this.maxSteps = maxSteps;
+        this.maxSize = maxSize;
+        this.deadline = timeLimit > 0 ? System.currentTimeMillis() + timeLimit : 0;
+    }
+    
+    /**
+     * Creates a budget with the default limits, starting the clock now.
+     */
+    public static ReductionBudget createDefault() {
+        return new ReductionBudget(DEFAULT_MAX_STEPS, DEFAULT_MAX_SIZE, DEFAULT_TIME_LIMIT);
+    }
+    
+    /**
+     * Creates a budget with no limits, which can only be cancelled.
+     */
+    public static ReductionBudget unlimited() {
+        return new ReductionBudget(0, 0, 0);
+    }
+    
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+    
+    public int getMaxSize() {
+        return maxSize;
+    }
+    
+    /**
+     * Asks the work using this budget to stop as soon as it can. This may
+     * be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+    
+    public boolean isCancelled() {
+        return cancelled;
+    }
+    
+    /**
+     * Checks whether the work may go on after the given number of lambda
+     * conversions.
+     * @return the reason to stop, or null if the budget has not run out
+     */
+    public String check(int steps) {
+        if (cancelled)
+            return CANCELLED;
+        if (maxSteps > 0 && steps > maxSteps)
+            return STEP_LIMIT;
+        if (deadline != 0 && System.currentTimeMillis() > deadline)
+            return TIME_LIMIT;
+        return null;
+    }
+    
+    /**
+     * Checks whether the work may go on after the given number of lambda
+     * conversions, with the expression being expr.
+     * @return the reason to stop, or null if the budget has not run out
+     */
+    public String check(int steps, Expr expr) {
+        String reason = check(steps);
+        if (reason == null && maxSize > 0 && isLargerThan(expr, maxSize))
+            reason = SIZE_LIMIT;
+        return reason;
+    }
+    
+    /**
+     * Returns whether expr has more than limit nodes, counting only up to
+     * the limit.
+     */
+    private static boolean isLargerThan(Expr expr, int limit) {
+        return countNodes(expr, limit + 1) > limit;
+    }
+    
+    private static int countNodes(Expr expr, int limit) {
+        ArrayDeque stack = new ArrayDeque();
+        stack.push(expr);
+        int count = 0;
+        while (!stack.isEmpty() && count < limit) {
+            Expr e = (Expr)stack.pop();
+            count++;
+            for (int i = 0; i < e.arity(); i++)
+                stack.push(e.child(i));
+        }
+        return count;
+    }
+}
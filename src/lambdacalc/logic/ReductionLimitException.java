@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+/*
+ * ReductionLimitException.java
+ */
+
+package lambdacalc.logic;
+
+/**
+ * Thrown when an expression must be fully simplified, but the
+ * ReductionBudget ran out first, e.g. because the expression has no
+ * normal form.
+ */
+public class ReductionLimitException extends TypeEvaluationException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final String reason;
+    
+    /**
+     * Creates a new ReductionLimitException.
+     * @param reason one of the reasons in ReductionBudget
+     */
+    public ReductionLimitException(String reason) {
+        super("The expression could not be simplified because " + reason + ".");
+        this.reason = reason;
+    }
+    
+    /**
+     * Gets why simplifying stopped, one of the reasons in ReductionBudget.
+     */
+    public String getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+/*
+ * ReductionResult.java
+ */
+
+package lambdacalc.logic;
+
+/**
+ * The outcome of simplifying an expression within a ReductionBudget: the
+ * expression as far as it got, and if the budget ran out before it was
+ * fully simplified, the reason why.
+ */
+public class ReductionResult {
+    
+    private final Expr result;
+    private final String stopReason;
+    
+    /**
+     * Creates a new ReductionResult.
+     * @param result the simplified expression, or the partially simplified
+     * expression if the budget ran out
+     * @param stopReason one of the reasons in ReductionBudget, or null if
+     * result is fully simplified
+     */
+    public ReductionResult(Expr result, String stopReason) {
+        this.result = result;
+        this.stopReason = stopReason;
+    }
+    
+    /**
+     * Gets the simplified expression, which is only partially simplified
+     * if isComplete() is false.
+     */
+    public Expr getResult() {
+        return result;
+    }
+    
+    /**
+     * Gets why the simplification stopped early, one of the reasons in
+     * ReductionBudget, or null if it did not.
+     */
+    public String getStopReason() {
+        return stopReason;
+    }
+    
+    /**
+     * Returns whether the result is fully simplified.
+     */
+    public boolean isComplete() {
+        return stopReason == null;
+    }
+    
+    /**
+     * Returns the fully simplified expression.
+     * @throws ReductionLimitException if the budget ran out before
+     * the expression was fully simplified
+     */
+    public Expr getCompleteResult() throws ReductionLimitException {
+        if (stopReason != null)
+            throw new ReductionLimitException(stopReason);
+        return result;
+    }
+}
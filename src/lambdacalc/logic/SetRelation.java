@@ -40,12 +40,12 @@ public abstract class SetRelation extends LogicalBinary {
     }
     
     public Type getOperandType() {
-        return null; // doesn't matter since we override getType()
+        return null; // doesn't matter since we override computeType()
     }
     
     protected abstract Type getResultingType() throws TypeEvaluationException;
     
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         Type lefttype = getLeft().getType();
         Type righttype = getRight().getType();
         if ((!(lefttype instanceof CompositeType) || !((CompositeType)lefttype).getRight().equals(Type.T))
@@ -56,41 +56,37 @@ public abstract class SetRelation extends LogicalBinary {
         return getResultingType();
     }
 
-    SetRelation(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
-    }
-
     public static class Subset extends SetRelation {
         public static final char SYMBOL = '\u2286'; // subset or equal to symbol (plain subset is 2282)
         public static final String INPUT_SYMBOL = "<<";
         public static final String LATEX_REPR = "\\subseteq";
         public static final int KEY_EVENT = KeyEvent.VK_COMMA; // shift+comma = <, at least on standard keyboards
         public Subset(Expr left, Expr right) { super(left, right); }
+        public int getKind() { return ExprKind.SUBSET; }
         public String getSymbol() { return String.valueOf(SYMBOL); }
         public String getLatexRepr() { return LATEX_REPR; }
         protected Type getResultingType() throws TypeEvaluationException { return Type.T; }
         protected Binary create(Expr left, Expr right) { return new Subset(left, right); }
-        Subset(java.io.DataInputStream input) throws java.io.IOException { super(input); }
     }
     public static class ProperSubset extends SetRelation {
         public static final char SYMBOL = '\u228A';
         public static final String LATEX_REPR = "\\subset";
         public ProperSubset(Expr left, Expr right) { super(left, right); }
+        public int getKind() { return ExprKind.PROPER_SUBSET; }
         public String getSymbol() { return String.valueOf(SYMBOL); }
         public String getLatexRepr() { return LATEX_REPR; }
         protected Type getResultingType() throws TypeEvaluationException { return Type.T; }
         protected Binary create(Expr left, Expr right) { return new ProperSubset(left, right); }
-        ProperSubset(java.io.DataInputStream input) throws java.io.IOException { super(input); }
     }
     public static class NotSubset extends SetRelation {
         public static final char SYMBOL = '\u2284';
         public static final String LATEX_REPR = "\\nsubseteq";
         public NotSubset(Expr left, Expr right) { super(left, right); }
+        public int getKind() { return ExprKind.NOT_SUBSET; }
         public String getSymbol() { return String.valueOf(SYMBOL); }
         public String getLatexRepr() { return LATEX_REPR; }
         protected Type getResultingType() throws TypeEvaluationException { return Type.T; }
         protected Binary create(Expr left, Expr right) { return new NotSubset(left, right); }
-        NotSubset(java.io.DataInputStream input) throws java.io.IOException { super(input); }
     }
 
     public static class Superset extends SetRelation {
@@ -99,31 +95,31 @@ public abstract class SetRelation extends LogicalBinary {
         public static final String LATEX_REPR = "\\supseteq";
         public static final int KEY_EVENT = KeyEvent.VK_PERIOD; // shift+period = >, at least on standard keyboards
         public Superset(Expr left, Expr right) { super(left, right); }
+        public int getKind() { return ExprKind.SUPERSET; }
         public String getSymbol() { return String.valueOf(SYMBOL); }
         public String getLatexRepr() { return LATEX_REPR; }
         protected Type getResultingType() throws TypeEvaluationException { return Type.T; }
         protected Binary create(Expr left, Expr right) { return new Superset(left, right); }
-        Superset(java.io.DataInputStream input) throws java.io.IOException { super(input); }
     }
     public static class ProperSuperset extends SetRelation {
         public static final char SYMBOL = '\u228B';
         public static final String LATEX_REPR = "\\supset";
         public ProperSuperset(Expr left, Expr right) { super(left, right); }
+        public int getKind() { return ExprKind.PROPER_SUPERSET; }
         public String getSymbol() { return String.valueOf(SYMBOL); }
         public String getLatexRepr() { return LATEX_REPR; }
         protected Type getResultingType() throws TypeEvaluationException { return Type.T; }
         protected Binary create(Expr left, Expr right) { return new ProperSuperset(left, right); }
-        ProperSuperset(java.io.DataInputStream input) throws java.io.IOException { super(input); }
     }
     public static class NotSuperset extends SetRelation {
         public static final char SYMBOL = '\u2285';
         public static final String LATEX_REPR = "\\nsupset";
         public NotSuperset(Expr left, Expr right) { super(left, right); }
+        public int getKind() { return ExprKind.NOT_SUPERSET; }
         public String getSymbol() { return String.valueOf(SYMBOL); }
         public String getLatexRepr() { return LATEX_REPR; }
         protected Type getResultingType() throws TypeEvaluationException { return Type.T; }
         protected Binary create(Expr left, Expr right) { return new NotSuperset(left, right); }
-        NotSuperset(java.io.DataInputStream input) throws java.io.IOException { super(input); }
     }
 
     public static class Intersect extends SetRelation {
@@ -131,23 +127,23 @@ public abstract class SetRelation extends LogicalBinary {
         public static final String INPUT_SYMBOL = "@I";
         public static final String LATEX_REPR = "\\cap";
         public Intersect(Expr left, Expr right) { super(left, right); }
+        public int getKind() { return ExprKind.INTERSECT; }
         public final int getOperatorPrecedence() { return 5; }
         public String getSymbol() { return String.valueOf(SYMBOL); }
         public String getLatexRepr() { return LATEX_REPR; }
         protected Type getResultingType() throws TypeEvaluationException { return getLeft().getType(); }
         protected Binary create(Expr left, Expr right) { return new Intersect(left, right); }
-        Intersect(java.io.DataInputStream input) throws java.io.IOException { super(input); }
     }
     public static class Union extends SetRelation {
         public static final char SYMBOL = '\u222A';
         public static final String INPUT_SYMBOL = "@U";
         public static final String LATEX_REPR = "\\cup";
         public Union(Expr left, Expr right) { super(left, right); }
+        public int getKind() { return ExprKind.UNION; }
         public final int getOperatorPrecedence() { return 5; }
         public String getSymbol() { return String.valueOf(SYMBOL); }
         public String getLatexRepr() { return LATEX_REPR; }
         protected Type getResultingType() throws TypeEvaluationException { return getLeft().getType(); }
         protected Binary create(Expr left, Expr right) { return new Union(left, right); }
-        Union(java.io.DataInputStream input) throws java.io.IOException { super(input); }
     }
 }
@@ -52,6 +52,10 @@ public class SetWithElements extends NAry {
             throw new IllegalArgumentException("This constructor is only for non-null sets.");
     }
     
+    public int getKind() {
+        return ExprKind.SET_WITH_ELEMENTS;
+    }
+    
     /**
      * Constructs an empty set for elements of a particular type.
      * @param innerExpressions an array of two or more expressions
@@ -67,7 +71,7 @@ public class SetWithElements extends NAry {
 
     protected String getCloseSymbol() { return "}"; }
     
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         Type t = elementType;
         if (elementType == null) {
             // non-null set, check that the types of the elements are the same
@@ -85,7 +89,8 @@ public class SetWithElements extends NAry {
         return new SetWithElements(subExpressions);
     }
     
-    SetWithElements(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
+    protected boolean isSameNode(Expr other) {
+        Type t = ((SetWithElements)other).elementType;
+        return elementType == null ? t == null : elementType.isIdenticalTo(t);
     }
 }
@@ -53,15 +53,27 @@ public class SetWithGenerator extends Binary implements VariableBindingExpr {
         super(template, filter);
     }
     
+    public int getKind() {
+        return ExprKind.SET_WITH_GENERATOR;
+    }
+    
     public Expr getTemplate() { return getLeft(); }
     
     public Expr getFilter() { return getRight(); }
 
-    protected String toString(int mode) {
+    protected void renderWithoutParens(Appendable out, int mode) throws java.io.IOException {
+        if (mode == LATEX) {
+            out.append("\\{ ");
+        } else { // mode == TXT || mode == HTML
+            out.append("{ ");
+        }
+        renderSubExpression(getTemplate(), out, mode);
+        out.append(" | ");
+        renderSubExpression(getFilter(), out, mode);
         if (mode == LATEX) {
-            return "\\{ " + getTemplate().toString(mode) + " | " + getFilter().toString(mode) + " \\}";
+            out.append(" \\}");
         } else { // mode == TXT || mode == HTML
-            return "{ " + getTemplate().toString(mode) + " | " + getFilter().toString(mode) + " }";
+            out.append(" }");
         }
     }
 
@@ -69,29 +81,22 @@ public class SetWithGenerator extends Binary implements VariableBindingExpr {
         return 0;
     }
 
-    public Type getType() throws TypeEvaluationException {
+    protected Type computeType() throws TypeEvaluationException {
         if (!getFilter().getType().equals(Type.T))
             throw new TypeMismatchException("The right-hand part of the set " + toString() + " must have type t.");
         return new CompositeType(getTemplate().getType(), Type.T);
     }
     
-    protected boolean equals(Expr e, boolean useMaps, Map thisMap, Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap) {
-        // ignore parentheses for equality test
-        e = e.stripOutermostParens();
-        if (e instanceof SetWithGenerator) {
-            return this.equals((SetWithGenerator) e, useMaps, thisMap, otherMap, collapseAllVars, freeVarMap);
-        } else {
-            return false;
-        }
-    }
-    
-    
-    private boolean equals(SetWithGenerator b, boolean useMaps, Map thisMap, Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap) {
+    protected boolean compareSubExpressions(Expr e, boolean useMaps, BoundVarMap boundVars, boolean collapseAllVars, java.util.Map freeVarMap, ExprComparison comparison) {
+        SetWithGenerator b = (SetWithGenerator) e;
+        
         // If we're testing for exact equivalence, then each of the left and right hand sides
-        // must be equivalent. Or if collapseAllVars is true, then we just keep recursing.
-        if (!useMaps)
-            return getLeft().equals(b.getLeft(), false, null, null, collapseAllVars, null)
-                && getRight().equals(b.getRight(), false, null, null, collapseAllVars, null);
+        // must be equivalent. Or if collapseAllVars is true, then we just keep comparing.
+        if (!useMaps) {
+            comparison.compare(getLeft(), b.getLeft(), false, null, collapseAllVars, null);
+            comparison.compare(getRight(), b.getRight(), false, null, collapseAllVars, null);
+            return true;
+        }
         
         // If we're allowing for alphabetical variants, then we must recognize 
         // that the free variables on the left side bind their occurrences on the
@@ -116,43 +121,35 @@ public class SetWithGenerator extends Binary implements VariableBindingExpr {
         if (bindings == null)
             return false;
         
-        // Add into thisMap and otherMap the mapping we allow for the variables
+        // Add into boundVars the mapping we allow for the variables
         // on the right hand side.
-        thisMap = (thisMap == null) ? new HashMap() : new HashMap(thisMap);
-        otherMap = (otherMap == null) ? new HashMap() :  new HashMap(otherMap);
-        
         for (Iterator i = bindings.keySet().iterator(); i.hasNext(); ) {
-            // this represents a new fresh variable that both sides'
-            // variables are equated with
-            Object freshObj = new Object();
-            
             Var v1 = (Var)i.next();
             Var v2 = (Var)bindings.get(v1);
-
-            // map both sides' variables to the new fresh variable
-            thisMap.put(v1, freshObj);
-            otherMap.put(v2, freshObj);
+            comparison.bind(boundVars, v1, v2);
         }
         
         // We've already checked that the left side is equivalent. Just check
         // the right side given the bound variable mapping.
-        return getRight().equals(b.getRight(), true, thisMap, otherMap, false, freeVarMap);
+        comparison.compare(getRight(), b.getRight(), true, boundVars, false, freeVarMap);
+        return true;
     }
-
+    
     protected Binary create(Expr left, Expr right) {
         return new SetWithGenerator(left, right);
     }
 
     protected Set getVars(boolean unboundOnly) {
-        Set ret = getRight().getVars(unboundOnly);
+        Set ret = new HashSet(getRight().getVarSet(unboundOnly));
         if (unboundOnly) // minus the free variables on the left side, which bind into the right
-            ret.removeAll(getLeft().getVars(true));
+            ret.removeAll(getLeft().getFreeVars());
         else // plus any variable on the left side
-            ret.addAll(getLeft().getVars(false));
+            ret.addAll(getLeft().getAllVars());
         return ret;
     }
     
-    protected Expr performLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders) throws TypeEvaluationException {
+    protected Expr computeLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders, ExprTransformation substitution) throws TypeEvaluationException {
+        if (!getFreeVarSymbols().get(var.getSymbolId())) return this; // var does not occur free in here
         // This is adapted from Binder's implementations of this method.
         
         // If var is bound by the template of the generator, then we just return ourself directly
@@ -163,14 +160,14 @@ public class SetWithGenerator extends Binary implements VariableBindingExpr {
         // Mark that this binder outscopes things in its scope, so that when we
         // get to a replacement, we know what variables would be accidentally
         // bound.
-        Set binders2 = new HashSet(binders);
-        binders2.add(this);
+        substitution.bind(this);
         
-        // We're in the scope of a lambda conversion. Just recurse.
-        return create(getLeft(), getRight().performLambdaConversion2(var, replacement, binders2, accidentalBinders));
+        // We're in the scope of a lambda conversion. Just go on into the right hand side.
+        substitution.substitute(1, getRight());
+        return this;
     }
 
-    protected Expr createAlphabeticalVariant(Set bindersToChange, Set variablesInUse, Map updates) {
+    protected Expr computeAlphabeticalVariant(Set bindersToChange, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
         // This is adapted from Binder's implementations of this method.
         
         Expr left = getLeft();
@@ -179,11 +176,10 @@ public class SetWithGenerator extends Binary implements VariableBindingExpr {
             // Choose a fresh variable replacement for each variable on the left hand side.
             for (Iterator i = getLeft().getFreeVars().iterator(); i.hasNext(); ) {
                 Var v = (Var)i.next();
-                Var vnew = createFreshVar(v, variablesInUse);
+                Var vnew = variablesInUse.createFreshVar(v);
                 
                 // Push the variable and mapping onto the stack
-                variablesInUse = new HashSet(variablesInUse);
-                variablesInUse.add(vnew);
+                variablesInUse = variablesInUse.with(vnew);
                 updates = new HashMap(updates);
                 updates.put(v, vnew);
                 
@@ -192,8 +188,15 @@ public class SetWithGenerator extends Binary implements VariableBindingExpr {
             }
         }
 
-        // Recurse
-        return create(left, getRight().createAlphabeticalVariant(bindersToChange, variablesInUse, updates));
+        // Go on into the right hand side
+        variant.vary(1, getRight(), variablesInUse, updates);
+        return left == getLeft() ? this : create(left, getRight());
+    }
+    
+    public boolean bindsAnyFreeVarOf(Expr expr) {
+        if (!getTemplate().getFreeVarSymbols().intersects(expr.getFreeVarSymbols()))
+            return false;
+        return bindsAny(expr.getFreeVars());
     }
     
     public boolean bindsAny(Set vars) {
@@ -204,8 +207,4 @@ public class SetWithGenerator extends Binary implements VariableBindingExpr {
         }
         return false;
     }
-    
-    SetWithGenerator(java.io.DataInputStream input) throws java.io.IOException {
-        super(input);
-    }
 }
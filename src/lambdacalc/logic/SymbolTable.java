@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2007-2014 Dylan Bumford, Lucas Champollion, Maribel Romero
+ * and Joshua Tauberer
+ * 
+ * This file is part of The Lambda Calculator.
+ * 
+ * The Lambda Calculator is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Lambda Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along
+ * with The Lambda Calculator.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/*
+ * SymbolTable.java
+ */
+
+package lambdacalc.logic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Interns identifier symbols as small integer ids, so that sets of
+ * symbols can be represented compactly as bit sets (see
+ * Expr.getFreeVarSymbols()) and symbols can be compared as ints.
+ *
+ * The table also records the id of each symbol with one more prime
+ * appended to it, so that fresh variables (see FreshVarGenerator) step
+ * from x to x' to x'' without building and hashing a longer string each
+ * time.
+ */
+public final class SymbolTable {
+    
+    private static final HashMap ids = new HashMap();
+    private static final ArrayList symbols = new ArrayList();
+    private static int[] primedIds = new int[64]; // id of the symbol with one more prime, plus one, or 0 if not yet known
+    
+    private SymbolTable() {
+    }
+    
+    /**
+     * Gets the id of the given symbol, assigning it a new id if the
+     * symbol has not been seen before.
+     */
+    public static synchronized int getId(String symbol) {
+        Integer id = (Integer)ids.get(symbol);
+        if (id == null) {
+            int n = symbols.size();
+            if (n == primedIds.length)
+                primedIds = java.util.Arrays.copyOf(primedIds, 2 * n);
+            id = Integer.valueOf(n);
+            ids.put(symbol, id);
+            symbols.add(symbol);
+        }
+        return id.intValue();
+    }
+    
+    /**
+     * Gets the symbol with the given id.
+     */
+    public static synchronized String getSymbol(int id) {
+        return (String)symbols.get(id);
+    }
+    
+    /**
+     * Gets the id of the symbol with the given id with one more prime
+     * appended to it.
+     */
+    public static synchronized int getPrimedId(int id) {
+        if (primedIds[id] == 0) {
+            int primed = getId(getSymbol(id) + Identifier.PRIME);
+            primedIds[id] = primed + 1;
+        }
+        return primedIds[id] - 1;
+    }
+}
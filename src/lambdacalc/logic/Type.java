@@ -73,6 +73,30 @@ public abstract class Type implements Comparable {
     public static final Type N = new ConstType('n');
     
     public static final Type WILD = new VarType('_');
+    
+    /**
+     * The kinds of types, as returned by getKind(), in the order that
+     * compareTo puts them: atomic types, then product types, then
+     * composite types.
+     */
+    public static final int CONST_TYPE = 0;
+    public static final int VAR_TYPE = 1;
+    public static final int PRODUCT_TYPE = 2;
+    public static final int COMPOSITE_TYPE = 3;
+    
+    /**
+     * Gets the kind of the (outermost) type, one of the constants above,
+     * so that code can switch on it rather than test instanceof against
+     * each subclass in turn.
+     */
+    public abstract int getKind();
+    
+    /**
+     * Returns whether this is an AtomicType, i.e. a ConstType or a VarType.
+     */
+    public final boolean isAtomic() {
+        return getKind() <= VAR_TYPE;
+    }
 
     /**
      * Tests two types for equality (as you would expect).
@@ -88,6 +112,13 @@ public abstract class Type implements Comparable {
      * Implemented by subclasses to test for equality between types.
      */
     protected abstract boolean equals(Type t);
+    
+    /**
+     * Tests whether two types are written identically. Unlike equals,
+     * a type variable is identical only to a type variable with the same
+     * symbol.
+     */
+    public abstract boolean isIdenticalTo(Type t);
 
     /**
      * Compares two types.  The natural ordering of types is as follows:
@@ -96,40 +127,33 @@ public abstract class Type implements Comparable {
      *   Finally composite types, ordered first according to domain, then range.
      */
     public int compareTo(Object other) {
-        if (this instanceof AtomicType) {
-            if (other instanceof AtomicType) {
+        Type t = (Type)other;
+        int rank = isAtomic() ? VAR_TYPE : getKind();
+        int otherRank = t.isAtomic() ? VAR_TYPE : t.getKind();
+        if (rank != otherRank)
+            return rank < otherRank ? -1 : 1;
+        
+        switch (rank) {
+            case VAR_TYPE: {
                 char x = ((AtomicType)this).getSymbol();
-                char y = ((AtomicType)other).getSymbol();
+                char y = ((AtomicType)t).getSymbol();
                 if (x < y) return -1;
                 if (x > y) return 1;
                 return 0;
             }
-            return -1;
-        } else if (this instanceof ProductType) {
-            if (other instanceof AtomicType)
-                return 1;
-            if (other instanceof ProductType) {
+            case PRODUCT_TYPE: {
                 int a = ((ProductType)this).getArity();
-                int b = ((ProductType)other).getArity();
+                int b = ((ProductType)t).getArity();
                 if (a < b) return -1;
                 if (a > b) return 1;
                 return 0;
             }
-            return -1;
-            
-        } else if (this instanceof CompositeType) {
-            if (other instanceof AtomicType || other instanceof ProductType)
-                return 1;
-            Type al = ((CompositeType)this).getLeft();
-            Type ar = ((CompositeType)this).getRight();
-            Type bl = ((CompositeType)other).getLeft();
-            Type br = ((CompositeType)other).getRight();
-            
-            int c = al.compareTo(bl);
-            if (c != 0) return c;
-            return ar.compareTo(br);
+            default: {
+                int c = ((CompositeType)this).getLeft().compareTo(((CompositeType)t).getLeft());
+                if (c != 0) return c;
+                return ((CompositeType)this).getRight().compareTo(((CompositeType)t).getRight());
+            }
         }
-        throw new RuntimeException(); // unreachable
     }
     
     /**
@@ -147,22 +171,105 @@ public abstract class Type implements Comparable {
     public abstract String toLatexString();
     
     /**
-     * Writes a serialization of the type to a DataOutputStream.
-     * In implementations of this method in subclasses, the first thing written
-     * must be the name of the class as a string (i.e. "AtomicType").
+     * Writes a serialization of the type to a DataOutputStream. If the
+     * stream is an ExprOutputStream, the type is written in the compact
+     * format, as a reference to the same type if it has been written to the
+     * stream before.
+     */
+    public final void writeToStream(java.io.DataOutputStream output) throws java.io.IOException {
+        if (!(output instanceof ExprOutputStream)) {
+            writeNodeToStream(output);
+            return;
+        }
+        ExprOutputStream compact = (ExprOutputStream)output;
+        if (compact.writeTypeReference(this))
+            return;
+        writeNodeToStream(output);
+        compact.addType(this);
+    }
+    
+    /**
+     * Implemented by subclasses to do the work of writeToStream. The first
+     * thing written must be the header, with writeNodeHeader.
+     */
+    protected abstract void writeNodeToStream(java.io.DataOutputStream output) throws java.io.IOException;
+    
+    /**
+     * Writes the header of a type: the name of its class as a string
+     * (i.e. "ConstType") and the data format version, or in the compact
+     * format just the kind of the type as a byte.
      */
-    public abstract void writeToStream(java.io.DataOutputStream output) throws java.io.IOException;
+    protected final void writeNodeHeader(java.io.DataOutputStream output, String className) throws java.io.IOException {
+        if (output instanceof ExprOutputStream) {
+            output.writeByte(getKind());
+        } else {
+            output.writeUTF(className);
+            output.writeShort(0); // data format version
+        }
+    }
+    
+    /**
+     * Reads the data format version that writeNodeHeader writes after the
+     * class name, which the compact format leaves out.
+     */
+    static void readNodeVersion(java.io.DataInputStream input) throws java.io.IOException {
+        if (input instanceof ExprInputStream) return;
+        if (input.readShort() != 0) throw new java.io.IOException("Invalid data."); // future version?
+    }
+    
+    /**
+     * Writes the number of subtypes of a type, as a varint in the compact
+     * format.
+     */
+    static void writeCount(java.io.DataOutputStream output, int count) throws java.io.IOException {
+        if (output instanceof ExprOutputStream)
+            ((ExprOutputStream)output).writeVarInt(count);
+        else
+            output.writeInt(count);
+    }
+    
+    static int readCount(java.io.DataInputStream input) throws java.io.IOException {
+        if (input instanceof ExprInputStream)
+            return ((ExprInputStream)input).readVarInt();
+        return input.readInt();
+    }
    
     /**
      * Reads a serialization of the types from a DataInputStream.
      */
     public static Type readFromStream(java.io.DataInputStream input) throws java.io.IOException {
+        if (input instanceof ExprInputStream) {
+            ExprInputStream compact = (ExprInputStream)input;
+            Type type = compact.readTypeReference();
+            if (type == null) {
+                type = readNodeFromStream(input.readUnsignedByte(), input);
+                compact.addType(type);
+            }
+            return type;
+        }
+        
         String exprType = input.readUTF();
         
-        if (exprType.equals("ConstType")) return new ConstType(input);
-        if (exprType.equals("VarType")) return new VarType(input);
-        if (exprType.equals("CompositeType")) return new CompositeType(input);
-        if (exprType.equals("ProductType")) return new ProductType(input);
+        switch (exprType) {
+            case "ConstType": return new ConstType(input);
+            case "VarType": return new VarType(input);
+            case "CompositeType": return new CompositeType(input);
+            case "ProductType": return new ProductType(input);
+        }
+        
+        throw new java.io.IOException("Invalid data.");
+    }
+    
+    /**
+     * Reads a type in the compact format, given its kind.
+     */
+    private static Type readNodeFromStream(int kind, java.io.DataInputStream input) throws java.io.IOException {
+        switch (kind) {
+            case CONST_TYPE: return new ConstType(input);
+            case VAR_TYPE: return new VarType(input);
+            case PRODUCT_TYPE: return new ProductType(input);
+            case COMPOSITE_TYPE: return new CompositeType(input);
+        }
         
         throw new java.io.IOException("Invalid data.");
     }
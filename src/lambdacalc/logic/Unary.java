@@ -28,6 +28,7 @@
 package lambdacalc.logic;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -56,21 +57,8 @@ public abstract class Unary extends Expr {
      */
     protected abstract Unary create(Expr innerExpr);
     
-    protected boolean equals(Expr e, boolean useMaps, Map thisMap, Map otherMap, boolean collapseAllVars, java.util.Map freeVarMap) {
-        
-        // ignore parentheses for equality test
-        e = e.stripOutermostParens();
-
-        if (e instanceof Unary) {
-            return this.equals((Unary) e, useMaps, thisMap, otherMap, collapseAllVars, freeVarMap);
-        } else {
-            return false;
-        }
-    }
-    
-    private boolean equals(Unary u, boolean useMaps, Map thisMap, Map otherMap, boolean collapseAllVars, Map freeVarMap) {
-        return this.getClass() == u.getClass() 
-            && this.getInnerExpr().equals(u.getInnerExpr(), useMaps, thisMap, otherMap, collapseAllVars, freeVarMap);
+    protected boolean equalsNode(Expr e, boolean useMaps, BoundVarMap boundVars, boolean collapseAllVars, java.util.Map freeVarMap) {
+        return this.getClass() == e.getClass();
     }
     
     public Expr getInnerExpr() {
@@ -78,20 +66,20 @@ public abstract class Unary extends Expr {
     }
 
     protected Set getVars(boolean unboundOnly) {
-        return getInnerExpr().getVars(unboundOnly);
+        return new HashSet(getInnerExpr().getVarSet(unboundOnly));
     }
 
-    protected Expr performLambdaConversion1(Set accidentalBinders) throws TypeEvaluationException {
+    protected Expr computeLambdaConversion1(Set accidentalBinders, ExprTransformation conversion) throws TypeEvaluationException {
         // Looking for a lambda...
-        Expr inner = getInnerExpr().performLambdaConversion1(accidentalBinders);
-        if (inner == null) // nothing happened
-            return null;
-        return create(inner);
+        conversion.convert(0, getInnerExpr());
+        return this;
     }
 
-    protected Expr performLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders) throws TypeEvaluationException {
+    protected Expr computeLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders, ExprTransformation substitution) throws TypeEvaluationException {
+        if (!getFreeVarSymbols().get(var.getSymbolId())) return this; // var does not occur free in here
         // In the scope of a lambda...
-        return create(getInnerExpr().performLambdaConversion2(var, replacement, binders, accidentalBinders));
+        substitution.substitute(0, getInnerExpr());
+        return this;
     }
     
     /**
@@ -104,38 +92,33 @@ public abstract class Unary extends Expr {
         return result;
     }
     
-    /**
-     * Creates a new unary expression using the subexpression given.
-     *
-     * @param subExpressions the list containing the subexpression
-     * @throws IllegalArgumentException if the list does not contain exactly one
-     * subexpression
-     * @return a new expression of the same runtime type as this
-     */
-    public Expr createFromSubExpressions(List subExpression)
-     throws IllegalArgumentException {
-        if (subExpression.size() != 1) 
-            throw new IllegalArgumentException("List does not contain exactly one argument");
-        return create((Expr) subExpression.get(0));
+    public int arity() {
+        return 1;
     }
-
-    protected Expr createAlphabeticalVariant(Set bindersToChange, Set variablesInUse, Map updates) {
-        return create(getInnerExpr().createAlphabeticalVariant(bindersToChange, variablesInUse, updates));
+    
+    public Expr child(int index) {
+        if (index != 0)
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        return getInnerExpr();
     }
     
-    public Expr createAlphatypicalVariant(HashMap<Type,Type> alignments, Set variablesInUse, Map updates) {
-        return create(getInnerExpr().createAlphatypicalVariant(alignments, variablesInUse, updates));
+    protected Expr createWithChild(int index, Expr child) {
+        if (child(index) == child)
+            return this;
+        return create(child);
     }
 
-    public void writeToStream(java.io.DataOutputStream output) throws java.io.IOException {
-        output.writeUTF(getClass().getName());
-        output.writeShort(0); // data format version
-        innerExpr.writeToStream(output);
+    protected Expr computeAlphabeticalVariant(Set bindersToChange, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
+        variant.vary(0, getInnerExpr(), variablesInUse, updates);
+        return this;
     }
     
-    Unary(java.io.DataInputStream input) throws java.io.IOException {
-        // the class name has already been read
-        if (input.readShort() != 0) throw new java.io.IOException("Invalid data."); // future version?
-        innerExpr = Expr.readFromStream(input);
+    protected Expr computeAlphatypicalVariant(HashMap<Type,Type> alignments, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
+        variant.vary(0, getInnerExpr(), variablesInUse, updates);
+        return this;
+    }
+
+    protected void writeNodeToStream(java.io.DataOutputStream output) throws java.io.IOException {
+        writeNodeHeader(output, 0);
     }
 }
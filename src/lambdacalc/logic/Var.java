@@ -50,31 +50,35 @@ public class Var extends Identifier {
     public Var(String repr, Type type, boolean isTypeExplicit) {
         super(repr, type, isTypeExplicit);
     }
+    
+    public int getKind() {
+        return ExprKind.VAR;
+    }
     public Var(String repr, Type type, boolean isTypeExplicit, boolean starred) {
         super(repr, type, isTypeExplicit, starred);
     }
 
     protected Set getVars(boolean unboundOnly) {
         HashSet ret = new HashSet();
-        ret.add(this);
+        ret.add(stripOutermostParens());
         return ret;
     }
 
-    protected boolean equals(Identifier i, boolean useMaps, Map thisMap, Map otherMap, Map freeVarMap) {
+    protected boolean equals(Identifier i, boolean useMaps, BoundVarMap boundVars, Map freeVarMap) {
         // we use the map here...
         if (i instanceof Var) {
             if (!this.getType().equals(i.getType())) {
                 return false;
             } // else...
             
-            Object thisside = (thisMap == null) ? null : thisMap.get(this);
-            Object otherside = (otherMap == null) ? null : otherMap.get(i);
+            int thisside = (boundVars == null) ? -1 : boundVars.lookupThis(this);
+            int otherside = (boundVars == null) ? -1 : boundVars.lookupOther((Var)i);
                     
-            if (thisside == null && otherside == null) {
+            if (thisside == -1 && otherside == -1) {
                 if (freeVarMap == null) {
                     // This variable is free on both sides. If we are not allowing for free variable
                     // renaming, then just check that the symbols are the same.
-                    return getSymbol().equals(i.getSymbol());
+                    return getSymbolId() == i.getSymbolId();
                 } else {
                     // We are allowing for the consistent renaming of free variables. See if we
                     // already have a renaming in place for this variable.
@@ -98,45 +102,52 @@ public class Var extends Identifier {
             }
             
             // one side is bound but the other is not
-            if (thisside == null || otherside == null)
+            if (thisside == -1 || otherside == -1)
                 return false;
             
-            // are they bound by the same binder, i.e. do they
-            // map to the same fresh variable
+            // are they bound by the same binder, i.e. at the same depth
             return thisside == otherside;
                 
          } else // i is not Var
             return false;
     }
         
-    protected Expr performLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders) throws TypeEvaluationException {
+    protected int computeAlphaFingerprint(BoundVarMap boundVars) {
+        if (boundVars == null)
+            return 31 * (ExprKind.VAR + 1); // any variable
+        int depth = boundVars.lookupThis(this);
+        if (depth != -1)
+            return 31 * (ExprKind.VAR + 1) + depth + 1; // the binder, not the name
+        return super.computeAlphaFingerprint(boundVars);
+    }
+    
+    protected Expr computeLambdaConversion2(Var var, Expr replacement, Set binders, Set accidentalBinders, ExprTransformation substitution) throws TypeEvaluationException {
         // We're doing substitutions in a lambda conversion. If this is the variable
         // we're doing substitutions on, we have to think carefully.
         if (!this.equals(var))
             return this;
         
-        Set freevars = replacement.getFreeVars();
-        
         // In any case, we'll just return our replacement. However, we must check
         // if any free variables in the replacement would be accidentally bound
-        // by any of the binders that scope over this variable. We'll do this
-        // inefficiently because expressions ought to be fairly small.
-        for (Iterator bi = binders.iterator(); bi.hasNext(); ) {
-            VariableBindingExpr b = (VariableBindingExpr)bi.next();
-            if (b.bindsAny(freevars))
-                accidentalBinders.add(b);
+        // by any of the binders that scope over this variable.
+        if (!replacement.getFreeVars().isEmpty()) {
+            for (Iterator bi = binders.iterator(); bi.hasNext(); ) {
+                VariableBindingExpr b = (VariableBindingExpr)bi.next();
+                if (b.bindsAnyFreeVarOf(replacement))
+                    accidentalBinders.add(b);
+            }
         }
         
         return replacement;
     }
     
-    protected Expr createAlphabeticalVariant(Set bindersToChange, Set variablesInUse, Map updates) {
+    protected Expr computeAlphabeticalVariant(Set bindersToChange, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
         if (updates.containsKey(this))
             return (Expr)updates.get(this);
         return this;
     }
     
-    public Expr createAlphatypicalVariant(HashMap<Type,Type> alignments, Set variablesInUse, Map updates) {
+    protected Expr computeAlphatypicalVariant(HashMap<Type,Type> alignments, FreshVarGenerator variablesInUse, Map updates, ExprTransformation variant) {
         if (updates.containsKey(this)) {
             return (Expr)updates.get(this);
         }
@@ -40,6 +40,10 @@ public class VarType extends AtomicType {
     public VarType(char symbol) {
         this.symbol=symbol;
     }
+    
+    public int getKind() {
+        return VAR_TYPE;
+    }
         
     public char getSymbol() {
         return this.symbol;
@@ -76,15 +80,14 @@ public class VarType extends AtomicType {
         return String.valueOf(symbol).hashCode(); // better way of doing this?
     }
     
-    public void writeToStream(java.io.DataOutputStream output) throws java.io.IOException {
-        output.writeUTF("VarType");
-        output.writeShort(0); // data format version
+    protected void writeNodeToStream(java.io.DataOutputStream output) throws java.io.IOException {
+        writeNodeHeader(output, "VarType");
         output.writeChar(symbol);
     }
     
     VarType(java.io.DataInputStream input) throws java.io.IOException {
         // the class string has already been read
-        if (input.readShort() != 0) throw new java.io.IOException("Invalid data."); // future version?
+        readNodeVersion(input);
         symbol = input.readChar();
     }
     
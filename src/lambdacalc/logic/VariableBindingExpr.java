@@ -42,4 +42,12 @@ public interface VariableBindingExpr {
      */
     boolean bindsAny(Set vars);
     
+    /**
+     * Returns whether any free variables of expr are bound by this binder.
+     * This is the same as bindsAny(expr.getFreeVars()), but implementations
+     * first compare the cached symbol bit sets of the variables, which
+     * usually settles the question.
+     */
+    boolean bindsAnyFreeVarOf(Expr expr);
+    
 }